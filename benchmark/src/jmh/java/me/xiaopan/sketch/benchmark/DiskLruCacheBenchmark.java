@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.sketch.util.DiskLruCache;
+import me.xiaopan.sketch.util.SketchMD5Utils;
+
+/**
+ * DiskLruCache在临时目录上的打开（重放journal）、读取、编辑提交
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiskLruCacheBenchmark {
+    private static final int ENTRY_COUNT = 256;
+    private static final int ENTRY_SIZE = 4 * 1024;
+    private static final long MAX_SIZE = 64 * 1024 * 1024;
+
+    private File directory;
+    private DiskLruCache cache;
+    private String[] keys;
+    private byte[] value;
+    private byte[] readBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = createTempDirectory("disk-lru-cache");
+        value = new byte[ENTRY_SIZE];
+        readBuffer = new byte[ENTRY_SIZE];
+        keys = new String[ENTRY_COUNT];
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            keys[i] = SketchMD5Utils.md5("http://img.example.com/image/" + i + ".jpg");
+        }
+
+        cache = DiskLruCache.open(directory, 1, 1, MAX_SIZE);
+        for (String key : keys) {
+            write(cache, key, value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        cache.delete();
+    }
+
+    /**
+     * 重新打开一个已经有{@link #ENTRY_COUNT}条记录的缓存，主要是读journal的耗时
+     */
+    @Benchmark
+    public DiskLruCache openClose(OpenState state) throws Exception {
+        DiskLruCache openedCache = DiskLruCache.open(state.directory, 1, 1, MAX_SIZE);
+        openedCache.close();
+        return openedCache;
+    }
+
+    @Benchmark
+    public int get(KeyIndex index) throws Exception {
+        DiskLruCache.Snapshot snapshot = cache.get(keys[index.next(ENTRY_COUNT)]);
+        if (snapshot == null) {
+            return -1;
+        }
+        try {
+            InputStream inputStream = snapshot.getInputStream(0);
+            int total = 0;
+            int readCount;
+            while ((readCount = inputStream.read(readBuffer)) != -1) {
+                total += readCount;
+            }
+            return total;
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    @Benchmark
+    public boolean editCommit(KeyIndex index) throws Exception {
+        return write(cache, keys[index.next(ENTRY_COUNT)], value);
+    }
+
+    private static boolean write(DiskLruCache cache, String key, byte[] value) throws Exception {
+        DiskLruCache.Editor editor = cache.edit(key);
+        if (editor == null) {
+            return false;
+        }
+        OutputStream outputStream = editor.newOutputStream(0);
+        try {
+            outputStream.write(value);
+        } finally {
+            outputStream.close();
+        }
+        editor.commit();
+        return true;
+    }
+
+    static File createTempDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "");
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("Unable create temp directory " + directory);
+        }
+        return directory;
+    }
+
+    /**
+     * 给openClose单独准备一个目录，不跟其它测试共用同一个已经打开的缓存
+     */
+    @State(Scope.Benchmark)
+    public static class OpenState {
+        private File directory;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            directory = createTempDirectory("disk-lru-cache-open");
+            DiskLruCache cache = DiskLruCache.open(directory, 1, 1, MAX_SIZE);
+            byte[] value = new byte[ENTRY_SIZE];
+            for (int i = 0; i < ENTRY_COUNT; i++) {
+                write(cache, SketchMD5Utils.md5("http://img.example.com/open/" + i + ".jpg"), value);
+            }
+            cache.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            DiskLruCache.open(directory, 1, 1, MAX_SIZE).delete();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.sketch.request.FreeRideManager;
+
+/**
+ * FreeRideManager一次完整的顺风车流程：车主注册、一个请求搭车、车主下车并回调搭车的请求
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FreeRideManagerBenchmark {
+    private static final int KEY_COUNT = 64;
+
+    private FreeRideManager freeRideManager;
+    private String[] keys;
+
+    @Setup
+    public void setup() {
+        freeRideManager = new FreeRideManager();
+        keys = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = "http://img.example.com/image/" + i + ".jpg";
+        }
+    }
+
+    @Benchmark
+    public boolean registerByUnregister(KeyIndex index) {
+        return run(keys[index.next(KEY_COUNT)]);
+    }
+
+    /**
+     * 多个线程同时在少量KEY上注册、搭车、下车
+     */
+    @Benchmark
+    @Threads(4)
+    public boolean contendedRegisterByUnregister(KeyIndex index) {
+        return run(keys[index.next(8)]);
+    }
+
+    private boolean run(String key) {
+        TestFreeRide provider = new TestFreeRide(key);
+        TestFreeRide child = new TestFreeRide(key);
+        freeRideManager.registerDownloadFreeRideProvider(provider);
+        boolean by = freeRideManager.byDownloadFreeRide(child);
+        freeRideManager.unregisterDownloadFreeRideProvider(provider);
+        return by;
+    }
+
+    private static class TestFreeRide implements FreeRideManager.DownloadFreeRide {
+        private String key;
+        private Set<FreeRideManager.DownloadFreeRide> freeRideSet;
+
+        TestFreeRide(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public String getDownloadFreeRideKey() {
+            return key;
+        }
+
+        @Override
+        public String getDownloadFreeRideLog() {
+            return key;
+        }
+
+        @Override
+        public boolean canByDownloadFreeRide() {
+            return true;
+        }
+
+        @Override
+        public synchronized void byDownloadFreeRide(FreeRideManager.DownloadFreeRide request) {
+            if (freeRideSet == null) {
+                freeRideSet = new HashSet<FreeRideManager.DownloadFreeRide>();
+            }
+            freeRideSet.add(request);
+        }
+
+        @Override
+        public synchronized Set<FreeRideManager.DownloadFreeRide> getDownloadFreeRideSet() {
+            return freeRideSet;
+        }
+
+        @Override
+        public boolean processDownloadFreeRide() {
+            return true;
+        }
+    }
+}
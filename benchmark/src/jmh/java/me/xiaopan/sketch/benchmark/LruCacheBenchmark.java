@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.sketch.util.LruCache;
+
+/**
+ * LruCache的get、put，所有方法都是synchronized的，所以重点看多线程竞争时的吞吐量
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LruCacheBenchmark {
+    private static final int KEY_COUNT = 1024;
+
+    @Param({"256"})
+    public int maxSize;
+
+    private LruCache<String, String> cache;
+    private String[] keys;
+
+    @Setup
+    public void setup() {
+        cache = new LruCache<String, String>(maxSize);
+        keys = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = "http://img.example.com/image/" + i + ".jpg";
+        }
+        for (int i = 0; i < maxSize; i++) {
+            cache.put(keys[i], keys[i]);
+        }
+    }
+
+    @Benchmark
+    public String get(KeyIndex index) {
+        return cache.get(keys[index.next(maxSize)]);
+    }
+
+    @Benchmark
+    public String put(KeyIndex index) {
+        String key = keys[index.next(KEY_COUNT)];
+        return cache.put(key, key);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public String contendedGet(KeyIndex index) {
+        return cache.get(keys[index.next(KEY_COUNT)]);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public String contendedPut(KeyIndex index) {
+        String key = keys[index.next(KEY_COUNT)];
+        return cache.put(key, key);
+    }
+}
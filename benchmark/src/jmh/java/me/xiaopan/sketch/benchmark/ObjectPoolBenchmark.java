@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.sketch.util.ObjectPool;
+
+/**
+ * ObjectPool的get、put，单线程和多线程竞争两种情况
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ObjectPoolBenchmark {
+    private ObjectPool<StringBuilder> pool;
+
+    @Setup
+    public void setup() {
+        pool = new ObjectPool<StringBuilder>(StringBuilder.class, 10);
+    }
+
+    @Benchmark
+    public StringBuilder getPut() {
+        StringBuilder builder = pool.get();
+        pool.put(builder);
+        return builder;
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public StringBuilder contendedGetPut() {
+        StringBuilder builder = pool.get();
+        pool.put(builder);
+        return builder;
+    }
+}
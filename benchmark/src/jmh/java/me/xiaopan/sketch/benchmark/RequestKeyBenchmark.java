@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.benchmark;
+
+import android.graphics.Bitmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.sketch.request.LoadOptions;
+import me.xiaopan.sketch.request.UriScheme;
+import me.xiaopan.sketch.util.SketchUtils;
+
+/**
+ * 请求KEY的生成，每个display请求都要生成一次，列表快速滑动时非常频繁
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestKeyBenchmark {
+    private String netUri;
+    private String base64Uri;
+    private LoadOptions emptyOptions;
+    private LoadOptions fullOptions;
+
+    @Setup
+    public void setup() {
+        netUri = "http://img.example.com/gallery/2017/04/15/b2c6f0a8e1d94c7f9e3a.jpg";
+
+        StringBuilder builder = new StringBuilder("data:image/png;base64,");
+        for (int i = 0; i < 64; i++) {
+            builder.append("iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNkYPhfDwAChwGA");
+        }
+        base64Uri = builder.toString();
+
+        emptyOptions = new LoadOptions();
+        fullOptions = new LoadOptions()
+                .setMaxSize(1080, 1920)
+                .setResize(300, 300)
+                .setLowQualityImage(true)
+                .setBitmapConfig(Bitmap.Config.RGB_565)
+                .setDecodeGifImage(true)
+                .setThumbnailMode(true);
+    }
+
+    @Benchmark
+    public String makeRequestKeyEmptyOptions() {
+        return SketchUtils.makeRequestKey(netUri, UriScheme.NET, emptyOptions);
+    }
+
+    @Benchmark
+    public String makeRequestKeyFullOptions() {
+        return SketchUtils.makeRequestKey(netUri, UriScheme.NET, fullOptions);
+    }
+
+    /**
+     * base64图片的KEY要先算一次MD5
+     */
+    @Benchmark
+    public String makeRequestKeyBase64() {
+        return SketchUtils.makeRequestKey(base64Uri, UriScheme.BASE64, fullOptions);
+    }
+
+    @Benchmark
+    public StringBuilder loadOptionsMakeKey() {
+        return fullOptions.makeKey(new StringBuilder());
+    }
+}
@@ -57,6 +57,12 @@ public class GifDrawable extends Drawable implements Animatable, MediaPlayerCont
 
 	volatile boolean mIsRunning = true;
 	long mNextFrameRenderTime = Long.MIN_VALUE;
+	/**
+	 * Time at which scheduled render task should run, used to detect frames rendered too late
+	 */
+	volatile long mRenderDeadline = Long.MIN_VALUE;
+	volatile int mRenderedFrameCount;
+	volatile int mDroppedFrameCount;
 
 	private final Rect mDstRect = new Rect();
 	/**
@@ -208,6 +214,32 @@ public class GifDrawable extends Drawable implements Animatable, MediaPlayerCont
 		this(GifInfoHandle.openUri(resolver, uri), null, null, true);
 	}
 
+	/**
+	 * Creates drawable from {@link InputSource} using given {@link GifOptions}, e.g. to subsample frames
+	 * with {@link GifOptions#setInSampleSize(int)}. Size of the drawable is the size after subsampling.
+	 *
+	 * @param inputSource source
+	 * @param options     options controlling decoding, if null default ones are used
+	 * @throws IOException when opening failed
+	 */
+	protected GifDrawable(@NonNull InputSource inputSource, @Nullable GifOptions options) throws IOException {
+		this(inputSource, options, null);
+	}
+
+	/**
+	 * Like {@link #GifDrawable(InputSource, GifOptions)} but rendering tasks are run on given executor
+	 * instead of the default single threaded one. Executor can be shared between many drawables.
+	 *
+	 * @param inputSource source
+	 * @param options     options controlling decoding, if null default ones are used
+	 * @param executor    executor for rendering tasks, if null default one is used
+	 * @throws IOException when opening failed
+	 */
+	protected GifDrawable(@NonNull InputSource inputSource, @Nullable GifOptions options,
+	                      @Nullable ScheduledThreadPoolExecutor executor) throws IOException {
+		this(inputSource.createHandleWith(options != null ? options : new GifOptions()), null, executor, true);
+	}
+
 	GifDrawable(GifInfoHandle gifInfoHandle, final GifDrawable oldDrawable, ScheduledThreadPoolExecutor executor, boolean isRenderingTriggeredOnDraw) {
 		mIsRenderingTriggeredOnDraw = isRenderingTriggeredOnDraw;
 		mExecutor = executor != null ? executor : GifRenderingExecutor.getInstance();
@@ -331,10 +363,15 @@ public class GifDrawable extends Drawable implements Animatable, MediaPlayerCont
 			mInvalidationHandler.sendEmptyMessageAtTime(MSG_TYPE_INVALIDATION, 0);
 		} else {
 			cancelPendingRenderTask();
-			mRenderTaskSchedule = mExecutor.schedule(mRenderTask, Math.max(lastFrameRemainder, 0), TimeUnit.MILLISECONDS);
+			scheduleRenderTask(Math.max(lastFrameRemainder, 0));
 		}
 	}
 
+	void scheduleRenderTask(long delay) {
+		mRenderDeadline = SystemClock.uptimeMillis() + delay;
+		mRenderTaskSchedule = mExecutor.schedule(mRenderTask, delay, TimeUnit.MILLISECONDS);
+	}
+
 	/**
 	 * Causes the animation to start over.
 	 * If rewinding input source fails then state is not affected.
@@ -763,7 +800,7 @@ public class GifDrawable extends Drawable implements Animatable, MediaPlayerCont
 			final long renderDelay = Math.max(0, mNextFrameRenderTime - SystemClock.uptimeMillis());
 			mNextFrameRenderTime = Long.MIN_VALUE;
 			mExecutor.remove(mRenderTask);
-			mRenderTaskSchedule = mExecutor.schedule(mRenderTask, renderDelay, TimeUnit.MILLISECONDS);
+			scheduleRenderTask(renderDelay);
 		}
 	}
 
@@ -910,6 +947,25 @@ public class GifDrawable extends Drawable implements Animatable, MediaPlayerCont
 		return mNativeInfoHandle.getCurrentFrameIndex();
 	}
 
+	/**
+	 * Returns number of frames rendered since this drawable was created.
+	 *
+	 * @return number of rendered frames
+	 */
+	public int getRenderedFrameCount() {
+		return mRenderedFrameCount;
+	}
+
+	/**
+	 * Returns number of frames which were rendered more than 16 milliseconds (one vsync) after their
+	 * scheduled time, e.g. because rendering executor was busy. Such frames are displayed too late or not at all.
+	 *
+	 * @return number of dropped frames
+	 */
+	public int getDroppedFrameCount() {
+		return mDroppedFrameCount;
+	}
+
 	/**
 	 * Returns zero-based index of currently played animation loop. If animation is infinite or
 	 * drawable is recycled 0 is returned.
@@ -28,9 +28,13 @@ public abstract class InputSource {
 
 	final GifDrawable build(final GifDrawable oldDrawable, final ScheduledThreadPoolExecutor executor,
 	                        final boolean isRenderingAlwaysEnabled, final GifOptions options) throws IOException {
+		return new GifDrawable(createHandleWith(options), oldDrawable, executor, isRenderingAlwaysEnabled);
+	}
+
+	final GifInfoHandle createHandleWith(@NonNull GifOptions options) throws IOException {
 		final GifInfoHandle handle = open();
 		handle.setOptions(options.inSampleSize, options.inIsOpaque);
-		return new GifDrawable(handle, oldDrawable, executor, isRenderingAlwaysEnabled);
+		return handle;
 	}
 
 	/**
@@ -2,8 +2,6 @@ package pl.droidsonroids.gif;
 
 import android.os.SystemClock;
 
-import java.util.concurrent.TimeUnit;
-
 import static pl.droidsonroids.gif.InvalidationHandler.MSG_TYPE_INVALIDATION;
 
 class RenderTask extends SafeRunnable {
@@ -12,14 +10,28 @@ class RenderTask extends SafeRunnable {
 		super(gifDrawable);
 	}
 
+	/**
+	 * Frames rendered more than one vsync after their deadline are counted as dropped
+	 */
+	static final long FRAME_DROP_THRESHOLD = 16;
+
 	@Override
 	public void doWork() {
+		final long renderDeadline = mGifDrawable.mRenderDeadline;
+		if (renderDeadline != Long.MIN_VALUE) {
+			mGifDrawable.mRenderDeadline = Long.MIN_VALUE;
+			if (SystemClock.uptimeMillis() - renderDeadline > FRAME_DROP_THRESHOLD) {
+				mGifDrawable.mDroppedFrameCount++;
+			}
+		}
+		mGifDrawable.mRenderedFrameCount++;
+
 		final long invalidationDelay = mGifDrawable.mNativeInfoHandle.renderFrame(mGifDrawable.mBuffer);
 		if (invalidationDelay >= 0) {
 			mGifDrawable.mNextFrameRenderTime = SystemClock.uptimeMillis() + invalidationDelay;
 			if (mGifDrawable.isVisible() && mGifDrawable.mIsRunning && !mGifDrawable.mIsRenderingTriggeredOnDraw) {
 				mGifDrawable.mExecutor.remove(this);
-				mGifDrawable.mRenderTaskSchedule = mGifDrawable.mExecutor.schedule(this, invalidationDelay, TimeUnit.MILLISECONDS);
+				mGifDrawable.scheduleRenderTask(invalidationDelay);
 			}
 			if (!mGifDrawable.mListeners.isEmpty() && mGifDrawable.getCurrentFrameIndex() == mGifDrawable.mNativeInfoHandle.getNumberOfFrames() - 1) {
 				mGifDrawable.mInvalidationHandler.sendEmptyMessageAtTime(mGifDrawable.getCurrentLoop(), mGifDrawable.mNextFrameRenderTime);
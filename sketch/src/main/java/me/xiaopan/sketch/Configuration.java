@@ -26,6 +26,7 @@ import me.xiaopan.sketch.cache.DiskCache;
 import me.xiaopan.sketch.cache.LruBitmapPool;
 import me.xiaopan.sketch.cache.LruDiskCache;
 import me.xiaopan.sketch.cache.LruMemoryCache;
+import me.xiaopan.sketch.cache.MemoryBudgetController;
 import me.xiaopan.sketch.cache.MemoryCache;
 import me.xiaopan.sketch.cache.MemorySizeCalculator;
 import me.xiaopan.sketch.decode.ImageDecoder;
@@ -46,6 +47,8 @@ import me.xiaopan.sketch.request.HelperFactory;
 import me.xiaopan.sketch.request.MobileNetworkGlobalPauseDownloadController;
 import me.xiaopan.sketch.request.RequestExecutor;
 import me.xiaopan.sketch.request.RequestFactory;
+import me.xiaopan.sketch.viewfun.large.RegionDecoderCache;
+import me.xiaopan.sketch.viewfun.large.TileCache;
 
 /**
  * Sketch唯一配置类
@@ -59,6 +62,9 @@ public final class Configuration {
     private BitmapPool bitmapPool;
     private MemoryCache memoryCache;
     private ProcessedImageCache processedImageCache;
+    private MemoryBudgetController memoryBudgetController;
+    private RegionDecoderCache regionDecoderCache;
+    private TileCache tileCache;
 
     private HttpStack httpStack;
     private ImageDecoder imageDecoder;
@@ -94,6 +100,10 @@ public final class Configuration {
         this.diskCache = new LruDiskCache(context, this, 2, DiskCache.DISK_CACHE_MAX_SIZE);
         this.bitmapPool = new LruBitmapPool(context, memorySizeCalculator.getBitmapPoolSize());
         this.memoryCache = new LruMemoryCache(context, memorySizeCalculator.getMemoryCacheSize());
+        this.memoryBudgetController = new MemoryBudgetController(context, this,
+                memorySizeCalculator.getMemoryCacheSize() + memorySizeCalculator.getBitmapPoolSize());
+        this.regionDecoderCache = new RegionDecoderCache();
+        this.tileCache = new TileCache(context, this, memorySizeCalculator.getTileCacheSize());
 
         this.httpStack = new HurlStack();
         this.imageDecoder = new ImageDecoder();
@@ -219,6 +229,33 @@ public final class Configuration {
         return this;
     }
 
+    /**
+     * 获取内存预算控制器，在内存缓存和BitmapPool之间动态分配容量
+     *
+     * @return MemoryBudgetController
+     */
+    public MemoryBudgetController getMemoryBudgetController() {
+        return memoryBudgetController;
+    }
+
+    /**
+     * 获取碎片解码器缓存，缓存已经初始化好的碎片解码器以及图片的尺寸、类型和方向
+     *
+     * @return RegionDecoderCache
+     */
+    public RegionDecoderCache getRegionDecoderCache() {
+        return regionDecoderCache;
+    }
+
+    /**
+     * 获取碎片缓存，所有大图共用，缓存已经滑出解码区域的碎片
+     *
+     * @return TileCache
+     */
+    public TileCache getTileCache() {
+        return tileCache;
+    }
+
     /**
      * 获取再处理图片缓存器
      *
@@ -731,6 +768,9 @@ public final class Configuration {
                 "\n" + "diskCache：" + diskCache.getKey() +
                 "\n" + "bitmapPool：" + bitmapPool.getKey() +
                 "\n" + "memoryCache：" + memoryCache.getKey() +
+                "\n" + "memoryBudgetController：" + memoryBudgetController.getKey() +
+                "\n" + "regionDecoderCache：" + regionDecoderCache.getKey() +
+                "\n" + "tileCache：" + tileCache.getKey() +
                 "\n" + "processedImageCache：" + processedImageCache.getKey() +
 
                 "\n" + "httpStack：" + httpStack.getKey() +
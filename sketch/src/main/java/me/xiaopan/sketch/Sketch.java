@@ -21,6 +21,8 @@ import android.content.Context;
 import android.net.Uri;
 import android.os.Build;
 
+import java.util.List;
+
 import me.xiaopan.sketch.preprocess.InstalledAppIconPreprocessor;
 import me.xiaopan.sketch.request.CancelCause;
 import me.xiaopan.sketch.request.DisplayHelper;
@@ -29,6 +31,8 @@ import me.xiaopan.sketch.request.DownloadHelper;
 import me.xiaopan.sketch.request.DownloadListener;
 import me.xiaopan.sketch.request.LoadHelper;
 import me.xiaopan.sketch.request.LoadListener;
+import me.xiaopan.sketch.request.LoadOptions;
+import me.xiaopan.sketch.request.PreloadHelper;
 import me.xiaopan.sketch.request.UriScheme;
 import me.xiaopan.sketch.util.SketchUtils;
 
@@ -203,6 +207,18 @@ public class Sketch {
         return configuration.getHelperFactory().getLoadHelper(this, uri).listener(listener);
     }
 
+    /**
+     * 批量预加载图片，默认只下载到磁盘缓存，通过PreloadHelper的stage()方法可以设置解码放进内存缓存
+     *
+     * @param uris    图片Uri列表，支持的格式跟{@link #load(String, LoadListener)}一样
+     * @param options 加载选项，预加载到内存缓存时要跟显示时用的选项一样，否则内存缓存的KEY对不上
+     * @return PreloadHelper 你可以继续通过PreloadHelper设置一下参数，最后调用其commit()方法提交即可，
+     * commit()返回的PreloadTask可以用来取消这一批请求
+     */
+    public PreloadHelper preload(List<String> uris, LoadOptions options) {
+        return configuration.getHelperFactory().getPreloadHelper(this, uris, options);
+    }
+
     /**
      * 显示图片
      *
@@ -288,8 +304,11 @@ public class Sketch {
             SLog.w(SLogType.BASE, "Trim of memory, level= %s", SketchUtils.getTrimLevelName(level));
         }
 
+        configuration.getMemoryBudgetController().onTrimMemory(level);
         configuration.getMemoryCache().trimMemory(level);
         configuration.getBitmapPool().trimMemory(level);
+        configuration.getTileCache().trimMemory(level);
+        configuration.getRegionDecoderCache().clear();
     }
 
     /**
@@ -308,7 +327,10 @@ public class Sketch {
             SLog.w(SLogType.BASE, "Memory is very low, clean memory cache and bitmap pool");
         }
 
+        configuration.getMemoryBudgetController().onLowMemory();
         configuration.getMemoryCache().clear();
         configuration.getBitmapPool().clear();
+        configuration.getTileCache().clear();
+        configuration.getRegionDecoderCache().clear();
     }
 }
\ No newline at end of file
@@ -80,6 +80,7 @@ public class SketchImageView extends FunctionPropertyView {
         Sketch.with(getContext())
                 .display(displayCache.uri, this)
                 .options(displayCache.options)
+                .thumbnail(displayCache.thumbnailUri)
                 .commit();
         return true;
     }
@@ -92,9 +93,9 @@ public class SketchImageView extends FunctionPropertyView {
     public String getOptionsKey() {
         DisplayCache displayCache = getDisplayCache();
         if (displayCache != null) {
-            return displayCache.options.makeKey(new StringBuilder()).toString();
+            return displayCache.options.makeKey();
         } else {
-            return getOptions().makeKey(new StringBuilder()).toString();
+            return getOptions().makeKey();
         }
     }
 
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.cache;
+
+/**
+ * 提供命中、未命中以及淘汰次数的缓存，{@link MemoryBudgetController}根据这些数据在内存缓存和BitmapPool之间分配容量。
+ * 都是从创建开始的累计值
+ */
+public interface CacheStats {
+    /**
+     * 获取命中次数
+     */
+    long getHitCount();
+
+    /**
+     * 获取未命中次数
+     */
+    long getMissCount();
+
+    /**
+     * 获取因为容量不够被淘汰的次数
+     */
+    long getEvictionCount();
+}
@@ -0,0 +1,508 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.cache;
+
+import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+import android.text.format.Formatter;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.util.SketchUtils;
+
+/**
+ * 不加锁的Bitmap缓存池，解码线程和分块解码线程不会再因为{@link LruBitmapPool}的synchronized排队
+ * <br>1. 按Bitmap.Config分组，每组再按字节数分成若干个大小级别，每翻一倍分{@link #SUB_CLASS_COUNT}级，
+ * 每个级别是一个ConcurrentLinkedQueue，存取都是CAS操作
+ * <br>2. 取的时候从需要的大小所在的级别开始往上找，最多找到{@link #MAX_SIZE_MULTIPLE}倍大小，
+ * 不会像{@link me.xiaopan.sketch.cache.recycle.SizeConfigStrategy}那样为了一张小图占用一个大8倍的Bitmap
+ * <br>3. 所有Bitmap按放入的顺序再记在一个全局队列里，超出容量时从最早放入的开始淘汰。
+ * 一个Bitmap同时在两个队列里，谁先把它取走（CAS）就归谁，另一个队列里留下的空壳会被定期清理掉
+ * <br>4. 4.4以下不支持reconfigure，只能复用宽、高、配置完全一样的Bitmap
+ * <br>使用方式：Sketch.with(context).getConfiguration().setBitmapPool(new ConcurrentBitmapPool(context, maxSize))
+ */
+public class ConcurrentBitmapPool implements BitmapPool, CacheStats {
+    private static final String LOG_NAME = "ConcurrentBitmapPool";
+    private static final Bitmap.Config DEFAULT_CONFIG = Bitmap.Config.ARGB_8888;
+
+    /**
+     * 复用的Bitmap最多是需要的多少倍
+     */
+    public static final int MAX_SIZE_MULTIPLE = 2;
+
+    /**
+     * 字节数每翻一倍分多少个大小级别，4级时同一级别内大小最多相差25%
+     */
+    private static final int SUB_CLASS_BITS = 2;
+    private static final int SUB_CLASS_COUNT = 1 << SUB_CLASS_BITS;
+    private static final int SIZE_CLASS_COUNT = 31 * SUB_CLASS_COUNT;
+
+    /**
+     * 空壳数量超过这个值时清理一次
+     */
+    private static final int PURGE_THRESHOLD = 64;
+
+    private final AtomicReferenceArray<ConcurrentLinkedQueue<Entry>>[] buckets;
+    private final ConcurrentLinkedQueue<Entry> evictionQueue = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger currentSize = new AtomicInteger();
+    private final AtomicInteger staleCount = new AtomicInteger();
+    private final boolean reconfigurable;
+    private final int initialMaxSize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong reusedBytes = new AtomicLong();
+    private final AtomicLong wastedBytes = new AtomicLong();
+
+    private Context context;
+    private volatile int maxSize;
+    private volatile boolean closed;
+    private volatile boolean disabled;
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentBitmapPool(Context context, int maxSize) {
+        this.context = context.getApplicationContext();
+        this.initialMaxSize = maxSize;
+        this.maxSize = maxSize;
+        this.reconfigurable = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+
+        Bitmap.Config[] configs = Bitmap.Config.values();
+        this.buckets = new AtomicReferenceArray[configs.length];
+        for (int i = 0; i < configs.length; i++) {
+            this.buckets[i] = new AtomicReferenceArray<ConcurrentLinkedQueue<Entry>>(SIZE_CLASS_COUNT);
+        }
+    }
+
+    @Override
+    public boolean put(Bitmap bitmap) {
+        if (closed) {
+            return false;
+        }
+
+        if (disabled) {
+            SLog.fw(SLogType.CACHE, LOG_NAME, "Disabled. Unable put, bitmap=%s,%s",
+                    logBitmap(bitmap), SketchUtils.toHexString(bitmap));
+            return false;
+        }
+
+        if (bitmap == null) {
+            throw new NullPointerException("Bitmap must not be null");
+        }
+
+        Bitmap.Config config = bitmap.getConfig();
+        // 4.4以下config为null的Bitmap没法复用
+        boolean allowedConfig = config != null || reconfigurable;
+        if (bitmap.isRecycled() || !bitmap.isMutable() || SketchUtils.getByteCount(bitmap) > maxSize || !allowedConfig) {
+            SLog.fw(SLogType.CACHE, LOG_NAME, "Reject bitmap from pool, bitmap: %s, is recycled: %s, is mutable: %s, is allowed config: %s, %s",
+                    logBitmap(bitmap), bitmap.isRecycled(), bitmap.isMutable(), allowedConfig, SketchUtils.toHexString(bitmap));
+            return false;
+        }
+
+        Entry entry = new Entry(bitmap, SketchUtils.getByteCount(bitmap), getReuseSize(bitmap));
+        getBucket(config, getSizeClass(entry.reuseSize), true).offer(entry);
+        evictionQueue.offer(entry);
+        currentSize.addAndGet(entry.size);
+        puts.incrementAndGet();
+
+        SLog.fv(SLogType.CACHE, LOG_NAME, "Put bitmap in pool=%s,%s", logBitmap(bitmap), SketchUtils.toHexString(bitmap));
+
+        trimToSize(maxSize, true);
+        return true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    @Override
+    public Bitmap getDirty(int width, int height, Bitmap.Config config) {
+        if (closed) {
+            return null;
+        }
+
+        if (disabled) {
+            SLog.fw(SLogType.CACHE, LOG_NAME, "Disabled. Unable get, bitmap=%s", logBitmap(width, height, config));
+            return null;
+        }
+
+        if (config == null) {
+            config = DEFAULT_CONFIG;
+        }
+
+        int needSize = SketchUtils.computeByteCount(width, height, config);
+        int maxReuseSize = reconfigurable ? (int) Math.min((long) needSize * MAX_SIZE_MULTIPLE, Integer.MAX_VALUE) : needSize;
+        int fromClass = getSizeClass(needSize);
+        int toClass = getSizeClass(maxReuseSize);
+
+        Entry entry = null;
+        Bitmap result = null;
+        for (int sizeClass = fromClass; sizeClass <= toClass && result == null; sizeClass++) {
+            ConcurrentLinkedQueue<Entry> bucket = getBucket(config, sizeClass, false);
+            if (bucket == null) {
+                continue;
+            }
+
+            Iterator<Entry> iterator = bucket.iterator();
+            while (iterator.hasNext()) {
+                Entry candidate = iterator.next();
+                if (candidate.isTaken()) {
+                    iterator.remove();
+                    continue;
+                }
+                if (!candidate.canReuse(width, height, config, needSize, maxReuseSize, reconfigurable)) {
+                    continue;
+                }
+
+                result = candidate.take();
+                if (result != null) {
+                    iterator.remove();
+                    entry = candidate;
+                    break;
+                }
+            }
+        }
+
+        if (result == null) {
+            misses.incrementAndGet();
+            SLog.fw(SLogType.CACHE, LOG_NAME, "Missing bitmap=%s", logBitmap(width, height, config));
+            return null;
+        }
+
+        currentSize.addAndGet(-entry.size);
+        markStale();
+
+        if (reconfigurable) {
+            try {
+                result.reconfigure(width, height, result.getConfig() != null ? result.getConfig() : DEFAULT_CONFIG);
+            } catch (IllegalArgumentException e) {
+                // Bitmap.cpp Bitmap_reconfigure method may throw "IllegalArgumentException: Bitmap not large enough to support new configuration" exception
+                e.printStackTrace();
+                put(result);
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+
+        hits.incrementAndGet();
+        reusedBytes.addAndGet(needSize);
+        wastedBytes.addAndGet(entry.size - needSize);
+        SLog.fi(SLogType.CACHE, LOG_NAME, "Get bitmap=%s,%s", logBitmap(width, height, config), SketchUtils.toHexString(result));
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+            result.setHasAlpha(true);
+        }
+        return result;
+    }
+
+    @Override
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap result = getDirty(width, height, config);
+        if (result != null) {
+            result.eraseColor(Color.TRANSPARENT);
+        }
+        return result;
+    }
+
+    @Override
+    public Bitmap getOrMake(int width, int height, Bitmap.Config config) {
+        Bitmap result = get(width, height, config);
+        if (result == null) {
+            result = Bitmap.createBitmap(width, height, config);
+            if (SLogType.CACHE.isEnabled()) {
+                StackTraceElement[] elements = new Exception().getStackTrace();
+                StackTraceElement element = elements.length > 1 ? elements[1] : elements[0];
+                SLog.i(SLogType.CACHE, String.format("Make bitmap. info:%dx%d,%s,%s - %s.%s:%d",
+                        result.getWidth(), result.getHeight(), result.getConfig(), SketchUtils.toHexString(result),
+                        element.getClassName(), element.getMethodName(), element.getLineNumber()));
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public int getSize() {
+        return currentSize.get();
+    }
+
+    @Override
+    public void setSizeMultiplier(float sizeMultiplier) {
+        if (closed) {
+            return;
+        }
+
+        maxSize = Math.round(initialMaxSize * sizeMultiplier);
+        trimToSize(maxSize, false);
+    }
+
+    @Override
+    public boolean isDisabled() {
+        return disabled;
+    }
+
+    @Override
+    public void setDisabled(boolean disabled) {
+        this.disabled = disabled;
+        if (disabled) {
+            SLog.fw(SLogType.CACHE, LOG_NAME, "setDisabled. %s", true);
+        } else {
+            SLog.fi(SLogType.CACHE, LOG_NAME, "setDisabled. %s", false);
+        }
+    }
+
+    @SuppressLint("InlinedApi")
+    @Override
+    public void trimMemory(int level) {
+        long size = getSize();
+
+        if (level >= android.content.ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            trimToSize(0, false);
+        } else if (level >= android.content.ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            trimToSize(maxSize / 2, false);
+        }
+
+        if (SLogType.CACHE.isEnabled()) {
+            String releasedSize = Formatter.formatFileSize(context, size - getSize());
+            SLog.fw(SLogType.CACHE, LOG_NAME, "trimMemory. level=%s, released: %s",
+                    SketchUtils.getTrimLevelName(level), releasedSize);
+        }
+    }
+
+    @Override
+    public void clear() {
+        if (SLogType.CACHE.isEnabled()) {
+            SLog.fw(SLogType.CACHE, LOG_NAME, "clear. before size %s", Formatter.formatFileSize(context, getSize()));
+        }
+
+        trimToSize(0, false);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        trimToSize(0, false);
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * 获取放入次数
+     */
+    public long getPutCount() {
+        return puts.get();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * 获取复用时累计浪费的字节数，也就是复用的Bitmap比需要的大了多少
+     */
+    public long getWastedBytes() {
+        return wastedBytes.get();
+    }
+
+    /**
+     * 获取复用时浪费的比例，0.25表示复用的Bitmap平均比需要的大25%
+     */
+    public float getWasteRatio() {
+        long needBytes = reusedBytes.get();
+        return needBytes > 0 ? (float) wastedBytes.get() / needBytes : 0;
+    }
+
+    public String getStatsInfo() {
+        return String.format("Hits=%d, misses=%d, puts=%d, evictions=%d, wasted=%s(%.1f%%), currentSize=%s, maxSize=%s",
+                hits.get(), misses.get(), puts.get(), evictions.get(),
+                Formatter.formatFileSize(context, wastedBytes.get()), getWasteRatio() * 100,
+                Formatter.formatFileSize(context, getSize()), Formatter.formatFileSize(context, getMaxSize()));
+    }
+
+    @Override
+    public String getKey() {
+        return String.format("%s(maxSize=%s)", LOG_NAME, Formatter.formatFileSize(context, getMaxSize()));
+    }
+
+    /**
+     * 从最早放入的开始淘汰，直到不超过指定大小
+     *
+     * @param evict 是否是因为容量不够而淘汰，是的话计入淘汰次数，修剪内存和清空不算
+     */
+    private void trimToSize(int size, boolean evict) {
+        while (currentSize.get() > size) {
+            Entry entry = evictionQueue.poll();
+            if (entry == null) {
+                break;
+            }
+
+            Bitmap removed = entry.take();
+            if (removed == null) {
+                // 已经被取走了
+                continue;
+            }
+
+            currentSize.addAndGet(-entry.size);
+            if (evict) {
+                evictions.incrementAndGet();
+            }
+            markStale();
+            SLog.fe(SLogType.CACHE, LOG_NAME, "Evicting bitmap=%s,%s", logBitmap(removed), SketchUtils.toHexString(removed));
+            removed.recycle();
+        }
+    }
+
+    /**
+     * 记录一个空壳，多了就清理一次
+     */
+    private void markStale() {
+        if (staleCount.incrementAndGet() < PURGE_THRESHOLD) {
+            return;
+        }
+
+        staleCount.set(0);
+        purge(evictionQueue);
+        for (AtomicReferenceArray<ConcurrentLinkedQueue<Entry>> configBuckets : buckets) {
+            for (int i = 0; i < configBuckets.length(); i++) {
+                ConcurrentLinkedQueue<Entry> bucket = configBuckets.get(i);
+                if (bucket != null) {
+                    purge(bucket);
+                }
+            }
+        }
+    }
+
+    private static void purge(ConcurrentLinkedQueue<Entry> queue) {
+        Iterator<Entry> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isTaken()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private ConcurrentLinkedQueue<Entry> getBucket(Bitmap.Config config, int sizeClass, boolean create) {
+        // 4.4以上某些GIF解码出来的Bitmap config为null，reconfigure时按ARGB_8888处理，所以放在一起
+        AtomicReferenceArray<ConcurrentLinkedQueue<Entry>> configBuckets = buckets[(config != null ? config : DEFAULT_CONFIG).ordinal()];
+        ConcurrentLinkedQueue<Entry> bucket = configBuckets.get(sizeClass);
+        if (bucket == null && create) {
+            configBuckets.compareAndSet(sizeClass, null, new ConcurrentLinkedQueue<Entry>());
+            bucket = configBuckets.get(sizeClass);
+        }
+        return bucket;
+    }
+
+    /**
+     * 用来归类的大小，4.4以上是实际分配的字节数，4.4以下是宽高计算出来的字节数，跟取的时候的算法保持一致
+     */
+    private int getReuseSize(Bitmap bitmap) {
+        if (reconfigurable) {
+            return SketchUtils.getByteCount(bitmap);
+        } else {
+            return SketchUtils.computeByteCount(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        }
+    }
+
+    /**
+     * 计算大小级别，每翻一倍分{@link #SUB_CLASS_COUNT}级
+     */
+    static int getSizeClass(int size) {
+        if (size < SUB_CLASS_COUNT) {
+            return Math.max(size, 0);
+        }
+        int exponent = 31 - Integer.numberOfLeadingZeros(size);
+        int subClass = (size >>> (exponent - SUB_CLASS_BITS)) & (SUB_CLASS_COUNT - 1);
+        return (exponent - SUB_CLASS_BITS + 1) * SUB_CLASS_COUNT + subClass;
+    }
+
+    private static String logBitmap(Bitmap bitmap) {
+        return "[" + bitmap.getWidth() + "x" + bitmap.getHeight() + "](" + bitmap.getConfig() + ")";
+    }
+
+    private static String logBitmap(int width, int height, Bitmap.Config config) {
+        return "[" + width + "x" + height + "](" + config + ")";
+    }
+
+    private static class Entry {
+        private final AtomicReference<Bitmap> bitmap;
+        private final int width;
+        private final int height;
+        private final Bitmap.Config config;
+        private final int size;
+        private final int reuseSize;
+
+        Entry(Bitmap bitmap, int size, int reuseSize) {
+            this.bitmap = new AtomicReference<Bitmap>(bitmap);
+            this.width = bitmap.getWidth();
+            this.height = bitmap.getHeight();
+            this.config = bitmap.getConfig();
+            this.size = size;
+            this.reuseSize = reuseSize;
+        }
+
+        boolean canReuse(int width, int height, Bitmap.Config config, int needSize, int maxReuseSize, boolean reconfigurable) {
+            if (reconfigurable) {
+                return reuseSize >= needSize && reuseSize <= maxReuseSize;
+            } else {
+                return this.width == width && this.height == height && this.config == config;
+            }
+        }
+
+        /**
+         * 取走Bitmap，返回null表示已经被别人取走了
+         */
+        Bitmap take() {
+            return bitmap.getAndSet(null);
+        }
+
+        boolean isTaken() {
+            return bitmap.get() == null;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.cache;
+
+import android.content.Context;
+
+import me.xiaopan.sketch.Configuration;
+import me.xiaopan.sketch.util.DiskLruCache;
+
+/**
+ * 读多写少场景下的磁盘缓存器，exist()和get()命中时不加锁，直接查询DiskLruCache的内存索引，
+ * 访问记录先放进缓冲区，再由后台线程批量写入journal并调整LRU顺序。
+ * <br>edit()、clear()等写操作同{@link LruDiskCache}一样是加锁的。
+ * <br>使用方式：Sketch.with(context).getConfiguration().setDiskCache(new ConcurrentLruDiskCache(...))
+ */
+public class ConcurrentLruDiskCache extends LruDiskCache {
+    private static final String LOG_NAME = "ConcurrentLruDiskCache";
+
+    public ConcurrentLruDiskCache(Context context, Configuration configuration, int appVersionCode, int maxSize) {
+        super(context, configuration, appVersionCode, maxSize);
+    }
+
+    @Override
+    public boolean exist(String uri) {
+        DiskLruCache cache = getDiskLruCache();
+        if (cache == null || cache.isClosed() || isClosed() || isDisabled()) {
+            // 还没安装好或者不可用，走原来的流程
+            return super.exist(uri);
+        }
+
+        try {
+            return cache.existQuietly(uriToDiskCacheKey(uri));
+        } catch (DiskLruCache.ClosedException e) {
+            // 刚好被关闭了（例如正在clear），交给原来的流程去重新安装
+            return super.exist(uri);
+        }
+    }
+
+    @Override
+    public Entry get(String uri) {
+        DiskLruCache cache = getDiskLruCache();
+        if (cache == null || cache.isClosed() || isClosed() || isDisabled() || !checkCacheDir()) {
+            return super.get(uri);
+        }
+
+        DiskLruCache.SimpleSnapshot snapshot;
+        try {
+            snapshot = cache.getSimpleSnapshotQuietly(uriToDiskCacheKey(uri));
+        } catch (DiskLruCache.ClosedException e) {
+            return super.get(uri);
+        }
+        return snapshot != null ? new LruDiskCacheEntry(uri, snapshot) : null;
+    }
+
+    @Override
+    public long getSize() {
+        DiskLruCache cache = getDiskLruCache();
+        return cache != null && !isClosed() ? cache.size() : 0;
+    }
+
+    @Override
+    public String getKey() {
+        return String.format("%s(%s)", LOG_NAME, super.getKey());
+    }
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.cache;
+
+import android.content.Context;
+import android.text.format.Formatter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.drawable.SketchRefBitmap;
+import me.xiaopan.sketch.util.FrequencySketch;
+import me.xiaopan.sketch.util.SketchUtils;
+
+/**
+ * 读不加锁的内存缓存器，淘汰策略是简化版的W-TinyLFU：
+ * <br>1. get()直接查ConcurrentHashMap，只设置访问标记和记录访问频率，不加锁，主线程永远不会被解码线程阻塞
+ * <br>2. put()、remove()以及淘汰都在一把写锁里完成，只有写线程之间会竞争
+ * <br>3. 新放进来的图片先进入窗口区（{@link #WINDOW_PERCENT}%的容量），窗口区满了之后被挤出来的图片要跟主区中
+ * 将要被淘汰的图片比较访问频率，频率更高才能进入主区，这样快速滑动时只看了一眼的图片就不会把常用的图片挤出去了
+ * <br>4. 窗口区和主区都使用CLOCK算法（访问标记代替移动链表）近似LRU
+ * <br>使用方式：Sketch.with(context).getConfiguration().setMemoryCache(new ConcurrentMemoryCache(context, maxSize))
+ */
+public class ConcurrentMemoryCache implements MemoryCache.ResizableMemoryCache, CacheStats {
+    private static final String LOG_NAME = "ConcurrentMemoryCache";
+
+    /**
+     * 窗口区占总容量的百分比。图片体积大、数量少，窗口太小的话装不下几张，所以比通常的1%大很多
+     */
+    public static final int WINDOW_PERCENT = 20;
+
+    /**
+     * 估算访问频率时平均每张图片的大小，用来推算FrequencySketch的大小
+     */
+    private static final int AVERAGE_ENTRY_SIZE = 32 * 1024;
+
+    /**
+     * 每次找淘汰对象时最多检查的图片数量
+     */
+    private static final int MAX_SCAN_COUNT = 8;
+
+    private final ConcurrentHashMap<String, Node> map = new ConcurrentHashMap<String, Node>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final FrequencySketch frequencySketch;
+    private final Node window = new Node();
+    private final Node main = new Node();
+
+    private Context context;
+    private final int initialMaxSize;
+    private volatile long maxSize;
+    private long maxWindowSize;
+    private volatile long size;
+    private long windowSize;
+    private volatile boolean closed;
+    private volatile boolean disabled;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong rejectCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public ConcurrentMemoryCache(Context context, int maxSize) {
+        this.context = context.getApplicationContext();
+        this.initialMaxSize = maxSize;
+        this.maxSize = maxSize;
+        this.maxWindowSize = (long) maxSize * WINDOW_PERCENT / 100;
+        this.frequencySketch = new FrequencySketch(Math.min(Math.max(maxSize / AVERAGE_ENTRY_SIZE, 64), 64 * 1024));
+        window.prev = window.next = window;
+        main.prev = main.next = main;
+    }
+
+    @Override
+    public void put(String key, SketchRefBitmap refBitmap) {
+        if (closed) {
+            return;
+        }
+
+        if (disabled) {
+            SLog.fw(SLogType.CACHE, LOG_NAME, "Disabled. Unable put, key=%s", key);
+            return;
+        }
+
+        evictionLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+
+            if (map.containsKey(key)) {
+                SLog.w(SLogType.CACHE, LOG_NAME, String.format("Exist. key=%s", key));
+                return;
+            }
+
+            long oldCacheSize = size;
+
+            Node node = new Node(key, refBitmap);
+            refBitmap.setIsCached(LOG_NAME + ":put", true);
+            map.put(key, node);
+            linkLast(window, node);
+            windowSize += node.weight;
+            size += node.weight;
+
+            evict(true);
+
+            if (SLogType.CACHE.isEnabled()) {
+                SLog.fi(SLogType.CACHE, LOG_NAME, "put. beforeCacheSize=%s. %s. afterCacheSize=%s",
+                        Formatter.formatFileSize(context, oldCacheSize), refBitmap.getInfo(),
+                        Formatter.formatFileSize(context, size));
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public SketchRefBitmap get(String key) {
+        if (closed) {
+            return null;
+        }
+
+        if (disabled) {
+            SLog.fw(SLogType.CACHE, LOG_NAME, "Disabled. Unable get, key=%s", key);
+            return null;
+        }
+
+        frequencySketch.increment(key);
+
+        Node node = map.get(key);
+        if (node == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        node.visited = true;
+        hitCount.incrementAndGet();
+        return node.refBitmap;
+    }
+
+    @Override
+    public SketchRefBitmap remove(String key) {
+        if (closed) {
+            return null;
+        }
+
+        if (disabled) {
+            SLog.fw(SLogType.CACHE, LOG_NAME, "Disabled. Unable remove, key=%s", key);
+            return null;
+        }
+
+        evictionLock.lock();
+        try {
+            Node node = map.get(key);
+            if (node == null) {
+                return null;
+            }
+
+            removeNode(node, ":remove");
+            SLog.fi(SLogType.CACHE, LOG_NAME, "remove. memoryCacheSize: %s",
+                    Formatter.formatFileSize(context, size));
+            return node.refBitmap;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return closed ? 0 : size;
+    }
+
+    @Override
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public void setSizeMultiplier(float sizeMultiplier) {
+        evictionLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+
+            maxSize = Math.round(initialMaxSize * sizeMultiplier);
+            maxWindowSize = maxSize * WINDOW_PERCENT / 100;
+            evict(false);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void trimMemory(int level) {
+        if (closed) {
+            return;
+        }
+
+        long memoryCacheSize = getSize();
+
+        if (level >= android.content.ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            evictAll();
+        } else if (level >= android.content.ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            trimToSize(maxSize / 2);
+        }
+
+        long releasedSize = memoryCacheSize - getSize();
+        SLog.fw(SLogType.CACHE, LOG_NAME, "trimMemory. level=%s, released: %s",
+                SketchUtils.getTrimLevelName(level), Formatter.formatFileSize(context, releasedSize));
+    }
+
+    @Override
+    public boolean isDisabled() {
+        return disabled;
+    }
+
+    @Override
+    public void setDisabled(boolean disabled) {
+        this.disabled = disabled;
+        if (disabled) {
+            SLog.fw(SLogType.CACHE, LOG_NAME, "setDisabled. %s", true);
+        } else {
+            SLog.fi(SLogType.CACHE, LOG_NAME, "setDisabled. %s", false);
+        }
+    }
+
+    @Override
+    public void clear() {
+        if (closed) {
+            return;
+        }
+
+        SLog.fw(SLogType.CACHE, LOG_NAME, "clear. before size: %s",
+                Formatter.formatFileSize(context, size));
+        evictAll();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        evictionLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            evictAll();
+            frequencySketch.clear();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * 获取因为访问频率不够高没能从窗口区进入主区的次数
+     */
+    public long getRejectCount() {
+        return rejectCount.get();
+    }
+
+    @Override
+    public String getKey() {
+        return String.format("%s(maxSize=%s)", LOG_NAME, Formatter.formatFileSize(context, getMaxSize()));
+    }
+
+    /**
+     * 窗口区超出的部分转移到主区，主区超出时让候选者跟主区的淘汰者比较访问频率，输的被淘汰
+     *
+     * @param record 是否计入淘汰次数，调整容量导致的释放不能算，否则{@link MemoryBudgetController}会误以为容量不够
+     */
+    private void evict(boolean record) {
+        long maxMainSize = maxSize - maxWindowSize;
+        while (windowSize > maxWindowSize) {
+            Node candidate = findVictim(window, null);
+            if (candidate == null) {
+                break;
+            }
+
+            unlink(candidate);
+            windowSize -= candidate.weight;
+            candidate.inMain = true;
+            linkLast(main, candidate);
+
+            while (size - windowSize > maxMainSize) {
+                Node victim = findVictim(main, candidate);
+                if (victim == null) {
+                    // 主区只剩候选者自己了
+                    if (size > maxSize) {
+                        evictNode(candidate, record);
+                    }
+                    break;
+                }
+
+                if (frequencySketch.frequency(candidate.key) > frequencySketch.frequency(victim.key)) {
+                    evictNode(victim, record);
+                } else {
+                    evictNode(candidate, record);
+                    if (record) {
+                        rejectCount.incrementAndGet();
+                    }
+                    break;
+                }
+            }
+        }
+
+        // 一张图片就超过了窗口区的大小时可能还是超出总容量，从主区开始淘汰
+        while (size > maxSize) {
+            Node victim = findVictim(main, null);
+            if (victim == null) {
+                victim = findVictim(window, null);
+            }
+            if (victim == null) {
+                break;
+            }
+            evictNode(victim, record);
+        }
+    }
+
+    /**
+     * CLOCK算法，从最老的开始找，访问过的清除标记后放到末尾再给一次机会。最多只看{@link #MAX_SCAN_COUNT}个，
+     * 都访问过的话就淘汰其中最老的那个，这样不管缓存中有多少图片每次淘汰的开销都是固定的
+     */
+    private Node findVictim(Node head, Node exclude) {
+        Node fallback = null;
+        for (int step = 0; step < MAX_SCAN_COUNT; step++) {
+            Node node = head.next;
+            if (node == head) {
+                return null;
+            }
+
+            if (node == exclude) {
+                if (node.next == head) {
+                    return fallback;
+                }
+                unlink(node);
+                linkLast(head, node);
+                continue;
+            }
+
+            if (node.visited) {
+                node.visited = false;
+                unlink(node);
+                linkLast(head, node);
+                if (fallback == null) {
+                    fallback = node;
+                }
+                continue;
+            }
+
+            return node;
+        }
+        return fallback;
+    }
+
+    private void trimToSize(long targetSize) {
+        evictionLock.lock();
+        try {
+            while (size > targetSize) {
+                Node victim = findVictim(window, null);
+                if (victim == null) {
+                    victim = findVictim(main, null);
+                }
+                if (victim == null) {
+                    break;
+                }
+                removeNode(victim, ":entryRemoved");
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void evictAll() {
+        trimToSize(-1);
+    }
+
+    private void evictNode(Node node, boolean record) {
+        removeNode(node, ":entryRemoved");
+        if (record) {
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    private void removeNode(Node node, String callingStation) {
+        unlink(node);
+        map.remove(node.key, node);
+        if (!node.inMain) {
+            windowSize -= node.weight;
+        }
+        size -= node.weight;
+        node.refBitmap.setIsCached(LOG_NAME + callingStation, false);
+    }
+
+    private static void linkLast(Node head, Node node) {
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+    }
+
+    private static void unlink(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = node.next = null;
+    }
+
+    private static class Node {
+        String key;
+        SketchRefBitmap refBitmap;
+        int weight;
+        volatile boolean visited;
+        boolean inMain;
+        Node prev;
+        Node next;
+
+        /**
+         * 链表头
+         */
+        Node() {
+        }
+
+        Node(String key, SketchRefBitmap refBitmap) {
+            this.key = key;
+            this.refBitmap = refBitmap;
+            int bitmapSize = refBitmap.getByteCount();
+            this.weight = bitmapSize == 0 ? 1 : bitmapSize;
+        }
+    }
+}
@@ -27,7 +27,7 @@ import me.xiaopan.sketch.util.SketchUtils;
  * eviction policy to evict {@link android.graphics.Bitmap}s from the least recently used bucket in order to keep
  * the pool below a given maximum size limit.
  */
-public class LruBitmapPool implements BitmapPool {
+public class LruBitmapPool implements BitmapPool, CacheStats {
     private static final Bitmap.Config DEFAULT_CONFIG = Bitmap.Config.ARGB_8888;
     private static final String LOG_NAME = "LruBitmapPool";
 
@@ -223,7 +223,8 @@ public class LruBitmapPool implements BitmapPool {
         }
 
         maxSize = Math.round(initialMaxSize * sizeMultiplier);
-        evict();
+        // 调整容量释放的不算作淘汰
+        trimToSize(maxSize, false);
     }
 
     @Override
@@ -284,6 +285,10 @@ public class LruBitmapPool implements BitmapPool {
     }
 
     private synchronized void trimToSize(int size) {
+        trimToSize(size, true);
+    }
+
+    private synchronized void trimToSize(int size, boolean evict) {
         while (currentSize > size) {
             final Bitmap removed = strategy.removeLast();
             if (removed == null) {
@@ -298,7 +303,9 @@ public class LruBitmapPool implements BitmapPool {
             tracker.remove(removed);
             currentSize -= strategy.getSize(removed);
             removed.recycle();
-            evictions++;
+            if (evict) {
+                evictions++;
+            }
             dump();
         }
     }
@@ -315,6 +322,21 @@ public class LruBitmapPool implements BitmapPool {
                 hits, misses, puts, evictions, currentSize, maxSize, strategy);
     }
 
+    @Override
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    @Override
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    @Override
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
     @Override
     public String getKey() {
         return String.format("%s(maxSize=%s)", LOG_NAME, Formatter.formatFileSize(context, getMaxSize()));
@@ -44,10 +44,11 @@ public class LruDiskCache implements DiskCache {
     private int appVersionCode;
     private File cacheDir;
     private Context context;
-    private DiskLruCache cache;
+    private volatile DiskLruCache cache;
     private Configuration configuration;
-    private boolean closed;
-    private boolean disabled;
+    private volatile boolean closed;
+    private volatile boolean disabled;
+    private boolean binaryJournalEnabled;
     private Map<String, ReentrantLock> editLockMap;
 
     public LruDiskCache(Context context, Configuration configuration, int appVersionCode, int maxSize) {
@@ -66,6 +67,13 @@ public class LruDiskCache implements DiskCache {
         return cache != null && !cache.isClosed();
     }
 
+    /**
+     * 获取当前的DiskLruCache，可能为null或已关闭
+     */
+    protected DiskLruCache getDiskLruCache() {
+        return cache;
+    }
+
     /**
      * 检查缓存目录是否存在并可用
      */
@@ -111,7 +119,7 @@ public class LruDiskCache implements DiskCache {
         SLog.fd(SLogType.CACHE, LOG_NAME, "diskCacheDir: %s", cacheDir.getPath());
 
         try {
-            cache = DiskLruCache.open(cacheDir, appVersionCode, 1, maxSize);
+            cache = DiskLruCache.open(cacheDir, appVersionCode, 1, maxSize, binaryJournalEnabled);
         } catch (IOException e) {
             e.printStackTrace();
             configuration.getErrorTracker().onInstallDiskCacheError(e, cacheDir);
@@ -251,7 +259,7 @@ public class LruDiskCache implements DiskCache {
 //        if (SketchUtils.checkSuffix(uri, ".apk")) {
 //            uri += ".icon";
 //        }
-        return SketchMD5Utils.md5(uri);
+        return SketchMD5Utils.md5WithCache(uri);
     }
 
     @Override
@@ -282,6 +290,31 @@ public class LruDiskCache implements DiskCache {
         }
     }
 
+    /**
+     * 是否使用二进制日志
+     */
+    public synchronized boolean isBinaryJournalEnabled() {
+        return binaryJournalEnabled;
+    }
+
+    /**
+     * 设置是否使用二进制日志，二进制日志启动时用内存映射读取，提交记录时合并写入，条目很多时启动和写入更快。
+     * 已有的旧格式日志会在下次安装时自动转换，不会丢失缓存
+     */
+    public synchronized void setBinaryJournalEnabled(boolean binaryJournalEnabled) {
+        if (this.binaryJournalEnabled == binaryJournalEnabled) {
+            return;
+        }
+
+        this.binaryJournalEnabled = binaryJournalEnabled;
+        SLog.fi(SLogType.CACHE, LOG_NAME, "setBinaryJournalEnabled. %s", binaryJournalEnabled);
+
+        // 已经安装了的话就重新安装，旧格式的日志会在打开时被转换
+        if (cache != null) {
+            installDiskCache();
+        }
+    }
+
     @Override
     public synchronized void clear() {
         if (closed) {
@@ -301,7 +334,7 @@ public class LruDiskCache implements DiskCache {
     }
 
     @Override
-    public synchronized boolean isClosed() {
+    public boolean isClosed() {
         return closed;
     }
 
@@ -343,8 +376,8 @@ public class LruDiskCache implements DiskCache {
 
     @Override
     public String getKey() {
-        return String.format("%s(maxSize=%s,appVersionCode=%d,cacheDir=%s)",
-                LOG_NAME, Formatter.formatFileSize(context, maxSize), appVersionCode, cacheDir.getPath());
+        return String.format("%s(maxSize=%s,appVersionCode=%d,cacheDir=%s,binaryJournal=%s)",
+                LOG_NAME, Formatter.formatFileSize(context, maxSize), appVersionCode, cacheDir.getPath(), binaryJournalEnabled);
     }
 
     public static class LruDiskCacheEntry implements Entry {
@@ -25,10 +25,12 @@ import me.xiaopan.sketch.drawable.SketchRefBitmap;
 import me.xiaopan.sketch.util.LruCache;
 import me.xiaopan.sketch.util.SketchUtils;
 
-public class LruMemoryCache implements MemoryCache {
+public class LruMemoryCache implements MemoryCache.ResizableMemoryCache, CacheStats {
     private static final String LOG_NAME = "LruMemoryCache";
 
     private final LruCache<String, SketchRefBitmap> cache;
+    private final int initialMaxSize;
+    private volatile int trimEvictionCount;  // 调整容量、修剪内存和清空时释放的数量，不算在淘汰次数里
     private Context context;
     private boolean closed;
     private boolean disabled;
@@ -37,6 +39,7 @@ public class LruMemoryCache implements MemoryCache {
         context = context.getApplicationContext();
         this.context = context;
         this.cache = new RefBitmapLruCache(this, maxSize);
+        this.initialMaxSize = maxSize;
     }
 
     @Override
@@ -114,6 +117,26 @@ public class LruMemoryCache implements MemoryCache {
         return cache.maxSize();
     }
 
+    @Override
+    public synchronized void setSizeMultiplier(float sizeMultiplier) {
+        if (closed) {
+            return;
+        }
+
+        int oldEvictionCount = cache.evictionCount();
+        cache.resize(Math.max(Math.round(initialMaxSize * sizeMultiplier), 1));
+        trimEvictionCount += cache.evictionCount() - oldEvictionCount;
+    }
+
+    /**
+     * 主动释放到指定大小，释放的不是因为容量不够被挤出去的，所以不算在淘汰次数里
+     */
+    private void trimToSizeWithoutEviction(int maxSize) {
+        int oldEvictionCount = cache.evictionCount();
+        cache.trimToSize(maxSize);
+        trimEvictionCount += cache.evictionCount() - oldEvictionCount;
+    }
+
     @Override
     public synchronized void trimMemory(int level) {
         if (closed) {
@@ -123,9 +146,9 @@ public class LruMemoryCache implements MemoryCache {
         long memoryCacheSize = getSize();
 
         if (level >= android.content.ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
-            cache.evictAll();
+            trimToSizeWithoutEviction(-1);
         } else if (level >= android.content.ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
-            cache.trimToSize(cache.maxSize() / 2);
+            trimToSizeWithoutEviction(cache.maxSize() / 2);
         }
 
         long releasedSize = memoryCacheSize - getSize();
@@ -156,7 +179,7 @@ public class LruMemoryCache implements MemoryCache {
 
         SLog.fw(SLogType.CACHE, LOG_NAME, "clear. before size: %s",
                 Formatter.formatFileSize(context, cache.size()));
-        cache.evictAll();
+        trimToSizeWithoutEviction(-1);
     }
 
     @Override
@@ -171,7 +194,22 @@ public class LruMemoryCache implements MemoryCache {
         }
         closed = true;
 
-        cache.evictAll();
+        trimToSizeWithoutEviction(-1);
+    }
+
+    @Override
+    public long getHitCount() {
+        return cache.hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return cache.missCount();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return cache.evictionCount() - trimEvictionCount;
     }
 
     @Override
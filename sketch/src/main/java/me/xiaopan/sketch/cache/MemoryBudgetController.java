@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.cache;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.os.SystemClock;
+import android.text.format.Formatter;
+
+import me.xiaopan.sketch.Configuration;
+import me.xiaopan.sketch.Identifier;
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.util.SketchUtils;
+
+/**
+ * 内存预算控制器，在总容量不变的前提下根据运行时的情况在内存缓存和BitmapPool之间分配容量。
+ * <br>{@link MemorySizeCalculator}只在启动时各分3个屏幕大小，但大图浏览页面需要的是更大的内存缓存，
+ * 而头像列表页面图片小、数量多，更需要的是BitmapPool，所以每隔{@link #DEFAULT_ADJUST_INTERVAL}毫秒看一次：
+ * <br>1. 一边在淘汰、未命中又多就说明它不够用，多的那一边每次多分{@link #SHARE_STEP}，
+ * 内存缓存未命中要重新解码，BitmapPool未命中只是多分配一次内存，所以内存缓存的未命中按{@link #DECODE_COST}倍算。
+ * 没有淘汰的未命中是第一次加载，加容量也没用，不算在内
+ * <br>2. 前台运行时收到onTrimMemory说明系统内存紧张，总容量按{@link #PRESSURE_STEP}缩小，
+ * 之后一个周期内没有再收到就慢慢恢复，大图的碎片缓存不参与分配，只跟着按同样的比例缩小和恢复
+ * <br>缓存和BitmapPool需要实现{@link CacheStats}，否则只根据onTrimMemory调整总容量；
+ * 内存缓存没有实现{@link MemoryCache.ResizableMemoryCache}的话就保持原有容量，只调整BitmapPool
+ */
+public class MemoryBudgetController implements Identifier {
+    private static final String LOG_NAME = "MemoryBudgetController";
+
+    public static final long DEFAULT_ADJUST_INTERVAL = 30 * 1000;
+
+    static final float SHARE_STEP = 0.05f;
+    static final float MIN_SHARE = 0.2f;
+    static final float MAX_SHARE = 0.8f;
+    static final float PRESSURE_STEP = 0.8f;
+    static final float PRESSURE_RECOVER_STEP = 0.1f;
+    static final float MIN_PRESSURE = 0.4f;
+    static final int DECODE_COST = 4;
+    static final int MIN_SAMPLE_COUNT = 20;
+
+    private Context context;
+    private Configuration configuration;
+    private volatile long maxSize;
+    private volatile long adjustInterval = DEFAULT_ADJUST_INTERVAL;
+    private volatile long lastAdjustTime;
+    private volatile boolean disabled;
+
+    private MemoryCache memoryCache;
+    private BitmapPool bitmapPool;
+    private long initialMemoryCacheSize;
+    private long initialBitmapPoolSize;
+    private float memoryCacheShare;
+    private float pressure = 1f;
+    private int trimCount;
+
+    private long lastMemoryCacheHitCount;
+    private long lastMemoryCacheMissCount;
+    private long lastMemoryCacheEvictionCount;
+    private long lastBitmapPoolHitCount;
+    private long lastBitmapPoolMissCount;
+    private long lastBitmapPoolEvictionCount;
+
+    /**
+     * @param maxSize 内存缓存和BitmapPool加起来的最大容量
+     */
+    public MemoryBudgetController(Context context, Configuration configuration, long maxSize) {
+        this.context = context.getApplicationContext();
+        this.configuration = configuration;
+        this.maxSize = maxSize;
+        this.lastAdjustTime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * 距离上次调整超过了{@link #getAdjustInterval()}就调整一次，在读内存缓存的地方调用，没到时间时几乎没有开销
+     */
+    public void maybeAdjust() {
+        if (disabled || SystemClock.uptimeMillis() - lastAdjustTime < adjustInterval) {
+            return;
+        }
+
+        synchronized (this) {
+            long now = SystemClock.uptimeMillis();
+            if (now - lastAdjustTime < adjustInterval) {
+                return;
+            }
+            lastAdjustTime = now;
+            adjust();
+        }
+    }
+
+    /**
+     * 记录onTrimMemory，前台运行时收到说明系统内存紧张，立即缩小总容量
+     *
+     * @see ComponentCallbacks2
+     */
+    public synchronized void onTrimMemory(int level) {
+        if (disabled || level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return;
+        }
+
+        trimCount++;
+        if (level < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            reducePressure(String.format("trimMemory(%s)", SketchUtils.getTrimLevelName(level)));
+        }
+    }
+
+    /**
+     * 系统内存已经非常低，立即缩小总容量
+     */
+    public synchronized void onLowMemory() {
+        if (disabled) {
+            return;
+        }
+
+        trimCount++;
+        reducePressure("lowMemory");
+    }
+
+    private void reducePressure(String cause) {
+        checkTarget();
+        pressure = Math.max(pressure * PRESSURE_STEP, MIN_PRESSURE);
+        apply();
+
+        if (SLogType.CACHE.isEnabled()) {
+            SLog.fw(SLogType.CACHE, LOG_NAME, "%s. %s", cause, getInfo());
+        }
+    }
+
+    private void adjust() {
+        checkTarget();
+
+        long memoryCacheHits = 0, memoryCacheMisses = 0, memoryCacheEvictions = 0;
+        if (memoryCache instanceof CacheStats) {
+            CacheStats stats = (CacheStats) memoryCache;
+            memoryCacheHits = stats.getHitCount() - lastMemoryCacheHitCount;
+            memoryCacheMisses = stats.getMissCount() - lastMemoryCacheMissCount;
+            memoryCacheEvictions = stats.getEvictionCount() - lastMemoryCacheEvictionCount;
+        }
+
+        long bitmapPoolHits = 0, bitmapPoolMisses = 0, bitmapPoolEvictions = 0;
+        if (bitmapPool instanceof CacheStats) {
+            CacheStats stats = (CacheStats) bitmapPool;
+            bitmapPoolHits = stats.getHitCount() - lastBitmapPoolHitCount;
+            bitmapPoolMisses = stats.getMissCount() - lastBitmapPoolMissCount;
+            bitmapPoolEvictions = stats.getEvictionCount() - lastBitmapPoolEvictionCount;
+        }
+        recordStats();
+
+        boolean changed = false;
+        long sampleCount = memoryCacheHits + memoryCacheMisses + bitmapPoolHits + bitmapPoolMisses;
+        if (initialBitmapPoolSize > 0 && memoryCache instanceof MemoryCache.ResizableMemoryCache
+                && sampleCount >= MIN_SAMPLE_COUNT) {
+            long memoryCacheDemand = memoryCacheEvictions > 0 ? memoryCacheMisses * DECODE_COST : 0;
+            long bitmapPoolDemand = bitmapPoolEvictions > 0 ? bitmapPoolMisses : 0;
+
+            float oldShare = memoryCacheShare;
+            if (memoryCacheDemand > bitmapPoolDemand * 2) {
+                memoryCacheShare = Math.min(memoryCacheShare + SHARE_STEP, MAX_SHARE);
+            } else if (bitmapPoolDemand > memoryCacheDemand * 2) {
+                memoryCacheShare = Math.max(memoryCacheShare - SHARE_STEP, MIN_SHARE);
+            }
+            changed = oldShare != memoryCacheShare;
+        }
+
+        if (trimCount == 0 && pressure < 1f) {
+            pressure = Math.min(pressure + PRESSURE_RECOVER_STEP, 1f);
+            changed = true;
+        }
+        trimCount = 0;
+
+        if (changed) {
+            apply();
+            if (SLogType.CACHE.isEnabled()) {
+                SLog.fi(SLogType.CACHE, LOG_NAME, "adjust. memoryCache(hit=%d, miss=%d, eviction=%d), bitmapPool(hit=%d, miss=%d, eviction=%d). %s",
+                        memoryCacheHits, memoryCacheMisses, memoryCacheEvictions,
+                        bitmapPoolHits, bitmapPoolMisses, bitmapPoolEvictions, getInfo());
+            }
+        }
+    }
+
+    /**
+     * 内存缓存或BitmapPool被替换了就以新的容量重新开始
+     */
+    private void checkTarget() {
+        MemoryCache newMemoryCache = configuration.getMemoryCache();
+        BitmapPool newBitmapPool = configuration.getBitmapPool();
+        if (newMemoryCache == memoryCache && newBitmapPool == bitmapPool) {
+            return;
+        }
+
+        memoryCache = newMemoryCache;
+        bitmapPool = newBitmapPool;
+        initialMemoryCacheSize = memoryCache.getMaxSize();
+        initialBitmapPoolSize = bitmapPool.getMaxSize();
+        long initialTotalSize = initialMemoryCacheSize + initialBitmapPoolSize;
+        memoryCacheShare = initialTotalSize > 0 ? (float) initialMemoryCacheSize / initialTotalSize : 1f;
+        recordStats();
+    }
+
+    private void recordStats() {
+        if (memoryCache instanceof CacheStats) {
+            CacheStats stats = (CacheStats) memoryCache;
+            lastMemoryCacheHitCount = stats.getHitCount();
+            lastMemoryCacheMissCount = stats.getMissCount();
+            lastMemoryCacheEvictionCount = stats.getEvictionCount();
+        }
+        if (bitmapPool instanceof CacheStats) {
+            CacheStats stats = (CacheStats) bitmapPool;
+            lastBitmapPoolHitCount = stats.getHitCount();
+            lastBitmapPoolMissCount = stats.getMissCount();
+            lastBitmapPoolEvictionCount = stats.getEvictionCount();
+        }
+    }
+
+    private void apply() {
+        long totalSize = (long) (maxSize * pressure);
+        if (initialMemoryCacheSize > 0 && memoryCache instanceof MemoryCache.ResizableMemoryCache) {
+            long memoryCacheSize = initialBitmapPoolSize > 0 ? (long) (totalSize * memoryCacheShare) : totalSize;
+            ((MemoryCache.ResizableMemoryCache) memoryCache).setSizeMultiplier((float) memoryCacheSize / initialMemoryCacheSize);
+        }
+        if (initialBitmapPoolSize > 0) {
+            long bitmapPoolSize = (long) (totalSize * (1 - memoryCacheShare));
+            bitmapPool.setSizeMultiplier((float) bitmapPoolSize / initialBitmapPoolSize);
+        }
+        configuration.getTileCache().setSizeMultiplier(pressure);
+    }
+
+    /**
+     * 获取内存缓存和BitmapPool加起来的最大容量
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 设置内存缓存和BitmapPool加起来的最大容量
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        if (!disabled) {
+            checkTarget();
+            apply();
+        }
+    }
+
+    public long getAdjustInterval() {
+        return adjustInterval;
+    }
+
+    /**
+     * 设置调整间隔，单位毫秒
+     */
+    public void setAdjustInterval(long adjustInterval) {
+        this.adjustInterval = adjustInterval;
+    }
+
+    /**
+     * 获取当前分给内存缓存的比例
+     */
+    public synchronized float getMemoryCacheShare() {
+        return memoryCacheShare;
+    }
+
+    /**
+     * 获取当前总容量的缩小比例，1表示没有缩小
+     */
+    public synchronized float getPressure() {
+        return pressure;
+    }
+
+    public boolean isDisabled() {
+        return disabled;
+    }
+
+    /**
+     * 禁用后内存缓存和BitmapPool恢复初始容量
+     */
+    public synchronized void setDisabled(boolean disabled) {
+        if (this.disabled == disabled) {
+            return;
+        }
+
+        this.disabled = disabled;
+        if (disabled) {
+            if (memoryCache instanceof MemoryCache.ResizableMemoryCache && memoryCache == configuration.getMemoryCache()) {
+                ((MemoryCache.ResizableMemoryCache) memoryCache).setSizeMultiplier(1f);
+            }
+            if (bitmapPool != null && bitmapPool == configuration.getBitmapPool()) {
+                bitmapPool.setSizeMultiplier(1f);
+            }
+            configuration.getTileCache().setSizeMultiplier(1f);
+            memoryCache = null;
+            bitmapPool = null;
+            pressure = 1f;
+            SLog.fw(SLogType.CACHE, LOG_NAME, "setDisabled. %s", true);
+        } else {
+            lastAdjustTime = SystemClock.uptimeMillis();
+            SLog.fi(SLogType.CACHE, LOG_NAME, "setDisabled. %s", false);
+        }
+    }
+
+    public synchronized String getInfo() {
+        long totalSize = (long) (maxSize * pressure);
+        return String.format("%s(maxSize=%s, pressure=%.2f, memoryCache=%s, bitmapPool=%s)", LOG_NAME,
+                Formatter.formatFileSize(context, maxSize), pressure,
+                Formatter.formatFileSize(context, initialBitmapPoolSize > 0 ? (long) (totalSize * memoryCacheShare) : totalSize),
+                Formatter.formatFileSize(context, initialBitmapPoolSize > 0 ? (long) (totalSize * (1 - memoryCacheShare)) : 0));
+    }
+
+    @Override
+    public String getKey() {
+        return String.format("%s(maxSize=%s)", LOG_NAME, Formatter.formatFileSize(context, maxSize));
+    }
+}
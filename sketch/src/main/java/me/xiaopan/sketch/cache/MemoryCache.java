@@ -84,4 +84,16 @@ public interface MemoryCache extends Identifier {
      * 关闭
      */
     void close();
-}
\ No newline at end of file
+
+    /**
+     * 可以在运行时调整容量的内存缓存，{@link MemoryBudgetController}只能调整实现了这个接口的内存缓存
+     */
+    interface ResizableMemoryCache extends MemoryCache {
+        /**
+         * 按初始最大容量的倍数调整最大容量，超出新容量的部分会立即被释放，不算作淘汰
+         *
+         * @param sizeMultiplier 相对于初始最大容量的倍数
+         */
+        void setSizeMultiplier(float sizeMultiplier);
+    }
+}
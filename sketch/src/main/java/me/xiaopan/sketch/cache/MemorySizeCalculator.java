@@ -21,11 +21,14 @@ public class MemorySizeCalculator {
     static final int BYTES_PER_ARGB_8888_PIXEL = 4;
     static final int MEMORY_CACHE_TARGET_SCREENS = 3;
     static final int BITMAP_POOL_TARGET_SCREENS = 3;
+    static final int TILE_CACHE_TARGET_SCREENS = 2;
+    static final int TILE_CACHE_MAX_SIZE_DIVISOR = 4;
     static final float MAX_SIZE_MULTIPLIER = 0.4f;
     static final float LOW_MEMORY_MAX_SIZE_MULTIPLIER = 0.33f;
 
     private final int bitmapPoolSize;
     private final int memoryCacheSize;
+    private final int tileCacheSize;
     private final Context context;
 
     interface ScreenDimensions {
@@ -61,9 +64,12 @@ public class MemorySizeCalculator {
             bitmapPoolSize = BitmapPoolUtils.sdkSupportInBitmap() ? part * BITMAP_POOL_TARGET_SCREENS : 0;
         }
 
+        // Tiles only exist while a large image is open, so they get a smaller share on top of the two caches.
+        tileCacheSize = Math.max(Math.min(screenSize * TILE_CACHE_TARGET_SCREENS, maxSize / TILE_CACHE_MAX_SIZE_DIVISOR), 1);
+
         if (SLogType.CACHE.isEnabled()) {
-            SLog.fd(SLogType.CACHE, LOG_NAME, "Calculated memory cache size: %s pool size: %s memory class limited? %s max size: %s memoryClass: %d isLowMemoryDevice: %s",
-                    toMb(memoryCacheSize), toMb(bitmapPoolSize), targetMemoryCacheSize + targetPoolSize > maxSize, toMb(maxSize), activityManager.getMemoryClass(), isLowMemoryDevice(activityManager));
+            SLog.fd(SLogType.CACHE, LOG_NAME, "Calculated memory cache size: %s pool size: %s tile cache size: %s memory class limited? %s max size: %s memoryClass: %d isLowMemoryDevice: %s",
+                    toMb(memoryCacheSize), toMb(bitmapPoolSize), toMb(tileCacheSize), targetMemoryCacheSize + targetPoolSize > maxSize, toMb(maxSize), activityManager.getMemoryClass(), isLowMemoryDevice(activityManager));
         }
     }
 
@@ -81,6 +87,13 @@ public class MemorySizeCalculator {
         return bitmapPoolSize;
     }
 
+    /**
+     * Returns the recommended large image tile cache size for the device it is run on in bytes.
+     */
+    public int getTileCacheSize() {
+        return tileCacheSize;
+    }
+
     private static int getMaxSize(ActivityManager activityManager) {
         final int memoryClassBytes = activityManager.getMemoryClass() * 1024 * 1024;
         final boolean isLowMemoryDevice = isLowMemoryDevice(activityManager);
@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.cache;
+
+import android.content.Context;
+import android.text.format.Formatter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import me.xiaopan.sketch.Configuration;
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.util.DiskLruCache;
+import me.xiaopan.sketch.util.NoSpaceException;
+import me.xiaopan.sketch.util.SketchMD5Utils;
+import me.xiaopan.sketch.util.SketchUtils;
+import me.xiaopan.sketch.util.UnableCreateDirException;
+import me.xiaopan.sketch.util.UnableCreateFileException;
+
+/**
+ * 分片磁盘缓存器，根据uriToDiskCacheKey()的结果把缓存分散到N个子目录中，每个子目录都是一个独立的DiskLruCache，
+ * 有自己的journal、锁和容量（maxSize / shardCount），这样下载和保存处理过的图片时就不会都挤在一把锁上，单个目录的文件数也少了很多
+ * <br>使用方式：Sketch.with(context).getConfiguration().setDiskCache(new ShardedDiskCache(...))
+ */
+public class ShardedDiskCache implements DiskCache {
+    public static final int DEFAULT_SHARD_COUNT = 4;
+    private static final String LOG_NAME = "ShardedDiskCache";
+
+    private int maxSize;
+    private int appVersionCode;
+    private File cacheDir;
+    private Context context;
+    private Configuration configuration;
+    private Shard[] shards;
+    private volatile boolean closed;
+    private volatile boolean disabled;
+
+    public ShardedDiskCache(Context context, Configuration configuration, int appVersionCode, int maxSize, int shardCount) {
+        if (shardCount <= 0 || shardCount > 256) {
+            throw new IllegalArgumentException("shardCount must be in 1..256: " + shardCount);
+        }
+
+        context = context.getApplicationContext();
+        this.context = context;
+        this.maxSize = maxSize;
+        this.appVersionCode = appVersionCode;
+        this.configuration = configuration;
+        this.cacheDir = SketchUtils.getDefaultSketchCacheDir(context, DISK_CACHE_DIR_NAME, true);
+
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(Integer.toHexString(i));
+        }
+    }
+
+    public ShardedDiskCache(Context context, Configuration configuration, int appVersionCode, int maxSize) {
+        this(context, configuration, appVersionCode, maxSize, DEFAULT_SHARD_COUNT);
+    }
+
+    /**
+     * 检查缓存目录是否存在并可用
+     */
+    protected boolean checkCacheDir() {
+        return cacheDir != null && cacheDir.exists();
+    }
+
+    /**
+     * 创建缓存根目录，然后清理掉不属于任何分片的旧文件（例如之前LruDiskCache留下的）
+     */
+    protected synchronized boolean installCacheDir() {
+        if (checkCacheDir() && shards[0].dir != null) {
+            return true;
+        }
+
+        try {
+            // 根目录下没有journal，所以这里不能让buildCacheDir清理旧文件，由下面自己来清理
+            cacheDir = SketchUtils.buildCacheDir(context, DISK_CACHE_DIR_NAME, true, DISK_CACHE_RESERVED_SPACE_SIZE, true, false, 10);
+        } catch (NoSpaceException e) {
+            e.printStackTrace();
+            configuration.getErrorTracker().onInstallDiskCacheError(e, cacheDir);
+            return false;
+        } catch (UnableCreateDirException e) {
+            e.printStackTrace();
+            configuration.getErrorTracker().onInstallDiskCacheError(e, cacheDir);
+            return false;
+        } catch (UnableCreateFileException e) {
+            e.printStackTrace();
+            configuration.getErrorTracker().onInstallDiskCacheError(e, cacheDir);
+            return false;
+        }
+
+        SLog.fd(SLogType.CACHE, LOG_NAME, "diskCacheDir: %s", cacheDir.getPath());
+
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!isShardDir(file)) {
+                    SketchUtils.deleteFile(file);
+                }
+            }
+        }
+
+        for (Shard shard : shards) {
+            shard.dir = new File(cacheDir, shard.name);
+        }
+        return true;
+    }
+
+    private boolean isShardDir(File file) {
+        if (!file.isDirectory()) {
+            return false;
+        }
+        for (Shard shard : shards) {
+            if (shard.name.equals(file.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 根据key选择分片，key是MD5，取前两位就足够均匀了
+     */
+    private Shard getShard(String key) {
+        int hash = Character.digit(key.charAt(0), 16) << 4 | Character.digit(key.charAt(1), 16);
+        return shards[(hash & 0xff) % shards.length];
+    }
+
+    /**
+     * 获取指定分片的DiskLruCache，没有安装或已经不可用了就重新安装，调用方需持有分片的锁
+     */
+    private DiskLruCache checkShard(Shard shard, boolean checkDir) {
+        if (shard.cache == null || shard.cache.isClosed() || (checkDir && !checkCacheDir())) {
+            installShard(shard);
+        }
+        return shard.cache != null && !shard.cache.isClosed() ? shard.cache : null;
+    }
+
+    private void installShard(Shard shard) {
+        if (closed) {
+            return;
+        }
+
+        // 旧的要关闭
+        if (shard.cache != null) {
+            try {
+                shard.cache.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            shard.cache = null;
+        }
+
+        if (!checkCacheDir() || shard.dir == null) {
+            if (!installCacheDir()) {
+                return;
+            }
+        }
+
+        try {
+            shard.cache = DiskLruCache.open(shard.dir, appVersionCode, 1, Math.max(maxSize / shards.length, 1));
+        } catch (IOException e) {
+            e.printStackTrace();
+            configuration.getErrorTracker().onInstallDiskCacheError(e, shard.dir);
+        }
+    }
+
+    @Override
+    public boolean exist(String uri) {
+        if (closed) {
+            return false;
+        }
+
+        if (disabled) {
+            SLog.fw(SLogType.CACHE, LOG_NAME, "Disabled. Unable judge exist, uri=%s", uri);
+            return false;
+        }
+
+        String key = uriToDiskCacheKey(uri);
+        Shard shard = getShard(key);
+        synchronized (shard) {
+            // 这个方法性能优先，因此不检查缓存目录
+            DiskLruCache cache = checkShard(shard, false);
+            if (cache == null) {
+                return false;
+            }
+
+            try {
+                return cache.exist(key);
+            } catch (DiskLruCache.ClosedException e) {
+                e.printStackTrace();
+                return false;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public Entry get(String uri) {
+        if (closed) {
+            return null;
+        }
+
+        if (disabled) {
+            SLog.fw(SLogType.CACHE, LOG_NAME, "Disabled. Unable get, uri=%s", uri);
+            return null;
+        }
+
+        String key = uriToDiskCacheKey(uri);
+        Shard shard = getShard(key);
+        synchronized (shard) {
+            DiskLruCache cache = checkShard(shard, true);
+            if (cache == null) {
+                return null;
+            }
+
+            DiskLruCache.SimpleSnapshot snapshot = null;
+            try {
+                snapshot = cache.getSimpleSnapshot(key);
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (DiskLruCache.ClosedException e) {
+                e.printStackTrace();
+            }
+            return snapshot != null ? new LruDiskCache.LruDiskCacheEntry(uri, snapshot) : null;
+        }
+    }
+
+    @Override
+    public Editor edit(String uri) {
+        if (closed) {
+            return null;
+        }
+
+        if (disabled) {
+            SLog.fw(SLogType.CACHE, LOG_NAME, "Disabled. Unable edit, uri=%s", uri);
+            return null;
+        }
+
+        String key = uriToDiskCacheKey(uri);
+        Shard shard = getShard(key);
+        synchronized (shard) {
+            DiskLruCache cache = checkShard(shard, true);
+            if (cache == null) {
+                return null;
+            }
+
+            DiskLruCache.Editor diskEditor = null;
+            try {
+                diskEditor = cache.edit(key);
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (DiskLruCache.ClosedException e) {
+                e.printStackTrace();
+            }
+
+            if (diskEditor == null && (cache.isClosed() || !checkCacheDir())) {
+                // 发生异常的时候（比如SD卡被拔出，导致不能使用），尝试重装这个分片，能显著提高遇错恢复能力
+                installShard(shard);
+                if (shard.cache == null) {
+                    return null;
+                }
+
+                try {
+                    diskEditor = shard.cache.edit(key);
+                } catch (IOException e1) {
+                    e1.printStackTrace();
+                } catch (DiskLruCache.ClosedException e1) {
+                    e1.printStackTrace();
+                }
+            }
+            return diskEditor != null ? new LruDiskCache.LruDiskCacheEditor(diskEditor) : null;
+        }
+    }
+
+    @Override
+    public synchronized File getCacheDir() {
+        return cacheDir;
+    }
+
+    @Override
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    @Override
+    public String uriToDiskCacheKey(String uri) {
+        return SketchMD5Utils.md5WithCache(uri);
+    }
+
+    @Override
+    public long getSize() {
+        if (closed) {
+            return 0;
+        }
+
+        long size = 0;
+        for (Shard shard : shards) {
+            DiskLruCache cache = shard.cache;
+            if (cache != null && !cache.isClosed()) {
+                size += cache.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isDisabled() {
+        return disabled;
+    }
+
+    @Override
+    public void setDisabled(boolean disabled) {
+        this.disabled = disabled;
+        if (disabled) {
+            SLog.fw(SLogType.CACHE, LOG_NAME, "setDisabled. %s", true);
+        } else {
+            SLog.fi(SLogType.CACHE, LOG_NAME, "setDisabled. %s", false);
+        }
+    }
+
+    /**
+     * 每个分片在自己的线程里同时清理，全部清理完才返回
+     */
+    @Override
+    public void clear() {
+        if (closed) {
+            return;
+        }
+
+        Thread[] threads = new Thread[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            final Shard shard = shards[i];
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (shard) {
+                        if (shard.cache != null) {
+                            try {
+                                shard.cache.delete();
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                            }
+                            shard.cache = null;
+                        } else if (shard.dir != null) {
+                            SketchUtils.deleteFile(shard.dir);
+                        }
+
+                        installShard(shard);
+                    }
+                }
+            }, LOG_NAME + "-clear-" + shard.name);
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                if (shard.cache != null) {
+                    try {
+                        shard.cache.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    shard.cache = null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public ReentrantLock getEditLock(String uri) {
+        Shard shard = getShard(uriToDiskCacheKey(uri));
+        synchronized (shard) {
+            ReentrantLock lock = shard.editLockMap.get(uri);
+            if (lock == null) {
+                lock = new ReentrantLock();
+                shard.editLockMap.put(uri, lock);
+            }
+            return lock;
+        }
+    }
+
+    @Override
+    public String getKey() {
+        return String.format("%s(maxSize=%s,shardCount=%d,appVersionCode=%d,cacheDir=%s)",
+                LOG_NAME, Formatter.formatFileSize(context, maxSize), shards.length, appVersionCode, cacheDir.getPath());
+    }
+
+    private static class Shard {
+        private final String name;
+        private final Map<String, ReentrantLock> editLockMap = new WeakHashMap<String, ReentrantLock>();
+        private File dir;
+        private volatile DiskLruCache cache;
+
+        private Shard(String name) {
+            this.name = name;
+        }
+    }
+}
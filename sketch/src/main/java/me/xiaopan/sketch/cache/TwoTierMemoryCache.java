@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.cache;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.drawable.SketchRefBitmap;
+
+/**
+ * 两级内存缓存，第一级是普通的强引用缓存，第二级是“活跃图片”索引。
+ * <br>图片被第一级缓存淘汰后，只要还有页面在显示它（SketchRefBitmap的显示引用或等待使用引用不为0）就不会被回收，
+ * 但是再用同样的key去取时第一级缓存已经没有了，只能重新解码。第二级用弱引用记下所有放进来过的图片，
+ * 第一级没有的时候再看看第二级，图片还活着的话就重新放回第一级并返回，这样RecyclerView、ViewPager中重新绑定同一张图片时就不用再解码了。
+ * <br>第二级只是索引，不会延长图片的生命周期，所以不计入缓存容量
+ * <br>使用方式：Sketch.with(context).getConfiguration().setMemoryCache(new TwoTierMemoryCache(new LruMemoryCache(context, maxSize)))
+ */
+public class TwoTierMemoryCache implements MemoryCache.ResizableMemoryCache, CacheStats {
+    private static final String LOG_NAME = "TwoTierMemoryCache";
+
+    private final MemoryCache strongCache;
+    private final ConcurrentHashMap<String, KeyedWeakReference> activeMap = new ConcurrentHashMap<String, KeyedWeakReference>();
+    private final ReferenceQueue<SketchRefBitmap> referenceQueue = new ReferenceQueue<SketchRefBitmap>();
+
+    private final AtomicLong activeHitCount = new AtomicLong();
+
+    public TwoTierMemoryCache(MemoryCache strongCache) {
+        if (strongCache == null) {
+            throw new IllegalArgumentException("strongCache is null");
+        }
+        this.strongCache = strongCache;
+    }
+
+    @Override
+    public void put(String key, SketchRefBitmap refBitmap) {
+        purgeClearedReferences();
+        strongCache.put(key, refBitmap);
+        if (strongCache.isClosed() || strongCache.isDisabled()) {
+            return;
+        }
+
+        // 第一级中已经有了的话put会被忽略，这时第二级也保留原来的
+        KeyedWeakReference oldReference = activeMap.get(key);
+        SketchRefBitmap oldRefBitmap = oldReference != null ? oldReference.get() : null;
+        if (oldRefBitmap == null || oldRefBitmap.isRecycled()) {
+            activeMap.put(key, new KeyedWeakReference(key, refBitmap, referenceQueue));
+        }
+    }
+
+    @Override
+    public SketchRefBitmap get(String key) {
+        SketchRefBitmap refBitmap = strongCache.get(key);
+        if (refBitmap != null || strongCache.isClosed() || strongCache.isDisabled()) {
+            return refBitmap;
+        }
+
+        KeyedWeakReference reference = activeMap.get(key);
+        if (reference == null) {
+            return null;
+        }
+
+        refBitmap = reference.get();
+        if (refBitmap == null || refBitmap.isRecycled()) {
+            activeMap.remove(key, reference);
+            return null;
+        }
+
+        // 还在显示中，放回第一级缓存
+        strongCache.put(key, refBitmap);
+        if (refBitmap.isRecycled()) {
+            // 放回去的同时刚好被回收了
+            strongCache.remove(key);
+            activeMap.remove(key, reference);
+            return null;
+        }
+
+        activeHitCount.incrementAndGet();
+        if (SLogType.CACHE.isEnabled()) {
+            SLog.fd(SLogType.CACHE, LOG_NAME, "hit active. %s", refBitmap.getInfo());
+        }
+        return refBitmap;
+    }
+
+    @Override
+    public SketchRefBitmap remove(String key) {
+        KeyedWeakReference reference = activeMap.remove(key);
+        SketchRefBitmap refBitmap = strongCache.remove(key);
+        return refBitmap != null ? refBitmap : (reference != null ? reference.get() : null);
+    }
+
+    @Override
+    public long getSize() {
+        return strongCache.getSize();
+    }
+
+    @Override
+    public long getMaxSize() {
+        return strongCache.getMaxSize();
+    }
+
+    @Override
+    public void setSizeMultiplier(float sizeMultiplier) {
+        if (strongCache instanceof ResizableMemoryCache) {
+            ((ResizableMemoryCache) strongCache).setSizeMultiplier(sizeMultiplier);
+        }
+    }
+
+    @Override
+    public void trimMemory(int level) {
+        strongCache.trimMemory(level);
+        purgeClearedReferences();
+    }
+
+    @Override
+    public boolean isDisabled() {
+        return strongCache.isDisabled();
+    }
+
+    @Override
+    public void setDisabled(boolean disabled) {
+        strongCache.setDisabled(disabled);
+    }
+
+    @Override
+    public void clear() {
+        strongCache.clear();
+        activeMap.clear();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return strongCache.isClosed();
+    }
+
+    @Override
+    public void close() {
+        strongCache.close();
+        activeMap.clear();
+    }
+
+    /**
+     * 获取第一级缓存
+     */
+    public MemoryCache getStrongCache() {
+        return strongCache;
+    }
+
+    /**
+     * 获取第二级索引中的图片数量，包括已经被回收但还没清理掉的
+     */
+    public int getActiveCount() {
+        return activeMap.size();
+    }
+
+    /**
+     * 获取从第二级找回来的次数
+     */
+    public long getActiveHitCount() {
+        return activeHitCount.get();
+    }
+
+    /**
+     * 第一级的命中次数加上从第二级找回来的次数
+     */
+    @Override
+    public long getHitCount() {
+        long strongHitCount = strongCache instanceof CacheStats ? ((CacheStats) strongCache).getHitCount() : 0;
+        return strongHitCount + activeHitCount.get();
+    }
+
+    /**
+     * 第一级的未命中次数减去从第二级找回来的次数
+     */
+    @Override
+    public long getMissCount() {
+        long strongMissCount = strongCache instanceof CacheStats ? ((CacheStats) strongCache).getMissCount() : 0;
+        return Math.max(strongMissCount - activeHitCount.get(), 0);
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return strongCache instanceof CacheStats ? ((CacheStats) strongCache).getEvictionCount() : 0;
+    }
+
+    @Override
+    public String getKey() {
+        return String.format("%s(%s)", LOG_NAME, strongCache.getKey());
+    }
+
+    /**
+     * 清理已经被GC回收的弱引用
+     */
+    private void purgeClearedReferences() {
+        KeyedWeakReference reference;
+        while ((reference = (KeyedWeakReference) referenceQueue.poll()) != null) {
+            activeMap.remove(reference.key, reference);
+        }
+    }
+
+    private static class KeyedWeakReference extends WeakReference<SketchRefBitmap> {
+        private String key;
+
+        KeyedWeakReference(String key, SketchRefBitmap referent, ReferenceQueue<SketchRefBitmap> queue) {
+            super(referent, queue);
+            this.key = key;
+        }
+    }
+}
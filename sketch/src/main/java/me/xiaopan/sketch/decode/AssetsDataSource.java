@@ -34,7 +34,7 @@ import me.xiaopan.sketch.drawable.SketchGifFactory;
 import me.xiaopan.sketch.request.ImageFrom;
 import me.xiaopan.sketch.util.SketchUtils;
 
-public class AssetsDataSource implements DataSource {
+public class AssetsDataSource implements DataSource.SampledGifDataSource {
 
     private Context context;
     private String assetsFilePath;
@@ -116,9 +116,14 @@ public class AssetsDataSource implements DataSource {
 
     @Override
     public SketchGifDrawable makeGifDrawable(String key, String uri, ImageAttrs imageAttrs, BitmapPool bitmapPool) {
+        return makeGifDrawable(key, uri, imageAttrs, bitmapPool, 1);
+    }
+
+    @Override
+    public SketchGifDrawable makeGifDrawable(String key, String uri, ImageAttrs imageAttrs, BitmapPool bitmapPool, int inSampleSize) {
         AssetManager assetManager = context.getAssets();
         try {
-            return SketchGifFactory.createGifDrawable(key, uri, imageAttrs, getImageFrom(), bitmapPool, assetManager, assetsFilePath);
+            return SketchGifFactory.createGifDrawable(key, uri, imageAttrs, getImageFrom(), bitmapPool, assetManager, assetsFilePath, inSampleSize);
         } catch (IOException e) {
             e.printStackTrace();
             return null;
@@ -32,7 +32,7 @@ import me.xiaopan.sketch.drawable.SketchGifFactory;
 import me.xiaopan.sketch.request.ImageFrom;
 import me.xiaopan.sketch.util.SketchUtils;
 
-public class ByteArrayDataSource implements DataSource {
+public class ByteArrayDataSource implements DataSource.SampledGifDataSource {
 
     private byte[] data;
     private ImageFrom imageFrom;
@@ -100,8 +100,13 @@ public class ByteArrayDataSource implements DataSource {
 
     @Override
     public SketchGifDrawable makeGifDrawable(String key, String uri, ImageAttrs imageAttrs, BitmapPool bitmapPool) {
+        return makeGifDrawable(key, uri, imageAttrs, bitmapPool, 1);
+    }
+
+    @Override
+    public SketchGifDrawable makeGifDrawable(String key, String uri, ImageAttrs imageAttrs, BitmapPool bitmapPool, int inSampleSize) {
         try {
-            return SketchGifFactory.createGifDrawable(key, uri, imageAttrs, getImageFrom(), bitmapPool, data);
+            return SketchGifFactory.createGifDrawable(key, uri, imageAttrs, getImageFrom(), bitmapPool, data, inSampleSize);
         } catch (IOException e) {
             e.printStackTrace();
             return null;
@@ -16,9 +16,12 @@
 
 package me.xiaopan.sketch.decode;
 
+import android.content.res.AssetFileDescriptor;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.MappedByteBuffer;
 
 import me.xiaopan.sketch.cache.BitmapPool;
 import me.xiaopan.sketch.cache.DiskCache;
@@ -27,11 +30,13 @@ import me.xiaopan.sketch.drawable.SketchGifDrawable;
 import me.xiaopan.sketch.drawable.SketchGifFactory;
 import me.xiaopan.sketch.request.ImageFrom;
 
-public class CacheFileDataSource implements DataSource {
+public class CacheFileDataSource implements DataSource.FileDescriptorDataSource, DataSource.MappedDataSource,
+        DataSource.SampledGifDataSource {
 
     private DiskCache.Entry diskCacheEntry;
     private ImageFrom imageFrom;
     private long length = -1;
+    private MappedByteBuffer mappedByteBuffer;
 
     public CacheFileDataSource(DiskCache.Entry diskCacheEntry, ImageFrom imageFrom) {
         this.diskCacheEntry = diskCacheEntry;
@@ -53,6 +58,19 @@ public class CacheFileDataSource implements DataSource {
         return length;
     }
 
+    @Override
+    public AssetFileDescriptor getFileDescriptor() throws IOException {
+        return FileDataSource.openFileDescriptor(diskCacheEntry.getFile());
+    }
+
+    @Override
+    public synchronized MappedByteBuffer getMappedByteBuffer() throws IOException {
+        if (mappedByteBuffer == null) {
+            mappedByteBuffer = FileDataSource.map(diskCacheEntry.getFile());
+        }
+        return mappedByteBuffer;
+    }
+
     @Override
     public File getFile(File outDir, String outName) {
         return diskCacheEntry.getFile();
@@ -69,8 +87,13 @@ public class CacheFileDataSource implements DataSource {
 
     @Override
     public SketchGifDrawable makeGifDrawable(String key, String uri, ImageAttrs imageAttrs, BitmapPool bitmapPool) {
+        return makeGifDrawable(key, uri, imageAttrs, bitmapPool, 1);
+    }
+
+    @Override
+    public SketchGifDrawable makeGifDrawable(String key, String uri, ImageAttrs imageAttrs, BitmapPool bitmapPool, int inSampleSize) {
         try {
-            return SketchGifFactory.createGifDrawable(key, uri, imageAttrs, getImageFrom(), bitmapPool, diskCacheEntry.getFile());
+            return SketchGifFactory.createGifDrawable(key, uri, imageAttrs, getImageFrom(), bitmapPool, diskCacheEntry.getFile(), inSampleSize);
         } catch (IOException e) {
             e.printStackTrace();
             return null;
@@ -35,7 +35,7 @@ import me.xiaopan.sketch.drawable.SketchGifFactory;
 import me.xiaopan.sketch.request.ImageFrom;
 import me.xiaopan.sketch.util.SketchUtils;
 
-public class ContentDataSource implements DataSource {
+public class ContentDataSource implements DataSource.FileDescriptorDataSource, DataSource.SampledGifDataSource {
 
     private Context context;
     private Uri contentUri;
@@ -69,6 +69,11 @@ public class ContentDataSource implements DataSource {
         return length;
     }
 
+    @Override
+    public AssetFileDescriptor getFileDescriptor() throws IOException {
+        return context.getContentResolver().openAssetFileDescriptor(contentUri, "r");
+    }
+
     @Override
     public File getFile(File outDir, String outName) throws IOException {
         if (outDir == null) {
@@ -117,9 +122,14 @@ public class ContentDataSource implements DataSource {
 
     @Override
     public SketchGifDrawable makeGifDrawable(String key, String uri, ImageAttrs imageAttrs, BitmapPool bitmapPool) {
+        return makeGifDrawable(key, uri, imageAttrs, bitmapPool, 1);
+    }
+
+    @Override
+    public SketchGifDrawable makeGifDrawable(String key, String uri, ImageAttrs imageAttrs, BitmapPool bitmapPool, int inSampleSize) {
         ContentResolver contentResolver = context.getContentResolver();
         try {
-            return SketchGifFactory.createGifDrawable(key, uri, imageAttrs, getImageFrom(), bitmapPool, contentResolver, contentUri);
+            return SketchGifFactory.createGifDrawable(key, uri, imageAttrs, getImageFrom(), bitmapPool, contentResolver, contentUri, inSampleSize);
         } catch (IOException e) {
             e.printStackTrace();
             return null;
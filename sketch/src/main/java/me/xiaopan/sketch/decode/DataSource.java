@@ -16,9 +16,12 @@
 
 package me.xiaopan.sketch.decode;
 
+import android.content.res.AssetFileDescriptor;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.MappedByteBuffer;
 
 import me.xiaopan.sketch.cache.BitmapPool;
 import me.xiaopan.sketch.drawable.ImageAttrs;
@@ -71,4 +74,47 @@ public interface DataSource {
      * @return GifDrawable
      */
     SketchGifDrawable makeGifDrawable(String key, String uri, ImageAttrs imageAttrs, BitmapPool bitmapPool);
+
+    /**
+     * 可以提供文件描述符的数据源，BitmapFactory和BitmapRegionDecoder可以直接从文件描述符解码，省去Java层输入流的拷贝
+     */
+    interface FileDescriptorDataSource extends DataSource {
+        /**
+         * 获取文件描述符，用完后需要关闭
+         *
+         * @return null：不支持
+         * @throws IOException 数据源异常
+         */
+        AssetFileDescriptor getFileDescriptor() throws IOException;
+    }
+
+    /**
+     * 可以提供内存映射的数据源，读取时不用系统调用也不用先拷贝到Java堆中
+     */
+    interface MappedDataSource extends DataSource {
+        /**
+         * 获取只读的内存映射
+         *
+         * @return null：不支持
+         * @throws IOException 数据源异常
+         */
+        MappedByteBuffer getMappedByteBuffer() throws IOException;
+    }
+
+    /**
+     * 支持按缩小倍数解码GIF的数据源
+     */
+    interface SampledGifDataSource extends DataSource {
+        /**
+         * 创建GifDrawable
+         *
+         * @param key          请求的唯一标识 key
+         * @param uri          图片uri
+         * @param imageAttrs   图片的属性
+         * @param bitmapPool   bitmap缓存池
+         * @param inSampleSize 缩小倍数，大于1时每一帧都按这个倍数缩小解码，省内存也省CPU
+         * @return GifDrawable
+         */
+        SketchGifDrawable makeGifDrawable(String key, String uri, ImageAttrs imageAttrs, BitmapPool bitmapPool, int inSampleSize);
+    }
 }
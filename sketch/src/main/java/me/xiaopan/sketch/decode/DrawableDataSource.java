@@ -34,7 +34,7 @@ import me.xiaopan.sketch.drawable.SketchGifFactory;
 import me.xiaopan.sketch.request.ImageFrom;
 import me.xiaopan.sketch.util.SketchUtils;
 
-public class DrawableDataSource implements DataSource {
+public class DrawableDataSource implements DataSource.SampledGifDataSource {
 
     private Context context;
     private int drawableId;
@@ -114,9 +114,14 @@ public class DrawableDataSource implements DataSource {
 
     @Override
     public SketchGifDrawable makeGifDrawable(String key, String uri, ImageAttrs imageAttrs, BitmapPool bitmapPool) {
+        return makeGifDrawable(key, uri, imageAttrs, bitmapPool, 1);
+    }
+
+    @Override
+    public SketchGifDrawable makeGifDrawable(String key, String uri, ImageAttrs imageAttrs, BitmapPool bitmapPool, int inSampleSize) {
         Resources resources = context.getResources();
         try {
-            return SketchGifFactory.createGifDrawable(key, uri, imageAttrs, getImageFrom(), bitmapPool, resources, drawableId);
+            return SketchGifFactory.createGifDrawable(key, uri, imageAttrs, getImageFrom(), bitmapPool, resources, drawableId, inSampleSize);
         } catch (IOException e) {
             e.printStackTrace();
             return null;
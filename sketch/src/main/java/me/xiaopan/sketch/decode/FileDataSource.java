@@ -16,21 +16,30 @@
 
 package me.xiaopan.sketch.decode;
 
+import android.content.res.AssetFileDescriptor;
+import android.os.ParcelFileDescriptor;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 import me.xiaopan.sketch.cache.BitmapPool;
 import me.xiaopan.sketch.drawable.ImageAttrs;
 import me.xiaopan.sketch.drawable.SketchGifDrawable;
 import me.xiaopan.sketch.drawable.SketchGifFactory;
 import me.xiaopan.sketch.request.ImageFrom;
+import me.xiaopan.sketch.util.SketchUtils;
 
-public class FileDataSource implements DataSource {
+public class FileDataSource implements DataSource.FileDescriptorDataSource, DataSource.MappedDataSource,
+        DataSource.SampledGifDataSource {
 
     private File file;
     private long length = -1;
+    private MappedByteBuffer mappedByteBuffer;
 
     public FileDataSource(File file) {
         this.file = file;
@@ -51,6 +60,19 @@ public class FileDataSource implements DataSource {
         return length;
     }
 
+    @Override
+    public AssetFileDescriptor getFileDescriptor() throws IOException {
+        return openFileDescriptor(file);
+    }
+
+    @Override
+    public synchronized MappedByteBuffer getMappedByteBuffer() throws IOException {
+        if (mappedByteBuffer == null) {
+            mappedByteBuffer = map(file);
+        }
+        return mappedByteBuffer;
+    }
+
     @Override
     public File getFile(File outDir, String outName) {
         return file;
@@ -63,11 +85,37 @@ public class FileDataSource implements DataSource {
 
     @Override
     public SketchGifDrawable makeGifDrawable(String key, String uri, ImageAttrs imageAttrs, BitmapPool bitmapPool) {
+        return makeGifDrawable(key, uri, imageAttrs, bitmapPool, 1);
+    }
+
+    @Override
+    public SketchGifDrawable makeGifDrawable(String key, String uri, ImageAttrs imageAttrs, BitmapPool bitmapPool, int inSampleSize) {
         try {
-            return SketchGifFactory.createGifDrawable(key, uri, imageAttrs, getImageFrom(), bitmapPool, file);
+            return SketchGifFactory.createGifDrawable(key, uri, imageAttrs, getImageFrom(), bitmapPool, file, inSampleSize);
         } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
     }
+
+    /**
+     * 以只读的方式打开文件描述符
+     */
+    static AssetFileDescriptor openFileDescriptor(File file) throws IOException {
+        ParcelFileDescriptor parcelFileDescriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        return new AssetFileDescriptor(parcelFileDescriptor, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    /**
+     * 以只读的方式映射整个文件，映射关系在通道关闭后依然有效，随MappedByteBuffer一起被回收
+     */
+    static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            SketchUtils.close(randomAccessFile);
+        }
+    }
 }
@@ -20,13 +20,16 @@ import android.graphics.BitmapFactory;
 
 import me.xiaopan.sketch.ErrorTracker;
 import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
 import me.xiaopan.sketch.cache.BitmapPool;
 import me.xiaopan.sketch.drawable.ImageAttrs;
 import me.xiaopan.sketch.drawable.SketchGifDrawable;
 import me.xiaopan.sketch.drawable.SketchGifFactory;
 import me.xiaopan.sketch.request.LoadRequest;
+import me.xiaopan.sketch.request.MaxSize;
 
 public class GifDecodeHelper extends DecodeHelper {
+    private static final String LOG_NAME = "GifDecodeHelper";
 
     @Override
     public boolean match(LoadRequest request, DataSource dataSource, ImageType imageType, BitmapFactory.Options boundOptions) {
@@ -34,7 +37,7 @@ public class GifDecodeHelper extends DecodeHelper {
             if (SketchGifFactory.isExistGifLibrary()) {
                 return true;
             } else {
-                SLog.e("GifDecodeHelper", "Not found sketch-gif library. Please go to “https://github.com/panpf/sketch” find how to import the sketch-gif library");
+                SLog.e(LOG_NAME, "Not found sketch-gif library. Please go to “https://github.com/panpf/sketch” find how to import the sketch-gif library");
             }
         }
         return false;
@@ -48,12 +51,32 @@ public class GifDecodeHelper extends DecodeHelper {
                     boundOptions.outHeight, exifOrientation);
             BitmapPool bitmapPool = request.getConfiguration().getBitmapPool();
 
-            SketchGifDrawable gifDrawable = dataSource.makeGifDrawable(request.getKey(), request.getUri(),
-                    imageAttrs, bitmapPool);
+            // 根据maxSize计算缩小倍数，列表中的小格子里显示大GIF时每一帧都能少占很多内存和CPU
+            int inSampleSize = 1;
+            MaxSize maxSize = request.getOptions().getMaxSize();
+            if (maxSize != null) {
+                ImageSizeCalculator imageSizeCalculator = request.getConfiguration().getImageSizeCalculator();
+                inSampleSize = imageSizeCalculator.calculateInSampleSize(boundOptions.outWidth, boundOptions.outHeight,
+                        maxSize.getWidth(), maxSize.getHeight(), false);
+            }
+
+            SketchGifDrawable gifDrawable;
+            if (dataSource instanceof DataSource.SampledGifDataSource) {
+                gifDrawable = ((DataSource.SampledGifDataSource) dataSource).makeGifDrawable(request.getKey(),
+                        request.getUri(), imageAttrs, bitmapPool, inSampleSize);
+            } else {
+                inSampleSize = 1;
+                gifDrawable = dataSource.makeGifDrawable(request.getKey(), request.getUri(), imageAttrs, bitmapPool);
+            }
             if (gifDrawable == null) {
                 return null;
             }
 
+            if (SLogType.REQUEST.isEnabled()) {
+                SLog.fd(SLogType.REQUEST, LOG_NAME, "decodeGifSuccess. originalSize=%dx%d, inSampleSize=%d. %s",
+                        boundOptions.outWidth, boundOptions.outHeight, inSampleSize, request.getKey());
+            }
+
             return new GifDecodeResult(imageAttrs, gifDrawable).setBanProcess(true);
         } catch (Throwable e) {
             e.printStackTrace();
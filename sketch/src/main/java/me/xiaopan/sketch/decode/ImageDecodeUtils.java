@@ -17,6 +17,7 @@
 package me.xiaopan.sketch.decode;
 
 import android.annotation.TargetApi;
+import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapRegionDecoder;
@@ -39,7 +40,41 @@ import me.xiaopan.sketch.util.SketchUtils;
 
 public class ImageDecodeUtils {
 
+    /**
+     * 打开可以直接用来解码的文件描述符，数据源不支持或者起始位置不是0的（例如apk中的资源）BitmapFactory用不了，返回null
+     */
+    public static AssetFileDescriptor openDecodableFileDescriptor(DataSource dataSource) {
+        if (!(dataSource instanceof DataSource.FileDescriptorDataSource)) {
+            return null;
+        }
+
+        AssetFileDescriptor fileDescriptor;
+        try {
+            fileDescriptor = ((DataSource.FileDescriptorDataSource) dataSource).getFileDescriptor();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        // 起始位置不是0的（例如apk中的文件）BitmapFactory.decodeFileDescriptor()用不了
+        if (fileDescriptor != null && fileDescriptor.getStartOffset() != 0) {
+            SketchUtils.close(fileDescriptor);
+            return null;
+        }
+        return fileDescriptor;
+    }
+
     public static Bitmap decodeBitmap(DataSource dataSource, BitmapFactory.Options options) throws IOException {
+        // 能拿到文件描述符的话直接交给BitmapFactory，省去Java层输入流的拷贝
+        AssetFileDescriptor fileDescriptor = openDecodableFileDescriptor(dataSource);
+        if (fileDescriptor != null) {
+            try {
+                return BitmapFactory.decodeFileDescriptor(fileDescriptor.getFileDescriptor(), null, options);
+            } finally {
+                SketchUtils.close(fileDescriptor);
+            }
+        }
+
         InputStream inputStream = null;
         Bitmap bitmap = null;
 
@@ -58,6 +93,23 @@ public class ImageDecodeUtils {
             return null;
         }
 
+        AssetFileDescriptor fileDescriptor = openDecodableFileDescriptor(dataSource);
+        if (fileDescriptor != null) {
+            BitmapRegionDecoder regionDecoder = null;
+            try {
+                regionDecoder = BitmapRegionDecoder.newInstance(fileDescriptor.getFileDescriptor(), false);
+                return regionDecoder.decodeRegion(srcRect, options);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            } finally {
+                if (regionDecoder != null) {
+                    regionDecoder.recycle();
+                }
+                SketchUtils.close(fileDescriptor);
+            }
+        }
+
         InputStream inputStream;
         try {
             inputStream = dataSource.getInputStream();
@@ -76,10 +128,11 @@ public class ImageDecodeUtils {
             SketchUtils.close(inputStream);
         }
 
-        Bitmap bitmap = regionDecoder.decodeRegion(srcRect, options);
-        regionDecoder.recycle();
-        SketchUtils.close(inputStream);
-        return bitmap;
+        try {
+            return regionDecoder.decodeRegion(srcRect, options);
+        } finally {
+            regionDecoder.recycle();
+        }
     }
 
     static void decodeSuccess(Bitmap bitmap, int outWidth, int outHeight, int inSampleSize, LoadRequest loadRequest, String logName) {
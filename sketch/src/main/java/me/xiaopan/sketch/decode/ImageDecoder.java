@@ -107,6 +107,20 @@ public class ImageDecoder implements Identifier {
         DataSource dataSource = DataSourceFactory.processedCacheFirstMakeDataSource(request.getContext(), request.getUriInfo(),
                 request.getDownloadResult(), request.getOptions(), request.getProcessedImageDiskCacheKey());
 
+        // 读尺寸、读EXIF、读像素共用一个输入流，打开代价高的数据源只打开一次
+        if (RewindableDataSource.needWrap(dataSource)) {
+            RewindableDataSource rewindableDataSource = new RewindableDataSource(dataSource);
+            try {
+                return doDecode(request, rewindableDataSource);
+            } finally {
+                rewindableDataSource.close();
+            }
+        }
+
+        return doDecode(request, dataSource);
+    }
+
+    private DecodeResult doDecode(LoadRequest request, DataSource dataSource) throws DecodeException {
         // Decode bounds and mime info
         BitmapFactory.Options boundOptions = new BitmapFactory.Options();
         boundOptions.inJustDecodeBounds = true;
@@ -27,10 +27,12 @@ import android.graphics.RectF;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.MappedByteBuffer;
 
 import me.xiaopan.sketch.Identifier;
 import me.xiaopan.sketch.cache.BitmapPool;
 import me.xiaopan.sketch.drawable.ImageAttrs;
+import me.xiaopan.sketch.util.ByteBufferInputStream;
 import me.xiaopan.sketch.util.ExifInterface;
 import me.xiaopan.sketch.util.SketchUtils;
 
@@ -195,7 +197,10 @@ public class ImageOrientationCorrector implements Identifier {
 
         InputStream inputStream = null;
         try {
-            inputStream = dataSource.getInputStream();
+            // 有内存映射的话直接从内存映射读，EXIF解析有很多零碎的读取，这样可以省去大量的系统调用
+            MappedByteBuffer mappedByteBuffer = dataSource instanceof DataSource.MappedDataSource ?
+                    ((DataSource.MappedDataSource) dataSource).getMappedByteBuffer() : null;
+            inputStream = mappedByteBuffer != null ? new ByteBufferInputStream(mappedByteBuffer) : dataSource.getInputStream();
             return readExifOrientation(inputStream);
         } catch (IOException e) {
             e.printStackTrace();
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.decode;
+
+import android.content.res.AssetFileDescriptor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import me.xiaopan.sketch.cache.BitmapPool;
+import me.xiaopan.sketch.drawable.ImageAttrs;
+import me.xiaopan.sketch.drawable.SketchGifDrawable;
+import me.xiaopan.sketch.request.ImageFrom;
+import me.xiaopan.sketch.util.SketchUtils;
+
+/**
+ * 可倒回的数据源，解码一张图片时读尺寸、读EXIF、读像素要打开三次输入流，
+ * 对于ContentDataSource、AssetsDataSource这种打开一次代价很高的数据源，用这个类包装一下就只需要打开一次。
+ * <br>第一次getInputStream()时打开原始输入流，读过的数据都会记录在缓冲区中，之后每次getInputStream()都从头开始，
+ * 先读缓冲区再接着读原始输入流。读尺寸和EXIF只会用到文件头部的一小段，所以缓冲区不会很大，
+ * 超过{@link #DEFAULT_MAX_BUFFER_SIZE}后就不再记录，这时再getInputStream()就只能重新打开原始输入流了
+ * <br>不是线程安全的，同一时间只能有一个输入流在使用，用完后必须调用{@link #close()}
+ */
+public class RewindableDataSource implements DataSource.SampledGifDataSource, DataSource.FileDescriptorDataSource, Closeable {
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 256 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    private DataSource dataSource;
+    private int maxBufferSize;
+
+    private InputStream sourceStream;
+    private byte[] buffer;
+    private int bufferLength;
+    private boolean rewindable = true;
+    private boolean closed;
+
+    public RewindableDataSource(DataSource dataSource, int maxBufferSize) {
+        this.dataSource = dataSource;
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    public RewindableDataSource(DataSource dataSource) {
+        this(dataSource, DEFAULT_MAX_BUFFER_SIZE);
+    }
+
+    /**
+     * 只有打开输入流代价高的数据源才需要包装
+     */
+    public static boolean needWrap(DataSource dataSource) {
+        return dataSource instanceof ContentDataSource || dataSource instanceof AssetsDataSource;
+    }
+
+    public DataSource getWrappedDataSource() {
+        return dataSource;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (closed) {
+            throw new IOException("RewindableDataSource closed");
+        }
+
+        if (sourceStream == null) {
+            sourceStream = dataSource.getInputStream();
+            buffer = new byte[Math.min(INITIAL_BUFFER_SIZE, maxBufferSize)];
+            bufferLength = 0;
+            rewindable = true;
+            return new RewindInputStream();
+        }
+
+        if (rewindable) {
+            return new RewindInputStream();
+        }
+
+        // 缓冲区已经装不下了，只能重新打开
+        return dataSource.getInputStream();
+    }
+
+    @Override
+    public long getLength() throws IOException {
+        return dataSource.getLength();
+    }
+
+    @Override
+    public File getFile(File outDir, String outName) throws IOException {
+        return dataSource.getFile(outDir, outName);
+    }
+
+    /**
+     * 原始数据源能提供文件描述符的话就直接用，从文件描述符解码不需要倒回
+     */
+    @Override
+    public AssetFileDescriptor getFileDescriptor() throws IOException {
+        if (dataSource instanceof FileDescriptorDataSource) {
+            return ((FileDescriptorDataSource) dataSource).getFileDescriptor();
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public ImageFrom getImageFrom() {
+        return dataSource.getImageFrom();
+    }
+
+    @Override
+    public SketchGifDrawable makeGifDrawable(String key, String uri, ImageAttrs imageAttrs, BitmapPool bitmapPool) {
+        return dataSource.makeGifDrawable(key, uri, imageAttrs, bitmapPool);
+    }
+
+    /**
+     * 原始数据源不支持缩小解码的话就按原尺寸解码
+     */
+    @Override
+    public SketchGifDrawable makeGifDrawable(String key, String uri, ImageAttrs imageAttrs, BitmapPool bitmapPool, int inSampleSize) {
+        if (dataSource instanceof SampledGifDataSource) {
+            return ((SampledGifDataSource) dataSource).makeGifDrawable(key, uri, imageAttrs, bitmapPool, inSampleSize);
+        } else {
+            return dataSource.makeGifDrawable(key, uri, imageAttrs, bitmapPool);
+        }
+    }
+
+    /**
+     * 关闭原始输入流并释放缓冲区
+     */
+    @Override
+    public void close() {
+        closed = true;
+        SketchUtils.close(sourceStream);
+        sourceStream = null;
+        buffer = null;
+    }
+
+    /**
+     * 从原始输入流读取数据，能记下来就记在缓冲区里
+     */
+    private int readSource(byte[] b, int off, int len) throws IOException {
+        int readCount = sourceStream.read(b, off, len);
+        if (readCount <= 0 || !rewindable) {
+            return readCount;
+        }
+
+        int newLength = bufferLength + readCount;
+        if (newLength > maxBufferSize) {
+            rewindable = false;
+            buffer = null;
+            return readCount;
+        }
+
+        if (newLength > buffer.length) {
+            byte[] newBuffer = new byte[Math.min(Math.max(buffer.length * 2, newLength), maxBufferSize)];
+            System.arraycopy(buffer, 0, newBuffer, 0, bufferLength);
+            buffer = newBuffer;
+        }
+        System.arraycopy(b, off, buffer, bufferLength, readCount);
+        bufferLength = newLength;
+        return readCount;
+    }
+
+    /**
+     * 先读缓冲区再读原始输入流，关闭时不会关闭原始输入流
+     */
+    private class RewindInputStream extends InputStream {
+        private int position;
+        private boolean closed;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int readCount = read(single, 0, 1);
+            return readCount == 1 ? single[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(@SuppressWarnings("NullableProblems") byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+
+            if (rewindable && position < bufferLength) {
+                int readCount = Math.min(len, bufferLength - position);
+                System.arraycopy(buffer, position, b, off, readCount);
+                position += readCount;
+                return readCount;
+            }
+
+            if (rewindable || position == bufferLength) {
+                int readCount = readSource(b, off, len);
+                if (readCount > 0) {
+                    position += readCount;
+                    if (!rewindable) {
+                        // 已经不再记录了，之后的位置都以原始输入流为准，不会再有别的RewindInputStream来读了
+                        bufferLength = position;
+                    }
+                }
+                return readCount;
+            }
+
+            throw new IOException("RewindableDataSource has been consumed by another stream");
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            byte[] skipBuffer = new byte[(int) Math.min(n, 8 * 1024)];
+            long skipped = 0;
+            while (skipped < n) {
+                int readCount = read(skipBuffer, 0, (int) Math.min(n - skipped, skipBuffer.length));
+                if (readCount == -1) {
+                    break;
+                }
+                skipped += readCount;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (closed) {
+                return 0;
+            }
+            int buffered = rewindable ? bufferLength - position : 0;
+            return Math.max(0, buffered) + (sourceStream != null ? sourceStream.available() : 0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+        }
+    }
+}
@@ -18,8 +18,12 @@ package me.xiaopan.sketch.decode;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.graphics.Rect;
 import android.os.Build;
 
+import java.io.IOException;
+
 import me.xiaopan.sketch.ErrorTracker;
 import me.xiaopan.sketch.SLog;
 import me.xiaopan.sketch.SLogType;
@@ -30,6 +34,8 @@ import me.xiaopan.sketch.request.LoadOptions;
 import me.xiaopan.sketch.request.LoadRequest;
 import me.xiaopan.sketch.request.Resize;
 import me.xiaopan.sketch.util.SketchUtils;
+import me.xiaopan.sketch.viewfun.large.ImageRegionDecoder;
+import me.xiaopan.sketch.viewfun.large.RegionDecoderCache;
 
 public class ThumbnailModeDecodeHelper extends DecodeHelper {
     private static final String LOG_NAME = "ThumbnailModeDecodeHelper";
@@ -94,7 +100,7 @@ public class ThumbnailModeDecodeHelper extends DecodeHelper {
 
         Bitmap bitmap = null;
         try {
-            bitmap = ImageDecodeUtils.decodeRegionBitmap(dataSource, mapping.srcRect, decodeOptions);
+            bitmap = decodeRegion(request, dataSource, imageType, boundOptions, exifOrientation, mapping.srcRect, decodeOptions);
         } catch (Throwable throwable) {
             throwable.printStackTrace();
 
@@ -105,7 +111,7 @@ public class ThumbnailModeDecodeHelper extends DecodeHelper {
                         boundOptions.outWidth, boundOptions.outHeight, boundOptions.outMimeType, throwable, decodeOptions, true);
 
                 try {
-                    bitmap = ImageDecodeUtils.decodeRegionBitmap(dataSource, mapping.srcRect, decodeOptions);
+                    bitmap = decodeRegion(request, dataSource, imageType, boundOptions, exifOrientation, mapping.srcRect, decodeOptions);
                 } catch (Throwable throwable1) {
                     throwable1.printStackTrace();
 
@@ -147,4 +153,37 @@ public class ThumbnailModeDecodeHelper extends DecodeHelper {
         ImageDecodeUtils.decodeSuccess(bitmap, boundOptions.outWidth, boundOptions.outHeight, decodeOptions.inSampleSize, request, LOG_NAME);
         return result;
     }
+
+    /**
+     * 从碎片解码器缓存中获取解码器来解码，同一张图片的多个缩略图就不用每次都创建BitmapRegionDecoder了，
+     * 数据在内存里的或者缓存找不到数据的就直接用请求的数据源解码
+     *
+     * @param boundOptions 已经按照图片方向转换过尺寸
+     */
+    private Bitmap decodeRegion(LoadRequest request, DataSource dataSource, ImageType imageType, BitmapFactory.Options boundOptions,
+                                int exifOrientation, Rect srcRect, BitmapFactory.Options decodeOptions) {
+        if (dataSource instanceof ByteArrayDataSource) {
+            return ImageDecodeUtils.decodeRegionBitmap(dataSource, srcRect, decodeOptions);
+        }
+
+        RegionDecoderCache regionDecoderCache = request.getConfiguration().getRegionDecoderCache();
+        ImageRegionDecoder regionDecoder;
+        try {
+            regionDecoder = regionDecoderCache.obtain(request.getContext(), request.getUri(),
+                    request.getOptions().isCorrectImageOrientationDisabled(),
+                    new Point(boundOptions.outWidth, boundOptions.outHeight), imageType, exifOrientation);
+        } catch (DecodeException e) {
+            e.printStackTrace();
+            return ImageDecodeUtils.decodeRegionBitmap(dataSource, srcRect, decodeOptions);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        try {
+            return regionDecoder.decodeRegion(srcRect, decodeOptions);
+        } finally {
+            regionDecoderCache.release(regionDecoder);
+        }
+    }
 }
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.drawable;
+
+import android.os.Build;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * GIF帧渲染线程池，所有{@link SketchGifDrawable}共用。
+ * <br>gif库默认只有一个渲染线程，同时显示多个GIF时下一帧经常赶不上显示时间，这里线程数跟CPU核数一致（最多{@link #MAX_POOL_SIZE}个）。
+ * ScheduledThreadPoolExecutor的队列本身就是按执行时间排序的，所以离显示时间最近的帧总是先渲染
+ */
+public class GifRenderExecutor extends ScheduledThreadPoolExecutor {
+    private static final int MAX_POOL_SIZE = 4;
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    private GifRenderExecutor(int poolSize) {
+        super(poolSize, new RenderThreadFactory(), new DiscardPolicy());
+
+        // 没有GIF在播放的时候线程自动停止
+        setKeepAliveTime(30, TimeUnit.SECONDS);
+        allowCoreThreadTimeOut(true);
+
+        // GIF停止播放时会取消已经安排的渲染任务，5.0以下只能等到执行时间到了才会从队列中移除
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    public static GifRenderExecutor getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    private static class InstanceHolder {
+        private static final GifRenderExecutor INSTANCE = new GifRenderExecutor(
+                Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_POOL_SIZE)));
+    }
+
+    private static class RenderThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "GifRenderThread" + THREAD_NUMBER.incrementAndGet());
+        }
+    }
+}
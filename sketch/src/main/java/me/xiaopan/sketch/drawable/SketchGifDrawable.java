@@ -235,6 +235,21 @@ public interface SketchGifDrawable extends SketchDrawable, Animatable, MediaCont
      */
     int getFrameDuration(@IntRange(from = 0) final int index);
 
+    /**
+     * Returns number of frames rendered since this drawable was created.
+     *
+     * @return number of rendered frames
+     */
+    int getRenderedFrameCount();
+
+    /**
+     * Returns number of frames which were rendered more than 16 milliseconds (one vsync) after their
+     * scheduled time, e.g. because rendering executor was busy. Such frames are displayed too late or not at all.
+     *
+     * @return number of dropped frames
+     */
+    int getDroppedFrameCount();
+
     /**
      * 跟随页面是否可见停止或播放gif
      *
@@ -37,6 +37,8 @@ import me.xiaopan.sketch.cache.BitmapPoolUtils;
 import me.xiaopan.sketch.request.ImageFrom;
 import me.xiaopan.sketch.util.SketchUtils;
 import pl.droidsonroids.gif.GifDrawable;
+import pl.droidsonroids.gif.GifOptions;
+import pl.droidsonroids.gif.InputSource;
 
 /**
  * 增加了从BitmapPool中寻找可复用Bitmap的功能以及图片的信息
@@ -55,8 +57,8 @@ public class SketchGifDrawableImpl extends GifDrawable implements SketchGifDrawa
     private Map<AnimationListener, pl.droidsonroids.gif.AnimationListener> listenerMap;
 
     SketchGifDrawableImpl(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom, BitmapPool bitmapPool,
-                          AssetFileDescriptor afd) throws IOException {
-        super(afd);
+                          AssetFileDescriptor afd, int inSampleSize) throws IOException {
+        super(new InputSource.AssetFileDescriptorSource(afd), makeOptions(inSampleSize), GifRenderExecutor.getInstance());
         this.key = key;
         this.uri = uri;
         this.imageAttrs = imageAttrs;
@@ -65,8 +67,8 @@ public class SketchGifDrawableImpl extends GifDrawable implements SketchGifDrawa
     }
 
     SketchGifDrawableImpl(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom, BitmapPool bitmapPool,
-                          AssetManager assets, String assetName) throws IOException {
-        super(assets, assetName);
+                          AssetManager assets, String assetName, int inSampleSize) throws IOException {
+        super(new InputSource.AssetSource(assets, assetName), makeOptions(inSampleSize), GifRenderExecutor.getInstance());
         this.key = key;
         this.uri = uri;
         this.imageAttrs = imageAttrs;
@@ -75,8 +77,8 @@ public class SketchGifDrawableImpl extends GifDrawable implements SketchGifDrawa
     }
 
     SketchGifDrawableImpl(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom, BitmapPool bitmapPool,
-                          ByteBuffer buffer) throws IOException {
-        super(buffer);
+                          ByteBuffer buffer, int inSampleSize) throws IOException {
+        super(new InputSource.DirectByteBufferSource(buffer), makeOptions(inSampleSize), GifRenderExecutor.getInstance());
         this.key = key;
         this.uri = uri;
         this.imageAttrs = imageAttrs;
@@ -85,8 +87,8 @@ public class SketchGifDrawableImpl extends GifDrawable implements SketchGifDrawa
     }
 
     SketchGifDrawableImpl(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom, BitmapPool bitmapPool,
-                          byte[] bytes) throws IOException {
-        super(bytes);
+                          byte[] bytes, int inSampleSize) throws IOException {
+        super(new InputSource.ByteArraySource(bytes), makeOptions(inSampleSize), GifRenderExecutor.getInstance());
         this.key = key;
         this.uri = uri;
         this.imageAttrs = imageAttrs;
@@ -95,8 +97,8 @@ public class SketchGifDrawableImpl extends GifDrawable implements SketchGifDrawa
     }
 
     SketchGifDrawableImpl(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom, BitmapPool bitmapPool,
-                          FileDescriptor fd) throws IOException {
-        super(fd);
+                          FileDescriptor fd, int inSampleSize) throws IOException {
+        super(new InputSource.FileDescriptorSource(fd), makeOptions(inSampleSize), GifRenderExecutor.getInstance());
         this.key = key;
         this.uri = uri;
         this.imageAttrs = imageAttrs;
@@ -105,8 +107,8 @@ public class SketchGifDrawableImpl extends GifDrawable implements SketchGifDrawa
     }
 
     SketchGifDrawableImpl(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom, BitmapPool bitmapPool,
-                          File file) throws IOException {
-        super(file);
+                          File file, int inSampleSize) throws IOException {
+        super(new InputSource.FileSource(file), makeOptions(inSampleSize), GifRenderExecutor.getInstance());
         this.key = key;
         this.uri = uri;
         this.imageAttrs = imageAttrs;
@@ -115,8 +117,8 @@ public class SketchGifDrawableImpl extends GifDrawable implements SketchGifDrawa
     }
 
     SketchGifDrawableImpl(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom, BitmapPool bitmapPool,
-                          String filePath) throws IOException {
-        super(filePath);
+                          String filePath, int inSampleSize) throws IOException {
+        super(new InputSource.FileSource(filePath), makeOptions(inSampleSize), GifRenderExecutor.getInstance());
         this.key = key;
         this.uri = uri;
         this.imageAttrs = imageAttrs;
@@ -125,8 +127,8 @@ public class SketchGifDrawableImpl extends GifDrawable implements SketchGifDrawa
     }
 
     SketchGifDrawableImpl(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom, BitmapPool bitmapPool,
-                          Resources res, int id) throws Resources.NotFoundException, IOException {
-        super(res, id);
+                          Resources res, int id, int inSampleSize) throws Resources.NotFoundException, IOException {
+        super(new InputSource.ResourcesSource(res, id), makeOptions(inSampleSize), GifRenderExecutor.getInstance());
         this.key = key;
         this.uri = uri;
         this.imageAttrs = imageAttrs;
@@ -135,8 +137,8 @@ public class SketchGifDrawableImpl extends GifDrawable implements SketchGifDrawa
     }
 
     SketchGifDrawableImpl(String key, String imageUri, ImageAttrs imageAttrs, ImageFrom imageFrom, BitmapPool bitmapPool,
-                          ContentResolver resolver, Uri uri) throws IOException {
-        super(resolver, uri);
+                          ContentResolver resolver, Uri uri, int inSampleSize) throws IOException {
+        super(new InputSource.UriSource(resolver, uri), makeOptions(inSampleSize), GifRenderExecutor.getInstance());
         this.key = key;
         this.uri = imageUri;
         this.imageAttrs = imageAttrs;
@@ -145,8 +147,8 @@ public class SketchGifDrawableImpl extends GifDrawable implements SketchGifDrawa
     }
 
     SketchGifDrawableImpl(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom, BitmapPool bitmapPool,
-                          InputStream stream) throws IOException {
-        super(stream);
+                          InputStream stream, int inSampleSize) throws IOException {
+        super(new InputSource.InputStreamSource(stream), makeOptions(inSampleSize), GifRenderExecutor.getInstance());
         this.key = key;
         this.uri = uri;
         this.imageAttrs = imageAttrs;
@@ -154,6 +156,12 @@ public class SketchGifDrawableImpl extends GifDrawable implements SketchGifDrawa
         this.bitmapPool = bitmapPool;
     }
 
+    private static GifOptions makeOptions(int inSampleSize) {
+        GifOptions options = new GifOptions();
+        options.setInSampleSize(inSampleSize);
+        return options;
+    }
+
     @Override
     protected Bitmap makeBitmap(int width, int height, Bitmap.Config config) {
         if (bitmapPool != null) {
@@ -55,94 +55,148 @@ public class SketchGifFactory {
     @SuppressWarnings("unused")
     public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
                                                       BitmapPool bitmapPool, AssetFileDescriptor afd) throws IOException {
+        return createGifDrawable(key, uri, imageAttrs, imageFrom, bitmapPool, afd, 1);
+    }
+
+    @SuppressWarnings("unused")
+    public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
+                                                      BitmapPool bitmapPool, AssetFileDescriptor afd, int inSampleSize) throws IOException {
         if (!isExistGifLibrary()) {
             return null;
         }
 
-        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, afd);
+        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, afd, inSampleSize);
     }
 
     public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
                                                       BitmapPool bitmapPool, AssetManager assets, String assetName) throws IOException {
+        return createGifDrawable(key, uri, imageAttrs, imageFrom, bitmapPool, assets, assetName, 1);
+    }
+
+    public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
+                                                      BitmapPool bitmapPool, AssetManager assets, String assetName, int inSampleSize) throws IOException {
         if (!isExistGifLibrary()) {
             return null;
         }
 
-        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, assets, assetName);
+        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, assets, assetName, inSampleSize);
     }
 
     @SuppressWarnings("unused")
     public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
                                                       BitmapPool bitmapPool, ByteBuffer buffer) throws IOException {
+        return createGifDrawable(key, uri, imageAttrs, imageFrom, bitmapPool, buffer, 1);
+    }
+
+    @SuppressWarnings("unused")
+    public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
+                                                      BitmapPool bitmapPool, ByteBuffer buffer, int inSampleSize) throws IOException {
         if (!isExistGifLibrary()) {
             return null;
         }
 
-        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, buffer);
+        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, buffer, inSampleSize);
     }
 
     public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
                                                       BitmapPool bitmapPool, byte[] bytes) throws IOException {
+        return createGifDrawable(key, uri, imageAttrs, imageFrom, bitmapPool, bytes, 1);
+    }
+
+    public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
+                                                      BitmapPool bitmapPool, byte[] bytes, int inSampleSize) throws IOException {
         if (!isExistGifLibrary()) {
             return null;
         }
 
-        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, bytes);
+        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, bytes, inSampleSize);
     }
 
     public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
                                                       BitmapPool bitmapPool, FileDescriptor fd) throws IOException {
+        return createGifDrawable(key, uri, imageAttrs, imageFrom, bitmapPool, fd, 1);
+    }
+
+    public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
+                                                      BitmapPool bitmapPool, FileDescriptor fd, int inSampleSize) throws IOException {
         if (!isExistGifLibrary()) {
             return null;
         }
 
-        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, fd);
+        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, fd, inSampleSize);
     }
 
     public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
                                                       BitmapPool bitmapPool, File file) throws IOException {
+        return createGifDrawable(key, uri, imageAttrs, imageFrom, bitmapPool, file, 1);
+    }
+
+    public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
+                                                      BitmapPool bitmapPool, File file, int inSampleSize) throws IOException {
         if (!isExistGifLibrary()) {
             return null;
         }
 
-        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, file);
+        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, file, inSampleSize);
     }
 
     @SuppressWarnings("unused")
     public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
                                                       BitmapPool bitmapPool, String filePath) throws IOException {
+        return createGifDrawable(key, uri, imageAttrs, imageFrom, bitmapPool, filePath, 1);
+    }
+
+    @SuppressWarnings("unused")
+    public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
+                                                      BitmapPool bitmapPool, String filePath, int inSampleSize) throws IOException {
         if (!isExistGifLibrary()) {
             return null;
         }
 
-        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, filePath);
+        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, filePath, inSampleSize);
     }
 
     public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
                                                       BitmapPool bitmapPool, Resources res, int id) throws Resources.NotFoundException, IOException {
+        return createGifDrawable(key, uri, imageAttrs, imageFrom, bitmapPool, res, id, 1);
+    }
+
+    public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
+                                                      BitmapPool bitmapPool, Resources res, int id, int inSampleSize) throws Resources.NotFoundException, IOException {
         if (!isExistGifLibrary()) {
             return null;
         }
 
-        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, res, id);
+        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, res, id, inSampleSize);
     }
 
     public static SketchGifDrawable createGifDrawable(String key, String imageUri, ImageAttrs imageAttrs, ImageFrom imageFrom,
                                                       BitmapPool bitmapPool, ContentResolver resolver, Uri uri) throws IOException {
+        return createGifDrawable(key, imageUri, imageAttrs, imageFrom, bitmapPool, resolver, uri, 1);
+    }
+
+    public static SketchGifDrawable createGifDrawable(String key, String imageUri, ImageAttrs imageAttrs, ImageFrom imageFrom,
+                                                      BitmapPool bitmapPool, ContentResolver resolver, Uri uri, int inSampleSize) throws IOException {
         if (!isExistGifLibrary()) {
             return null;
         }
 
-        return new SketchGifDrawableImpl(key, imageUri, imageAttrs, imageFrom, bitmapPool, resolver, uri);
+        return new SketchGifDrawableImpl(key, imageUri, imageAttrs, imageFrom, bitmapPool, resolver, uri, inSampleSize);
     }
 
     @SuppressWarnings("unused")
     public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
                                                       BitmapPool bitmapPool, InputStream stream) throws IOException {
+        return createGifDrawable(key, uri, imageAttrs, imageFrom, bitmapPool, stream, 1);
+    }
+
+    @SuppressWarnings("unused")
+    public static SketchGifDrawable createGifDrawable(String key, String uri, ImageAttrs imageAttrs, ImageFrom imageFrom,
+                                                      BitmapPool bitmapPool, InputStream stream, int inSampleSize) throws IOException {
         if (!isExistGifLibrary()) {
             return null;
         }
 
-        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, stream);
+        return new SketchGifDrawableImpl(key, uri, imageAttrs, imageFrom, bitmapPool, stream, inSampleSize);
     }
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.http;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import me.xiaopan.sketch.Configuration;
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.cache.DiskCache;
+import me.xiaopan.sketch.request.UriInfo;
+import me.xiaopan.sketch.util.DiskLruCache;
+import me.xiaopan.sketch.util.LruCache;
+import me.xiaopan.sketch.util.SketchUtils;
+
+/**
+ * 磁盘缓存中的图片过期（超过max-age）后，当前请求照常使用旧的图片，同时在下载线程池中发起条件请求验证，
+ * 返回304就只更新缓存信息，返回200就用新的图片替换磁盘缓存中的旧图片，下次加载就是新的了
+ */
+public class CacheRevalidator {
+    private static final String LOG_NAME = "CacheRevalidator";
+
+    /**
+     * 还不知道什么时候过期的图片，或者验证失败、验证任务被挤出队列了，最少隔这么久再提交验证任务
+     */
+    private static final long MIN_INTERVAL = 60 * 1000;
+
+    /**
+     * 最多记住这么多张图片下次需要检查的时间
+     */
+    private static final int MAX_CHECK_TIME_COUNT = 200;
+
+    /**
+     * 每张图片下次需要检查的时间，从缓存信息中的过期时间得来，没到时间的连验证任务都不提交，
+     * 否则列表来回滑动时每次命中磁盘缓存都会往下载线程池里塞一个什么也不做的任务，把正常的下载挤出去
+     */
+    private final LruCache<String, Long> checkTimeCache = new LruCache<String, Long>(MAX_CHECK_TIME_COUNT);
+    private final AtomicLong notModifiedCount = new AtomicLong();
+    private final AtomicLong modifiedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * 已经过期或者还不知道什么时候过期的话就提交一个后台验证任务，读取缓存信息检查是否过期以及验证都在下载线程池中执行，
+     * 因为调用方大多是在主线程上commit()，HttpStack不支持条件请求的话什么也不做
+     */
+    public void revalidateIfStale(Configuration configuration, UriInfo uriInfo) {
+        if (!(configuration.getHttpStack() instanceof HttpStack.ConditionalHttpStack)) {
+            return;
+        }
+
+        String diskCacheKey = uriInfo.getDiskCacheKey();
+        long now = System.currentTimeMillis();
+        synchronized (checkTimeCache) {
+            Long checkTime = checkTimeCache.get(diskCacheKey);
+            if (checkTime != null && now < checkTime) {
+                return;
+            }
+
+            // 先推迟下次检查的时间，任务执行完会换成真正的过期时间，任务被挤出队列的话过一会还能再提交
+            checkTimeCache.put(diskCacheKey, now + MIN_INTERVAL);
+        }
+
+        configuration.getRequestExecutor().submitDownload(new RevalidateTask(configuration, uriInfo));
+    }
+
+    /**
+     * 磁盘缓存中的图片重新下载了，缓存信息也跟着变了，之前记住的过期时间就不能用了
+     */
+    public void invalidate(String diskCacheKey) {
+        checkTimeCache.remove(diskCacheKey);
+    }
+
+    private void revalidate(Configuration configuration, UriInfo uriInfo) throws IOException {
+        DiskCache diskCache = configuration.getDiskCache();
+        String diskCacheKey = uriInfo.getDiskCacheKey();
+
+        ReentrantLock diskCacheEditLock = diskCache.getEditLock(diskCacheKey);
+        diskCacheEditLock.lock();
+        try {
+            // 在锁里检查是否过期，可能别人已经验证过了
+            HttpCacheMetadata metadata = HttpCacheMetadata.read(diskCache, diskCacheKey);
+            if (metadata == null || !diskCache.exist(diskCacheKey)) {
+                checkTimeCache.put(diskCacheKey, Long.MAX_VALUE);
+                return;
+            }
+            if (!metadata.isStale(System.currentTimeMillis())) {
+                checkTimeCache.put(diskCacheKey, metadata.getStaleTime());
+                return;
+            }
+
+            if (SLogType.CACHE.isEnabled()) {
+                SLog.fd(SLogType.CACHE, LOG_NAME, "stale, revalidate. maxAge=%d. %s", metadata.getMaxAge(), uriInfo.getUri());
+            }
+
+            HttpStack httpStack = configuration.getHttpStack();
+            if (!(httpStack instanceof HttpStack.ConditionalHttpStack)) {
+                return;
+            }
+            HttpStack.ImageHttpResponse httpResponse = ((HttpStack.ConditionalHttpStack) httpStack).getConditionalHttpResponse(
+                    uriInfo.getContent(), metadata.getETag(), metadata.getLastModified());
+            int responseCode = httpResponse.getResponseCode();
+            long responseTime = System.currentTimeMillis();
+
+            if (responseCode == 304) {
+                httpResponse.releaseConnection();
+                metadata.refresh(httpResponse, responseTime);
+                metadata.save(diskCache, diskCacheKey);
+                checkTimeCache.put(diskCacheKey, metadata.getStaleTime());
+                notModifiedCount.incrementAndGet();
+                if (SLogType.CACHE.isEnabled()) {
+                    SLog.fd(SLogType.CACHE, LOG_NAME, "not modified. %s", uriInfo.getUri());
+                }
+            } else if (responseCode == 200) {
+                if (saveContent(diskCache, diskCacheKey, httpResponse)) {
+                    HttpCacheMetadata newMetadata = HttpCacheMetadata.fromResponse(httpResponse, responseTime);
+                    if (newMetadata != null) {
+                        newMetadata.save(diskCache, diskCacheKey);
+                        checkTimeCache.put(diskCacheKey, newMetadata.getStaleTime());
+                    } else {
+                        HttpCacheMetadata.delete(diskCache, diskCacheKey);
+                        checkTimeCache.put(diskCacheKey, Long.MAX_VALUE);
+                    }
+                    modifiedCount.incrementAndGet();
+                    if (SLogType.CACHE.isEnabled()) {
+                        SLog.fi(SLogType.CACHE, LOG_NAME, "modified, disk cache replaced. %s", uriInfo.getUri());
+                    }
+                } else {
+                    failedCount.incrementAndGet();
+                }
+            } else {
+                httpResponse.releaseConnection();
+                failedCount.incrementAndGet();
+                SLog.fw(SLogType.CACHE, LOG_NAME, "revalidate failed. responseCode=%d. %s", responseCode, uriInfo.getUri());
+            }
+        } finally {
+            diskCacheEditLock.unlock();
+        }
+    }
+
+    private boolean saveContent(DiskCache diskCache, String diskCacheKey, HttpStack.ImageHttpResponse httpResponse) throws IOException {
+        long contentLength = httpResponse.getContentLength();
+        if (contentLength <= 0 && !httpResponse.isContentChunked()) {
+            httpResponse.releaseConnection();
+            return false;
+        }
+
+        DiskCache.Editor diskCacheEditor = diskCache.edit(diskCacheKey);
+        if (diskCacheEditor == null) {
+            httpResponse.releaseConnection();
+            return false;
+        }
+
+        InputStream inputStream = null;
+        OutputStream outputStream = null;
+        long completedLength = 0;
+        try {
+            inputStream = httpResponse.getContent();
+            outputStream = new BufferedOutputStream(diskCacheEditor.newOutputStream(), 8 * 1024);
+            byte[] buffer = new byte[8 * 1024];
+            int realReadCount;
+            while ((realReadCount = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, realReadCount);
+                completedLength += realReadCount;
+            }
+            outputStream.flush();
+        } catch (IOException e) {
+            SketchUtils.close(outputStream);
+            diskCacheEditor.abort();
+            throw e;
+        } finally {
+            SketchUtils.close(outputStream);
+            SketchUtils.close(inputStream);
+        }
+
+        if (contentLength > 0 && completedLength != contentLength) {
+            diskCacheEditor.abort();
+            return false;
+        }
+
+        try {
+            diskCacheEditor.commit();
+            return true;
+        } catch (DiskLruCache.EditorChangedException e) {
+            e.printStackTrace();
+        } catch (DiskLruCache.ClosedException e) {
+            e.printStackTrace();
+        } catch (DiskLruCache.FileNotExistException e) {
+            e.printStackTrace();
+        }
+        diskCacheEditor.abort();
+        return false;
+    }
+
+    /**
+     * 验证后发现没变的次数
+     */
+    public long getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    /**
+     * 验证后发现变了并且已经替换了的次数
+     */
+    public long getModifiedCount() {
+        return modifiedCount.get();
+    }
+
+    /**
+     * 验证失败的次数
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    private class RevalidateTask implements Runnable {
+        private Configuration configuration;
+        private UriInfo uriInfo;
+
+        RevalidateTask(Configuration configuration, UriInfo uriInfo) {
+            this.configuration = configuration;
+            this.uriInfo = uriInfo;
+        }
+
+        @Override
+        public void run() {
+            try {
+                revalidate(configuration, uriInfo);
+            } catch (Throwable e) {
+                e.printStackTrace();
+                failedCount.incrementAndGet();
+            }
+        }
+    }
+}
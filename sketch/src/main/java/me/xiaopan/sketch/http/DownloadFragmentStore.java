@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.http;
+
+import android.content.Context;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.util.SketchMD5Utils;
+import me.xiaopan.sketch.util.SketchUtils;
+
+/**
+ * 保存下载了一半的图片数据，下次下载时通过Range请求从断开的地方接着下载。
+ * <br>每个片段由一个数据文件和一个记录校验值（ETag或Last-Modified）和总长度的meta文件组成，
+ * 总大小超过{@link #DEFAULT_MAX_SIZE}或者超过{@link #MAX_AGE}没有用过的片段会被删除
+ */
+public class DownloadFragmentStore {
+    public static final String DIR_NAME = "sketch-fragment";
+    public static final long DEFAULT_MAX_SIZE = 30 * 1024 * 1024;
+    public static final long MAX_AGE = 7L * 24 * 60 * 60 * 1000;
+
+    private static final String LOG_NAME = "DownloadFragmentStore";
+    private static final String DATA_SUFFIX = ".data";
+    private static final String META_SUFFIX = ".meta";
+
+    private File dir;
+    private long maxSize;
+
+    public DownloadFragmentStore(Context context, long maxSize) {
+        this.dir = SketchUtils.getDefaultSketchCacheDir(context.getApplicationContext(), DIR_NAME, true);
+        this.maxSize = maxSize;
+    }
+
+    public DownloadFragmentStore(Context context) {
+        this(context, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * 获取可以接着下载的片段，已经不完整或已经下载完了的片段会被删除
+     *
+     * @param key 一般是DiskCacheKey
+     */
+    public synchronized Fragment get(String key) {
+        String name = SketchMD5Utils.md5(key);
+        File dataFile = new File(dir, name + DATA_SUFFIX);
+        File metaFile = new File(dir, name + META_SUFFIX);
+        if (!dataFile.exists() || !metaFile.exists()) {
+            deleteQuietly(dataFile, metaFile);
+            return null;
+        }
+
+        String validator = null;
+        long totalLength = 0;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(metaFile));
+            validator = reader.readLine();
+            totalLength = Long.parseLong(reader.readLine());
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+        } finally {
+            SketchUtils.close(reader);
+        }
+
+        long length = dataFile.length();
+        if (validator == null || validator.length() == 0 || totalLength <= 0 || length <= 0 || length >= totalLength) {
+            deleteQuietly(dataFile, metaFile);
+            return null;
+        }
+
+        return new Fragment(dataFile, metaFile, validator, totalLength);
+    }
+
+    /**
+     * 创建一个新的片段，旧的会被覆盖
+     *
+     * @param key         一般是DiskCacheKey
+     * @param validator   ETag或Last-Modified，用作If-Range的值
+     * @param totalLength 完整的长度
+     */
+    public synchronized Fragment create(String key, String validator, long totalLength) throws IOException {
+        if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+            throw new IOException("Unable create dir: " + dir.getPath());
+        }
+
+        String name = SketchMD5Utils.md5(key);
+        File dataFile = new File(dir, name + DATA_SUFFIX);
+        File metaFile = new File(dir, name + META_SUFFIX);
+        deleteQuietly(dataFile, metaFile);
+
+        Writer writer = new FileWriter(metaFile);
+        try {
+            writer.write(validator);
+            writer.write("\n");
+            writer.write(Long.toString(totalLength));
+            writer.write("\n");
+        } finally {
+            SketchUtils.close(writer);
+        }
+
+        if (!dataFile.createNewFile() && !dataFile.exists()) {
+            deleteQuietly(metaFile);
+            throw new IOException("Unable create file: " + dataFile.getPath());
+        }
+
+        return new Fragment(dataFile, metaFile, validator, totalLength);
+    }
+
+    /**
+     * 删除片段
+     */
+    public synchronized void delete(Fragment fragment) {
+        if (fragment != null) {
+            deleteQuietly(fragment.dataFile, fragment.metaFile);
+        }
+    }
+
+    /**
+     * 删除过期的片段，总大小超过maxSize时从最久没用的开始删除
+     */
+    public synchronized void trim() {
+        File[] dataFiles = dir.listFiles();
+        if (dataFiles == null || dataFiles.length == 0) {
+            return;
+        }
+
+        Arrays.sort(dataFiles, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsTime = lhs.lastModified();
+                long rhsTime = rhs.lastModified();
+                return lhsTime < rhsTime ? 1 : (lhsTime == rhsTime ? 0 : -1);
+            }
+        });
+
+        long now = System.currentTimeMillis();
+        long size = 0;
+        for (File file : dataFiles) {
+            if (!file.getName().endsWith(DATA_SUFFIX)) {
+                continue;
+            }
+
+            size += file.length();
+            if (size > maxSize || now - file.lastModified() > MAX_AGE) {
+                String name = file.getName().substring(0, file.getName().length() - DATA_SUFFIX.length());
+                deleteQuietly(file, new File(dir, name + META_SUFFIX));
+                if (SLogType.CACHE.isEnabled()) {
+                    SLog.fd(SLogType.CACHE, LOG_NAME, "trim. %s", file.getName());
+                }
+            }
+        }
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    private static void deleteQuietly(File... files) {
+        for (File file : files) {
+            if (file.exists() && !file.delete()) {
+                SLog.fw(SLogType.CACHE, LOG_NAME, "delete failed. %s", file.getPath());
+            }
+        }
+    }
+
+    /**
+     * 下载了一半的图片数据
+     */
+    public static class Fragment {
+        private File dataFile;
+        private File metaFile;
+        private String validator;
+        private long totalLength;
+
+        Fragment(File dataFile, File metaFile, String validator, long totalLength) {
+            this.dataFile = dataFile;
+            this.metaFile = metaFile;
+            this.validator = validator;
+            this.totalLength = totalLength;
+        }
+
+        public File getDataFile() {
+            return dataFile;
+        }
+
+        /**
+         * ETag或Last-Modified
+         */
+        public String getValidator() {
+            return validator;
+        }
+
+        public long getTotalLength() {
+            return totalLength;
+        }
+
+        /**
+         * 已经下载了的长度
+         */
+        public long getLength() {
+            return dataFile.length();
+        }
+
+        public boolean isCompleted() {
+            return getLength() >= totalLength;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.http;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import me.xiaopan.sketch.cache.DiskCache;
+import me.xiaopan.sketch.util.DiskLruCache;
+import me.xiaopan.sketch.util.SketchUtils;
+
+/**
+ * 图片的HTTP缓存信息（ETag、Last-Modified、Cache-Control: max-age等），同图片一起存在磁盘缓存中，
+ * key是图片的DiskCacheKey加上{@link #DISK_CACHE_KEY_SUFFIX}。用来判断磁盘缓存中的图片是否过期以及发起304验证请求
+ */
+public class HttpCacheMetadata {
+    public static final String DISK_CACHE_KEY_SUFFIX = "#HttpCacheMetadata";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String FIELD_RESPONSE_TIME = "Response-Time";
+    private static final String FIELD_MAX_AGE = "Max-Age";
+
+    private String eTag;
+    private String lastModified;
+    private long responseTime;
+    private long maxAge = -1;
+
+    private HttpCacheMetadata() {
+    }
+
+    /**
+     * 根据响应头创建缓存信息，没有任何缓存相关的响应头、是no-store或者读不了单个响应头的时候返回null
+     *
+     * @param responseTime 收到响应的时间
+     */
+    public static HttpCacheMetadata fromResponse(HttpStack.ImageHttpResponse imageHttpResponse, long responseTime) {
+        if (!(imageHttpResponse instanceof HttpStack.HeaderHttpResponse)) {
+            return null;
+        }
+        HttpStack.HeaderHttpResponse httpResponse = (HttpStack.HeaderHttpResponse) imageHttpResponse;
+
+        HttpCacheMetadata metadata = new HttpCacheMetadata();
+        metadata.responseTime = responseTime;
+        metadata.eTag = httpResponse.getHeaderField(HEADER_ETAG);
+        metadata.lastModified = httpResponse.getHeaderField(HEADER_LAST_MODIFIED);
+
+        String cacheControl = httpResponse.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.US);
+                if (directive.equals("no-store")) {
+                    return null;
+                } else if (directive.equals("no-cache")) {
+                    metadata.maxAge = 0;
+                } else if (directive.startsWith("max-age=") && metadata.maxAge != 0) {
+                    metadata.maxAge = parseSeconds(directive.substring("max-age=".length()));
+                }
+            }
+        }
+
+        // 没有max-age的话再看看Expires
+        if (metadata.maxAge < 0) {
+            String expiresValue = httpResponse.getHeaderField("Expires");
+            if (expiresValue != null) {
+                Date expires = parseHttpDate(expiresValue);
+                if (expires != null) {
+                    Date date = parseHttpDate(httpResponse.getHeaderField("Date"));
+                    long baseTime = date != null ? date.getTime() : responseTime;
+                    metadata.maxAge = Math.max(0, (expires.getTime() - baseTime) / 1000);
+                } else {
+                    // Expires: 0之类的无效日期都当作已经过期
+                    metadata.maxAge = 0;
+                }
+            }
+        }
+
+        if (metadata.eTag == null && metadata.lastModified == null && metadata.maxAge < 0) {
+            return null;
+        }
+        return metadata;
+    }
+
+    /**
+     * 从磁盘缓存中读取缓存信息，没有或者读取失败返回null
+     */
+    public static HttpCacheMetadata read(DiskCache diskCache, String diskCacheKey) {
+        DiskCache.Entry entry = diskCache.get(diskCacheKey + DISK_CACHE_KEY_SUFFIX);
+        if (entry == null) {
+            return null;
+        }
+
+        HttpCacheMetadata metadata = new HttpCacheMetadata();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(entry.newInputStream(), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int index = line.indexOf(": ");
+                if (index == -1) {
+                    continue;
+                }
+
+                String name = line.substring(0, index);
+                String value = line.substring(index + 2);
+                if (HEADER_ETAG.equals(name)) {
+                    metadata.eTag = value;
+                } else if (HEADER_LAST_MODIFIED.equals(name)) {
+                    metadata.lastModified = value;
+                } else if (FIELD_RESPONSE_TIME.equals(name)) {
+                    metadata.responseTime = Long.parseLong(value);
+                } else if (FIELD_MAX_AGE.equals(name)) {
+                    metadata.maxAge = Long.parseLong(value);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            SketchUtils.close(reader);
+        }
+        return metadata;
+    }
+
+    /**
+     * 删除磁盘缓存中的缓存信息
+     */
+    public static void delete(DiskCache diskCache, String diskCacheKey) {
+        DiskCache.Entry entry = diskCache.get(diskCacheKey + DISK_CACHE_KEY_SUFFIX);
+        if (entry != null) {
+            entry.delete();
+        }
+    }
+
+    /**
+     * 保存到磁盘缓存中，调用方需要持有diskCacheKey的编辑锁
+     */
+    public boolean save(DiskCache diskCache, String diskCacheKey) {
+        DiskCache.Editor editor = diskCache.edit(diskCacheKey + DISK_CACHE_KEY_SUFFIX);
+        if (editor == null) {
+            return false;
+        }
+
+        Writer writer = null;
+        try {
+            OutputStream outputStream = editor.newOutputStream();
+            writer = new OutputStreamWriter(outputStream, "UTF-8");
+            if (eTag != null) {
+                writer.write(HEADER_ETAG + ": " + eTag + "\n");
+            }
+            if (lastModified != null) {
+                writer.write(HEADER_LAST_MODIFIED + ": " + lastModified + "\n");
+            }
+            writer.write(FIELD_RESPONSE_TIME + ": " + responseTime + "\n");
+            writer.write(FIELD_MAX_AGE + ": " + maxAge + "\n");
+            writer.close();
+            writer = null;
+            editor.commit();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (DiskLruCache.EditorChangedException e) {
+            e.printStackTrace();
+        } catch (DiskLruCache.ClosedException e) {
+            e.printStackTrace();
+        } catch (DiskLruCache.FileNotExistException e) {
+            e.printStackTrace();
+        } finally {
+            SketchUtils.close(writer);
+        }
+        editor.abort();
+        return false;
+    }
+
+    /**
+     * 收到304之后更新缓存信息，304里带了新的验证器或max-age的话以新的为准
+     */
+    public void refresh(HttpStack.ImageHttpResponse notModifiedResponse, long responseTime) {
+        HttpCacheMetadata newMetadata = fromResponse(notModifiedResponse, responseTime);
+        this.responseTime = responseTime;
+        if (newMetadata != null) {
+            if (newMetadata.eTag != null) {
+                eTag = newMetadata.eTag;
+            }
+            if (newMetadata.lastModified != null) {
+                lastModified = newMetadata.lastModified;
+            }
+            if (newMetadata.maxAge >= 0) {
+                maxAge = newMetadata.maxAge;
+            }
+        }
+    }
+
+    /**
+     * 是否过期了，没有max-age和Expires的一直不过期
+     */
+    public boolean isStale(long now) {
+        return maxAge >= 0 && now - responseTime >= maxAge * 1000;
+    }
+
+    /**
+     * 什么时候过期，没有max-age和Expires的返回Long.MAX_VALUE
+     */
+    public long getStaleTime() {
+        return maxAge >= 0 ? responseTime + maxAge * 1000 : Long.MAX_VALUE;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public long getResponseTime() {
+        return responseTime;
+    }
+
+    /**
+     * 单位秒，-1表示没有
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    private static long parseSeconds(String value) {
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Date parseHttpDate(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(value);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+}
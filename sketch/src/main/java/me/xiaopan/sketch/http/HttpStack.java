@@ -151,4 +151,40 @@ public interface HttpStack extends Identifier {
          */
         void releaseConnection();
     }
+
+    /**
+     * 支持Range请求的HttpStack，实现了才能断点续传，否则下载中断了只能从头开始
+     */
+    interface RangeHttpStack extends HttpStack {
+        /**
+         * 获取从rangeStart开始的部分响应（Range: bytes=rangeStart-）
+         *
+         * @param rangeStart 从哪个字节开始，小于等于0时同{@link #getHttpResponse(String)}
+         * @param ifRange    If-Range的值（ETag或Last-Modified），不为null时如果服务器上的资源已经变了就会返回完整的200响应而不是206
+         */
+        ImageHttpResponse getHttpResponse(String uri, long rangeStart, String ifRange) throws IOException;
+    }
+
+    /**
+     * 支持条件请求的HttpStack，实现了才会去服务器验证磁盘缓存中过期的图片
+     */
+    interface ConditionalHttpStack extends HttpStack {
+        /**
+         * 获取条件响应，用来验证缓存的图片是否还有效，没变的话服务器会返回304
+         *
+         * @param eTag         If-None-Match的值，可以为null
+         * @param lastModified If-Modified-Since的值，可以为null
+         */
+        ImageHttpResponse getConditionalHttpResponse(String uri, String eTag, String lastModified) throws IOException;
+    }
+
+    /**
+     * 可以读取单个响应头的响应，实现了才能拿到ETag、Cache-Control等信息，断点续传和过期验证都需要
+     */
+    interface HeaderHttpResponse extends ImageHttpResponse {
+        /**
+         * 获取指定的响应头，没有的话返回null
+         */
+        String getHeaderField(String name);
+    }
 }
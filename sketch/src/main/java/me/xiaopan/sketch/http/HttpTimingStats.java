@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP请求耗时统计，分为连接、首字节（TTFB）和传输三段，另外记录重试次数和等待同一主机空闲名额的时间，
+ * 用来观察连接复用和并发限制对下载吞吐量的影响
+ */
+public class HttpTimingStats {
+    private AtomicLong requestCount = new AtomicLong();
+    private AtomicLong completedCount = new AtomicLong();
+    private AtomicLong retryCount = new AtomicLong();
+    private AtomicLong totalHostWaitTime = new AtomicLong();
+    private AtomicLong totalConnectTime = new AtomicLong();
+    private AtomicLong totalFirstByteTime = new AtomicLong();
+    private AtomicLong totalTransferTime = new AtomicLong();
+    private AtomicLong totalBytes = new AtomicLong();
+
+    void onResponse(long hostWaitTime, long connectTime, long firstByteTime) {
+        requestCount.incrementAndGet();
+        totalHostWaitTime.addAndGet(hostWaitTime);
+        totalConnectTime.addAndGet(connectTime);
+        totalFirstByteTime.addAndGet(firstByteTime);
+    }
+
+    void onTransferCompleted(long transferTime, long bytes) {
+        completedCount.incrementAndGet();
+        totalTransferTime.addAndGet(transferTime);
+        totalBytes.addAndGet(bytes);
+    }
+
+    void onRetry() {
+        retryCount.incrementAndGet();
+    }
+
+    /**
+     * 获取拿到响应的请求总数
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * 获取读完了内容的请求总数
+     */
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * 获取重试总次数
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * 获取平均等待同一主机空闲名额的时间，单位毫秒
+     */
+    public long getAverageHostWaitTime() {
+        long count = requestCount.get();
+        return count > 0 ? totalHostWaitTime.get() / count : 0;
+    }
+
+    /**
+     * 获取平均连接时间（DNS、TCP、TLS），复用连接时几乎为0，单位毫秒
+     */
+    public long getAverageConnectTime() {
+        long count = requestCount.get();
+        return count > 0 ? totalConnectTime.get() / count : 0;
+    }
+
+    /**
+     * 获取平均首字节时间，从发出请求到收到响应头，单位毫秒
+     */
+    public long getAverageFirstByteTime() {
+        long count = requestCount.get();
+        return count > 0 ? totalFirstByteTime.get() / count : 0;
+    }
+
+    /**
+     * 获取平均传输时间，从收到响应头到读完内容，单位毫秒
+     */
+    public long getAverageTransferTime() {
+        long count = completedCount.get();
+        return count > 0 ? totalTransferTime.get() / count : 0;
+    }
+
+    /**
+     * 获取读取的总字节数
+     */
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * 获取平均传输速度，单位KB/s
+     */
+    public long getAverageSpeed() {
+        long time = totalTransferTime.get();
+        return time > 0 ? totalBytes.get() * 1000 / 1024 / time : 0;
+    }
+
+    /**
+     * 清空统计数据
+     */
+    public void reset() {
+        requestCount.set(0);
+        completedCount.set(0);
+        retryCount.set(0);
+        totalHostWaitTime.set(0);
+        totalConnectTime.set(0);
+        totalFirstByteTime.set(0);
+        totalTransferTime.set(0);
+        totalBytes.set(0);
+    }
+
+    public String getInfo() {
+        return String.format("HttpTimingStats(requests=%d, completed=%d, retries=%d, averageHostWait=%dms, " +
+                        "averageConnect=%dms, averageFirstByte=%dms, averageTransfer=%dms, totalBytes=%d, averageSpeed=%dKB/s)",
+                getRequestCount(), getCompletedCount(), getRetryCount(), getAverageHostWaitTime(),
+                getAverageConnectTime(), getAverageFirstByteTime(), getAverageTransferTime(), getTotalBytes(), getAverageSpeed());
+    }
+}
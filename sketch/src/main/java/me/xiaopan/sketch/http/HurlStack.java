@@ -28,7 +28,7 @@ import java.util.Map;
 
 import me.xiaopan.sketch.util.SketchUtils;
 
-public class HurlStack implements HttpStack {
+public class HurlStack implements HttpStack.RangeHttpStack, HttpStack.ConditionalHttpStack {
     private static final String KEY = "HurlStack";
 
     private int readTimeout = DEFAULT_READ_TIMEOUT;
@@ -117,6 +117,49 @@ public class HurlStack implements HttpStack {
 
     @Override
     public ImageHttpResponse getHttpResponse(String uri) throws IOException {
+        return getHttpResponse(uri, 0, null);
+    }
+
+    @Override
+    public ImageHttpResponse getHttpResponse(String uri, long rangeStart, String ifRange) throws IOException {
+        HttpURLConnection connection = openConnection(uri);
+
+        if (rangeStart > 0) {
+            connection.setRequestProperty("Range", "bytes=" + rangeStart + "-");
+            if (ifRange != null) {
+                connection.setRequestProperty("If-Range", ifRange);
+            }
+        }
+
+        processRequest(uri, connection);
+
+        connection.connect();
+
+        return new HttpUrlConnectionResponse(connection);
+    }
+
+    @Override
+    public ImageHttpResponse getConditionalHttpResponse(String uri, String eTag, String lastModified) throws IOException {
+        HttpURLConnection connection = openConnection(uri);
+
+        if (eTag != null) {
+            connection.setRequestProperty("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+
+        processRequest(uri, connection);
+
+        connection.connect();
+
+        return new HttpUrlConnectionResponse(connection);
+    }
+
+    /**
+     * 创建连接并设置好超时、User-Agent以及扩展请求属性
+     */
+    protected HttpURLConnection openConnection(String uri) throws IOException {
         HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
 
         connection.setConnectTimeout(connectTimeout);
@@ -143,11 +186,7 @@ public class HurlStack implements HttpStack {
             }
         }
 
-        processRequest(uri, connection);
-
-        connection.connect();
-
-        return new HttpUrlConnectionResponse(connection);
+        return connection;
     }
 
     protected void processRequest(@SuppressWarnings("UnusedParameters") String uri,
@@ -155,13 +194,17 @@ public class HurlStack implements HttpStack {
 
     }
 
-    private static class HttpUrlConnectionResponse implements ImageHttpResponse {
+    protected static class HttpUrlConnectionResponse implements HeaderHttpResponse {
         private HttpURLConnection connection;
 
-        HttpUrlConnectionResponse(HttpURLConnection connection) {
+        protected HttpUrlConnectionResponse(HttpURLConnection connection) {
             this.connection = connection;
         }
 
+        protected HttpURLConnection getConnection() {
+            return connection;
+        }
+
         @Override
         public int getResponseCode() throws IOException {
             return connection.getResponseCode();
@@ -211,6 +254,11 @@ public class HurlStack implements HttpStack {
             return stringBuilder.toString();
         }
 
+        @Override
+        public String getHeaderField(String name) {
+            return connection.getHeaderField(name);
+        }
+
         @Override
         public InputStream getContent() throws IOException {
             return connection.getInputStream();
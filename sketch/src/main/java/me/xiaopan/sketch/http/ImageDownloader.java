@@ -16,14 +16,19 @@
 
 package me.xiaopan.sketch.http;
 
+import android.content.Context;
+
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.concurrent.locks.ReentrantLock;
 
+import me.xiaopan.sketch.Configuration;
 import me.xiaopan.sketch.Identifier;
 import me.xiaopan.sketch.SLogType;
 import me.xiaopan.sketch.cache.DiskCache;
@@ -31,12 +36,87 @@ import me.xiaopan.sketch.request.BaseRequest;
 import me.xiaopan.sketch.request.DownloadRequest;
 import me.xiaopan.sketch.request.DownloadResult;
 import me.xiaopan.sketch.request.ImageFrom;
+import me.xiaopan.sketch.request.UriInfo;
+import me.xiaopan.sketch.request.UriScheme;
 import me.xiaopan.sketch.util.DiskLruCache;
 import me.xiaopan.sketch.util.SketchUtils;
 
 public class ImageDownloader implements Identifier {
     private static final String KEY = "ImageDownloader";
 
+    /**
+     * 长度达到这个值并且响应里有ETag或Last-Modified的图片才会边下载边保存片段，以便断开后可以接着下载
+     */
+    public static final int RESUMABLE_MIN_LENGTH = 256 * 1024;
+
+    /**
+     * 渐进式显示时每下载这么多分之一就回调一次已经下载到的数据
+     */
+    private static final int PROGRESSIVE_STEP_COUNT = 4;
+
+    /**
+     * 下载到磁盘缓存时渐进式显示最多在堆里另外缓存这么多数据，图片再大就不渐进式显示了
+     */
+    private static final int MAX_PROGRESSIVE_BUFFER_LENGTH = 4 * 1024 * 1024;
+
+    private boolean resumeDisabled;
+    private boolean revalidateDisabled;
+    private DownloadFragmentStore fragmentStore;
+    private CacheRevalidator cacheRevalidator = new CacheRevalidator();
+
+    /**
+     * 是否禁用了断点续传
+     */
+    public boolean isResumeDisabled() {
+        return resumeDisabled;
+    }
+
+    /**
+     * 设置是否禁用断点续传，禁用后下载中断了就只能从头开始下载
+     */
+    public ImageDownloader setResumeDisabled(boolean resumeDisabled) {
+        this.resumeDisabled = resumeDisabled;
+        return this;
+    }
+
+    /**
+     * 是否禁用了过期验证
+     */
+    public boolean isRevalidateDisabled() {
+        return revalidateDisabled;
+    }
+
+    /**
+     * 设置是否禁用过期验证，禁用后磁盘缓存中的图片会一直使用下去，不会根据Cache-Control、ETag等去服务器验证
+     */
+    public ImageDownloader setRevalidateDisabled(boolean revalidateDisabled) {
+        this.revalidateDisabled = revalidateDisabled;
+        return this;
+    }
+
+    public CacheRevalidator getCacheRevalidator() {
+        return cacheRevalidator;
+    }
+
+    /**
+     * 磁盘缓存中的图片过期了的话在后台向服务器验证，不影响当前请求使用磁盘缓存中的图片
+     */
+    public void revalidateIfStale(Configuration configuration, UriInfo uriInfo) {
+        if (!revalidateDisabled && uriInfo.getScheme() == UriScheme.NET) {
+            cacheRevalidator.revalidateIfStale(configuration, uriInfo);
+        }
+    }
+
+    /**
+     * 获取保存下载了一半的图片数据的DownloadFragmentStore
+     */
+    public synchronized DownloadFragmentStore getFragmentStore(Context context) {
+        if (fragmentStore == null) {
+            fragmentStore = new DownloadFragmentStore(context);
+        }
+        return fragmentStore;
+    }
+
     /**
      * 下载，这个方法主要实现缓存锁与检查缓存
      */
@@ -73,6 +153,7 @@ public class ImageDownloader implements Identifier {
                 request.setStatus(BaseRequest.Status.CHECK_DISK_CACHE);
                 DiskCache.Entry diskCacheEntry = diskCache.get(diskCacheKey);
                 if (diskCacheEntry != null) {
+                    revalidateIfStale(request.getConfiguration(), request.getUriInfo());
                     return new DownloadResult(diskCacheEntry, ImageFrom.DISK_CACHE);
                 }
             }
@@ -133,9 +214,23 @@ public class ImageDownloader implements Identifier {
      */
     private DownloadResult doDownload(DownloadRequest request, HttpStack httpStack, DiskCache diskCache, String diskCacheKey)
             throws IOException, DiskLruCache.EditorChangedException, DiskLruCache.ClosedException, DiskLruCache.FileNotExistException {
+        // 有上次下载了一半的片段的话就从断开的地方接着下载，HttpStack不支持Range请求的话就只能从头开始
+        DownloadFragmentStore fragmentStore = null;
+        DownloadFragmentStore.Fragment fragment = null;
+        if (!resumeDisabled && !request.getOptions().isCacheInDiskDisabled() && httpStack instanceof HttpStack.RangeHttpStack) {
+            fragmentStore = getFragmentStore(request.getConfiguration().getContext());
+            fragment = fragmentStore.get(diskCacheKey);
+        }
+
         request.setStatus(BaseRequest.Status.CONNECTING);
 
-        HttpStack.ImageHttpResponse httpResponse = httpStack.getHttpResponse(request.getUriInfo().getContent());
+        HttpStack.ImageHttpResponse httpResponse;
+        if (fragment != null) {
+            httpResponse = ((HttpStack.RangeHttpStack) httpStack).getHttpResponse(request.getUriInfo().getContent(),
+                    fragment.getLength(), fragment.getValidator());
+        } else {
+            httpResponse = httpStack.getHttpResponse(request.getUriInfo().getContent());
+        }
         if (request.isCanceled()) {
             httpResponse.releaseConnection();
             if (SLogType.REQUEST.isEnabled()) {
@@ -158,7 +253,30 @@ public class ImageDownloader implements Identifier {
             }
             throw new IllegalStateException("get response code exception", e);
         }
-        if (responseCode != 200) {
+        if (fragment != null && responseCode == 206) {
+            if (!checkContentRange(httpResponse, fragment)) {
+                // 返回的范围对不上，只能删掉片段从头开始下载
+                httpResponse.releaseConnection();
+                fragmentStore.delete(fragment);
+                if (SLogType.REQUEST.isEnabled()) {
+                    request.printLogW("content range exception", "runDownload", "download again",
+                            "contentRange: " + getHeaderField(httpResponse, "Content-Range"));
+                }
+                return doDownload(request, httpStack, diskCache, diskCacheKey);
+            }
+        } else if (responseCode == 200) {
+            if (fragment != null) {
+                // 服务器上的图片已经变了或者不支持Range，片段没用了
+                fragmentStore.delete(fragment);
+                fragment = null;
+                if (SLogType.REQUEST.isEnabled()) {
+                    request.printLogW("fragment expired", "runDownload", "download again");
+                }
+            }
+        } else {
+            if (fragment != null && responseCode == 416) {
+                fragmentStore.delete(fragment);
+            }
             httpResponse.releaseConnection();
             if (SLogType.REQUEST.isEnabled()) {
                 request.printLogE("response code exception", "runDownload", "responseHeaders: " + httpResponse.getResponseHeadersString());
@@ -166,8 +284,11 @@ public class ImageDownloader implements Identifier {
             throw new IllegalStateException("response code exception: " + responseCode);
         }
 
+        // 记下缓存信息，以后用来判断磁盘缓存是否过期
+        HttpCacheMetadata cacheMetadata = HttpCacheMetadata.fromResponse(httpResponse, System.currentTimeMillis());
+
         // 检查内容长度
-        long contentLength = httpResponse.getContentLength();
+        long contentLength = fragment != null ? fragment.getTotalLength() : httpResponse.getContentLength();
         if (contentLength <= 0 && !httpResponse.isContentChunked()) {
             httpResponse.releaseConnection();
             if (SLogType.REQUEST.isEnabled()) {
@@ -188,6 +309,23 @@ public class ImageDownloader implements Identifier {
             return null;
         }
 
+        // 比较大的图片先下载到片段里，断开了下次可以接着下载
+        if (fragment == null && fragmentStore != null && contentLength >= RESUMABLE_MIN_LENGTH) {
+            String validator = getValidator(httpResponse);
+            if (validator != null) {
+                fragmentStore.trim();
+                try {
+                    fragment = fragmentStore.create(diskCacheKey, validator, contentLength);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        if (fragment != null) {
+            return downloadToFragment(request, inputStream, fragmentStore, fragment, diskCache, diskCacheKey, cacheMetadata);
+        }
+
         DiskCache.Editor diskCacheEditor = null;
         if (!request.getOptions().isCacheInDiskDisabled()) {
             diskCacheEditor = diskCache.edit(diskCacheKey);
@@ -202,19 +340,31 @@ public class ImageDownloader implements Identifier {
                 throw e;
             }
         } else {
-            outputStream = new ByteArrayOutputStream();
+            outputStream = new PresizedByteArrayOutputStream(contentLength);
+        }
+
+        // 渐进式显示需要边下载边拿到已经下载的数据，不用磁盘缓存的话直接用输出流里的就行，
+        // 用磁盘缓存的话得在堆里另外存一份，所以太大的图片就不渐进式显示了
+        PresizedByteArrayOutputStream progressiveBuffer = null;
+        if (contentLength > 0 && request.isProgressive()) {
+            if (outputStream instanceof PresizedByteArrayOutputStream) {
+                progressiveBuffer = (PresizedByteArrayOutputStream) outputStream;
+            } else if (contentLength <= MAX_PROGRESSIVE_BUFFER_LENGTH) {
+                progressiveBuffer = new PresizedByteArrayOutputStream(contentLength);
+            }
         }
 
         // 读取数据
         int completedLength = 0;
         boolean readFully;
         try {
-            completedLength = readData(request, inputStream, outputStream, (int) contentLength);
+            completedLength = readData(request, inputStream, outputStream, progressiveBuffer, (int) contentLength, 0);
 
             readFully = contentLength <= 0 || completedLength == contentLength;
             if (diskCacheEditor != null) {
                 if (readFully) {
                     diskCacheEditor.commit();
+                    saveCacheMetadata(cacheMetadata, diskCache, diskCacheKey);
                 } else {
                     diskCacheEditor.abort();
                 }
@@ -225,7 +375,11 @@ public class ImageDownloader implements Identifier {
                 diskCacheEditor = null;
             }
             throw e;
-        } catch (DiskLruCache.ClosedException | DiskLruCache.FileNotExistException e) {
+        } catch (DiskLruCache.ClosedException e) {
+            e.printStackTrace();
+            diskCacheEditor.abort();
+            throw e;
+        } catch (DiskLruCache.FileNotExistException e) {
             e.printStackTrace();
             diskCacheEditor.abort();
             throw e;
@@ -257,15 +411,202 @@ public class ImageDownloader implements Identifier {
                 throw new IllegalStateException("not found disk cache entry, key is " + diskCacheKey);
             }
         } else {
-            return new DownloadResult(((ByteArrayOutputStream) outputStream).toByteArray(), ImageFrom.NETWORK);
+            return new DownloadResult(((PresizedByteArrayOutputStream) outputStream).getBytes(), ImageFrom.NETWORK);
         }
     }
 
-    private int readData(DownloadRequest request, InputStream inputStream, OutputStream outputStream, int contentLength) throws IOException {
+    /**
+     * 接着片段下载，下载完了再把片段拷贝到磁盘缓存里
+     */
+    private DownloadResult downloadToFragment(DownloadRequest request, InputStream inputStream, DownloadFragmentStore fragmentStore,
+                                              DownloadFragmentStore.Fragment fragment, DiskCache diskCache, String diskCacheKey,
+                                              HttpCacheMetadata cacheMetadata)
+            throws IOException, DiskLruCache.EditorChangedException, DiskLruCache.ClosedException, DiskLruCache.FileNotExistException {
+        long startLength = fragment.getLength();
+        int contentLength = (int) fragment.getTotalLength();
+
+        OutputStream outputStream;
+        try {
+            outputStream = new BufferedOutputStream(new FileOutputStream(fragment.getDataFile(), true), 8 * 1024);
+        } catch (FileNotFoundException e) {
+            SketchUtils.close(inputStream);
+            fragmentStore.delete(fragment);
+            throw e;
+        }
+
+        // 渐进式显示需要从头开始的数据，先把片段里已有的读出来，太大的图片就不渐进式显示了
+        PresizedByteArrayOutputStream progressiveBuffer = null;
+        if (request.isProgressive() && contentLength <= MAX_PROGRESSIVE_BUFFER_LENGTH) {
+            progressiveBuffer = new PresizedByteArrayOutputStream(contentLength);
+            try {
+                copyFile(fragment, progressiveBuffer);
+            } catch (IOException e) {
+                e.printStackTrace();
+                progressiveBuffer = null;
+            }
+        }
+
+        // 不管是取消了还是出异常了，已经读到的数据都留在片段里，下次接着下载
+        int completedLength;
+        try {
+            completedLength = readData(request, inputStream, outputStream, progressiveBuffer, contentLength, (int) startLength);
+        } finally {
+            SketchUtils.close(outputStream);
+            SketchUtils.close(inputStream);
+        }
+
+        if (request.isCanceled()) {
+            if (SLogType.REQUEST.isEnabled()) {
+                request.printLogW("canceled", "runDownload", "read data after", "keep fragment " + completedLength + "/" + contentLength);
+            }
+            return null;
+        }
+
+        if (completedLength < contentLength) {
+            if (SLogType.REQUEST.isEnabled()) {
+                request.printLogE("not read fully", "runDownload", "keep fragment " + completedLength + "/" + contentLength);
+            }
+            throw new IllegalStateException("not read fully: " + completedLength + "/" + contentLength);
+        }
+
+        if (SLogType.REQUEST.isEnabled()) {
+            request.printLogI("download success", "runDownload", "fileLength: " + completedLength + "/" + contentLength,
+                    "resumeFrom: " + startLength);
+        }
+
+        DiskCache.Editor diskCacheEditor = diskCache.edit(diskCacheKey);
+        if (diskCacheEditor == null) {
+            PresizedByteArrayOutputStream byteArrayOutputStream = new PresizedByteArrayOutputStream(contentLength);
+            copyFile(fragment, byteArrayOutputStream);
+            fragmentStore.delete(fragment);
+            return new DownloadResult(byteArrayOutputStream.getBytes(), ImageFrom.NETWORK);
+        }
+
+        try {
+            copyFile(fragment, diskCacheEditor.newOutputStream());
+            diskCacheEditor.commit();
+            saveCacheMetadata(cacheMetadata, diskCache, diskCacheKey);
+        } catch (IOException e) {
+            diskCacheEditor.abort();
+            throw e;
+        } catch (DiskLruCache.ClosedException e) {
+            e.printStackTrace();
+            diskCacheEditor.abort();
+            throw e;
+        } catch (DiskLruCache.FileNotExistException e) {
+            e.printStackTrace();
+            diskCacheEditor.abort();
+            throw e;
+        }
+        fragmentStore.delete(fragment);
+
+        DiskCache.Entry diskCacheEntry = diskCache.get(diskCacheKey);
+        if (diskCacheEntry != null) {
+            return new DownloadResult(diskCacheEntry, ImageFrom.NETWORK);
+        } else {
+            if (SLogType.REQUEST.isEnabled()) {
+                request.printLogW("not found disk cache", "runDownload", "download after");
+            }
+            throw new IllegalStateException("not found disk cache entry, key is " + diskCacheKey);
+        }
+    }
+
+    /**
+     * 保存新的缓存信息，没有的话要把旧的删掉，免得拿旧的验证器去验证新的图片
+     */
+    private void saveCacheMetadata(HttpCacheMetadata cacheMetadata, DiskCache diskCache, String diskCacheKey) {
+        cacheRevalidator.invalidate(diskCacheKey);
+        if (cacheMetadata != null) {
+            cacheMetadata.save(diskCache, diskCacheKey);
+        } else {
+            HttpCacheMetadata.delete(diskCache, diskCacheKey);
+        }
+    }
+
+    private void copyFile(DownloadFragmentStore.Fragment fragment, OutputStream outputStream) throws IOException {
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(fragment.getDataFile());
+            byte[] buffer = new byte[8 * 1024];
+            int realReadCount;
+            while ((realReadCount = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, realReadCount);
+            }
+            outputStream.flush();
+        } finally {
+            SketchUtils.close(inputStream);
+            SketchUtils.close(outputStream);
+        }
+    }
+
+    /**
+     * 检查206响应的Content-Range（bytes start-end/total）是不是正好接在片段后面
+     */
+    private boolean checkContentRange(HttpStack.ImageHttpResponse httpResponse, DownloadFragmentStore.Fragment fragment) {
+        String contentRange = getHeaderField(httpResponse, "Content-Range");
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return false;
+        }
+
+        int dashIndex = contentRange.indexOf('-');
+        int slashIndex = contentRange.indexOf('/');
+        if (dashIndex == -1 || slashIndex == -1 || slashIndex < dashIndex) {
+            return false;
+        }
+
+        try {
+            long start = Long.parseLong(contentRange.substring("bytes ".length(), dashIndex).trim());
+            String total = contentRange.substring(slashIndex + 1).trim();
+            return start == fragment.getLength() && ("*".equals(total) || Long.parseLong(total) == fragment.getTotalLength());
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 获取可用作If-Range的校验值，弱ETag不能用于Range请求，压缩过的内容也不行
+     */
+    private String getValidator(HttpStack.ImageHttpResponse httpResponse) {
+        String contentEncoding = getHeaderField(httpResponse, "Content-Encoding");
+        if (contentEncoding != null && !"identity".equalsIgnoreCase(contentEncoding.trim())) {
+            return null;
+        }
+
+        String acceptRanges = getHeaderField(httpResponse, "Accept-Ranges");
+        if (acceptRanges != null && "none".equalsIgnoreCase(acceptRanges.trim())) {
+            return null;
+        }
+
+        String eTag = getHeaderField(httpResponse, "ETag");
+        if (eTag != null && !eTag.startsWith("W/")) {
+            return eTag;
+        }
+        return getHeaderField(httpResponse, "Last-Modified");
+    }
+
+    /**
+     * 获取指定的响应头，响应不支持读取单个响应头的话返回null
+     */
+    private static String getHeaderField(HttpStack.ImageHttpResponse httpResponse, String name) {
+        return httpResponse instanceof HttpStack.HeaderHttpResponse ?
+                ((HttpStack.HeaderHttpResponse) httpResponse).getHeaderField(name) : null;
+    }
+
+    private int readData(DownloadRequest request, InputStream inputStream, OutputStream outputStream,
+                         PresizedByteArrayOutputStream progressiveBuffer, int contentLength, int startLength) throws IOException {
         int realReadCount;
-        int completedLength = 0;
+        int completedLength = startLength;
         long lastCallbackTime = 0;
         byte[] buffer = new byte[8 * 1024];
+
+        // 下一次回调已下载数据的位置，断点续传的话从已有长度之后的第一个位置开始
+        int progressiveStepLength = contentLength / PROGRESSIVE_STEP_COUNT;
+        int nextProgressiveLength = 0;
+        if (progressiveBuffer != null && progressiveStepLength > 0) {
+            nextProgressiveLength = (startLength / progressiveStepLength + 1) * progressiveStepLength;
+        } else {
+            progressiveBuffer = null;
+        }
         while (true) {
             if (request.isCanceled()) {
                 break;
@@ -276,6 +617,18 @@ public class ImageDownloader implements Identifier {
                 outputStream.write(buffer, 0, realReadCount);
                 completedLength += realReadCount;
 
+                if (progressiveBuffer != null) {
+                    if (progressiveBuffer != outputStream) {
+                        progressiveBuffer.write(buffer, 0, realReadCount);
+                    }
+
+                    // 下载完了就没必要了，马上就会正常解码
+                    if (completedLength >= nextProgressiveLength && completedLength < contentLength) {
+                        nextProgressiveLength = (completedLength / progressiveStepLength + 1) * progressiveStepLength;
+                        request.updatePartialData(progressiveBuffer.getBuffer(), progressiveBuffer.size(), contentLength);
+                    }
+                }
+
                 // 每秒钟回调一次进度
                 long currentTime = System.currentTimeMillis();
                 if (currentTime - lastCallbackTime >= 100) {
@@ -294,6 +647,27 @@ public class ImageDownloader implements Identifier {
 
     @Override
     public String getKey() {
-        return KEY;
+        return String.format("%s(resumeDisabled=%s,revalidateDisabled=%s)", KEY, resumeDisabled, revalidateDisabled);
+    }
+
+    /**
+     * 按内容长度预先分配好空间，正好写满的时候直接返回内部数组，省去扩容和toByteArray()的拷贝
+     */
+    private static class PresizedByteArrayOutputStream extends ByteArrayOutputStream {
+
+        PresizedByteArrayOutputStream(long contentLength) {
+            super(contentLength > 0 && contentLength < Integer.MAX_VALUE ? (int) contentLength : 32);
+        }
+
+        byte[] getBytes() {
+            return count == buf.length ? buf : toByteArray();
+        }
+
+        /**
+         * 直接返回内部数组，只有前size()个字节是有效的
+         */
+        byte[] getBuffer() {
+            return buf;
+        }
     }
 }
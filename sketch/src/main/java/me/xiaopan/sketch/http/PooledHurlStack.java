@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.http;
+
+import android.os.SystemClock;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.SSLException;
+
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.util.SketchUtils;
+
+/**
+ * 面向单个图片CDN主机优化吞吐量的HttpStack，在{@link HurlStack}的基础上增加了：
+ * <br>1. keep-alive连接复用：没读完的响应会先读掉剩下的一小段再关闭，这样连接才能回到HttpURLConnection的连接池里
+ * <br>2. 同一主机的并发请求数限制（默认{@link #DEFAULT_MAX_REQUESTS_PER_HOST}），超过的请求会排队等待，
+ * 一直到响应内容读完或连接释放了才会让出名额。这个限制只对通过此HttpStack发出的请求有效，
+ * HttpURLConnection连接池的大小是整个进程共用的（系统属性http.keepAlive、http.maxConnections），
+ * 这里不会修改，需要的话由APP自己在Application.onCreate()中设置
+ * <br>3. 连接失败以及429、503响应时按指数退避重试，响应中有Retry-After的话以Retry-After为准
+ * <br>4. 连接、首字节（TTFB）、传输三段耗时统计，见{@link #getTimingStats()}
+ * <br>使用方式：Sketch.with(context).getConfiguration().setHttpStack(new PooledHurlStack())
+ */
+public class PooledHurlStack extends HurlStack {
+    private static final String KEY = "PooledHurlStack";
+    private static final String LOG_NAME = "PooledHurlStack";
+
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 4;   // 默认同一主机最大并发请求数
+    public static final int DEFAULT_BACKOFF_RETRY_COUNT = 2;     // 默认退避重试次数
+    public static final int DEFAULT_BACKOFF_BASE_DELAY = 500;    // 默认第一次退避重试的等待时间
+    public static final int DEFAULT_BACKOFF_MAX_DELAY = 10 * 1000;    // 默认最长等待时间
+
+    /**
+     * 释放连接时剩余内容不超过这个长度的话就读完它，好让连接可以复用，再长就直接断开
+     */
+    private static final int MAX_DRAIN_LENGTH = 16 * 1024;
+
+    private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+    private int backoffRetryCount = DEFAULT_BACKOFF_RETRY_COUNT;
+    private int backoffBaseDelay = DEFAULT_BACKOFF_BASE_DELAY;
+    private int backoffMaxDelay = DEFAULT_BACKOFF_MAX_DELAY;
+
+    private final ConcurrentHashMap<String, Semaphore> hostPermitsMap = new ConcurrentHashMap<String, Semaphore>();
+    private final HttpTimingStats timingStats = new HttpTimingStats();
+    private final Random random = new Random();
+
+    /**
+     * 获取同一主机最大并发请求数
+     */
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    /**
+     * 设置同一主机最大并发请求数（默认{@link #DEFAULT_MAX_REQUESTS_PER_HOST}），只对之后新访问的主机生效
+     */
+    public PooledHurlStack setMaxRequestsPerHost(int maxRequestsPerHost) {
+        if (maxRequestsPerHost <= 0) {
+            throw new IllegalArgumentException("maxRequestsPerHost must be greater than 0");
+        }
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        hostPermitsMap.clear();
+        return this;
+    }
+
+    /**
+     * 获取退避重试次数
+     */
+    public int getBackoffRetryCount() {
+        return backoffRetryCount;
+    }
+
+    /**
+     * 设置退避重试次数（默认{@link #DEFAULT_BACKOFF_RETRY_COUNT}），连接失败以及429、503响应时会等待一段时间后重试，
+     * 每次等待的时间翻倍。同{@link #setMaxRetryCount(int)}是分开计算的，后者由ImageDownloader负责，不等待
+     */
+    public PooledHurlStack setBackoffRetryCount(int backoffRetryCount) {
+        this.backoffRetryCount = Math.max(0, backoffRetryCount);
+        return this;
+    }
+
+    /**
+     * 设置退避重试的等待时间
+     *
+     * @param baseDelay 第一次重试前的等待时间，单位毫秒
+     * @param maxDelay  最长等待时间，Retry-After超过这个时间的话就不重试了，单位毫秒
+     */
+    public PooledHurlStack setBackoffDelay(int baseDelay, int maxDelay) {
+        if (baseDelay <= 0 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("baseDelay must be greater than 0 and not greater than maxDelay");
+        }
+        this.backoffBaseDelay = baseDelay;
+        this.backoffMaxDelay = maxDelay;
+        return this;
+    }
+
+    /**
+     * 获取耗时统计
+     */
+    public HttpTimingStats getTimingStats() {
+        return timingStats;
+    }
+
+    @Override
+    public ImageHttpResponse getHttpResponse(String uri, long rangeStart, String ifRange) throws IOException {
+        Map<String, String> requestHeaders = null;
+        if (rangeStart > 0) {
+            requestHeaders = new LinkedHashMap<String, String>();
+            requestHeaders.put("Range", "bytes=" + rangeStart + "-");
+            if (ifRange != null) {
+                requestHeaders.put("If-Range", ifRange);
+            }
+        }
+        return execute(uri, requestHeaders);
+    }
+
+    @Override
+    public ImageHttpResponse getConditionalHttpResponse(String uri, String eTag, String lastModified) throws IOException {
+        Map<String, String> requestHeaders = new LinkedHashMap<String, String>();
+        if (eTag != null) {
+            requestHeaders.put("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            requestHeaders.put("If-Modified-Since", lastModified);
+        }
+        return execute(uri, requestHeaders);
+    }
+
+    private ImageHttpResponse execute(String uri, Map<String, String> requestHeaders) throws IOException {
+        Semaphore hostPermits = getHostPermits(uri);
+        int retryCount = 0;
+        while (true) {
+            long waitStartTime = SystemClock.uptimeMillis();
+            acquire(hostPermits);
+            long hostWaitTime = SystemClock.uptimeMillis() - waitStartTime;
+
+            HttpURLConnection connection = null;
+            long delay;
+            try {
+                connection = openConnection(uri);
+                if (requestHeaders != null) {
+                    for (Map.Entry<String, String> entry : requestHeaders.entrySet()) {
+                        connection.setRequestProperty(entry.getKey(), entry.getValue());
+                    }
+                }
+                processRequest(uri, connection);
+
+                long connectStartTime = SystemClock.uptimeMillis();
+                connection.connect();
+                long connectTime = SystemClock.uptimeMillis() - connectStartTime;
+
+                long requestStartTime = SystemClock.uptimeMillis();
+                int responseCode = connection.getResponseCode();
+                long firstByteTime = SystemClock.uptimeMillis() - requestStartTime;
+
+                delay = -1;
+                if ((responseCode == 429 || responseCode == 503) && retryCount < backoffRetryCount) {
+                    delay = getRetryDelay(connection.getHeaderField("Retry-After"), retryCount);
+                }
+                if (delay < 0) {
+                    timingStats.onResponse(hostWaitTime, connectTime, firstByteTime);
+                    return new PooledHttpResponse(connection, hostPermits, timingStats);
+                }
+
+                drain(connection);
+                hostPermits.release();
+                if (SLogType.REQUEST.isEnabled()) {
+                    SLog.fw(SLogType.REQUEST, LOG_NAME, "response code %d, retry after %dms. %s", responseCode, delay, uri);
+                }
+            } catch (IOException e) {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+                hostPermits.release();
+                if (retryCount >= backoffRetryCount || !canBackoffRetry(e)) {
+                    throw e;
+                }
+                delay = getBackoffDelay(retryCount);
+                if (SLogType.REQUEST.isEnabled()) {
+                    SLog.fw(SLogType.REQUEST, LOG_NAME, "%s: %s, retry after %dms. %s",
+                            e.getClass().getSimpleName(), e.getMessage(), delay, uri);
+                }
+            } catch (RuntimeException e) {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+                hostPermits.release();
+                throw e;
+            }
+
+            retryCount++;
+            timingStats.onRetry();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting to retry");
+            }
+        }
+    }
+
+    private Semaphore getHostPermits(String uri) throws IOException {
+        URL url = new URL(uri);
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        String hostKey = url.getHost().toLowerCase(Locale.US) + ":" + port;
+
+        Semaphore hostPermits = hostPermitsMap.get(hostKey);
+        if (hostPermits == null) {
+            Semaphore newHostPermits = new Semaphore(maxRequestsPerHost, true);
+            hostPermits = hostPermitsMap.putIfAbsent(hostKey, newHostPermits);
+            if (hostPermits == null) {
+                hostPermits = newHostPermits;
+            }
+        }
+        return hostPermits;
+    }
+
+    private static void acquire(Semaphore hostPermits) throws InterruptedIOException {
+        try {
+            hostPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for host permit");
+        }
+    }
+
+    /**
+     * 域名解析失败、证书错误以及线程被中断这些重试了也没用
+     */
+    private boolean canBackoffRetry(IOException e) {
+        if (e instanceof UnknownHostException || e instanceof SSLException) {
+            return false;
+        }
+        return !(e instanceof InterruptedIOException) || canRetry(e);
+    }
+
+    /**
+     * 指数退避，再加上一半的随机抖动，避免多个请求同时重试
+     */
+    private long getBackoffDelay(int retryCount) {
+        long delay = Math.min((long) backoffBaseDelay << Math.min(retryCount, 16), backoffMaxDelay);
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    /**
+     * 优先使用Retry-After（秒数或者HTTP日期），超过最长等待时间的话返回-1表示不重试了
+     */
+    private long getRetryDelay(String retryAfter, int retryCount) {
+        if (retryAfter == null) {
+            return getBackoffDelay(retryCount);
+        }
+
+        long delay;
+        retryAfter = retryAfter.trim();
+        try {
+            delay = Long.parseLong(retryAfter) * 1000;
+        } catch (NumberFormatException e) {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                delay = format.parse(retryAfter).getTime() - System.currentTimeMillis();
+            } catch (ParseException e1) {
+                return getBackoffDelay(retryCount);
+            }
+        }
+        return delay <= backoffMaxDelay ? Math.max(0, delay) : -1;
+    }
+
+    /**
+     * 读掉剩下的一小段内容再关闭，这样连接才能复用，太长的话就直接断开
+     */
+    private static void drain(HttpURLConnection connection) {
+        InputStream inputStream = null;
+        try {
+            try {
+                inputStream = connection.getInputStream();
+            } catch (IOException e) {
+                // 4xx、5xx的响应内容在ErrorStream里
+                inputStream = connection.getErrorStream();
+            }
+            if (inputStream == null) {
+                return;
+            }
+
+            byte[] buffer = new byte[4 * 1024];
+            int drainedLength = 0;
+            int readLength;
+            while ((readLength = inputStream.read(buffer)) != -1) {
+                drainedLength += readLength;
+                if (drainedLength > MAX_DRAIN_LENGTH) {
+                    connection.disconnect();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            connection.disconnect();
+        } finally {
+            SketchUtils.close(inputStream);
+        }
+    }
+
+    @Override
+    public String getKey() {
+        return String.format("%s(%s,maxRequestsPerHost=%d,backoffRetryCount=%d,backoffDelay=%d-%d)",
+                KEY, super.getKey(), maxRequestsPerHost, backoffRetryCount, backoffBaseDelay, backoffMaxDelay);
+    }
+
+    /**
+     * 内容读完或者连接释放后归还主机名额，并记录传输耗时
+     */
+    private static class PooledHttpResponse extends HttpUrlConnectionResponse {
+        private Semaphore hostPermits;
+        private HttpTimingStats timingStats;
+        private AtomicBoolean permitReleased = new AtomicBoolean();
+        private TimingInputStream contentStream;
+
+        PooledHttpResponse(HttpURLConnection connection, Semaphore hostPermits, HttpTimingStats timingStats) {
+            super(connection);
+            this.hostPermits = hostPermits;
+            this.timingStats = timingStats;
+        }
+
+        @Override
+        public synchronized InputStream getContent() throws IOException {
+            if (contentStream == null) {
+                InputStream inputStream;
+                try {
+                    inputStream = getConnection().getInputStream();
+                } catch (IOException e) {
+                    releasePermit();
+                    throw e;
+                }
+                contentStream = new TimingInputStream(inputStream, this);
+            }
+            return contentStream;
+        }
+
+        @Override
+        public void releaseConnection() {
+            if (permitReleased.get()) {
+                return;
+            }
+            synchronized (this) {
+                if (contentStream != null) {
+                    SketchUtils.close(contentStream);
+                    return;
+                }
+            }
+            drain(getConnection());
+            releasePermit();
+        }
+
+        void releasePermit() {
+            if (permitReleased.compareAndSet(false, true)) {
+                hostPermits.release();
+            }
+        }
+    }
+
+    private static class TimingInputStream extends FilterInputStream {
+        private PooledHttpResponse response;
+        private long startTime = SystemClock.uptimeMillis();
+        private long contentLength;
+        private long readLength;
+        private boolean eof;
+        private boolean closed;
+
+        TimingInputStream(InputStream in, PooledHttpResponse response) {
+            super(in);
+            this.response = response;
+            this.contentLength = response.getContentLength();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value == -1) {
+                eof = true;
+            } else {
+                readLength++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(@SuppressWarnings("NullableProblems") byte[] buffer, int offset, int count) throws IOException {
+            int readCount = super.read(buffer, offset, count);
+            if (readCount == -1) {
+                eof = true;
+            } else {
+                readLength += readCount;
+            }
+            return readCount;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            if (eof || (contentLength > 0 && readLength >= contentLength)) {
+                response.timingStats.onTransferCompleted(SystemClock.uptimeMillis() - startTime, readLength);
+            } else if (!drainRemaining()) {
+                // 剩下的太多了，只能断开
+                response.getConnection().disconnect();
+            }
+
+            try {
+                super.close();
+            } finally {
+                response.releasePermit();
+            }
+        }
+
+        /**
+         * 没读完就关闭的话连接是不能复用的，剩下的不多就读完它
+         */
+        private boolean drainRemaining() {
+            if (contentLength > 0 && contentLength - readLength > MAX_DRAIN_LENGTH) {
+                return false;
+            }
+
+            byte[] buffer = new byte[4 * 1024];
+            int drainedLength = 0;
+            int readCount;
+            try {
+                while ((readCount = in.read(buffer)) != -1) {
+                    drainedLength += readCount;
+                    if (drainedLength > MAX_DRAIN_LENGTH) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -2,8 +2,14 @@ package me.xiaopan.sketch.process;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
 
 import me.xiaopan.sketch.Sketch;
+import me.xiaopan.sketch.cache.BitmapPool;
+import me.xiaopan.sketch.cache.BitmapPoolUtils;
 import me.xiaopan.sketch.request.Resize;
 
 /**
@@ -17,11 +23,45 @@ public class GaussianBlurImageProcessor extends WrappedImageProcessor {
 
     private int radius; // 模糊半径，取值为0到100
     private int layerColor; // 图层颜色，在模糊后的图片上加一层颜色
+    private int downsample; // 先缩小多少倍再模糊
 
-    private GaussianBlurImageProcessor(int radius, int layerColor, WrappedImageProcessor wrappedImageProcessor) {
+    private GaussianBlurImageProcessor(int radius, int layerColor, int downsample, WrappedImageProcessor wrappedImageProcessor) {
         super(wrappedImageProcessor);
         this.radius = radius;
         this.layerColor = layerColor;
+        this.downsample = Math.max(1, downsample);
+    }
+
+    private GaussianBlurImageProcessor(int radius, int layerColor, WrappedImageProcessor wrappedImageProcessor) {
+        this(radius, layerColor, 1, wrappedImageProcessor);
+    }
+
+    /**
+     * 创建一个先缩小再模糊的高斯模糊图片处理器，半径较大时效果跟直接模糊差不多，但快很多
+     *
+     * @param radius                模糊半径，取值为0到100
+     * @param layerColor            图层颜色，在模糊后的图片上加一层颜色，不需要的话传-1
+     * @param downsample            先缩小多少倍再模糊，例如2就是宽高都缩小一半，模糊半径也会跟着缩小
+     * @param wrappedImageProcessor 嵌套一个图片处理器
+     * @return GaussianBlurImageProcessor
+     */
+    @SuppressWarnings("unused")
+    public static GaussianBlurImageProcessor makeDownsample(int radius, int layerColor, int downsample,
+                                                            WrappedImageProcessor wrappedImageProcessor) {
+        return new GaussianBlurImageProcessor(radius, layerColor, downsample, wrappedImageProcessor);
+    }
+
+    /**
+     * 创建一个先缩小再模糊的高斯模糊图片处理器，半径较大时效果跟直接模糊差不多，但快很多
+     *
+     * @param radius     模糊半径，取值为0到100
+     * @param layerColor 图层颜色，在模糊后的图片上加一层颜色，不需要的话传-1
+     * @param downsample 先缩小多少倍再模糊，例如2就是宽高都缩小一半，模糊半径也会跟着缩小
+     * @return GaussianBlurImageProcessor
+     */
+    @SuppressWarnings("unused")
+    public static GaussianBlurImageProcessor makeDownsample(int radius, int layerColor, int downsample) {
+        return new GaussianBlurImageProcessor(radius, layerColor, downsample, null);
     }
 
     /**
@@ -118,217 +158,80 @@ public class GaussianBlurImageProcessor extends WrappedImageProcessor {
      * 快速高斯模糊
      */
     public static Bitmap fastGaussianBlur(Bitmap sentBitmap, int radius, boolean canReuseInBitmap) {
-        Bitmap bitmap;
-        if (canReuseInBitmap) {
-            bitmap = sentBitmap;
-        } else {
-            bitmap = sentBitmap.copy(sentBitmap.getConfig() != null ? sentBitmap.getConfig() : Bitmap.Config.ARGB_8888, true);
+        return fastGaussianBlur(sentBitmap, radius, canReuseInBitmap, null);
+    }
+
+    /**
+     * 快速高斯模糊，多线程处理，不能复用原图时从BitmapPool中取一个新的Bitmap，省去Bitmap.copy()
+     *
+     * @param bitmapPool 为null时不能复用原图就用Bitmap.copy()
+     */
+    public static Bitmap fastGaussianBlur(Bitmap sentBitmap, int radius, boolean canReuseInBitmap, BitmapPool bitmapPool) {
+        if (radius < 1) {
+            return null;
         }
 
+        final int w = sentBitmap.getWidth();
+        final int h = sentBitmap.getHeight();
+        Bitmap bitmap = null;
+        int[] pix = StackBlur.obtainBuffer(w * h);
         try {
-            if (radius < 1) {
-                return (null);
+            sentBitmap.getPixels(pix, 0, w, 0, 0, w, h);
+            StackBlur.blur(pix, w, h, radius);
+
+            if (canReuseInBitmap) {
+                bitmap = sentBitmap;
+            } else if (bitmapPool != null) {
+                bitmap = bitmapPool.getOrMake(w, h, sentBitmap.getConfig() != null ? sentBitmap.getConfig() : Bitmap.Config.ARGB_8888);
+            } else {
+                bitmap = sentBitmap.copy(sentBitmap.getConfig() != null ? sentBitmap.getConfig() : Bitmap.Config.ARGB_8888, true);
             }
-
-            int w = bitmap.getWidth();
-            int h = bitmap.getHeight();
-
-            int[] pix = new int[w * h];
-            bitmap.getPixels(pix, 0, w, 0, 0, w, h);
-
-            int wm = w - 1;
-            int hm = h - 1;
-            int wh = w * h;
-            int div = radius + radius + 1;
-
-            int r[] = new int[wh];
-            int g[] = new int[wh];
-            int b[] = new int[wh];
-            int rsum, gsum, bsum, x, y, i, p, yp, yi, yw;
-            int vmin[] = new int[Math.max(w, h)];
-
-            int divsum = (div + 1) >> 1;
-            divsum *= divsum;
-            int dv[] = new int[256 * divsum];
-            for (i = 0; i < 256 * divsum; i++) {
-                dv[i] = (i / divsum);
-            }
-
-            yw = yi = 0;
-
-            int[][] stack = new int[div][3];
-            int stackpointer;
-            int stackstart;
-            int[] sir;
-            int rbs;
-            int r1 = radius + 1;
-            int routsum, goutsum, boutsum;
-            int rinsum, ginsum, binsum;
-
-            for (y = 0; y < h; y++) {
-                rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
-                for (i = -radius; i <= radius; i++) {
-                    p = pix[yi + Math.min(wm, Math.max(i, 0))];
-                    sir = stack[i + radius];
-                    sir[0] = (p & 0xff0000) >> 16;
-                    sir[1] = (p & 0x00ff00) >> 8;
-                    sir[2] = (p & 0x0000ff);
-                    rbs = r1 - Math.abs(i);
-                    rsum += sir[0] * rbs;
-                    gsum += sir[1] * rbs;
-                    bsum += sir[2] * rbs;
-                    if (i > 0) {
-                        rinsum += sir[0];
-                        ginsum += sir[1];
-                        binsum += sir[2];
-                    } else {
-                        routsum += sir[0];
-                        goutsum += sir[1];
-                        boutsum += sir[2];
-                    }
-                }
-                stackpointer = radius;
-
-                for (x = 0; x < w; x++) {
-
-                    r[yi] = dv[rsum];
-                    g[yi] = dv[gsum];
-                    b[yi] = dv[bsum];
-
-                    rsum -= routsum;
-                    gsum -= goutsum;
-                    bsum -= boutsum;
-
-                    stackstart = stackpointer - radius + div;
-                    sir = stack[stackstart % div];
-
-                    routsum -= sir[0];
-                    goutsum -= sir[1];
-                    boutsum -= sir[2];
-
-                    if (y == 0) {
-                        vmin[x] = Math.min(x + radius + 1, wm);
-                    }
-                    p = pix[yw + vmin[x]];
-
-                    sir[0] = (p & 0xff0000) >> 16;
-                    sir[1] = (p & 0x00ff00) >> 8;
-                    sir[2] = (p & 0x0000ff);
-
-                    rinsum += sir[0];
-                    ginsum += sir[1];
-                    binsum += sir[2];
-
-                    rsum += rinsum;
-                    gsum += ginsum;
-                    bsum += binsum;
-
-                    stackpointer = (stackpointer + 1) % div;
-                    sir = stack[(stackpointer) % div];
-
-                    routsum += sir[0];
-                    goutsum += sir[1];
-                    boutsum += sir[2];
-
-                    rinsum -= sir[0];
-                    ginsum -= sir[1];
-                    binsum -= sir[2];
-
-                    yi++;
-                }
-                yw += w;
-            }
-            for (x = 0; x < w; x++) {
-                rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
-                yp = -radius * w;
-                for (i = -radius; i <= radius; i++) {
-                    yi = Math.max(0, yp) + x;
-
-                    sir = stack[i + radius];
-
-                    sir[0] = r[yi];
-                    sir[1] = g[yi];
-                    sir[2] = b[yi];
-
-                    rbs = r1 - Math.abs(i);
-
-                    rsum += r[yi] * rbs;
-                    gsum += g[yi] * rbs;
-                    bsum += b[yi] * rbs;
-
-                    if (i > 0) {
-                        rinsum += sir[0];
-                        ginsum += sir[1];
-                        binsum += sir[2];
-                    } else {
-                        routsum += sir[0];
-                        goutsum += sir[1];
-                        boutsum += sir[2];
-                    }
-
-                    if (i < hm) {
-                        yp += w;
-                    }
-                }
-                yi = x;
-                stackpointer = radius;
-                for (y = 0; y < h; y++) {
-                    // Preserve alpha channel: ( 0xff000000 & pix[yi] )
-                    pix[yi] = (0xff000000 & pix[yi]) | (dv[rsum] << 16) | (dv[gsum] << 8) | dv[bsum];
-
-                    rsum -= routsum;
-                    gsum -= goutsum;
-                    bsum -= boutsum;
-
-                    stackstart = stackpointer - radius + div;
-                    sir = stack[stackstart % div];
-
-                    routsum -= sir[0];
-                    goutsum -= sir[1];
-                    boutsum -= sir[2];
-
-                    if (x == 0) {
-                        vmin[y] = Math.min(y + r1, hm) * w;
-                    }
-                    p = x + vmin[y];
-
-                    sir[0] = r[p];
-                    sir[1] = g[p];
-                    sir[2] = b[p];
-
-                    rinsum += sir[0];
-                    ginsum += sir[1];
-                    binsum += sir[2];
-
-                    rsum += rinsum;
-                    gsum += ginsum;
-                    bsum += binsum;
-
-                    stackpointer = (stackpointer + 1) % div;
-                    sir = stack[stackpointer];
-
-                    routsum += sir[0];
-                    goutsum += sir[1];
-                    boutsum += sir[2];
-
-                    rinsum -= sir[0];
-                    ginsum -= sir[1];
-                    binsum -= sir[2];
-
-                    yi += w;
-                }
-            }
-
             bitmap.setPixels(pix, 0, w, 0, 0, w, h);
 
-            return (bitmap);
+            return bitmap;
         } catch (Throwable throwable) {
             throwable.printStackTrace();
             if (bitmap != null && bitmap != sentBitmap) {
-                bitmap.recycle();
+                if (bitmapPool != null) {
+                    BitmapPoolUtils.freeBitmapToPool(bitmap, bitmapPool);
+                } else {
+                    bitmap.recycle();
+                }
             }
             return null;
+        } finally {
+            StackBlur.releaseBuffer(pix);
+        }
+    }
+
+    /**
+     * 先缩小downsample倍再模糊，然后放大回原来的尺寸，模糊半径也跟着缩小，效果差不多但像素少了downsample的平方倍
+     */
+    private static Bitmap downsampleGaussianBlur(Bitmap bitmap, int radius, int downsample, BitmapPool bitmapPool) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int smallWidth = Math.max(1, width / downsample);
+        final int smallHeight = Math.max(1, height / downsample);
+        final Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+        Bitmap smallBitmap = bitmapPool.getOrMake(smallWidth, smallHeight, config);
+        Canvas smallCanvas = new Canvas(smallBitmap);
+        smallCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        smallCanvas.drawBitmap(bitmap, new Rect(0, 0, width, height), new Rect(0, 0, smallWidth, smallHeight), paint);
+
+        Bitmap blurBitmap = fastGaussianBlur(smallBitmap, Math.max(1, radius / downsample), true, bitmapPool);
+        if (blurBitmap == null) {
+            BitmapPoolUtils.freeBitmapToPool(smallBitmap, bitmapPool);
+            return null;
         }
+
+        Bitmap resultBitmap = bitmapPool.getOrMake(width, height, config);
+        Canvas canvas = new Canvas(resultBitmap);
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        canvas.drawBitmap(blurBitmap, new Rect(0, 0, smallWidth, smallHeight), new Rect(0, 0, width, height), paint);
+        BitmapPoolUtils.freeBitmapToPool(smallBitmap, bitmapPool);
+        return resultBitmap;
     }
 
     /**
@@ -347,8 +250,19 @@ public class GaussianBlurImageProcessor extends WrappedImageProcessor {
         return layerColor;
     }
 
+    /**
+     * 获取先缩小多少倍再模糊
+     */
+    @SuppressWarnings("unused")
+    public int getDownsample() {
+        return downsample;
+    }
+
     @Override
     public String onGetKey() {
+        if (downsample > 1) {
+            return String.format("%s(radius=%d,maskColor=%d,downsample=%d)", KEY, radius, layerColor, downsample);
+        }
         return String.format("%s(radius=%d,maskColor=%d)", KEY, radius, layerColor);
     }
 
@@ -359,7 +273,13 @@ public class GaussianBlurImageProcessor extends WrappedImageProcessor {
         }
 
         // blur handle
-        Bitmap blurBitmap = fastGaussianBlur(bitmap, radius, bitmap.getConfig() != null && bitmap.isMutable());
+        BitmapPool bitmapPool = sketch.getConfiguration().getBitmapPool();
+        Bitmap blurBitmap;
+        if (downsample > 1 && bitmap.getWidth() >= downsample && bitmap.getHeight() >= downsample) {
+            blurBitmap = downsampleGaussianBlur(bitmap, radius, downsample, bitmapPool);
+        } else {
+            blurBitmap = fastGaussianBlur(bitmap, radius, bitmap.getConfig() != null && bitmap.isMutable(), bitmapPool);
+        }
 
         // layer color handle
         if (blurBitmap != null && layerColor != NO_LAYER_COLOR) {
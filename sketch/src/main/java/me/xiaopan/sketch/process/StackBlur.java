@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.process;
+
+import java.lang.ref.SoftReference;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多线程Stack Blur，结果跟{@link GaussianBlurImageProcessor}原来的单线程实现一模一样。
+ * <br>先把所有行分成N段同时做横向模糊，都完成后再把所有列分成N段同时做纵向模糊，N就是CPU核数，调用线程自己也会处理一段。
+ * <br>像素缓冲区、每个线程的stack和vmin以及除法查找表都会复用，连续模糊同样尺寸、同样半径的图片时不用再分配内存
+ */
+public class StackBlur {
+    private static final int MIN_PARALLEL_PIXELS = 128 * 128;
+
+    private static final int THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+    private static ExecutorService executor;
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private static volatile DivTable divTable;
+    @SuppressWarnings("unchecked")
+    private static final SoftReference<int[]>[] IDLE_BUFFERS = new SoftReference[2];
+
+    private StackBlur() {
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(THREAD_COUNT - 1, THREAD_COUNT - 1, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "BlurThread" + THREAD_NUMBER.incrementAndGet());
+                }
+            });
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+            executor = threadPoolExecutor;
+        }
+        return executor;
+    }
+
+    /**
+     * 从缓冲池中拿一个至少能放下size个像素的缓冲区，用完后用{@link #releaseBuffer(int[])}还回去
+     */
+    public static int[] obtainBuffer(int size) {
+        synchronized (IDLE_BUFFERS) {
+            for (int i = 0; i < IDLE_BUFFERS.length; i++) {
+                int[] buffer = IDLE_BUFFERS[i] != null ? IDLE_BUFFERS[i].get() : null;
+                if (buffer != null && buffer.length >= size) {
+                    IDLE_BUFFERS[i] = null;
+                    return buffer;
+                }
+            }
+        }
+        return new int[size];
+    }
+
+    /**
+     * 归还缓冲区，最多保留两个（像素和横向模糊的结果各一个），满了就替换掉最小的，都是软引用，内存紧张的时候可以被回收
+     */
+    public static void releaseBuffer(int[] buffer) {
+        synchronized (IDLE_BUFFERS) {
+            int replaceIndex = -1;
+            int replaceLength = buffer.length;
+            for (int i = 0; i < IDLE_BUFFERS.length; i++) {
+                int[] idleBuffer = IDLE_BUFFERS[i] != null ? IDLE_BUFFERS[i].get() : null;
+                int idleLength = idleBuffer != null ? idleBuffer.length : -1;
+                if (idleLength < replaceLength) {
+                    replaceIndex = i;
+                    replaceLength = idleLength;
+                }
+            }
+            if (replaceIndex != -1) {
+                IDLE_BUFFERS[replaceIndex] = new SoftReference<int[]>(buffer);
+            }
+        }
+    }
+
+    private static DivTable getDivTable(int radius) {
+        DivTable table = divTable;
+        if (table == null || table.radius != radius) {
+            table = new DivTable(radius);
+            divTable = table;
+        }
+        return table;
+    }
+
+    /**
+     * 模糊像素，只修改RGB，保留Alpha
+     *
+     * @param pixels 像素，一行接一行排列，会被修改
+     * @param width  宽
+     * @param height 高
+     * @param radius 模糊半径
+     */
+    public static void blur(final int[] pixels, final int width, final int height, int radius) {
+        if (radius < 1 || width <= 0 || height <= 0) {
+            return;
+        }
+
+        final int[] rgb = obtainBuffer(width * height);
+        final DivTable table = getDivTable(radius);
+        try {
+            int threadCount = width * height >= MIN_PARALLEL_PIXELS ? THREAD_COUNT : 1;
+            if (threadCount <= 1) {
+                blurHorizontal(pixels, rgb, width, height, table, 0, height);
+                blurVertical(pixels, rgb, width, height, table, 0, width);
+                return;
+            }
+
+            runInParallel(threadCount, height, new Pass() {
+                @Override
+                public void run(int start, int end) {
+                    blurHorizontal(pixels, rgb, width, height, table, start, end);
+                }
+            });
+            runInParallel(threadCount, width, new Pass() {
+                @Override
+                public void run(int start, int end) {
+                    blurVertical(pixels, rgb, width, height, table, start, end);
+                }
+            });
+        } finally {
+            releaseBuffer(rgb);
+        }
+    }
+
+    /**
+     * 把[0, count)分成threadCount段，调用线程处理第一段，其它段交给线程池，等所有段都处理完了才返回
+     */
+    private static void runInParallel(int threadCount, int count, final Pass pass) {
+        int step = (count + threadCount - 1) / threadCount;
+        int taskCount = (count + step - 1) / step;
+        final CountDownLatch latch = new CountDownLatch(taskCount - 1);
+        final Throwable[] error = new Throwable[1];
+
+        ExecutorService executor = getExecutor();
+        for (int i = 1; i < taskCount; i++) {
+            final int start = i * step;
+            final int end = Math.min(count, start + step);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        pass.run(start, end);
+                    } catch (Throwable throwable) {
+                        error[0] = throwable;
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+
+        pass.run(0, Math.min(count, step));
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("blur interrupted", e);
+        }
+
+        if (error[0] != null) {
+            throw new IllegalStateException("blur failed", error[0]);
+        }
+    }
+
+    /**
+     * 横向模糊[startY, endY)行，结果以RGB的形式写到rgb中
+     */
+    private static void blurHorizontal(int[] pixels, int[] rgb, int w, int h, DivTable table, int startY, int endY) {
+        final int radius = table.radius;
+        final int div = table.div;
+        final int r1 = radius + 1;
+        final int wm = w - 1;
+        final int[] dv = table.dv;
+
+        Scratch scratch = SCRATCH.get();
+        int[] stack = scratch.getStack(div);
+        int[] vmin = scratch.getVmin(w);
+        for (int x = 0; x < w; x++) {
+            vmin[x] = Math.min(x + r1, wm);
+        }
+
+        int rsum, gsum, bsum, p, sir, rbs, stackpointer, stackstart;
+        int routsum, goutsum, boutsum, rinsum, ginsum, binsum;
+        for (int y = startY; y < endY; y++) {
+            final int yw = y * w;
+            int yi = yw;
+            rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
+            for (int i = -radius; i <= radius; i++) {
+                p = pixels[yw + Math.min(wm, Math.max(i, 0))];
+                sir = (i + radius) * 3;
+                stack[sir] = (p & 0xff0000) >> 16;
+                stack[sir + 1] = (p & 0x00ff00) >> 8;
+                stack[sir + 2] = (p & 0x0000ff);
+                rbs = r1 - Math.abs(i);
+                rsum += stack[sir] * rbs;
+                gsum += stack[sir + 1] * rbs;
+                bsum += stack[sir + 2] * rbs;
+                if (i > 0) {
+                    rinsum += stack[sir];
+                    ginsum += stack[sir + 1];
+                    binsum += stack[sir + 2];
+                } else {
+                    routsum += stack[sir];
+                    goutsum += stack[sir + 1];
+                    boutsum += stack[sir + 2];
+                }
+            }
+            stackpointer = radius;
+
+            for (int x = 0; x < w; x++) {
+                rgb[yi] = (dv[rsum] << 16) | (dv[gsum] << 8) | dv[bsum];
+
+                rsum -= routsum;
+                gsum -= goutsum;
+                bsum -= boutsum;
+
+                stackstart = stackpointer - radius + div;
+                sir = (stackstart % div) * 3;
+
+                routsum -= stack[sir];
+                goutsum -= stack[sir + 1];
+                boutsum -= stack[sir + 2];
+
+                p = pixels[yw + vmin[x]];
+
+                stack[sir] = (p & 0xff0000) >> 16;
+                stack[sir + 1] = (p & 0x00ff00) >> 8;
+                stack[sir + 2] = (p & 0x0000ff);
+
+                rinsum += stack[sir];
+                ginsum += stack[sir + 1];
+                binsum += stack[sir + 2];
+
+                rsum += rinsum;
+                gsum += ginsum;
+                bsum += binsum;
+
+                stackpointer = (stackpointer + 1) % div;
+                sir = stackpointer * 3;
+
+                routsum += stack[sir];
+                goutsum += stack[sir + 1];
+                boutsum += stack[sir + 2];
+
+                rinsum -= stack[sir];
+                ginsum -= stack[sir + 1];
+                binsum -= stack[sir + 2];
+
+                yi++;
+            }
+        }
+    }
+
+    /**
+     * 纵向模糊[startX, endX)列，从rgb中读取横向模糊的结果，写回pixels并保留原来的Alpha
+     */
+    private static void blurVertical(int[] pixels, int[] rgb, int w, int h, DivTable table, int startX, int endX) {
+        final int radius = table.radius;
+        final int div = table.div;
+        final int r1 = radius + 1;
+        final int hm = h - 1;
+        final int[] dv = table.dv;
+
+        Scratch scratch = SCRATCH.get();
+        int[] stack = scratch.getStack(div);
+        int[] vmin = scratch.getVmin(h);
+        for (int y = 0; y < h; y++) {
+            vmin[y] = Math.min(y + r1, hm) * w;
+        }
+
+        int rsum, gsum, bsum, p, sir, rbs, stackpointer, stackstart, yi, yp;
+        int routsum, goutsum, boutsum, rinsum, ginsum, binsum;
+        for (int x = startX; x < endX; x++) {
+            rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
+            yp = -radius * w;
+            for (int i = -radius; i <= radius; i++) {
+                p = rgb[Math.max(0, yp) + x];
+
+                sir = (i + radius) * 3;
+                stack[sir] = (p & 0xff0000) >> 16;
+                stack[sir + 1] = (p & 0x00ff00) >> 8;
+                stack[sir + 2] = (p & 0x0000ff);
+
+                rbs = r1 - Math.abs(i);
+                rsum += stack[sir] * rbs;
+                gsum += stack[sir + 1] * rbs;
+                bsum += stack[sir + 2] * rbs;
+
+                if (i > 0) {
+                    rinsum += stack[sir];
+                    ginsum += stack[sir + 1];
+                    binsum += stack[sir + 2];
+                } else {
+                    routsum += stack[sir];
+                    goutsum += stack[sir + 1];
+                    boutsum += stack[sir + 2];
+                }
+
+                if (i < hm) {
+                    yp += w;
+                }
+            }
+            yi = x;
+            stackpointer = radius;
+            for (int y = 0; y < h; y++) {
+                // 保留Alpha
+                pixels[yi] = (0xff000000 & pixels[yi]) | (dv[rsum] << 16) | (dv[gsum] << 8) | dv[bsum];
+
+                rsum -= routsum;
+                gsum -= goutsum;
+                bsum -= boutsum;
+
+                stackstart = stackpointer - radius + div;
+                sir = (stackstart % div) * 3;
+
+                routsum -= stack[sir];
+                goutsum -= stack[sir + 1];
+                boutsum -= stack[sir + 2];
+
+                p = rgb[x + vmin[y]];
+
+                stack[sir] = (p & 0xff0000) >> 16;
+                stack[sir + 1] = (p & 0x00ff00) >> 8;
+                stack[sir + 2] = (p & 0x0000ff);
+
+                rinsum += stack[sir];
+                ginsum += stack[sir + 1];
+                binsum += stack[sir + 2];
+
+                rsum += rinsum;
+                gsum += ginsum;
+                bsum += binsum;
+
+                stackpointer = (stackpointer + 1) % div;
+                sir = stackpointer * 3;
+
+                routsum += stack[sir];
+                goutsum += stack[sir + 1];
+                boutsum += stack[sir + 2];
+
+                rinsum -= stack[sir];
+                ginsum -= stack[sir + 1];
+                binsum -= stack[sir + 2];
+
+                yi += w;
+            }
+        }
+    }
+
+    private interface Pass {
+        void run(int start, int end);
+    }
+
+    /**
+     * 除法查找表，只跟半径有关，半径不变就一直用同一个
+     */
+    private static class DivTable {
+        private final int radius;
+        private final int div;
+        private final int[] dv;
+
+        DivTable(int radius) {
+            this.radius = radius;
+            this.div = radius + radius + 1;
+
+            int divsum = (div + 1) >> 1;
+            divsum *= divsum;
+            this.dv = new int[256 * divsum];
+            for (int i = 0; i < dv.length; i++) {
+                dv[i] = i / divsum;
+            }
+        }
+    }
+
+    /**
+     * 每个线程自己的临时数组，不够大的时候才重新分配
+     */
+    private static class Scratch {
+        private int[] stack = new int[0];
+        private int[] vmin = new int[0];
+
+        int[] getStack(int div) {
+            if (stack.length < div * 3) {
+                stack = new int[div * 3];
+            }
+            return stack;
+        }
+
+        int[] getVmin(int size) {
+            if (vmin.length < size) {
+                vmin = new int[size];
+            }
+            return vmin;
+        }
+    }
+}
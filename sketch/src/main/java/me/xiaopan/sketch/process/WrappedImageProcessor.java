@@ -28,7 +28,13 @@ import me.xiaopan.sketch.request.Resize;
  * 用于组合两个ImageProcessor一起使用
  */
 public abstract class WrappedImageProcessor extends ResizeImageProcessor {
+    /**
+     * 已经生成过KEY但是KEY为null，makeKey()不会返回空字符串，所以用空字符串标记
+     */
+    private static final String NO_KEY = "";
+
     private WrappedImageProcessor wrappedProcessor;
+    private volatile String key;
 
     public WrappedImageProcessor(WrappedImageProcessor wrappedProcessor) {
         this.wrappedProcessor = wrappedProcessor;
@@ -36,11 +42,24 @@ public abstract class WrappedImageProcessor extends ResizeImageProcessor {
 
     @Override
     public final String getKey() {
+        // 处理器创建后就不会再变了，所以KEY只需要生成一次，多个线程同时生成也没关系，结果都一样
+        String key = this.key;
+        if (key == null) {
+            key = makeKey();
+            if (key == null) {
+                key = NO_KEY;
+            }
+            this.key = key;
+        }
+        return key != NO_KEY ? key : null;
+    }
+
+    private String makeKey() {
         String selfKey = onGetKey();
         String wrappedKey = wrappedProcessor != null ? wrappedProcessor.getKey() : null;
         if (!TextUtils.isEmpty(selfKey)) {
             if (!TextUtils.isEmpty(wrappedKey)) {
-                return String.format("%s&%s", selfKey, wrappedKey);
+                return selfKey + "&" + wrappedKey;
             } else {
                 return selfKey;
             }
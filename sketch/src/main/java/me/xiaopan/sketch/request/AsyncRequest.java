@@ -58,7 +58,10 @@ abstract class AsyncRequest extends BaseRequest implements Runnable {
     }
 
     private void executeDispatch() {
-        setStatus(Status.START_DISPATCH);
+        // 在队列中等待时被取消了就不要再覆盖取消状态了，让请求尽快退出
+        if (!isCanceled()) {
+            setStatus(Status.START_DISPATCH);
+        }
         runDispatch();
     }
 
@@ -75,7 +78,9 @@ abstract class AsyncRequest extends BaseRequest implements Runnable {
     }
 
     private void executeDownload() {
-        setStatus(Status.START_DOWNLOAD);
+        if (!isCanceled()) {
+            setStatus(Status.START_DOWNLOAD);
+        }
         runDownload();
     }
 
@@ -92,7 +97,9 @@ abstract class AsyncRequest extends BaseRequest implements Runnable {
     }
 
     private void executeLoad() {
-        setStatus(Status.START_LOAD);
+        if (!isCanceled()) {
+            setStatus(Status.START_LOAD);
+        }
         runLoad();
     }
 
@@ -30,6 +30,7 @@ public class CallbackHandler {
     private static final int WHAT_RUN_FAILED = 33002;
     private static final int WHAT_RUN_CANCELED = 33003;
     private static final int WHAT_RUN_UPDATE_PROGRESS = 33004;
+    private static final int WHAT_RUN_UPDATE_PARTIAL_IMAGE = 33005;
 
     private static final int WHAT_CALLBACK_STARTED = 44001;
     private static final int WHAT_CALLBACK_FAILED = 44002;
@@ -52,6 +53,9 @@ public class CallbackHandler {
                     case WHAT_RUN_UPDATE_PROGRESS:
                         ((AsyncRequest) msg.obj).runUpdateProgressInMainThread(msg.arg1, msg.arg2);
                         break;
+                    case WHAT_RUN_UPDATE_PARTIAL_IMAGE:
+                        ((DisplayRequest) msg.obj).runUpdatePartialImageInMainThread();
+                        break;
                     case WHAT_RUN_FAILED:
                         ((AsyncRequest) msg.obj).runErrorInMainThread();
                         break;
@@ -119,6 +123,17 @@ public class CallbackHandler {
         }
     }
 
+    /**
+     * 推到主线程显示渐进式的图片
+     */
+    static void postRunUpdatePartialImage(DisplayRequest request) {
+        if (request.isSync()) {
+            request.runUpdatePartialImageInMainThread();
+        } else {
+            handler.obtainMessage(WHAT_RUN_UPDATE_PARTIAL_IMAGE, request).sendToTarget();
+        }
+    }
+
     static void postCallbackStarted(Listener listener, boolean sync) {
         if (listener != null) {
             if (sync || SketchUtils.isMainThread()) {
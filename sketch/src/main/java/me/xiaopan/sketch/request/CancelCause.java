@@ -74,4 +74,9 @@ public enum CancelCause {
      * 检测到绑定关系断开
      */
     BIND_DISCONNECT,
+
+    /**
+     * 请求队列已满，被优先级更高的请求挤出去了
+     */
+    BE_EVICTED,
 }
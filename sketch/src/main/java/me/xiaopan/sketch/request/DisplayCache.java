@@ -18,5 +18,6 @@ package me.xiaopan.sketch.request;
 
 public class DisplayCache {
     public String uri;
+    public String thumbnailUri;
     public DisplayOptions options = new DisplayOptions();
 }
@@ -37,6 +37,7 @@ import me.xiaopan.sketch.drawable.SketchRefDrawable;
 import me.xiaopan.sketch.drawable.SketchShapeBitmapDrawable;
 import me.xiaopan.sketch.process.ImageProcessor;
 import me.xiaopan.sketch.shaper.ImageShaper;
+import me.xiaopan.sketch.state.MemoryCacheStateImage;
 import me.xiaopan.sketch.state.StateImage;
 import me.xiaopan.sketch.util.SketchUtils;
 import me.xiaopan.sketch.util.Stopwatch;
@@ -58,6 +59,9 @@ public class DisplayHelper {
     private ViewInfo viewInfo = new ViewInfo();
     private SketchView sketchView;
 
+    private UriInfo thumbnailUriInfo;
+    private boolean skipThumbnailOnWifi;
+
     public DisplayHelper init(Sketch sketch, String uri, SketchView sketchView) {
         this.sketch = sketch;
         this.uriInfo = UriInfo.make(uri);
@@ -98,6 +102,27 @@ public class DisplayHelper {
         downloadProgressListener = null;
         viewInfo.reset(null, null);
         sketchView = null;
+        thumbnailUriInfo = null;
+        skipThumbnailOnWifi = false;
+    }
+
+    /**
+     * 设置缩略图地址，正常的图片显示出来之前先用较高的优先级加载缩略图显示着，正常的图片则用较低的优先级加载，
+     * 加载好后用ImageDisplayer替换掉缩略图。缩略图的maxSize、resize等选项跟正常的图片一样
+     */
+    @SuppressWarnings("unused")
+    public DisplayHelper thumbnail(String thumbnailUri) {
+        this.thumbnailUriInfo = UriInfo.make(thumbnailUri);
+        return this;
+    }
+
+    /**
+     * WiFi下不加载缩略图，直接加载正常的图片
+     */
+    @SuppressWarnings("unused")
+    public DisplayHelper skipThumbnailOnWifi() {
+        this.skipThumbnailOnWifi = true;
+        return this;
     }
 
     /**
@@ -130,6 +155,15 @@ public class DisplayHelper {
         return this;
     }
 
+    /**
+     * 设置请求优先级，只在RequestExecutor开启了优先级调度模式后才起作用
+     */
+    @SuppressWarnings("unused")
+    public DisplayHelper priority(RequestPriority priority) {
+        displayOptions.setPriority(priority);
+        return this;
+    }
+
     /**
      * 解码Gif图片
      */
@@ -353,6 +387,15 @@ public class DisplayHelper {
         return this;
     }
 
+    /**
+     * 开启渐进式显示，下载的过程中先显示一张用已经下载到的数据解码出来的小图
+     */
+    @SuppressWarnings("unused")
+    public DisplayHelper progressiveDisplay() {
+        displayOptions.setProgressiveDisplay(true);
+        return this;
+    }
+
 
     /**
      * 批量设置显示参数（完全覆盖）
@@ -398,6 +441,8 @@ public class DisplayHelper {
             Stopwatch.with().record("preProcess");
         }
 
+        preProcessThumbnail();
+
         saveParams();
         if (SLogType.TIME.isEnabled()) {
             Stopwatch.with().record("saveParams");
@@ -620,6 +665,28 @@ public class DisplayHelper {
         key = SketchUtils.makeRequestKey(uriInfo.getUri(), uriInfo.getScheme(), displayOptions);
     }
 
+    /**
+     * 缩略图地址无效、跟正常的图片一样或者WiFi下不需要缩略图的话就不用缩略图了
+     */
+    private void preProcessThumbnail() {
+        if (thumbnailUriInfo == null) {
+            return;
+        }
+
+        if (thumbnailUriInfo.getScheme() == null || thumbnailUriInfo.getUri().equals(uriInfo.getUri())) {
+            thumbnailUriInfo = null;
+            return;
+        }
+
+        if (skipThumbnailOnWifi && SketchUtils.isWifiConnected(sketch.getConfiguration().getContext())) {
+            if (SLogType.REQUEST.isEnabled()) {
+                SLog.fd(SLogType.REQUEST, LOG_NAME, "skip thumbnail on wifi. viewHashCode=%s. %s",
+                        Integer.toHexString(sketchView.hashCode()), thumbnailUriInfo.getUri());
+            }
+            thumbnailUriInfo = null;
+        }
+    }
+
     /**
      * 将相关信息保存在SketchImageView中，以便在RecyclerView中恢复显示使用
      */
@@ -631,6 +698,7 @@ public class DisplayHelper {
         }
 
         displayCache.uri = uriInfo.getUri();
+        displayCache.thumbnailUri = thumbnailUriInfo != null ? thumbnailUriInfo.getUri() : null;
         displayCache.options.copy(displayOptions);
     }
 
@@ -639,6 +707,8 @@ public class DisplayHelper {
             return true;
         }
 
+        sketch.getConfiguration().getMemoryBudgetController().maybeAdjust();
+
         String memoryCacheKey = key;
         SketchRefBitmap cachedRefBitmap = sketch.getConfiguration().getMemoryCache().get(memoryCacheKey);
         if (cachedRefBitmap == null) {
@@ -775,6 +845,20 @@ public class DisplayHelper {
     }
 
     private DisplayRequest submitRequest() {
+        // 内存缓存中有缩略图的话直接拿来当作加载中图片
+        Context context = sketch.getConfiguration().getContext();
+        String thumbnailMemoryCacheKey = null;
+        Drawable thumbnailDrawable = null;
+        if (thumbnailUriInfo != null) {
+            thumbnailMemoryCacheKey = SketchUtils.makeRequestKey(thumbnailUriInfo.getUri(), thumbnailUriInfo.getScheme(), displayOptions);
+            thumbnailDrawable = new MemoryCacheStateImage(thumbnailMemoryCacheKey, null).getDrawable(context, sketchView, displayOptions);
+
+            // 正常的图片用较低的优先级加载，先把线程让给缩略图和其它可见的图片
+            if (displayOptions.getPriority() == null) {
+                displayOptions.setPriority(RequestPriority.PREFETCH);
+            }
+        }
+
         RequestFactory requestFactory = sketch.getConfiguration().getRequestFactory();
         RequestAndViewBinder requestAndViewBinder = new RequestAndViewBinder(sketchView);
         DisplayRequest request = requestFactory.newDisplayRequest(sketch, uriInfo, key, displayOptions, viewInfo,
@@ -785,8 +869,10 @@ public class DisplayHelper {
 
         SketchLoadingDrawable loadingDrawable;
         StateImage loadingImage = displayOptions.getLoadingImage();
-        if (loadingImage != null) {
-            Context context = sketch.getConfiguration().getContext();
+        if (thumbnailDrawable != null) {
+            loadingDrawable = new SketchLoadingDrawable(thumbnailDrawable, request);
+            request.setThumbnailDisplayed();
+        } else if (loadingImage != null) {
             Drawable drawable = loadingImage.getDrawable(context, sketchView, displayOptions);
             loadingDrawable = new SketchLoadingDrawable(drawable, request);
         } else {
@@ -806,6 +892,10 @@ public class DisplayHelper {
                     Integer.toHexString(sketchView.hashCode()), key);
         }
 
+        if (thumbnailUriInfo != null && thumbnailDrawable == null) {
+            request.loadThumbnail(thumbnailUriInfo.getUri(), thumbnailMemoryCacheKey);
+        }
+
         request.submit();
         if (SLogType.TIME.isEnabled()) {
             Stopwatch.with().record("submitRequest");
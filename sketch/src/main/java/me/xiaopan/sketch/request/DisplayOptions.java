@@ -74,6 +74,11 @@ public class DisplayOptions extends LoadOptions {
      */
     private boolean shapeSizeByFixedSize;
 
+    /**
+     * 渐进式显示，下载的过程中用已经下载到的数据解码出模糊的图片先显示着
+     */
+    private boolean progressiveDisplay;
+
     public DisplayOptions() {
         reset();
     }
@@ -97,6 +102,11 @@ public class DisplayOptions extends LoadOptions {
         return (DisplayOptions) super.setRequestLevelFrom(requestLevelFrom);
     }
 
+    @Override
+    public DisplayOptions setPriority(RequestPriority priority) {
+        return (DisplayOptions) super.setPriority(priority);
+    }
+
     @Override
     public DisplayOptions setMaxSize(MaxSize maxSize) {
         return (DisplayOptions) super.setMaxSize(maxSize);
@@ -389,6 +399,25 @@ public class DisplayOptions extends LoadOptions {
         return this;
     }
 
+    /**
+     * 是否开启了渐进式显示
+     */
+    public boolean isProgressiveDisplay() {
+        return progressiveDisplay;
+    }
+
+    /**
+     * 设置是否开启渐进式显示，开启后网络图片在下载的过程中会用已经下载到的数据解码出一张很小的图片先显示着，
+     * 下载完成后再替换成正常的图片，只支持JPEG和PNG，需要知道图片的总长度
+     *
+     * @param progressiveDisplay 开启渐进式显示
+     * @return DisplayOptions
+     */
+    public DisplayOptions setProgressiveDisplay(boolean progressiveDisplay) {
+        this.progressiveDisplay = progressiveDisplay;
+        return this;
+    }
+
     @Override
     public void reset() {
         super.reset();
@@ -401,6 +430,7 @@ public class DisplayOptions extends LoadOptions {
         imageShaper = null;
         shapeSize = null;
         shapeSizeByFixedSize = false;
+        progressiveDisplay = false;
     }
 
     /**
@@ -425,5 +455,6 @@ public class DisplayOptions extends LoadOptions {
         imageShaper = options.imageShaper;
         shapeSize = options.shapeSize;
         shapeSizeByFixedSize = options.shapeSizeByFixedSize;
+        progressiveDisplay = options.progressiveDisplay;
     }
 }
@@ -17,33 +17,57 @@
 package me.xiaopan.sketch.request;
 
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
 import me.xiaopan.sketch.ErrorTracker;
 import me.xiaopan.sketch.SLogType;
 import me.xiaopan.sketch.Sketch;
 import me.xiaopan.sketch.SketchView;
 import me.xiaopan.sketch.cache.BitmapPool;
+import me.xiaopan.sketch.cache.BitmapPoolUtils;
 import me.xiaopan.sketch.cache.MemoryCache;
+import me.xiaopan.sketch.decode.ImageOrientationCorrector;
+import me.xiaopan.sketch.decode.ImageSizeCalculator;
+import me.xiaopan.sketch.decode.ImageType;
 import me.xiaopan.sketch.drawable.ImageAttrs;
 import me.xiaopan.sketch.drawable.SketchBitmapDrawable;
 import me.xiaopan.sketch.drawable.SketchDrawable;
 import me.xiaopan.sketch.drawable.SketchGifDrawable;
+import me.xiaopan.sketch.drawable.SketchLoadingDrawable;
 import me.xiaopan.sketch.drawable.SketchRefBitmap;
 import me.xiaopan.sketch.drawable.SketchRefDrawable;
 import me.xiaopan.sketch.drawable.SketchShapeBitmapDrawable;
+import me.xiaopan.sketch.util.ExifInterface;
 import me.xiaopan.sketch.util.SketchUtils;
 
 /**
  * 显示请求
  */
 public class DisplayRequest extends LoadRequest {
+    /**
+     * 渐进式显示的图片在正常解码的inSampleSize的基础上再缩小这么多倍，只是临时显示一下，越小解码越快
+     */
+    private static final int PARTIAL_IN_SAMPLE_SIZE_MULTIPLE = 4;
+
     protected DisplayResult displayResult;
     private DisplayOptions displayOptions;
     private DisplayListener displayListener;
     private ViewInfo viewInfo;
     private RequestAndViewBinder requestAndViewBinder;
+    private final AtomicReference<PartialData> partialData = new AtomicReference<PartialData>();
+    private final AtomicBoolean partialDecodeScheduled = new AtomicBoolean();
+    private final AtomicReference<Bitmap> partialBitmap = new AtomicReference<Bitmap>();
+    private volatile boolean partialDisabled;
+    private Bitmap displayedPartialBitmap;
+    private volatile boolean thumbnailDisplayed;
+    private volatile LoadRequest thumbnailRequest;
 
     public DisplayRequest(Sketch sketch, UriInfo uriInfo, String key, DisplayOptions displayOptions,
                           ViewInfo viewInfo, RequestAndViewBinder requestAndViewBinder, DisplayListener displayListener,
@@ -96,6 +120,11 @@ public class DisplayRequest extends LoadRequest {
         return false;
     }
 
+    @Override
+    protected RequestPriority getDefaultPriority() {
+        return RequestPriority.VISIBLE;
+    }
+
     @Override
     public void error(ErrorCause errorCause) {
         if (displayListener != null || displayOptions.getErrorImage() != null) {
@@ -109,6 +138,7 @@ public class DisplayRequest extends LoadRequest {
     @Override
     public void canceled(CancelCause cancelCause) {
         super.canceled(cancelCause);
+        cancelThumbnail();
 
         if (displayListener != null) {
             postRunCanceled();
@@ -127,8 +157,240 @@ public class DisplayRequest extends LoadRequest {
         super.postRunCompleted();
     }
 
+    @Override
+    public boolean isProgressive() {
+        return displayOptions.isProgressiveDisplay() || super.isProgressive();
+    }
+
+    @Override
+    public void updatePartialData(byte[] data, int length, int totalLength) {
+        // 先回调顺风车，它们的View尺寸可能不一样，得各自解码，不过都只是提交到解码线程池，不会拖慢下载
+        super.updatePartialData(data, length, totalLength);
+
+        // 已经显示缩略图了，不完整的数据解码出来的还不如缩略图
+        if (!displayOptions.isProgressiveDisplay() || partialDisabled || thumbnailDisplayed || isCanceled()) {
+            return;
+        }
+
+        // 只留最新的数据，解码跟不上下载的话中间的就跳过了，同一时间只有一个解码任务
+        partialData.set(new PartialData(data, length, totalLength));
+        if (partialDecodeScheduled.compareAndSet(false, true)) {
+            getConfiguration().getRequestExecutor().submitLoad(new PartialDecodeTask(this));
+        }
+    }
+
+    /**
+     * 在解码线程中把最新的不完整数据解码出来，解码的时候又来了新数据就接着解
+     */
+    private void runDecodePartialImage() {
+        while (true) {
+            PartialData data = partialData.getAndSet(null);
+            if (data == null) {
+                partialDecodeScheduled.set(false);
+
+                // 放开标记之前刚好来了新数据的话，提交的那边以为还在解码就没提交，得在这里接着解
+                if (partialData.get() == null || !partialDecodeScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+
+            decodePartialData(data);
+        }
+    }
+
+    private void decodePartialData(PartialData data) {
+        if (partialDisabled || thumbnailDisplayed || isCanceled()) {
+            return;
+        }
+
+        Bitmap bitmap;
+        try {
+            bitmap = decodePartialImage(data.data, data.length);
+        } catch (Throwable e) {
+            // 不完整的数据解码失败很正常，不能影响正常的显示
+            e.printStackTrace();
+            return;
+        }
+
+        if (bitmap == null) {
+            return;
+        }
+
+        if (partialDisabled || isCanceled()) {
+            if (SLogType.REQUEST.isEnabled()) {
+                printLogW("canceled", "decodePartialData", "decode partial image after");
+            }
+            freePartialBitmap(bitmap);
+            return;
+        }
+
+        if (SLogType.REQUEST.isEnabled()) {
+            printLogD("decode partial image", "decodePartialData", data.length + "/" + data.totalLength,
+                    bitmap.getWidth() + "x" + bitmap.getHeight());
+        }
+
+        // 上一张还没来得及显示就被新的取代了，直接还给BitmapPool，已经提交过显示了就不用再提交了
+        Bitmap oldBitmap = partialBitmap.getAndSet(bitmap);
+        if (oldBitmap != null) {
+            freePartialBitmap(oldBitmap);
+            return;
+        }
+
+        // runLoad()可能刚好在上面检查之后清理过，这一张就没人管了
+        if (partialDisabled) {
+            freePartialBitmap(partialBitmap.getAndSet(null));
+            return;
+        }
+
+        CallbackHandler.postRunUpdatePartialImage(this);
+    }
+
+    /**
+     * 用不完整的数据解码出一张很小的图片，只支持JPEG和PNG，解码不了的话返回null
+     */
+    private Bitmap decodePartialImage(byte[] data, int length) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, length, options);
+
+        ImageType imageType = ImageType.valueOfMimeType(options.outMimeType);
+        if (options.outWidth <= 1 || options.outHeight <= 1 || (imageType != ImageType.JPEG && imageType != ImageType.PNG)) {
+            return null;
+        }
+
+        ImageSizeCalculator sizeCalculator = getConfiguration().getImageSizeCalculator();
+        MaxSize maxSize = displayOptions.getMaxSize();
+        if (maxSize == null) {
+            maxSize = sizeCalculator.getDefaultImageMaxSize(getContext());
+        }
+        options.inSampleSize = sizeCalculator.calculateInSampleSize(options.outWidth, options.outHeight,
+                maxSize.getWidth(), maxSize.getHeight(), false) * PARTIAL_IN_SAMPLE_SIZE_MULTIPLE;
+        options.inPreferredConfig = imageType.getConfig(true);
+        options.inJustDecodeBounds = false;
+
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, length, options);
+        if (bitmap == null) {
+            return null;
+        }
+
+        // EXIF在文件头里，不完整的数据也能读到
+        if (!displayOptions.isCorrectImageOrientationDisabled()) {
+            ImageOrientationCorrector orientationCorrector = getConfiguration().getImageOrientationCorrector();
+            int exifOrientation;
+            try {
+                exifOrientation = orientationCorrector.readExifOrientation(imageType.getMimeType(), new ByteArrayInputStream(data, 0, length));
+            } catch (IOException e) {
+                e.printStackTrace();
+                exifOrientation = ExifInterface.ORIENTATION_UNDEFINED;
+            }
+            BitmapPool bitmapPool = getConfiguration().getBitmapPool();
+            Bitmap rotatedBitmap = orientationCorrector.rotate(bitmap, exifOrientation, bitmapPool);
+            if (rotatedBitmap != null) {
+                BitmapPoolUtils.freeBitmapToPool(bitmap, bitmapPool);
+                bitmap = rotatedBitmap;
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * 渐进式显示的图片不进内存缓存，没显示出来或者被换下来了就还给BitmapPool
+     */
+    private void freePartialBitmap(Bitmap bitmap) {
+        BitmapPoolUtils.freeBitmapToPool(bitmap, getConfiguration().getBitmapPool());
+    }
+
+    /**
+     * 在主线程中显示渐进式的图片
+     */
+    void runUpdatePartialImageInMainThread() {
+        Bitmap bitmap = partialBitmap.getAndSet(null);
+        if (bitmap == null) {
+            return;
+        }
+
+        Drawable drawable = new BitmapDrawable(getContext().getResources(), bitmap);
+        if (displayOptions.getShapeSize() != null || displayOptions.getImageShaper() != null) {
+            drawable = new SketchShapeBitmapDrawable(getContext(), (BitmapDrawable) drawable,
+                    displayOptions.getShapeSize(), displayOptions.getImageShaper());
+        }
+
+        if (thumbnailDisplayed || !displayInterimImage(drawable, "runUpdatePartialImageInMainThread")) {
+            freePartialBitmap(bitmap);
+            return;
+        }
+        displayedPartialBitmap = bitmap;
+    }
+
+    /**
+     * 在正常的图片显示出来之前先显示一张临时的图片，为了不断开请求和View的绑定关系，要用SketchLoadingDrawable包一下
+     *
+     * @return 显示了
+     */
+    private boolean displayInterimImage(Drawable drawable, String method) {
+        // 正常的图片已经解码好了就没必要再显示了
+        if (isFinished() || getStatus() == Status.WAIT_DISPLAY || isCanceled()) {
+            if (SLogType.REQUEST.isEnabled()) {
+                printLogW("finished", method);
+            }
+            return false;
+        }
+
+        SketchView sketchView = requestAndViewBinder.getImageViewInterface();
+        if (sketchView == null) {
+            return false;
+        }
+
+        sketchView.setImageDrawable(new SketchLoadingDrawable(drawable, this));
+
+        // 之前显示的渐进式图片已经被换下来了。正常的图片显示的时候不能还，ImageDisplayer可能还要用它做过渡
+        if (displayedPartialBitmap != null) {
+            freePartialBitmap(displayedPartialBitmap);
+            displayedPartialBitmap = null;
+        }
+        return true;
+    }
+
+    /**
+     * 缩略图已经从内存缓存中取出来当作加载中图片显示了
+     */
+    void setThumbnailDisplayed() {
+        thumbnailDisplayed = true;
+    }
+
+    /**
+     * 用较高的优先级加载缩略图，加载完成后如果正常的图片还没显示出来就先显示缩略图
+     *
+     * @param thumbnailUri            缩略图地址
+     * @param thumbnailMemoryCacheKey 缩略图的内存缓存KEY，选项跟正常的图片一样
+     */
+    void loadThumbnail(String thumbnailUri, String thumbnailMemoryCacheKey) {
+        thumbnailRequest = getSketch().load(thumbnailUri, new ThumbnailLoadListener(this, thumbnailMemoryCacheKey, thumbnailUri))
+                .options(displayOptions)
+                .priority(RequestPriority.VISIBLE)
+                .commit();
+    }
+
+    /**
+     * 正常的图片已经有结果了，还没加载完的缩略图就不要了
+     */
+    private void cancelThumbnail() {
+        LoadRequest request = thumbnailRequest;
+        if (request != null) {
+            thumbnailRequest = null;
+            request.cancel(CancelCause.BE_CANCELLED);
+        }
+    }
+
     @Override
     protected void runLoad() {
+        // 开始正常解码了，还没显示的渐进式图片就不要了
+        partialDisabled = true;
+        partialData.set(null);
+        freePartialBitmap(partialBitmap.getAndSet(null));
+
         if (isCanceled()) {
             if (SLogType.REQUEST.isEnabled()) {
                 printLogW("canceled", "runLoad", "display request just started");
@@ -251,6 +513,8 @@ public class DisplayRequest extends LoadRequest {
 
     @Override
     protected void runCompletedInMainThread() {
+        cancelThumbnail();
+
         Drawable drawable = displayResult.getDrawable();
         if (drawable == null) {
             if (SLogType.REQUEST.isEnabled()) {
@@ -321,6 +585,8 @@ public class DisplayRequest extends LoadRequest {
 
     @Override
     protected void runErrorInMainThread() {
+        cancelThumbnail();
+
         if (isCanceled()) {
             if (SLogType.REQUEST.isEnabled()) {
                 printLogW("canceled", "runErrorInMainThread");
@@ -351,4 +617,111 @@ public class DisplayRequest extends LoadRequest {
             displayListener.onCanceled(getCancelCause());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 缩略图加载完成后放进内存缓存，正常的图片还没显示的话就先显示缩略图
+     */
+    private static class ThumbnailLoadListener implements LoadListener {
+        private DisplayRequest displayRequest;
+        private String memoryCacheKey;
+        private String uri;
+
+        ThumbnailLoadListener(DisplayRequest displayRequest, String memoryCacheKey, String uri) {
+            this.displayRequest = displayRequest;
+            this.memoryCacheKey = memoryCacheKey;
+            this.uri = uri;
+        }
+
+        @Override
+        public void onStarted() {
+
+        }
+
+        @Override
+        public void onCompleted(LoadResult result) {
+            // GIF缩略图没必要，也不能放内存缓存
+            SketchGifDrawable gifDrawable = result.getGifDrawable();
+            if (gifDrawable != null) {
+                gifDrawable.recycle();
+                return;
+            }
+
+            Bitmap bitmap = result.getBitmap();
+            if (bitmap == null || bitmap.isRecycled()) {
+                return;
+            }
+
+            DisplayOptions displayOptions = displayRequest.getOptions();
+            BitmapPool bitmapPool = displayRequest.getConfiguration().getBitmapPool();
+            SketchRefBitmap refBitmap = new SketchRefBitmap(bitmap, memoryCacheKey, uri, result.getImageAttrs(), bitmapPool);
+
+            // 立马标记等待使用，没放进内存缓存也没显示的话最后会被回收
+            refBitmap.setIsWaitingUse(String.format("%s:waitingUse:thumbnail", displayRequest.getLogName()), true);
+
+            if (!displayOptions.isCacheInMemoryDisabled()) {
+                displayRequest.getConfiguration().getMemoryCache().put(memoryCacheKey, refBitmap);
+            }
+
+            Drawable drawable = new SketchBitmapDrawable(refBitmap, result.getImageFrom());
+            if (displayOptions.getShapeSize() != null || displayOptions.getImageShaper() != null) {
+                drawable = new SketchShapeBitmapDrawable(displayRequest.getContext(), (BitmapDrawable) drawable,
+                        displayOptions.getShapeSize(), displayOptions.getImageShaper());
+            }
+
+            if (displayRequest.displayInterimImage(drawable, "displayThumbnail")) {
+                displayRequest.thumbnailDisplayed = true;
+                if (SLogType.REQUEST.isEnabled()) {
+                    displayRequest.printLogD("thumbnail display completed", "displayThumbnail", refBitmap.getInfo());
+                }
+            }
+
+            refBitmap.setIsWaitingUse(String.format("%s:waitingUse:thumbnail", displayRequest.getLogName()), false);
+        }
+
+        @Override
+        public void onError(ErrorCause errorCause) {
+
+        }
+
+        @Override
+        public void onCanceled(CancelCause cancelCause) {
+
+        }
+    }
+
+    /**
+     * 下载线程给过来的不完整数据，前length个字节之后不会再变了
+     */
+    private static class PartialData {
+        private byte[] data;
+        private int length;
+        private int totalLength;
+
+        PartialData(byte[] data, int length, int totalLength) {
+            this.data = data;
+            this.length = length;
+            this.totalLength = totalLength;
+        }
+    }
+
+    /**
+     * 渐进式显示的解码是可有可无的，不能挤掉正常的请求，被丢弃了要放开标记，不然这个请求再也不会解码不完整的数据了
+     */
+    private static class PartialDecodeTask implements RequestThreadPoolExecutor.DiscardableTask {
+        private DisplayRequest displayRequest;
+
+        PartialDecodeTask(DisplayRequest displayRequest) {
+            this.displayRequest = displayRequest;
+        }
+
+        @Override
+        public void run() {
+            displayRequest.runDecodePartialImage();
+        }
+
+        @Override
+        public void onDiscarded() {
+            displayRequest.partialDecodeScheduled.set(false);
+        }
+    }
+}
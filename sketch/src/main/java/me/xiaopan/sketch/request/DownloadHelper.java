@@ -63,6 +63,15 @@ public class DownloadHelper {
         return this;
     }
 
+    /**
+     * 设置请求优先级，只在RequestExecutor开启了优先级调度模式后才起作用
+     */
+    @SuppressWarnings("unused")
+    public DownloadHelper priority(RequestPriority priority) {
+        downloadOptions.setPriority(priority);
+        return this;
+    }
+
     /**
      * 批量设置下载参数（完全覆盖）
      */
@@ -164,6 +173,7 @@ public class DownloadHelper {
                 if (SLogType.REQUEST.isEnabled()) {
                     SLog.fi(SLogType.REQUEST, LOG_NAME, "image download completed. %s", key);
                 }
+                sketch.getConfiguration().getImageDownloader().revalidateIfStale(sketch.getConfiguration(), uriInfo);
                 if (downloadListener != null) {
                     DownloadResult result = new DownloadResult(diskCacheEntry, ImageFrom.DISK_CACHE);
                     downloadListener.onCompleted(result);
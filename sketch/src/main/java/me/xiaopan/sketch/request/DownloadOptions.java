@@ -37,6 +37,11 @@ public class DownloadOptions {
      */
     private RequestLevelFrom requestLevelFrom;
 
+    /**
+     * 请求优先级
+     */
+    private RequestPriority priority;
+
     public DownloadOptions() {
         reset();
     }
@@ -111,6 +116,27 @@ public class DownloadOptions {
         return this;
     }
 
+    /**
+     * 获取请求优先级，为null时由请求类型决定
+     *
+     * @see RequestPriority
+     */
+    public RequestPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * 设置请求优先级，只在RequestExecutor开启了优先级调度模式后才起作用
+     *
+     * @param priority {@link RequestPriority}
+     * @return this
+     * @see RequestExecutor#setPriorityModeEnabled(boolean)
+     */
+    public DownloadOptions setPriority(RequestPriority priority) {
+        this.priority = priority;
+        return this;
+    }
+
     /**
      * 重置所有属性
      */
@@ -118,6 +144,7 @@ public class DownloadOptions {
         cacheInDiskDisabled = false;
         requestLevel = null;
         requestLevelFrom = null;
+        priority = null;
     }
 
     /**
@@ -131,6 +158,7 @@ public class DownloadOptions {
         cacheInDiskDisabled = options.cacheInDiskDisabled;
         requestLevel = options.requestLevel;
         requestLevelFrom = options.requestLevelFrom;
+        priority = options.priority;
     }
 
     /**
@@ -143,6 +171,15 @@ public class DownloadOptions {
         return builder;
     }
 
+    /**
+     * 生成选项KEY，同{@link #makeKey(StringBuilder)}，子类可以把结果缓存起来，重写了{@link #makeKey(StringBuilder)}的子类也要重写这个方法
+     *
+     * @see me.xiaopan.sketch.util.SketchUtils#makeRequestKey(String, UriScheme, DownloadOptions)
+     */
+    public String makeKey() {
+        return makeKey(new StringBuilder()).toString();
+    }
+
     /**
      * 生成StateImage用的选项KEY，用于组装StateImage的内存缓存KEY
      *
@@ -48,6 +48,21 @@ public class DownloadRequest extends AsyncRequest {
         return options;
     }
 
+    /**
+     * 获取请求优先级，选项中没有指定的话就使用请求类型对应的默认优先级
+     */
+    public RequestPriority getPriority() {
+        RequestPriority priority = options.getPriority();
+        return priority != null ? priority : getDefaultPriority();
+    }
+
+    /**
+     * 获取默认的请求优先级
+     */
+    protected RequestPriority getDefaultPriority() {
+        return RequestPriority.BACKGROUND;
+    }
+
     /**
      * 获取下载结果
      */
@@ -111,6 +126,7 @@ public class DownloadRequest extends AsyncRequest {
                 if (SLogType.REQUEST.isEnabled()) {
                     printLogD("from diskCache", "runDispatch");
                 }
+                getConfiguration().getImageDownloader().revalidateIfStale(getConfiguration(), getUriInfo());
                 downloadResult = new DownloadResult(diskCacheEntry, ImageFrom.DISK_CACHE);
                 downloadCompleted();
                 return;
@@ -169,6 +185,24 @@ public class DownloadRequest extends AsyncRequest {
         }
     }
 
+    /**
+     * 是否需要渐进式显示，需要的话下载的过程中会通过{@link #updatePartialData(byte[], int, int)}回调已经下载到的数据
+     */
+    public boolean isProgressive() {
+        return false;
+    }
+
+    /**
+     * 下载到一定进度时回调已经下载到的数据，在下载线程中执行，不要在这里解码，会拖慢下载
+     *
+     * @param data        已经下载到的数据，只有前length个字节是有效的，不能修改，前length个字节以后也不会再变，可以交给别的线程用
+     * @param length      已经下载到的数据的长度
+     * @param totalLength 图片的总长度
+     */
+    public void updatePartialData(byte[] data, int length, int totalLength) {
+
+    }
+
     /**
      * 下载完成后续处理
      */
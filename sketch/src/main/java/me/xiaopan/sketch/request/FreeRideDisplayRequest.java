@@ -33,6 +33,7 @@ import me.xiaopan.sketch.util.SketchUtils;
  */
 public class FreeRideDisplayRequest extends DisplayRequest implements FreeRideManager.DisplayFreeRide {
     private Set<FreeRideManager.DisplayFreeRide> displayFreeRideSet;
+    private boolean displayFreeRideRegistered;
 
     public FreeRideDisplayRequest(Sketch sketch, UriInfo uriInfo, String key, DisplayOptions displayOptions,
                                   ViewInfo viewInfo, RequestAndViewBinder requestAndViewBinder,
@@ -71,6 +72,7 @@ public class FreeRideDisplayRequest extends DisplayRequest implements FreeRideMa
                 return;
             } else {
                 freeRideManager.registerDisplayFreeRideProvider(this);
+                displayFreeRideRegistered = true;
             }
         }
 
@@ -81,8 +83,10 @@ public class FreeRideDisplayRequest extends DisplayRequest implements FreeRideMa
     protected void runLoad() {
         super.runLoad();
 
-        // 由于在submitRunLoad中会将自己注册成为顺风车主，因此一定要保证在这里取消注册
-        if (canByDisplayFreeRide()) {
+        // 由于在submitRunLoad中会将自己注册成为顺风车主，因此一定要保证在这里取消注册，
+        // 不能再用canByDisplayFreeRide()判断，执行的过程中磁盘缓存可能被关了，那样就永远取消不了注册了
+        if (displayFreeRideRegistered) {
+            displayFreeRideRegistered = false;
             FreeRideManager freeRideManager = getConfiguration().getFreeRideManager();
             freeRideManager.unregisterDisplayFreeRideProvider(this);
         }
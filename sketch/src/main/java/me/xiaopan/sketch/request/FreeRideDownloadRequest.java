@@ -16,7 +16,9 @@
 
 package me.xiaopan.sketch.request;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import me.xiaopan.sketch.SLogType;
@@ -29,6 +31,7 @@ import me.xiaopan.sketch.util.SketchUtils;
  */
 public class FreeRideDownloadRequest extends DownloadRequest implements FreeRideManager.DownloadFreeRide {
     private Set<FreeRideManager.DownloadFreeRide> downloadFreeRideSet;
+    private boolean downloadFreeRideRegistered;
 
     public FreeRideDownloadRequest(Sketch sketch, UriInfo uriInfo, String key, DownloadOptions options,
                                    DownloadListener downloadListener, DownloadProgressListener downloadProgressListener) {
@@ -62,6 +65,7 @@ public class FreeRideDownloadRequest extends DownloadRequest implements FreeRide
                 return;
             } else {
                 freeRideManager.registerDownloadFreeRideProvider(this);
+                downloadFreeRideRegistered = true;
             }
         }
 
@@ -72,8 +76,10 @@ public class FreeRideDownloadRequest extends DownloadRequest implements FreeRide
     protected void runDownload() {
         super.runDownload();
 
-        // 由于在submitRunDownload中会将自己注册成为顺风车主，因此一定要保证在这里取消注册
-        if (canByDownloadFreeRide()) {
+        // 由于在submitRunDownload中会将自己注册成为顺风车主，因此一定要保证在这里取消注册，
+        // 不能再用canByDownloadFreeRide()判断，执行的过程中磁盘缓存可能被关了，那样就永远取消不了注册了
+        if (downloadFreeRideRegistered) {
+            downloadFreeRideRegistered = false;
             FreeRideManager freeRideManager = getConfiguration().getFreeRideManager();
             freeRideManager.unregisterDownloadFreeRideProvider(this);
         }
@@ -127,4 +133,42 @@ public class FreeRideDownloadRequest extends DownloadRequest implements FreeRide
             }
         }
     }
+
+    /**
+     * 搭顺风车的请求有一个需要渐进式显示，车主就得提供已经下载到的数据
+     */
+    @Override
+    public boolean isProgressive() {
+        if (super.isProgressive()) {
+            return true;
+        }
+
+        for (FreeRideManager.DownloadFreeRide freeRide : getDownloadFreeRideList()) {
+            if (freeRide instanceof DownloadRequest && ((DownloadRequest) freeRide).isProgressive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void updatePartialData(byte[] data, int length, int totalLength) {
+        super.updatePartialData(data, length, totalLength);
+
+        for (FreeRideManager.DownloadFreeRide freeRide : getDownloadFreeRideList()) {
+            if (freeRide instanceof DownloadRequest) {
+                ((DownloadRequest) freeRide).updatePartialData(data, length, totalLength);
+            }
+        }
+    }
+
+    /**
+     * 拷贝一份顺风车列表，回调的时候不能一直锁着不让别人搭车
+     */
+    private synchronized List<FreeRideManager.DownloadFreeRide> getDownloadFreeRideList() {
+        if (downloadFreeRideSet == null || downloadFreeRideSet.isEmpty()) {
+            return new ArrayList<FreeRideManager.DownloadFreeRide>(0);
+        }
+        return new ArrayList<FreeRideManager.DownloadFreeRide>(downloadFreeRideSet);
+    }
 }
\ No newline at end of file
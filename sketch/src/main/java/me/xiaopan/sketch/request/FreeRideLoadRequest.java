@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.request;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.Sketch;
+import me.xiaopan.sketch.cache.DiskCache;
+import me.xiaopan.sketch.decode.ProcessedImageCache;
+import me.xiaopan.sketch.util.SketchUtils;
+
+/**
+ * 支持顺风车功能的加载请求，加载出来的Bitmap不能共享，所以只有开启了缓存已处理图片功能时才能搭车，
+ * 车主处理完并缓存到磁盘后，搭车的请求直接读取已处理的缓存图片，省去解码原图和再处理的时间
+ */
+public class FreeRideLoadRequest extends LoadRequest implements FreeRideManager.LoadFreeRide {
+    private Set<FreeRideManager.LoadFreeRide> loadFreeRideSet;
+    private boolean loadFreeRideRegistered;
+
+    public FreeRideLoadRequest(Sketch sketch, UriInfo uriInfo, String key, LoadOptions loadOptions,
+                               LoadListener loadListener, DownloadProgressListener downloadProgressListener) {
+        super(sketch, uriInfo, key, loadOptions, loadListener, downloadProgressListener);
+    }
+
+    @Override
+    public String getLoadFreeRideKey() {
+        return getProcessedImageDiskCacheKey();
+    }
+
+    @Override
+    public String getLoadFreeRideLog() {
+        return String.format("%s@%s", SketchUtils.toHexString(this), getKey());
+    }
+
+    /**
+     * 可以坐顺风车？条件是可以使用缓存已处理图片功能，磁盘缓存可以用，不解码GIF图片，没有开同步执行，请求执行器可以用
+     */
+    @Override
+    public boolean canByLoadFreeRide() {
+        DiskCache diskCache = getConfiguration().getDiskCache();
+        return !diskCache.isClosed() && !diskCache.isDisabled()
+                && !getOptions().isCacheInDiskDisabled()
+                && !getOptions().isDecodeGifImage()
+                && getConfiguration().getProcessedImageCache().canUse(getOptions())
+                && !isSync() && !getConfiguration().getRequestExecutor().isShutdown();
+    }
+
+    @Override
+    protected void submitRunLoad() {
+        // 可以坐顺风车的话，就先尝试坐别人的，坐不上就自己成为顺风车主让别人坐
+        if (canByLoadFreeRide()) {
+            FreeRideManager freeRideManager = getConfiguration().getFreeRideManager();
+            if (freeRideManager.byLoadFreeRide(this)) {
+                return;
+            } else {
+                freeRideManager.registerLoadFreeRideProvider(this);
+                loadFreeRideRegistered = true;
+            }
+        }
+
+        super.submitRunLoad();
+    }
+
+    @Override
+    protected void runLoad() {
+        super.runLoad();
+
+        // 由于在submitRunLoad中会将自己注册成为顺风车主，因此一定要保证在这里取消注册，
+        // 不能再用canByLoadFreeRide()判断，执行的过程中磁盘缓存可能被关了，那样就永远取消不了注册了
+        if (loadFreeRideRegistered) {
+            loadFreeRideRegistered = false;
+            FreeRideManager freeRideManager = getConfiguration().getFreeRideManager();
+            freeRideManager.unregisterLoadFreeRideProvider(this);
+        }
+    }
+
+    @Override
+    public synchronized void byLoadFreeRide(FreeRideManager.LoadFreeRide request) {
+        if (loadFreeRideSet == null) {
+            loadFreeRideSet = new HashSet<FreeRideManager.LoadFreeRide>();
+        }
+
+        loadFreeRideSet.add(request);
+    }
+
+    @Override
+    public Set<FreeRideManager.LoadFreeRide> getLoadFreeRideSet() {
+        return loadFreeRideSet;
+    }
+
+    @Override
+    public synchronized boolean processLoadFreeRide() {
+        ProcessedImageCache processedImageCache = getConfiguration().getProcessedImageCache();
+        boolean cached = processedImageCache.checkDiskCache(getConfiguration().getDiskCache(), getProcessedImageDiskCacheKey());
+        if (SLogType.REQUEST.isEnabled()) {
+            printLogD(cached ? "from processed diskCache" : "processed diskCache not found", "processLoadFreeRide");
+        }
+
+        // 不再去搭别人的车了，否则车主没有缓存结果的时候这些请求就只能一个接一个的执行
+        super.submitRunLoad();
+        return cached;
+    }
+}
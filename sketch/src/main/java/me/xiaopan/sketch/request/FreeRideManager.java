@@ -16,89 +16,119 @@
 
 package me.xiaopan.sketch.request;
 
-import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import me.xiaopan.sketch.Identifier;
 import me.xiaopan.sketch.SLog;
 import me.xiaopan.sketch.SLogType;
 
 /**
- * 顺风车管理器，主要用于解决重复下载、重复加载
+ * 顺风车管理器，相同KEY的请求同时只执行一个，其它的请求搭顺风车等着车主执行完毕后直接使用车主的结果
  * <p>
- * 对于相同的请求（不同类型条件不一样），只要第一个请求执行完毕了，后续请求可以直接使用第一个请求的结果，那么我们可以将所有后续的请求都绑定在第一个请求上，
- * 等第一个请求执行完毕后直接将结果交给后续请求处理即可，对于这样的情况我们称之为顺风车
+ * 车主用分段加锁的ConcurrentHashMap管理，每个车主有一个独立的锁，搭车和下车只锁这一个车主，不同KEY的请求之间互不影响
  */
 public class FreeRideManager implements Identifier {
     private static final String LOG_NAME = "FreeRideManager";
 
-    private final Object displayFreeRideProviderMapLock = new Object();
-    private final Object downloadFreeRideProviderMapLock = new Object();
-    private Map<String, DisplayFreeRide> displayFreeRideProviderMap;
-    private Map<String, DownloadFreeRide> downloadFreeRideProviderMap;
+    private FreeRideTable<DisplayFreeRide> displayTable = new FreeRideTable<DisplayFreeRide>("display") {
+        @Override
+        String getKey(DisplayFreeRide freeRide) {
+            return freeRide.getDisplayFreeRideKey();
+        }
 
-    /**
-     * 成为显示顺风车主
-     */
-    public void registerDisplayFreeRideProvider(DisplayFreeRide provider) {
-        if (!provider.canByDisplayFreeRide()) {
-            return;
+        @Override
+        String getLog(DisplayFreeRide freeRide) {
+            return freeRide.getDisplayFreeRideLog();
         }
 
-        synchronized (displayFreeRideProviderMapLock) {
-            if (displayFreeRideProviderMap == null) {
-                synchronized (this) {
-                    if (displayFreeRideProviderMap == null) {
-                        displayFreeRideProviderMap = new WeakHashMap<String, DisplayFreeRide>();
-                    }
-                }
-            }
+        @Override
+        void byFreeRide(DisplayFreeRide provider, DisplayFreeRide childFreeRide) {
+            provider.byDisplayFreeRide(childFreeRide);
+        }
 
-            displayFreeRideProviderMap.put(provider.getDisplayFreeRideKey(), provider);
+        @Override
+        Set<DisplayFreeRide> getFreeRideSet(DisplayFreeRide provider) {
+            return provider.getDisplayFreeRideSet();
+        }
 
-            SLog.fv(SLogType.REQUEST, LOG_NAME, "display. register free ride provider. %s",
-                    provider.getDisplayFreeRideLog());
+        @Override
+        boolean processFreeRide(DisplayFreeRide childFreeRide) {
+            return childFreeRide.processDisplayFreeRide();
         }
-    }
+    };
 
-    /**
-     * 取消显示顺风车主身份并回调那些显示顺风车
-     */
-    public void unregisterDisplayFreeRideProvider(DisplayFreeRide provider) {
-        if (!provider.canByDisplayFreeRide()) {
-            return;
+    private FreeRideTable<LoadFreeRide> loadTable = new FreeRideTable<LoadFreeRide>("load") {
+        @Override
+        String getKey(LoadFreeRide freeRide) {
+            return freeRide.getLoadFreeRideKey();
         }
 
-        // 取消顺风车主身份
-        DisplayFreeRide freeRideProvider = null;
-        synchronized (displayFreeRideProviderMapLock) {
-            if (displayFreeRideProviderMap != null) {
-                freeRideProvider = displayFreeRideProviderMap.remove(provider.getDisplayFreeRideKey());
-                if (freeRideProvider != null) {
-                    SLog.fw(SLogType.REQUEST, LOG_NAME, "display. unregister free ride provider. %s",
-                            freeRideProvider.getDisplayFreeRideLog());
-                }
-            }
+        @Override
+        String getLog(LoadFreeRide freeRide) {
+            return freeRide.getLoadFreeRideLog();
         }
 
-        // 回调那些顺风车
-        if (freeRideProvider != null) {
-            Set<DisplayFreeRide> freeRideSet = freeRideProvider.getDisplayFreeRideSet();
-            if (freeRideSet == null || freeRideSet.size() == 0) {
-                return;
-            }
+        @Override
+        void byFreeRide(LoadFreeRide provider, LoadFreeRide childFreeRide) {
+            provider.byLoadFreeRide(childFreeRide);
+        }
 
-            String providerId = freeRideProvider.getDisplayFreeRideLog();
-            for (DisplayFreeRide childFreeRide : freeRideSet) {
-                boolean success = childFreeRide.processDisplayFreeRide();
-                SLog.fd(SLogType.REQUEST, LOG_NAME, "display. callback free ride. %s. %s  <------  %s",
-                        success ? "success" : "failed", childFreeRide.getDisplayFreeRideLog(), providerId);
-            }
-            freeRideSet.clear();
+        @Override
+        Set<LoadFreeRide> getFreeRideSet(LoadFreeRide provider) {
+            return provider.getLoadFreeRideSet();
+        }
+
+        @Override
+        boolean processFreeRide(LoadFreeRide childFreeRide) {
+            return childFreeRide.processLoadFreeRide();
+        }
+    };
+
+    private FreeRideTable<DownloadFreeRide> downloadTable = new FreeRideTable<DownloadFreeRide>("download") {
+        @Override
+        String getKey(DownloadFreeRide freeRide) {
+            return freeRide.getDownloadFreeRideKey();
+        }
+
+        @Override
+        String getLog(DownloadFreeRide freeRide) {
+            return freeRide.getDownloadFreeRideLog();
+        }
+
+        @Override
+        void byFreeRide(DownloadFreeRide provider, DownloadFreeRide childFreeRide) {
+            provider.byDownloadFreeRide(childFreeRide);
+        }
+
+        @Override
+        Set<DownloadFreeRide> getFreeRideSet(DownloadFreeRide provider) {
+            return provider.getDownloadFreeRideSet();
+        }
+
+        @Override
+        boolean processFreeRide(DownloadFreeRide childFreeRide) {
+            return childFreeRide.processDownloadFreeRide();
+        }
+    };
+
+    /**
+     * 成为显示顺风车主
+     */
+    public void registerDisplayFreeRideProvider(DisplayFreeRide provider) {
+        if (provider.canByDisplayFreeRide()) {
+            displayTable.register(provider);
         }
     }
 
+    /**
+     * 取消显示顺风车主身份并回调那些显示顺风车
+     */
+    public void unregisterDisplayFreeRideProvider(DisplayFreeRide provider) {
+        displayTable.unregister(provider);
+    }
+
     /**
      * 坐个显示顺风车
      *
@@ -106,121 +136,226 @@ public class FreeRideManager implements Identifier {
      * @return 坐上了
      */
     public boolean byDisplayFreeRide(DisplayFreeRide childFreeRide) {
-        if (!childFreeRide.canByDisplayFreeRide()) {
-            return false;
-        }
+        return childFreeRide.canByDisplayFreeRide() && displayTable.by(childFreeRide);
+    }
 
-        synchronized (displayFreeRideProviderMapLock) {
-            DisplayFreeRide freeRideProvider = null;
-            if (displayFreeRideProviderMap != null) {
-                freeRideProvider = displayFreeRideProviderMap.get(childFreeRide.getDisplayFreeRideKey());
-            }
-            if (freeRideProvider == null) {
-                return false;
-            }
+    /**
+     * 成为加载顺风车主
+     */
+    public void registerLoadFreeRideProvider(LoadFreeRide provider) {
+        if (provider.canByLoadFreeRide()) {
+            loadTable.register(provider);
+        }
+    }
 
-            freeRideProvider.byDisplayFreeRide(childFreeRide);
+    /**
+     * 取消加载顺风车主身份并回调那些加载顺风车
+     */
+    public void unregisterLoadFreeRideProvider(LoadFreeRide provider) {
+        loadTable.unregister(provider);
+    }
 
-            SLog.fi(SLogType.REQUEST, LOG_NAME, "display. by free ride. %s  ------>  %s",
-                    childFreeRide.getDisplayFreeRideLog(), freeRideProvider.getDisplayFreeRideLog());
-            return true;
-        }
+    /**
+     * 坐个加载顺风车
+     *
+     * @param childFreeRide {@link LoadFreeRide}
+     * @return 坐上了
+     */
+    public boolean byLoadFreeRide(LoadFreeRide childFreeRide) {
+        return childFreeRide.canByLoadFreeRide() && loadTable.by(childFreeRide);
     }
 
     /**
      * 成为下载顺风车主
      */
     public void registerDownloadFreeRideProvider(DownloadFreeRide provider) {
-        if (!provider.canByDownloadFreeRide()) {
-            return;
+        if (provider.canByDownloadFreeRide()) {
+            downloadTable.register(provider);
         }
+    }
 
-        synchronized (downloadFreeRideProviderMapLock) {
-            if (downloadFreeRideProviderMap == null) {
-                synchronized (this) {
-                    if (downloadFreeRideProviderMap == null) {
-                        downloadFreeRideProviderMap = new WeakHashMap<String, DownloadFreeRide>();
-                    }
-                }
-            }
+    /**
+     * 取消下载顺风车主身份并回调那些下载顺风车
+     */
+    public void unregisterDownloadFreeRideProvider(DownloadFreeRide provider) {
+        downloadTable.unregister(provider);
+    }
+
+    /**
+     * 坐个下载顺风车
+     *
+     * @param childFreeRide {@link DownloadFreeRide}
+     * @return 坐上了
+     */
+    public boolean byDownloadFreeRide(DownloadFreeRide childFreeRide) {
+        return childFreeRide.canByDownloadFreeRide() && downloadTable.by(childFreeRide);
+    }
 
-            downloadFreeRideProviderMap.put(provider.getDownloadFreeRideKey(), provider);
+    /**
+     * 获取真正执行了的显示请求数量
+     */
+    @SuppressWarnings("unused")
+    public long getDisplayExecutedCount() {
+        return displayTable.executedCount.get();
+    }
 
-            SLog.fv(SLogType.REQUEST, LOG_NAME, "download. register free ride provider. %s",
-                    provider.getDownloadFreeRideLog());
+    /**
+     * 获取搭上显示顺风车的请求数量
+     */
+    @SuppressWarnings("unused")
+    public long getDisplayCoalescedCount() {
+        return displayTable.coalescedCount.get();
+    }
+
+    /**
+     * 获取真正执行了的加载请求数量
+     */
+    @SuppressWarnings("unused")
+    public long getLoadExecutedCount() {
+        return loadTable.executedCount.get();
+    }
+
+    /**
+     * 获取搭上加载顺风车的请求数量
+     */
+    @SuppressWarnings("unused")
+    public long getLoadCoalescedCount() {
+        return loadTable.coalescedCount.get();
+    }
+
+    /**
+     * 获取真正执行了的下载请求数量
+     */
+    @SuppressWarnings("unused")
+    public long getDownloadExecutedCount() {
+        return downloadTable.executedCount.get();
+    }
+
+    /**
+     * 获取搭上下载顺风车的请求数量
+     */
+    @SuppressWarnings("unused")
+    public long getDownloadCoalescedCount() {
+        return downloadTable.coalescedCount.get();
+    }
+
+    public String getStatsInfo() {
+        return String.format("%s(display=%d/%d, load=%d/%d, download=%d/%d)", LOG_NAME,
+                getDisplayCoalescedCount(), getDisplayExecutedCount(),
+                getLoadCoalescedCount(), getLoadExecutedCount(),
+                getDownloadCoalescedCount(), getDownloadExecutedCount());
+    }
+
+    @Override
+    public String getKey() {
+        return LOG_NAME;
+    }
+
+    /**
+     * 车主的搭车凭证，车主下车后凭证就关闭了，之后再也不能搭这辆车
+     */
+    private static class FreeRideHandle<T> {
+        private final T provider;
+        private boolean closed;
+
+        private FreeRideHandle(T provider) {
+            this.provider = provider;
         }
     }
 
     /**
-     * 取消下载顺风车主身份并回调那些下载顺风车
+     * 一种顺风车的车主表，三种顺风车的流程是一样的，只是回调的方法不一样
      */
-    public void unregisterDownloadFreeRideProvider(DownloadFreeRide provider) {
-        if (!provider.canByDownloadFreeRide()) {
-            return;
+    private static abstract class FreeRideTable<T> {
+        private final ConcurrentHashMap<String, FreeRideHandle<T>> handleMap = new ConcurrentHashMap<String, FreeRideHandle<T>>();
+        private final AtomicLong executedCount = new AtomicLong();
+        private final AtomicLong coalescedCount = new AtomicLong();
+        private String name;
+
+        FreeRideTable(String name) {
+            this.name = name;
         }
 
-        // 取消顺风车主身份
-        DownloadFreeRide freeRideProvider = null;
-        synchronized (downloadFreeRideProviderMapLock) {
-            if (downloadFreeRideProviderMap != null) {
-                freeRideProvider = downloadFreeRideProviderMap.remove(provider.getDownloadFreeRideKey());
-                if (freeRideProvider != null) {
-                    SLog.fw(SLogType.REQUEST, LOG_NAME, "download. unregister free ride provider. %s",
-                            freeRideProvider.getDownloadFreeRideLog());
-                }
+        abstract String getKey(T freeRide);
+
+        abstract String getLog(T freeRide);
+
+        abstract void byFreeRide(T provider, T childFreeRide);
+
+        abstract Set<T> getFreeRideSet(T provider);
+
+        abstract boolean processFreeRide(T childFreeRide);
+
+        void register(T provider) {
+            executedCount.incrementAndGet();
+
+            // 已经有车主了就不再注册，自己执行就好，没有人会来搭这辆车
+            FreeRideHandle<T> existHandle = handleMap.putIfAbsent(getKey(provider), new FreeRideHandle<T>(provider));
+            if (existHandle != null) {
+                return;
+            }
+
+            if (SLogType.REQUEST.isEnabled()) {
+                SLog.fv(SLogType.REQUEST, LOG_NAME, "%s. register free ride provider. %s", name, getLog(provider));
             }
         }
 
-        // 回调那些顺风车
-        if (freeRideProvider != null) {
-            Set<DownloadFreeRide> freeRideSet = freeRideProvider.getDownloadFreeRideSet();
+        void unregister(T provider) {
+            String key = getKey(provider);
+            FreeRideHandle<T> handle = handleMap.get(key);
+            if (handle == null || handle.provider != provider) {
+                return;
+            }
+
+            // 先下车再关闭凭证，关闭之后就不会再有人搭上这辆车了，这时候再回调那些顺风车就不会有遗漏
+            handleMap.remove(key, handle);
+            synchronized (handle) {
+                handle.closed = true;
+            }
+
+            if (SLogType.REQUEST.isEnabled()) {
+                SLog.fw(SLogType.REQUEST, LOG_NAME, "%s. unregister free ride provider. %s", name, getLog(provider));
+            }
+
+            // 回调那些顺风车
+            Set<T> freeRideSet = getFreeRideSet(provider);
             if (freeRideSet == null || freeRideSet.size() == 0) {
                 return;
             }
 
-            String providerId = freeRideProvider.getDownloadFreeRideLog();
-            for (DownloadFreeRide childFreeRide : freeRideSet) {
-                boolean success = childFreeRide.processDownloadFreeRide();
-                SLog.fd(SLogType.REQUEST, LOG_NAME, "download. callback free ride. %s. %s  <------  %s",
-                        success ? "success" : "failed", childFreeRide.getDownloadFreeRideLog(), providerId);
+            String providerId = getLog(provider);
+            for (T childFreeRide : freeRideSet) {
+                boolean success = processFreeRide(childFreeRide);
+                if (SLogType.REQUEST.isEnabled()) {
+                    SLog.fd(SLogType.REQUEST, LOG_NAME, "%s. callback free ride. %s. %s  <------  %s",
+                            name, success ? "success" : "failed", getLog(childFreeRide), providerId);
+                }
             }
             freeRideSet.clear();
         }
-    }
-
-    /**
-     * 坐个下载顺风车
-     *
-     * @param childFreeRide {@link DownloadFreeRide}
-     * @return 坐上了
-     */
-    public boolean byDownloadFreeRide(DownloadFreeRide childFreeRide) {
-        if (!childFreeRide.canByDownloadFreeRide()) {
-            return false;
-        }
 
-        synchronized (downloadFreeRideProviderMapLock) {
-            DownloadFreeRide freeRideProvider = null;
-            if (downloadFreeRideProviderMap != null) {
-                freeRideProvider = downloadFreeRideProviderMap.get(childFreeRide.getDownloadFreeRideKey());
-            }
-            if (freeRideProvider == null) {
+        boolean by(T childFreeRide) {
+            FreeRideHandle<T> handle = handleMap.get(getKey(childFreeRide));
+            if (handle == null) {
                 return false;
             }
 
-            freeRideProvider.byDownloadFreeRide(childFreeRide);
+            synchronized (handle) {
+                if (handle.closed) {
+                    return false;
+                }
+                byFreeRide(handle.provider, childFreeRide);
+            }
 
-            SLog.fi(SLogType.REQUEST, LOG_NAME, "download. by free ride. %s  ------>  %s",
-                    childFreeRide.getDownloadFreeRideLog(), freeRideProvider.getDownloadFreeRideLog());
+            coalescedCount.incrementAndGet();
+            if (SLogType.REQUEST.isEnabled()) {
+                SLog.fi(SLogType.REQUEST, LOG_NAME, "%s. by free ride. %s  ------>  %s",
+                        name, getLog(childFreeRide), getLog(handle.provider));
+            }
             return true;
         }
     }
 
-    @Override
-    public String getKey() {
-        return LOG_NAME;
-    }
-
     /**
      * 显示顺风车
      */
@@ -258,6 +393,43 @@ public class FreeRideManager implements Identifier {
         boolean processDisplayFreeRide();
     }
 
+    /**
+     * 加载顺风车
+     */
+    public interface LoadFreeRide {
+        /**
+         * 获取加载顺风车KEY
+         */
+        String getLoadFreeRideKey();
+
+        /**
+         * 获取日志
+         */
+        String getLoadFreeRideLog();
+
+        /**
+         * 是否可以使用加载顺风车功能（不同类型条件不一样）
+         */
+        boolean canByLoadFreeRide();
+
+        /**
+         * 让别人搭乘加载顺风车
+         */
+        void byLoadFreeRide(LoadFreeRide request);
+
+        /**
+         * 获取加载顺风车集合
+         */
+        Set<LoadFreeRide> getLoadFreeRideSet();
+
+        /**
+         * 执行结束，处理那些坐加载顺风车的请求
+         *
+         * @return 成功找到可以用的资源
+         */
+        boolean processLoadFreeRide();
+    }
+
     /**
      * 下载顺风车
      */
@@ -16,6 +16,8 @@
 
 package me.xiaopan.sketch.request;
 
+import java.util.List;
+
 import me.xiaopan.sketch.Identifier;
 import me.xiaopan.sketch.Sketch;
 import me.xiaopan.sketch.SketchView;
@@ -33,6 +35,10 @@ public class HelperFactory implements Identifier {
         return new LoadHelper(sketch, uri);
     }
 
+    public PreloadHelper getPreloadHelper(Sketch sketch, List<String> uris, LoadOptions options) {
+        return new PreloadHelper(sketch, uris, options);
+    }
+
     public DisplayHelper getDisplayHelper(Sketch sketch, String uri, SketchView sketchView) {
         if (this.cacheDisplayHelper == null) {
             this.cacheDisplayHelper = new DisplayHelper();
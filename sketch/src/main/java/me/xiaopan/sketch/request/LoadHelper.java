@@ -76,6 +76,15 @@ public class LoadHelper {
         return this;
     }
 
+    /**
+     * 设置请求优先级，只在RequestExecutor开启了优先级调度模式后才起作用
+     */
+    @SuppressWarnings("unused")
+    public LoadHelper priority(RequestPriority priority) {
+        loadOptions.setPriority(priority);
+        return this;
+    }
+
     /**
      * 解码Gif图片
      */
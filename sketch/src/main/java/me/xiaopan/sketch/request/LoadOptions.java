@@ -18,6 +18,7 @@ package me.xiaopan.sketch.request;
 
 import android.graphics.Bitmap;
 import android.text.TextUtils;
+import android.widget.ImageView;
 
 import me.xiaopan.sketch.decode.ImageType;
 import me.xiaopan.sketch.process.ImageProcessor;
@@ -93,6 +94,12 @@ public class LoadOptions extends DownloadOptions {
      */
     private boolean correctImageOrientationDisabled;
 
+    /**
+     * 上一次生成的选项KEY，生成前先比较影响KEY的属性，都没变就直接用，不用再拼字符串。
+     * reset()和copy()都不清除它，DisplayHelper复用的DisplayOptions在列表中连续绑定同样的选项时几乎每次都能命中
+     */
+    private KeySnapshot keySnapshot;
+
 
     public LoadOptions() {
         reset();
@@ -118,6 +125,11 @@ public class LoadOptions extends DownloadOptions {
         return (LoadOptions) super.setRequestLevelFrom(requestLevelFrom);
     }
 
+    @Override
+    public LoadOptions setPriority(RequestPriority priority) {
+        return (LoadOptions) super.setPriority(priority);
+    }
+
     /**
      * 获取最大尺寸，用于计算inSampleSize，缩小图片
      *
@@ -422,7 +434,20 @@ public class LoadOptions extends DownloadOptions {
     @Override
     public StringBuilder makeKey(StringBuilder builder) {
         super.makeKey(builder);
+        return builder.append(makeKey());
+    }
+
+    @Override
+    public String makeKey() {
+        KeySnapshot snapshot = keySnapshot;
+        if (snapshot == null || !snapshot.matches(this)) {
+            snapshot = new KeySnapshot(this, appendKey(new StringBuilder()).toString());
+            keySnapshot = snapshot;
+        }
+        return snapshot.key;
+    }
 
+    private StringBuilder appendKey(StringBuilder builder) {
         if (maxSize != null) {
             builder.append("_").append(maxSize.getKey());
         }
@@ -482,4 +507,64 @@ public class LoadOptions extends DownloadOptions {
         }
         return builder;
     }
+
+    /**
+     * 生成选项KEY时影响KEY的属性的快照，只比较基本类型和引用，不会分配内存。
+     * MaxSize和Resize每次绑定都可能是新创建的，所以比较它们的值而不是引用
+     */
+    private static final class KeySnapshot {
+        private final String key;
+        private final int maxSizeWidth;
+        private final int maxSizeHeight;
+        private final int resizeWidth;
+        private final int resizeHeight;
+        private final ImageView.ScaleType resizeScaleType;
+        private final boolean forceUseResize;
+        private final boolean thumbnailMode;
+        private final boolean correctImageOrientationDisabled;
+        private final boolean lowQualityImage;
+        private final boolean inPreferQualityOverSpeed;
+        private final boolean decodeGifImage;
+        private final Bitmap.Config bitmapConfig;
+        private final ImageProcessor imageProcessor;
+
+        KeySnapshot(LoadOptions options, String key) {
+            this.key = key;
+            this.maxSizeWidth = options.maxSize != null ? options.maxSize.getWidth() : -1;
+            this.maxSizeHeight = options.maxSize != null ? options.maxSize.getHeight() : -1;
+            this.resizeWidth = options.resize != null ? options.resize.getWidth() : -1;
+            this.resizeHeight = options.resize != null ? options.resize.getHeight() : -1;
+            this.resizeScaleType = options.resize != null ? options.resize.getScaleType() : null;
+            this.forceUseResize = options.forceUseResize;
+            this.thumbnailMode = options.thumbnailMode;
+            this.correctImageOrientationDisabled = options.correctImageOrientationDisabled;
+            this.lowQualityImage = options.lowQualityImage;
+            this.inPreferQualityOverSpeed = options.inPreferQualityOverSpeed;
+            this.decodeGifImage = options.decodeGifImage;
+            this.bitmapConfig = options.bitmapConfig;
+            this.imageProcessor = options.imageProcessor;
+        }
+
+        boolean matches(LoadOptions options) {
+            MaxSize maxSize = options.maxSize;
+            if (maxSize != null ? (maxSize.getWidth() != maxSizeWidth || maxSize.getHeight() != maxSizeHeight) : maxSizeWidth != -1) {
+                return false;
+            }
+
+            Resize resize = options.resize;
+            if (resize != null ? (resize.getWidth() != resizeWidth || resize.getHeight() != resizeHeight
+                    || resize.getScaleType() != resizeScaleType) : resizeWidth != -1) {
+                return false;
+            }
+
+            return forceUseResize == options.forceUseResize
+                    && thumbnailMode == options.thumbnailMode
+                    && correctImageOrientationDisabled == options.correctImageOrientationDisabled
+                    && lowQualityImage == options.lowQualityImage
+                    && inPreferQualityOverSpeed == options.inPreferQualityOverSpeed
+                    && decodeGifImage == options.decodeGifImage
+                    && bitmapConfig == options.bitmapConfig
+                    && imageProcessor == options.imageProcessor;
+        }
+    }
 }
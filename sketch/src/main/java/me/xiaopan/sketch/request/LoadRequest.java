@@ -71,6 +71,11 @@ public class LoadRequest extends FreeRideDownloadRequest {
         return loadResult;
     }
 
+    @Override
+    protected RequestPriority getDefaultPriority() {
+        return RequestPriority.PREFETCH;
+    }
+
     @Override
     public void error(ErrorCause errorCause) {
         super.error(errorCause);
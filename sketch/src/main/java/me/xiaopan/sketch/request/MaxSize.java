@@ -24,6 +24,7 @@ import me.xiaopan.sketch.Identifier;
 public class MaxSize implements Identifier {
     private int width;
     private int height;
+    private String key;
 
     public MaxSize(int width, int height) {
         this.width = width;
@@ -55,6 +56,11 @@ public class MaxSize implements Identifier {
 
     @Override
     public String getKey() {
-        return String.format("MaxSize(%dx%d)", width, height);
+        String key = this.key;
+        if (key == null) {
+            key = "MaxSize(" + width + "x" + height + ")";
+            this.key = key;
+        }
+        return key;
     }
 }
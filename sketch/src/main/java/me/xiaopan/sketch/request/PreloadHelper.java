@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.request;
+
+import android.graphics.Bitmap;
+
+import java.util.List;
+
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.Sketch;
+import me.xiaopan.sketch.cache.BitmapPool;
+import me.xiaopan.sketch.cache.BitmapPoolUtils;
+import me.xiaopan.sketch.cache.MemoryCache;
+import me.xiaopan.sketch.drawable.SketchGifDrawable;
+import me.xiaopan.sketch.drawable.SketchRefBitmap;
+import me.xiaopan.sketch.util.SketchUtils;
+
+/**
+ * 预加载Helper，批量提交一组图片的预加载请求，最后执行commit()提交
+ * <br>默认只下载到磁盘缓存，优先级是{@link RequestPriority#PREFETCH}，不会跟用户正在看的图片抢线程
+ */
+public class PreloadHelper {
+    private static final String LOG_NAME = "PreloadHelper";
+
+    private Sketch sketch;
+    private List<String> uris;
+    private LoadOptions loadOptions = new LoadOptions();
+    private PreloadStage stage = PreloadStage.DISK;
+    private RequestPriority priority = RequestPriority.PREFETCH;
+    private boolean cacheInMemoryDisabled;
+
+    public PreloadHelper(Sketch sketch, List<String> uris, LoadOptions options) {
+        this.sketch = sketch;
+        this.uris = uris;
+        if (options != null) {
+            this.loadOptions.copy(options);
+            this.cacheInMemoryDisabled = options instanceof DisplayOptions
+                    && ((DisplayOptions) options).isCacheInMemoryDisabled();
+        }
+    }
+
+    /**
+     * 设置预加载到哪一步，默认{@link PreloadStage#DISK}
+     */
+    public PreloadHelper stage(PreloadStage stage) {
+        if (stage != null) {
+            this.stage = stage;
+        }
+        return this;
+    }
+
+    /**
+     * 设置请求优先级，默认{@link RequestPriority#PREFETCH}，只在RequestExecutor开启了优先级调度模式后才起作用
+     */
+    @SuppressWarnings("unused")
+    public PreloadHelper priority(RequestPriority priority) {
+        if (priority != null) {
+            this.priority = priority;
+        }
+        return this;
+    }
+
+    /**
+     * 提交，返回的PreloadTask可以用来取消这一批请求
+     */
+    public PreloadTask commit() {
+        PreloadTask task = new PreloadTask();
+        if (uris == null || uris.isEmpty()) {
+            return task;
+        }
+
+        // 禁用了内存缓存的话就没必要解码了
+        PreloadStage finalStage = stage == PreloadStage.MEMORY && cacheInMemoryDisabled ? PreloadStage.DISK : stage;
+        MemoryCache memoryCache = sketch.getConfiguration().getMemoryCache();
+        int skipCount = 0;
+
+        for (String uri : uris) {
+            UriInfo uriInfo = UriInfo.make(uri);
+            if (uriInfo == null || uriInfo.getScheme() == null) {
+                skipCount++;
+                continue;
+            }
+
+            if (finalStage == PreloadStage.DISK) {
+                // 只有网络图片需要下载
+                if (uriInfo.getScheme() != UriScheme.NET) {
+                    skipCount++;
+                    continue;
+                }
+                task.add(sketch.download(uriInfo.getUri(), null)
+                        .options(loadOptions)
+                        .priority(priority)
+                        .commit());
+            } else {
+                // 选项跟显示时一样的话这个KEY就是显示时的内存缓存KEY
+                String memoryCacheKey = SketchUtils.makeRequestKey(uriInfo.getUri(), uriInfo.getScheme(), loadOptions);
+                if (memoryCache.get(memoryCacheKey) != null) {
+                    skipCount++;
+                    continue;
+                }
+                task.add(sketch.load(uriInfo.getUri(), new PreloadLoadListener(sketch, memoryCacheKey, uriInfo.getUri()))
+                        .options(loadOptions)
+                        .priority(priority)
+                        .commit());
+            }
+        }
+
+        if (SLogType.REQUEST.isEnabled()) {
+            SLog.fd(SLogType.REQUEST, LOG_NAME, "preload. stage=%s, priority=%s, count=%d, skip=%d",
+                    finalStage.name(), priority.name(), task.getRequestCount(), skipCount);
+        }
+        return task;
+    }
+
+    /**
+     * 把加载好的图片放进内存缓存
+     */
+    private static class PreloadLoadListener implements LoadListener {
+        private Sketch sketch;
+        private String memoryCacheKey;
+        private String uri;
+
+        PreloadLoadListener(Sketch sketch, String memoryCacheKey, String uri) {
+            this.sketch = sketch;
+            this.memoryCacheKey = memoryCacheKey;
+            this.uri = uri;
+        }
+
+        @Override
+        public void onStarted() {
+
+        }
+
+        @Override
+        public void onCompleted(LoadResult result) {
+            // GIF不放内存缓存，能走到这里说明已经下载到磁盘了，预加载到这一步就够了
+            SketchGifDrawable gifDrawable = result.getGifDrawable();
+            if (gifDrawable != null) {
+                gifDrawable.recycle();
+                return;
+            }
+
+            Bitmap bitmap = result.getBitmap();
+            if (bitmap == null || bitmap.isRecycled()) {
+                return;
+            }
+
+            BitmapPool bitmapPool = sketch.getConfiguration().getBitmapPool();
+            MemoryCache memoryCache = sketch.getConfiguration().getMemoryCache();
+
+            // 加载的过程中已经显示过了
+            if (memoryCache.get(memoryCacheKey) != null) {
+                BitmapPoolUtils.freeBitmapToPool(bitmap, bitmapPool);
+                return;
+            }
+
+            SketchRefBitmap refBitmap = new SketchRefBitmap(bitmap, memoryCacheKey, uri, result.getImageAttrs(), bitmapPool);
+            memoryCache.put(memoryCacheKey, refBitmap);
+
+            // 内存缓存被禁用或关闭了，放不进去
+            if (memoryCache.get(memoryCacheKey) != refBitmap) {
+                BitmapPoolUtils.freeBitmapToPool(bitmap, bitmapPool);
+            }
+        }
+
+        @Override
+        public void onError(ErrorCause errorCause) {
+
+        }
+
+        @Override
+        public void onCanceled(CancelCause cancelCause) {
+
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.request;
+
+/**
+ * 预加载到哪一步
+ */
+public enum PreloadStage {
+    /**
+     * 只下载到磁盘缓存，本地图片什么也不做
+     */
+    DISK,
+
+    /**
+     * 下载并解码放进内存缓存，显示的时候直接从内存缓存中取，
+     * 所以预加载用的选项要跟显示用的一样（包括maxSize、resize等根据ImageView计算出来的参数），否则KEY对不上
+     */
+    MEMORY,
+}
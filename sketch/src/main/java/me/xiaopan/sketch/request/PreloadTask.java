@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.request;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * 一批预加载请求，可以一次性全部取消
+ */
+public class PreloadTask {
+    private final List<BaseRequest> requests = new LinkedList<BaseRequest>();
+    private boolean canceled;
+
+    synchronized void add(BaseRequest request) {
+        if (request == null) {
+            return;
+        }
+
+        if (canceled) {
+            request.cancel(CancelCause.BE_CANCELLED);
+        } else {
+            requests.add(request);
+        }
+    }
+
+    /**
+     * 取消所有还没完成的预加载请求
+     */
+    public synchronized void cancel() {
+        canceled = true;
+        for (BaseRequest request : requests) {
+            if (!request.isFinished()) {
+                request.cancel(CancelCause.BE_CANCELLED);
+            }
+        }
+        requests.clear();
+    }
+
+    public synchronized boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * 是否都已经完成了（成功、失败或取消）
+     */
+    public synchronized boolean isFinished() {
+        for (BaseRequest request : requests) {
+            if (!request.isFinished()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 获取提交的请求数量，已经在内存缓存中的、本地图片预加载到磁盘等不需要请求的不算在内
+     */
+    public synchronized int getRequestCount() {
+        return requests.size();
+    }
+}
@@ -22,10 +22,7 @@ import android.os.HandlerThread;
 import android.os.Message;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import me.xiaopan.sketch.Identifier;
@@ -36,6 +33,7 @@ import me.xiaopan.sketch.Identifier;
 public class RequestExecutor implements Identifier {
     public static final int DEFAULT_LOCAL_THREAD_POOL_SIZE = 3;
     public static final int DEFAULT_NET_THREAD_POOL_SIZE = 3;
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 200;
 
     private static final String KEY = "RequestExecutor";
 
@@ -46,6 +44,9 @@ public class RequestExecutor implements Identifier {
     private boolean shutdown;
     private int localThreadPoolSize;
     private int netThreadPoolSize;
+    private boolean priorityModeEnabled;
+    private ScheduleStats loadScheduleStats = new ScheduleStats("load");
+    private ScheduleStats downloadScheduleStats = new ScheduleStats("download");
 
     public RequestExecutor(int localThreadPoolSize, int netThreadPoolSize) {
         this.localThreadPoolSize = localThreadPoolSize;
@@ -80,20 +81,21 @@ public class RequestExecutor implements Identifier {
         }
 
         // 之所有这里采用了懒加载的方式是为了兼容多进程，避免资源浪费
-        if (localTaskExecutor == null) {
+        ExecutorService executor = localTaskExecutor;
+        if (executor == null) {
             synchronized (RequestExecutor.this) {
                 if (localTaskExecutor == null) {
-                    localTaskExecutor = new ThreadPoolExecutor(
+                    localTaskExecutor = new RequestThreadPoolExecutor(
                             localThreadPoolSize,
-                            localThreadPoolSize,
-                            60, TimeUnit.SECONDS,
-                            new LinkedBlockingQueue<Runnable>(200),
+                            DEFAULT_MAX_QUEUE_SIZE,
+                            priorityModeEnabled,
                             new DefaultThreadFactory("LoadThread"),
-                            new ThreadPoolExecutor.DiscardOldestPolicy());
+                            loadScheduleStats);
                 }
+                executor = localTaskExecutor;
             }
         }
-        localTaskExecutor.execute(runnable);
+        executor.execute(runnable);
     }
 
     public void submitDownload(Runnable runnable) {
@@ -102,20 +104,21 @@ public class RequestExecutor implements Identifier {
         }
 
         // 之所有这里采用了懒加载的方式是为了兼容多进程，避免资源浪费
-        if (netTaskExecutor == null) {
+        ExecutorService executor = netTaskExecutor;
+        if (executor == null) {
             synchronized (RequestExecutor.this) {
                 if (netTaskExecutor == null) {
-                    netTaskExecutor = new ThreadPoolExecutor(
-                            netThreadPoolSize,
+                    netTaskExecutor = new RequestThreadPoolExecutor(
                             netThreadPoolSize,
-                            60, TimeUnit.SECONDS,
-                            new LinkedBlockingQueue<Runnable>(200),
+                            DEFAULT_MAX_QUEUE_SIZE,
+                            priorityModeEnabled,
                             new DefaultThreadFactory("DownloadThread"),
-                            new ThreadPoolExecutor.DiscardOldestPolicy());
+                            downloadScheduleStats);
                 }
+                executor = netTaskExecutor;
             }
         }
-        netTaskExecutor.execute(runnable);
+        executor.execute(runnable);
     }
 
     @SuppressWarnings("unused")
@@ -136,6 +139,57 @@ public class RequestExecutor implements Identifier {
         this.netTaskExecutor = netTaskExecutor;
     }
 
+    /**
+     * 是否开启了优先级调度模式
+     */
+    public boolean isPriorityModeEnabled() {
+        return priorityModeEnabled;
+    }
+
+    /**
+     * 设置开启优先级调度模式，开启后加载和下载任务将按照 {@link RequestPriority} 排序执行，
+     * 同是VISIBLE级别的请求后提交的先执行，队列满了的时候优先清理已取消的和优先级最低的请求，
+     * 关闭时使用先进先出并丢弃最早请求的旧策略
+     * <p>
+     * 切换模式时已经创建的线程池会在执行完已提交的任务后关闭，之后的任务由新的线程池执行
+     */
+    @SuppressWarnings("unused")
+    public void setPriorityModeEnabled(boolean priorityModeEnabled) {
+        if (shutdown || this.priorityModeEnabled == priorityModeEnabled) {
+            return;
+        }
+
+        synchronized (RequestExecutor.this) {
+            this.priorityModeEnabled = priorityModeEnabled;
+
+            if (netTaskExecutor != null) {
+                netTaskExecutor.shutdown();
+                netTaskExecutor = null;
+            }
+
+            if (localTaskExecutor != null) {
+                localTaskExecutor.shutdown();
+                localTaskExecutor = null;
+            }
+        }
+    }
+
+    /**
+     * 获取加载任务的调度统计，只统计默认的线程池
+     */
+    @SuppressWarnings("unused")
+    public ScheduleStats getLoadScheduleStats() {
+        return loadScheduleStats;
+    }
+
+    /**
+     * 获取下载任务的调度统计，只统计默认的线程池
+     */
+    @SuppressWarnings("unused")
+    public ScheduleStats getDownloadScheduleStats() {
+        return downloadScheduleStats;
+    }
+
     @Override
     public String getKey() {
         return String.format("%s(%s", KEY, shutdown ? "shutdown" : "running)");
@@ -36,7 +36,7 @@ public class RequestFactory implements Identifier {
 
     public LoadRequest newLoadRequest(Sketch sketch, UriInfo uriInfo, String key, LoadOptions options,
                                       LoadListener listener, DownloadProgressListener downloadProgressListener) {
-        return new LoadRequest(sketch, uriInfo, key, options, listener, downloadProgressListener);
+        return new FreeRideLoadRequest(sketch, uriInfo, key, options, listener, downloadProgressListener);
     }
 
     public DownloadRequest newDownloadRequest(Sketch sketch, UriInfo uriInfo, String key, DownloadOptions options,
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.request;
+
+/**
+ * 请求优先级，只在 {@link RequestExecutor} 开启了优先级调度模式后才起作用，数值越小越优先执行
+ *
+ * @see RequestExecutor#setPriorityModeEnabled(boolean)
+ */
+public enum RequestPriority {
+    /**
+     * 用户正在看的图片，display请求默认是这个级别，同级别的请求后提交的先执行
+     */
+    VISIBLE,
+
+    /**
+     * 预加载的图片，load请求默认是这个级别
+     */
+    PREFETCH,
+
+    /**
+     * 后台任务，download请求默认是这个级别
+     */
+    BACKGROUND,
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.request;
+
+import android.os.SystemClock;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+
+/**
+ * 请求线程池，支持两种调度模式：
+ * <br>FIFO模式：先提交的先执行，队列满了就取消并丢弃最早的，这是默认行为
+ * <br>优先级模式：按 {@link RequestPriority} 排序，VISIBLE级别的请求后提交的先执行，队列满了先清理已取消的请求，
+ * 还是满的话就取消并挤出优先级最低的请求
+ * <br>{@link DiscardableTask}是可有可无的辅助任务，比所有请求都排在后面，队列满了也不会挤掉排队的请求，只会被请求挤掉
+ */
+class RequestThreadPoolExecutor extends ThreadPoolExecutor {
+    private static final String LOG_NAME = "RequestThreadPoolExecutor";
+
+    private final AtomicLong sequence = new AtomicLong();
+    private boolean priorityMode;
+    private int maxQueueSize;
+    private ScheduleStats stats;
+
+    RequestThreadPoolExecutor(int poolSize, int maxQueueSize, boolean priorityMode,
+                              ThreadFactory threadFactory, ScheduleStats stats) {
+        super(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                priorityMode ? new PriorityBlockingQueue<Runnable>(maxQueueSize) : new LinkedBlockingQueue<Runnable>(maxQueueSize),
+                threadFactory,
+                new ThreadPoolExecutor.DiscardPolicy());
+        this.priorityMode = priorityMode;
+        if (!priorityMode) {
+            setRejectedExecutionHandler(new CancelOldestPolicy());
+        }
+        this.maxQueueSize = maxQueueSize;
+        this.stats = stats;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        RequestTask task;
+        if (command instanceof RequestTask) {
+            task = (RequestTask) command;
+        } else {
+            task = new RequestTask(command, sequence.getAndIncrement(), stats);
+            stats.onEnqueue();
+        }
+
+        if (!priorityMode) {
+            super.execute(task);
+            return;
+        }
+
+        List<RequestTask> discardedList = null;
+        synchronized (this) {
+            BlockingQueue<Runnable> queue = getQueue();
+
+            // 队列满了先清理掉那些已经取消的请求
+            if (queue.size() >= maxQueueSize) {
+                for (Runnable runnable : queue) {
+                    RequestTask queuedTask = (RequestTask) runnable;
+                    if (queuedTask.isCanceled() && queue.remove(queuedTask)) {
+                        if (discardedList == null) {
+                            discardedList = new LinkedList<RequestTask>();
+                        }
+                        discardedList.add(queuedTask);
+                    }
+                }
+            }
+
+            // 还是满的就挤掉优先级最低的，如果新来的就是最低的那就不要新来的
+            if (queue.size() >= maxQueueSize) {
+                RequestTask lowestTask = null;
+                for (Runnable runnable : queue) {
+                    RequestTask queuedTask = (RequestTask) runnable;
+                    if (lowestTask == null || queuedTask.compareTo(lowestTask) > 0) {
+                        lowestTask = queuedTask;
+                    }
+                }
+
+                if (discardedList == null) {
+                    discardedList = new LinkedList<RequestTask>();
+                }
+                if (lowestTask != null && lowestTask.compareTo(task) > 0 && queue.remove(lowestTask)) {
+                    discardedList.add(lowestTask);
+                } else {
+                    discardedList.add(task);
+                    task = null;
+                }
+            }
+
+            if (task != null) {
+                super.execute(task);
+            }
+        }
+
+        if (discardedList != null) {
+            for (RequestTask discardedTask : discardedList) {
+                discard(discardedTask);
+            }
+        }
+    }
+
+    /**
+     * 丢弃一个请求，没取消的先取消，然后让它走一遍取消流程，这样搭它顺风车的请求才能得到通知
+     */
+    private void discard(RequestTask task) {
+        stats.onEvicted();
+
+        Runnable runnable = task.runnable;
+        if (runnable instanceof DiscardableTask) {
+            ((DiscardableTask) runnable).onDiscarded();
+        } else if (runnable instanceof BaseRequest) {
+            BaseRequest request = (BaseRequest) runnable;
+            if (!request.isCanceled()) {
+                request.cancel(CancelCause.BE_EVICTED);
+                if (SLogType.REQUEST.isEnabled()) {
+                    SLog.fw(SLogType.REQUEST, LOG_NAME, "queue full, evicted. priority=%s. %s",
+                            task.priority.name(), request.getKey());
+                }
+            }
+            runnable.run();
+        }
+    }
+
+    /**
+     * 在FIFO模式下沿用丢弃最早请求的策略，只是被丢弃的请求也要走一遍取消流程，否则搭它顺风车的请求会一直等下去
+     */
+    private class CancelOldestPolicy implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                return;
+            }
+
+            // 辅助任务不能挤掉别人
+            RequestTask task = (RequestTask) r;
+            if (task.discardable) {
+                discard(task);
+                return;
+            }
+
+            // 先挤掉排队的辅助任务，没有的话再挤掉最早的请求
+            Runnable oldest = null;
+            BlockingQueue<Runnable> queue = executor.getQueue();
+            for (Runnable queuedRunnable : queue) {
+                if (((RequestTask) queuedRunnable).discardable && queue.remove(queuedRunnable)) {
+                    oldest = queuedRunnable;
+                    break;
+                }
+            }
+            if (oldest == null) {
+                oldest = queue.poll();
+            }
+
+            executor.execute(r);
+            if (oldest instanceof RequestTask) {
+                discard((RequestTask) oldest);
+            }
+        }
+    }
+
+    /**
+     * 可有可无的辅助任务，例如渐进式显示的解码，优先级比所有请求都低，被丢弃的时候会回调{@link #onDiscarded()}
+     */
+    interface DiscardableTask extends Runnable {
+        /**
+         * 排队的时候被丢弃了，不会再执行了
+         */
+        void onDiscarded();
+    }
+
+    private static class RequestTask implements Runnable, Comparable<RequestTask> {
+        private Runnable runnable;
+        private RequestPriority priority;
+        private boolean discardable;
+        private long sequence;
+        private long enqueueTime;
+        private ScheduleStats stats;
+
+        private RequestTask(Runnable runnable, long sequence, ScheduleStats stats) {
+            this.runnable = runnable;
+            this.sequence = sequence;
+            this.stats = stats;
+            this.enqueueTime = SystemClock.uptimeMillis();
+            this.priority = runnable instanceof DownloadRequest ?
+                    ((DownloadRequest) runnable).getPriority() : RequestPriority.BACKGROUND;
+            this.discardable = runnable instanceof DiscardableTask;
+        }
+
+        private boolean isCanceled() {
+            return runnable instanceof BaseRequest && ((BaseRequest) runnable).isCanceled();
+        }
+
+        @Override
+        public void run() {
+            stats.onStart(SystemClock.uptimeMillis() - enqueueTime);
+            runnable.run();
+        }
+
+        @Override
+        public int compareTo(RequestTask another) {
+            if (discardable != another.discardable) {
+                return discardable ? 1 : -1;
+            }
+            if (priority != another.priority) {
+                return priority.ordinal() - another.priority.ordinal();
+            }
+
+            // 用户正在看的图片后提交的先执行，因为快速滑动时先提交的往往已经划出屏幕了
+            if (sequence == another.sequence) {
+                return 0;
+            } else if (priority == RequestPriority.VISIBLE) {
+                return sequence > another.sequence ? -1 : 1;
+            } else {
+                return sequence < another.sequence ? -1 : 1;
+            }
+        }
+    }
+}
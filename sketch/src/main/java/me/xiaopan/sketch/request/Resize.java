@@ -34,6 +34,8 @@ public class Resize implements Identifier {
      */
     private ImageView.ScaleType scaleType;
 
+    private String key;
+
     public Resize(Resize sourceResize) {
         this.width = sourceResize.width;
         this.height = sourceResize.height;
@@ -56,6 +58,7 @@ public class Resize implements Identifier {
 
     public void setScaleType(ImageView.ScaleType scaleType) {
         this.scaleType = scaleType;
+        this.key = null;
     }
 
     public int getWidth() {
@@ -83,6 +86,11 @@ public class Resize implements Identifier {
 
     @Override
     public String getKey() {
-        return String.format("Resize(%dx%d-%s)", width, height, scaleType != null ? scaleType.name() : "null");
+        String key = this.key;
+        if (key == null) {
+            key = "Resize(" + width + "x" + height + "-" + (scaleType != null ? scaleType.name() : "null") + ")";
+            this.key = key;
+        }
+        return key;
     }
 }
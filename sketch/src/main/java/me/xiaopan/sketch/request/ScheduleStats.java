@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.request;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 请求调度统计，记录队列深度和请求在队列中的等待时间，用来观察调度策略对首帧显示时间的影响
+ */
+public class ScheduleStats {
+    private String name;
+
+    private AtomicInteger queueDepth = new AtomicInteger();
+    private AtomicInteger maxQueueDepth = new AtomicInteger();
+    private AtomicLong submittedCount = new AtomicLong();
+    private AtomicLong executedCount = new AtomicLong();
+    private AtomicLong evictedCount = new AtomicLong();
+    private AtomicLong totalWaitTime = new AtomicLong();
+    private AtomicLong maxWaitTime = new AtomicLong();
+
+    ScheduleStats(String name) {
+        this.name = name;
+    }
+
+    void onEnqueue() {
+        submittedCount.incrementAndGet();
+        int depth = queueDepth.incrementAndGet();
+        int max;
+        while (depth > (max = maxQueueDepth.get())) {
+            if (maxQueueDepth.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+    }
+
+    void onStart(long waitTime) {
+        queueDepth.decrementAndGet();
+        executedCount.incrementAndGet();
+        totalWaitTime.addAndGet(waitTime);
+        long max;
+        while (waitTime > (max = maxWaitTime.get())) {
+            if (maxWaitTime.compareAndSet(max, waitTime)) {
+                break;
+            }
+        }
+    }
+
+    void onEvicted() {
+        queueDepth.decrementAndGet();
+        evictedCount.incrementAndGet();
+    }
+
+    /**
+     * 获取当前排队中的请求数量
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * 获取排队请求数量的峰值
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * 获取提交的请求总数
+     */
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    /**
+     * 获取已开始执行的请求总数
+     */
+    public long getExecutedCount() {
+        return executedCount.get();
+    }
+
+    /**
+     * 获取因为队列已满被挤出去或被清理掉的请求总数
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /**
+     * 获取平均等待时间，单位毫秒
+     */
+    public long getAverageWaitTime() {
+        long executed = executedCount.get();
+        return executed > 0 ? totalWaitTime.get() / executed : 0;
+    }
+
+    /**
+     * 获取最长等待时间，单位毫秒
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+
+    /**
+     * 清空统计数据，当前排队数量除外
+     */
+    public void reset() {
+        maxQueueDepth.set(queueDepth.get());
+        submittedCount.set(0);
+        executedCount.set(0);
+        evictedCount.set(0);
+        totalWaitTime.set(0);
+        maxWaitTime.set(0);
+    }
+
+    public String getInfo() {
+        return String.format("%s(queueDepth=%d, maxQueueDepth=%d, submitted=%d, executed=%d, evicted=%d, averageWait=%dms, maxWait=%dms)",
+                name, getQueueDepth(), getMaxQueueDepth(), getSubmittedCount(), getExecutedCount(),
+                getEvictedCount(), getAverageWaitTime(), getMaxWaitTime());
+    }
+}
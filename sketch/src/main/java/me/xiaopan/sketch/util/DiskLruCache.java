@@ -17,8 +17,10 @@
 package me.xiaopan.sketch.util;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.Closeable;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -31,10 +33,14 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Array;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -42,10 +48,11 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import me.xiaopan.sketch.SLog;
 
@@ -96,6 +103,8 @@ import me.xiaopan.sketch.SLog;
 public final class DiskLruCache implements Closeable {
     public static final String JOURNAL_FILE = "journal";
     static final String JOURNAL_FILE_TMP = "journal.tmp";
+    public static final String BINARY_JOURNAL_FILE = "journal.bin";
+    static final String BINARY_JOURNAL_FILE_TMP = "journal.bin.tmp";
     static final String MAGIC = "libcore.io.DiskLruCache";
     static final String VERSION_1 = "1";
     static final long ANY_SEQUENCE_NUMBER = -1;
@@ -104,8 +113,22 @@ public final class DiskLruCache implements Closeable {
     private static final String REMOVE = "REMOVE";
     private static final String READ = "READ";
 
+    static final int BINARY_MAGIC = 0x534b444c;
+    static final int BINARY_VERSION_1 = 1;
+    private static final int BINARY_HEADER_SIZE = 16;
+    private static final byte OP_CLEAN = 1;
+    private static final byte OP_DIRTY = 2;
+    private static final byte OP_REMOVE = 3;
+    private static final byte OP_READ = 4;
+    private static final int OP_MASK = 0x7f;
+    private static final int FLAG_HASHED_KEY = 0x80;
+    private static final int HASHED_KEY_LENGTH = 32;
+    private static final long GROUP_COMMIT_WINDOW_MILLIS = 50;
+    private static final char[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
     private static final Charset UTF_8 = Charset.forName("UTF-8");
     private static final int IO_BUFFER_SIZE = 8 * 1024;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = 64;
 
     /*
      * This cache uses a journal file named "journal". A typical journal file
@@ -145,6 +168,18 @@ public final class DiskLruCache implements Closeable {
      * occasionally be compacted by dropping redundant lines. A temporary file named
      * "journal.tmp" will be used during compaction; that file should be deleted if
      * it exists when the cache is opened.
+     *
+     * When opened with binaryJournal=true the same records are written to
+     * "journal.bin" instead. Its header is four big-endian ints: BINARY_MAGIC,
+     * the binary journal version, the application's version and the value
+     * count. Each record starts with an op byte (OP_CLEAN, OP_DIRTY, OP_REMOVE
+     * or OP_READ). If FLAG_HASHED_KEY is set the key is a 32 char lowercase hex
+     * string (such as an MD5) packed into 16 bytes, otherwise a short length
+     * followed by the UTF-8 bytes of the key. CLEAN records end with one long
+     * per value. The file is replayed through a memory map, and CLEAN and
+     * REMOVE records are flushed together within GROUP_COMMIT_WINDOW_MILLIS
+     * instead of one by one. A text journal found at open is converted to the
+     * binary one (and back again if binaryJournal is turned off).
      */
 
     private final File directory;
@@ -153,12 +188,24 @@ public final class DiskLruCache implements Closeable {
     private final int appVersion;
     private final long maxSize;
     private final int valueCount;
-    private long size = 0;
-    private Writer journalWriter;
+    private final boolean binaryJournal;
+    private volatile long size = 0;
+    private volatile JournalWriter journalWriter;
+    private boolean groupCommitScheduled;
     private final LinkedHashMap<String, Entry> lruEntries
             = new LinkedHashMap<String, Entry>(0, 0.75f, true);
     private int redundantOpCount;
 
+    /*
+     * Index of readable entries for the lock-free read methods
+     * (getSimpleSnapshotQuietly, existQuietly). Accesses made through them are
+     * queued in pendingReads and applied to lruEntries and the journal in
+     * batches on the cleanup thread, or on the next write.
+     */
+    private final ConcurrentHashMap<String, Entry> readableEntries = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentLinkedQueue<String> pendingReads = new ConcurrentLinkedQueue<String>();
+    private final AtomicInteger pendingReadCount = new AtomicInteger();
+
     /**
      * To differentiate between old and current snapshots, each entry is given
      * a sequence number each time an edit is committed. A snapshot is stale if
@@ -262,10 +309,10 @@ public final class DiskLruCache implements Closeable {
     }
 
     /**
-     * This cache uses a single background thread to evict entries.
+     * This cache uses a single background thread to evict entries and to
+     * flush the binary journal once per group commit window.
      */
-    private final ExecutorService executorService = new ThreadPoolExecutor(0, 1,
-            60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    private final ScheduledThreadPoolExecutor executorService = newExecutorService();
     private final Callable<Void> cleanupCallable = new Callable<Void>() {
         @Override
         public Void call() throws Exception {
@@ -273,6 +320,7 @@ public final class DiskLruCache implements Closeable {
                 if (journalWriter == null) {
                     return null; // closed
                 }
+                drainPendingReads();
                 trimToSize();
                 if (journalRebuildRequired()) {
                     rebuildJournal();
@@ -282,12 +330,32 @@ public final class DiskLruCache implements Closeable {
             return null;
         }
     };
+    private final Callable<Void> groupCommitCallable = new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+            synchronized (DiskLruCache.this) {
+                groupCommitScheduled = false;
+                if (journalWriter != null) {
+                    journalWriter.flush();
+                }
+            }
+            return null;
+        }
+    };
 
-    private DiskLruCache(File directory, int appVersion, int valueCount, long maxSize) {
+    private static ScheduledThreadPoolExecutor newExecutorService() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setKeepAliveTime(60L, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private DiskLruCache(File directory, int appVersion, int valueCount, long maxSize, boolean binaryJournal) {
         this.directory = directory;
         this.appVersion = appVersion;
-        this.journalFile = new File(directory, JOURNAL_FILE);
-        this.journalFileTmp = new File(directory, JOURNAL_FILE_TMP);
+        this.binaryJournal = binaryJournal;
+        this.journalFile = new File(directory, binaryJournal ? BINARY_JOURNAL_FILE : JOURNAL_FILE);
+        this.journalFileTmp = new File(directory, binaryJournal ? BINARY_JOURNAL_FILE_TMP : JOURNAL_FILE_TMP);
         this.valueCount = valueCount;
         this.maxSize = maxSize;
     }
@@ -304,6 +372,23 @@ public final class DiskLruCache implements Closeable {
      */
     public static DiskLruCache open(File directory, int appVersion, int valueCount, long maxSize)
             throws IOException {
+        return open(directory, appVersion, valueCount, maxSize, false);
+    }
+
+    /**
+     * Opens the cache in {@code directory}, creating a cache if none exists
+     * there.
+     *
+     * @param directory     a writable directory
+     * @param appVersion
+     * @param valueCount    the number of values per cache entry. Must be positive.
+     * @param maxSize       the maximum number of bytes this cache should use to store
+     * @param binaryJournal use the binary, group-committed journal. An existing journal
+     *                      in the other format is migrated.
+     * @throws IOException if reading or writing the cache directory fails
+     */
+    public static DiskLruCache open(File directory, int appVersion, int valueCount, long maxSize,
+                                    boolean binaryJournal) throws IOException {
         if (maxSize <= 0) {
             throw new IllegalArgumentException("maxSize <= 0");
         }
@@ -311,30 +396,66 @@ public final class DiskLruCache implements Closeable {
             throw new IllegalArgumentException("valueCount <= 0");
         }
 
+        File otherJournalFile = new File(directory, binaryJournal ? JOURNAL_FILE : BINARY_JOURNAL_FILE);
+
         // prefer to pick up where we left off
-        DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize);
+        DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize, binaryJournal);
         if (cache.journalFile.exists()) {
             try {
-                cache.readJournal();
+                boolean complete;
+                if (binaryJournal) {
+                    complete = cache.readBinaryJournal(cache.journalFile);
+                } else {
+                    cache.readJournal(cache.journalFile);
+                    complete = true;
+                }
                 cache.processJournal();
-                cache.journalWriter = new BufferedWriter(new FileWriter(cache.journalFile, true),
-                        IO_BUFFER_SIZE);
+                if (complete) {
+                    cache.journalWriter = cache.newJournalWriter(cache.journalFile, true);
+                } else {
+                    // the tail was cut off by a crash, don't append after the broken record
+                    cache.rebuildJournal();
+                }
+                deleteIfExists(otherJournalFile);
                 return cache;
             } catch (IOException journalIsCorrupt) {
 //                System.logW("DiskLruCache " + directory + " is corrupt: "
 //                        + journalIsCorrupt.getMessage() + ", removing");
                 cache.delete();
             }
+        } else if (otherJournalFile.exists()) {
+            // migrate from the other journal format
+            try {
+                if (binaryJournal) {
+                    cache.readJournal(otherJournalFile);
+                } else {
+                    cache.readBinaryJournal(otherJournalFile);
+                }
+                cache.processJournal();
+                cache.rebuildJournal();
+                deleteIfExists(otherJournalFile);
+                return cache;
+            } catch (IOException journalIsCorrupt) {
+                cache.delete();
+            }
         }
 
         // create a new empty cache
         directory.mkdirs();
-        cache = new DiskLruCache(directory, appVersion, valueCount, maxSize);
+        cache = new DiskLruCache(directory, appVersion, valueCount, maxSize, binaryJournal);
         cache.rebuildJournal();
         return cache;
     }
 
-    private void readJournal() throws IOException {
+    private JournalWriter newJournalWriter(File file, boolean append) throws IOException {
+        if (binaryJournal) {
+            return new BinaryJournalWriter(file, append);
+        } else {
+            return new TextJournalWriter(file, append);
+        }
+    }
+
+    private void readJournal(File journalFile) throws IOException {
         InputStream in = new BufferedInputStream(new FileInputStream(journalFile), IO_BUFFER_SIZE);
         try {
             String magic = readAsciiLine(in);
@@ -394,6 +515,115 @@ public final class DiskLruCache implements Closeable {
         }
     }
 
+    /**
+     * Replays a binary journal through a memory map.
+     *
+     * @return false if the last record was cut off, the journal should be rebuilt before appending to it
+     */
+    private boolean readBinaryJournal(File journalFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(journalFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < BINARY_HEADER_SIZE) {
+                throw new IOException("unexpected journal header: length " + buffer.remaining());
+            }
+
+            int magic = buffer.getInt();
+            int version = buffer.getInt();
+            int appVersionInJournal = buffer.getInt();
+            int valueCountInJournal = buffer.getInt();
+            if (magic != BINARY_MAGIC
+                    || version != BINARY_VERSION_1
+                    || appVersionInJournal != appVersion
+                    || valueCountInJournal != valueCount) {
+                throw new IOException("unexpected journal header: ["
+                        + magic + ", " + version + ", " + appVersionInJournal + ", " + valueCountInJournal + "]");
+            }
+
+            while (buffer.hasRemaining()) {
+                try {
+                    readBinaryJournalRecord(buffer);
+                } catch (BufferUnderflowException endOfJournal) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            closeQuietly(file);
+        }
+    }
+
+    private void readBinaryJournalRecord(MappedByteBuffer buffer) throws IOException {
+        int flags = buffer.get() & 0xff;
+        int op = flags & OP_MASK;
+
+        String key;
+        if ((flags & FLAG_HASHED_KEY) != 0) {
+            key = readHashedKey(buffer);
+        } else {
+            byte[] keyBytes = new byte[buffer.getShort() & 0xffff];
+            buffer.get(keyBytes);
+            key = new String(keyBytes, UTF_8);
+        }
+
+        if (op == OP_REMOVE) {
+            lruEntries.remove(key);
+            return;
+        } else if (op == OP_READ) {
+            lruEntries.get(key);
+            return;
+        }
+
+        // read the whole record before touching the entry, it may be cut off
+        long[] lengths = null;
+        if (op == OP_CLEAN) {
+            lengths = new long[valueCount];
+            for (int i = 0; i < valueCount; i++) {
+                lengths[i] = buffer.getLong();
+            }
+        } else if (op != OP_DIRTY) {
+            throw new IOException("unexpected journal record: " + flags + " " + key);
+        }
+
+        Entry entry = lruEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            lruEntries.put(key, entry);
+        }
+
+        if (lengths != null) {
+            entry.readable = true;
+            entry.currentEditor = null;
+            System.arraycopy(lengths, 0, entry.lengths, 0, valueCount);
+        } else {
+            entry.currentEditor = new Editor(entry);
+        }
+    }
+
+    private static boolean isHashedKey(String key) {
+        if (key.length() != HASHED_KEY_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HASHED_KEY_LENGTH; i++) {
+            char c = key.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String readHashedKey(MappedByteBuffer buffer) {
+        char[] chars = new char[HASHED_KEY_LENGTH];
+        for (int i = 0; i < HASHED_KEY_LENGTH; i += 2) {
+            int b = buffer.get();
+            chars[i] = HEX_DIGITS[(b >>> 4) & 0xf];
+            chars[i + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(chars);
+    }
+
     /**
      * Computes the initial size and collects garbage as a part of opening the
      * cache. Dirty entries are assumed to be inconsistent and will be deleted.
@@ -406,6 +636,9 @@ public final class DiskLruCache implements Closeable {
                 for (int t = 0; t < valueCount; t++) {
                     size += entry.lengths[t];
                 }
+                if (entry.readable) {
+                    readableEntries.put(entry.key, entry);
+                }
             } else {
                 entry.currentEditor = null;
                 for (int t = 0; t < valueCount; t++) {
@@ -426,28 +659,20 @@ public final class DiskLruCache implements Closeable {
             journalWriter.close();
         }
 
-        Writer writer = new BufferedWriter(new FileWriter(journalFileTmp), IO_BUFFER_SIZE);
-        writer.write(MAGIC);
-        writer.write("\n");
-        writer.write(VERSION_1);
-        writer.write("\n");
-        writer.write(Integer.toString(appVersion));
-        writer.write("\n");
-        writer.write(Integer.toString(valueCount));
-        writer.write("\n");
-        writer.write("\n");
+        JournalWriter writer = newJournalWriter(journalFileTmp, false);
+        writer.writeHeader();
 
         for (Entry entry : lruEntries.values()) {
             if (entry.currentEditor != null) {
-                writer.write(DIRTY + ' ' + entry.key + '\n');
+                writer.writeDirty(entry.key);
             } else {
-                writer.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+                writer.writeClean(entry);
             }
         }
 
         writer.close();
         journalFileTmp.renameTo(journalFile);
-        journalWriter = new BufferedWriter(new FileWriter(journalFile, true), IO_BUFFER_SIZE);
+        journalWriter = newJournalWriter(journalFile, true);
     }
 
     private static void deleteIfExists(File file) throws IOException {
@@ -496,7 +721,7 @@ public final class DiskLruCache implements Closeable {
         }
 
         redundantOpCount++;
-        journalWriter.append(READ + ' ' + key + '\n');
+        journalWriter.writeRead(key);
         if (journalRebuildRequired()) {
             executorService.submit(cleanupCallable);
         }
@@ -532,7 +757,7 @@ public final class DiskLruCache implements Closeable {
         }
 
         redundantOpCount++;
-        journalWriter.append(READ + ' ' + key + '\n');
+        journalWriter.writeRead(key);
         if (journalRebuildRequired()) {
             executorService.submit(cleanupCallable);
         }
@@ -549,7 +774,7 @@ public final class DiskLruCache implements Closeable {
         Entry entry = lruEntries.get(key);
 
         redundantOpCount++;
-        journalWriter.append(READ + ' ' + key + '\n');
+        journalWriter.writeRead(key);
         if (journalRebuildRequired()) {
             executorService.submit(cleanupCallable);
         }
@@ -557,6 +782,64 @@ public final class DiskLruCache implements Closeable {
         return entry != null && entry.readable;
     }
 
+    /**
+     * Like {@link #getSimpleSnapshot(String)} but without taking the cache lock.
+     * The access is buffered and recorded in the journal later in a batch.
+     */
+    public SimpleSnapshot getSimpleSnapshotQuietly(String key) throws ClosedException {
+        checkNotClosed();
+        validateKey(key);
+        Entry entry = readableEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        File[] cleanFiles = new File[valueCount];
+        for (int i = 0; i < valueCount; i++) {
+            cleanFiles[i] = entry.getCleanFile(i);
+        }
+
+        recordRead(key);
+        return new SimpleSnapshot(key, entry.sequenceNumber, cleanFiles, this);
+    }
+
+    /**
+     * Like {@link #exist(String)} but without taking the cache lock. Misses are
+     * not recorded in the journal.
+     */
+    public boolean existQuietly(String key) throws ClosedException {
+        checkNotClosed();
+        validateKey(key);
+        if (!readableEntries.containsKey(key)) {
+            return false;
+        }
+
+        recordRead(key);
+        return true;
+    }
+
+    private void recordRead(String key) {
+        pendingReads.offer(key);
+        if (pendingReadCount.incrementAndGet() == READ_BUFFER_DRAIN_THRESHOLD) {
+            executorService.submit(cleanupCallable);
+        }
+    }
+
+    /**
+     * Applies buffered reads to the LRU order and appends them to the journal.
+     * Caller must hold the cache lock.
+     */
+    private void drainPendingReads() throws IOException {
+        String key;
+        while ((key = pendingReads.poll()) != null) {
+            pendingReadCount.decrementAndGet();
+            if (lruEntries.get(key) != null) {
+                redundantOpCount++;
+                journalWriter.writeRead(key);
+            }
+        }
+    }
+
     /**
      * Returns an editor for the entry named {@code key}, or null if another
      * edit is in progress.
@@ -584,7 +867,7 @@ public final class DiskLruCache implements Closeable {
         entry.currentEditor = editor;
 
         // flush the journal before creating files to prevent file leaks
-        journalWriter.write(DIRTY + ' ' + key + '\n');
+        journalWriter.writeDirty(key);
         journalWriter.flush();
         return editor;
     }
@@ -609,7 +892,7 @@ public final class DiskLruCache implements Closeable {
      * this cache. This may be greater than the max size if a background
      * deletion is pending.
      */
-    public synchronized long size() {
+    public long size() {
         return size;
     }
 
@@ -645,19 +928,23 @@ public final class DiskLruCache implements Closeable {
             }
         }
 
+        drainPendingReads();
+
         redundantOpCount++;
         entry.currentEditor = null;
         if (entry.readable | success) {
             entry.readable = true;
-            journalWriter.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
-            journalWriter.flush();
+            journalWriter.writeClean(entry);
+            commitJournal();
             if (success) {
                 entry.sequenceNumber = nextSequenceNumber++;
             }
+            readableEntries.put(entry.key, entry);
         } else {
             lruEntries.remove(entry.key);
-            journalWriter.write(REMOVE + ' ' + entry.key + '\n');
-            journalWriter.flush();
+            readableEntries.remove(entry.key);
+            journalWriter.writeRemove(entry.key);
+            commitJournal();
         }
 
         if (size > maxSize || journalRebuildRequired()) {
@@ -665,6 +952,22 @@ public final class DiskLruCache implements Closeable {
         }
     }
 
+    /**
+     * Makes the records written by completeEdit() durable. The text journal is
+     * flushed right away, the binary one once per group commit window.
+     * Caller must hold the cache lock.
+     */
+    private void commitJournal() throws IOException {
+        if (!binaryJournal) {
+            journalWriter.flush();
+        } else if (!groupCommitScheduled) {
+            groupCommitScheduled = true;
+            // Delay a little so that CLEAN records committed meanwhile go out in the same flush,
+            // without holding up trims queued on the same thread
+            executorService.schedule(groupCommitCallable, GROUP_COMMIT_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
     /**
      * We only rebuild the journal when it will halve the size of the journal
      * and eliminate at least 2000 ops.
@@ -699,8 +1002,9 @@ public final class DiskLruCache implements Closeable {
         }
 
         redundantOpCount++;
-        journalWriter.append(REMOVE + ' ' + key + '\n');
+        journalWriter.writeRemove(key);
         lruEntries.remove(key);
+        readableEntries.remove(key);
 
         if (journalRebuildRequired()) {
             executorService.submit(cleanupCallable);
@@ -727,6 +1031,7 @@ public final class DiskLruCache implements Closeable {
      */
     public synchronized void flush() throws IOException, ClosedException {
         checkNotClosed();
+        drainPendingReads();
         trimToSize();
         journalWriter.flush();
     }
@@ -750,12 +1055,14 @@ public final class DiskLruCache implements Closeable {
             }
         }
         try {
+            drainPendingReads();
             trimToSize();
         } catch (ClosedException e) {
             e.printStackTrace();
         }
         journalWriter.close();
         journalWriter = null;
+        readableEntries.clear();
     }
 
     private void trimToSize() throws IOException, ClosedException {
@@ -787,6 +1094,137 @@ public final class DiskLruCache implements Closeable {
         return readFully(new InputStreamReader(in, UTF_8));
     }
 
+    private interface JournalWriter extends Closeable {
+        void writeHeader() throws IOException;
+
+        void writeClean(Entry entry) throws IOException;
+
+        void writeDirty(String key) throws IOException;
+
+        void writeRemove(String key) throws IOException;
+
+        void writeRead(String key) throws IOException;
+
+        void flush() throws IOException;
+    }
+
+    private final class TextJournalWriter implements JournalWriter {
+        private final Writer writer;
+
+        private TextJournalWriter(File file, boolean append) throws IOException {
+            this.writer = new BufferedWriter(new FileWriter(file, append), IO_BUFFER_SIZE);
+        }
+
+        @Override
+        public void writeHeader() throws IOException {
+            writer.write(MAGIC);
+            writer.write("\n");
+            writer.write(VERSION_1);
+            writer.write("\n");
+            writer.write(Integer.toString(appVersion));
+            writer.write("\n");
+            writer.write(Integer.toString(valueCount));
+            writer.write("\n");
+            writer.write("\n");
+        }
+
+        @Override
+        public void writeClean(Entry entry) throws IOException {
+            writer.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+        }
+
+        @Override
+        public void writeDirty(String key) throws IOException {
+            writer.write(DIRTY + ' ' + key + '\n');
+        }
+
+        @Override
+        public void writeRemove(String key) throws IOException {
+            writer.write(REMOVE + ' ' + key + '\n');
+        }
+
+        @Override
+        public void writeRead(String key) throws IOException {
+            writer.write(READ + ' ' + key + '\n');
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    private final class BinaryJournalWriter implements JournalWriter {
+        private final DataOutputStream out;
+
+        private BinaryJournalWriter(File file, boolean append) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append), IO_BUFFER_SIZE));
+        }
+
+        @Override
+        public void writeHeader() throws IOException {
+            out.writeInt(BINARY_MAGIC);
+            out.writeInt(BINARY_VERSION_1);
+            out.writeInt(appVersion);
+            out.writeInt(valueCount);
+        }
+
+        @Override
+        public void writeClean(Entry entry) throws IOException {
+            writeOpAndKey(OP_CLEAN, entry.key);
+            for (long length : entry.lengths) {
+                out.writeLong(length);
+            }
+        }
+
+        @Override
+        public void writeDirty(String key) throws IOException {
+            writeOpAndKey(OP_DIRTY, key);
+        }
+
+        @Override
+        public void writeRemove(String key) throws IOException {
+            writeOpAndKey(OP_REMOVE, key);
+        }
+
+        @Override
+        public void writeRead(String key) throws IOException {
+            writeOpAndKey(OP_READ, key);
+        }
+
+        private void writeOpAndKey(byte op, String key) throws IOException {
+            if (isHashedKey(key)) {
+                out.writeByte(op | FLAG_HASHED_KEY);
+                for (int i = 0; i < HASHED_KEY_LENGTH; i += 2) {
+                    out.writeByte((Character.digit(key.charAt(i), 16) << 4) | Character.digit(key.charAt(i + 1), 16));
+                }
+            } else {
+                byte[] keyBytes = key.getBytes(UTF_8);
+                if (keyBytes.length > 0xffff) {
+                    throw new IOException("key too long: " + keyBytes.length);
+                }
+                out.writeByte(op);
+                out.writeShort(keyBytes.length);
+                out.write(keyBytes);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
     /**
      * A snapshot of the values for an entry.
      */
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.util;
+
+/**
+ * 访问频率估算器（Count-Min Sketch），每个key对应4个4位的计数器，取最小值作为估算的访问次数，最多记到15。
+ * 记录的次数达到{@link #getSampleSize()}后所有计数器减半，这样很久以前的热点会慢慢冷却下来。
+ * <br>increment()不加锁，多个线程同时调用时偶尔会丢掉一次计数，对于估算来说可以接受，换来的是读线程永远不会被阻塞
+ */
+public class FrequencySketch {
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int[] SEEDS = {0x97cb3127, 0xc3a5c85c, 0x5bd1e995, 0x2f3b7a6d};
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private volatile int additions;
+
+    /**
+     * @param expectedEntries 预计会有多少个不同的key
+     */
+    public FrequencySketch(int expectedEntries) {
+        int tableSize = Integer.highestOneBit(Math.max(16, expectedEntries) - 1) << 1;
+        this.table = new long[tableSize];
+        this.tableMask = tableSize - 1;
+        this.sampleSize = tableSize * 10;
+    }
+
+    /**
+     * 记录一次访问
+     */
+    public void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int counterHash = counterHash(hash, i);
+            int index = counterHash & tableMask;
+            int offset = ((counterHash >>> 28) & 0xF) << 2;
+            long value = table[index];
+            if (((value >>> offset) & 0xFL) != 0xFL) {
+                table[index] = value + (1L << offset);
+                added = true;
+            }
+        }
+
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * 估算访问次数，0~15
+     */
+    public int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = 15;
+        for (int i = 0; i < 4; i++) {
+            int counterHash = counterHash(hash, i);
+            int index = counterHash & tableMask;
+            int offset = ((counterHash >>> 28) & 0xF) << 2;
+            int count = (int) ((table[index] >>> offset) & 0xFL);
+            if (count < frequency) {
+                frequency = count;
+            }
+        }
+        return frequency;
+    }
+
+    /**
+     * 获取计数器减半的周期
+     */
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * 所有计数器减半
+     */
+    public void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions = additions / 2;
+    }
+
+    /**
+     * 清空所有计数器
+     */
+    public void clear() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = 0;
+        }
+        additions = 0;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+
+    private static int counterHash(int hash, int i) {
+        int counterHash = (hash + SEEDS[i]) * SEEDS[i];
+        return counterHash + (counterHash >>> 16);
+    }
+}
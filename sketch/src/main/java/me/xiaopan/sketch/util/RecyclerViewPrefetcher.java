@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.util;
+
+import android.content.Context;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.Sketch;
+import me.xiaopan.sketch.SketchView;
+import me.xiaopan.sketch.request.DisplayCache;
+import me.xiaopan.sketch.request.DisplayOptions;
+import me.xiaopan.sketch.request.PreloadStage;
+import me.xiaopan.sketch.request.PreloadTask;
+
+/**
+ * RecyclerView预加载，滚动时沿滚动方向预加载接下来的N行图片，等滑到的时候图片已经在内存缓存中了
+ * <br>预加载用的选项取自当前可见的SketchView上一次显示时的选项（包括根据ImageView计算出的maxSize、resize等），
+ * 所以内存缓存的KEY跟显示时一样，一个item中有多个不同尺寸的SketchView时只会按找到的第一个来预加载
+ * <br>只支持LinearLayoutManager和GridLayoutManager，反向滚动时会取消之前的预加载
+ * <br>用法：recyclerView.addOnScrollListener(new RecyclerViewPrefetcher(context, 3, uriProvider))，
+ * sketch默认没有依赖RecyclerView，用到这个类时需要自己依赖recyclerview-v7
+ */
+public class RecyclerViewPrefetcher extends RecyclerView.OnScrollListener {
+    private static final String LOG_NAME = "RecyclerViewPrefetcher";
+
+    private Sketch sketch;
+    private int prefetchRows;
+    private ImageUriProvider uriProvider;
+    private PreloadStage stage = PreloadStage.MEMORY;
+
+    private List<PreloadTask> tasks = new LinkedList<PreloadTask>();
+    private boolean lastForward;
+    private int prefetchedStart = -1;
+    private int prefetchedEnd = -1;
+
+    /**
+     * @param prefetchRows 预加载多少行，GridLayoutManager的话每行是spanCount个
+     * @param uriProvider  根据位置获取图片uri
+     */
+    public RecyclerViewPrefetcher(Context context, int prefetchRows, ImageUriProvider uriProvider) {
+        this.sketch = Sketch.with(context);
+        this.prefetchRows = Math.max(1, prefetchRows);
+        this.uriProvider = uriProvider;
+    }
+
+    /**
+     * 设置预加载到哪一步，默认{@link PreloadStage#MEMORY}
+     */
+    @SuppressWarnings("unused")
+    public RecyclerViewPrefetcher setStage(PreloadStage stage) {
+        if (stage != null) {
+            this.stage = stage;
+        }
+        return this;
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        super.onScrolled(recyclerView, dx, dy);
+
+        // 布局完成时也会回调一次，这时候没有滚动方向
+        if (dx == 0 && dy == 0) {
+            return;
+        }
+
+        RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+        if (!(layoutManager instanceof LinearLayoutManager)) {
+            return;
+        }
+
+        LinearLayoutManager linearLayoutManager = (LinearLayoutManager) layoutManager;
+        boolean forward = linearLayoutManager.getOrientation() == LinearLayoutManager.VERTICAL ? dy > 0 : dx > 0;
+        if (linearLayoutManager.getReverseLayout()) {
+            forward = !forward;
+        }
+
+        int firstPosition = linearLayoutManager.findFirstVisibleItemPosition();
+        int lastPosition = linearLayoutManager.findLastVisibleItemPosition();
+        if (firstPosition == RecyclerView.NO_POSITION || lastPosition == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        int spanCount = layoutManager instanceof GridLayoutManager ? ((GridLayoutManager) layoutManager).getSpanCount() : 1;
+        int count = prefetchRows * spanCount;
+        int start;
+        int end;
+        if (forward) {
+            start = lastPosition + 1;
+            end = Math.min(linearLayoutManager.getItemCount() - 1, lastPosition + count);
+        } else {
+            start = Math.max(0, firstPosition - count);
+            end = firstPosition - 1;
+        }
+
+        // 换方向了，之前预加载的用不上了
+        if (forward != lastForward) {
+            cancel();
+            lastForward = forward;
+        }
+
+        // 只预加载还没预加载过的
+        if (prefetchedStart != -1) {
+            if (forward) {
+                start = Math.max(start, prefetchedEnd + 1);
+            } else {
+                end = Math.min(end, prefetchedStart - 1);
+            }
+        }
+        if (start > end) {
+            return;
+        }
+
+        DisplayOptions options = findDisplayOptions(recyclerView);
+        if (options == null) {
+            return;
+        }
+
+        List<String> uris = new ArrayList<String>(end - start + 1);
+        for (int position = start; position <= end; position++) {
+            String uri = uriProvider.getImageUri(position);
+            if (uri != null) {
+                uris.add(uri);
+            }
+        }
+
+        prefetchedStart = prefetchedStart == -1 ? start : Math.min(prefetchedStart, start);
+        prefetchedEnd = prefetchedEnd == -1 ? end : Math.max(prefetchedEnd, end);
+
+        if (uris.isEmpty()) {
+            return;
+        }
+
+        removeFinishedTasks();
+        tasks.add(sketch.preload(uris, options).stage(stage).commit());
+
+        if (SLogType.REQUEST.isEnabled()) {
+            SLog.fd(SLogType.REQUEST, LOG_NAME, "prefetch. %s. positions=%d-%d, count=%d",
+                    forward ? "forward" : "backward", start, end, uris.size());
+        }
+    }
+
+    /**
+     * 取消所有还没完成的预加载，例如刷新了数据或者页面不可见了
+     */
+    public void cancel() {
+        for (PreloadTask task : tasks) {
+            task.cancel();
+        }
+        tasks.clear();
+        prefetchedStart = -1;
+        prefetchedEnd = -1;
+    }
+
+    private void removeFinishedTasks() {
+        Iterator<PreloadTask> iterator = tasks.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isFinished()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 取可见item中第一个显示过图片的SketchView的显示选项
+     */
+    private static DisplayOptions findDisplayOptions(RecyclerView recyclerView) {
+        for (int i = 0, size = recyclerView.getChildCount(); i < size; i++) {
+            SketchView sketchView = findSketchView(recyclerView.getChildAt(i));
+            DisplayCache displayCache = sketchView != null ? sketchView.getDisplayCache() : null;
+            if (displayCache != null && displayCache.uri != null) {
+                DisplayOptions options = new DisplayOptions(displayCache.options);
+
+                // 暂停加载时设置的请求Level不能带过去，否则预加载的时候也什么都不做
+                if (options.getRequestLevelFrom() != null) {
+                    options.setRequestLevel(null);
+                }
+                return options;
+            }
+        }
+        return null;
+    }
+
+    private static SketchView findSketchView(View view) {
+        if (view instanceof SketchView) {
+            return (SketchView) view;
+        }
+
+        if (view instanceof ViewGroup) {
+            ViewGroup viewGroup = (ViewGroup) view;
+            for (int i = 0, size = viewGroup.getChildCount(); i < size; i++) {
+                SketchView sketchView = findSketchView(viewGroup.getChildAt(i));
+                if (sketchView != null) {
+                    return sketchView;
+                }
+            }
+        }
+        return null;
+    }
+
+    public interface ImageUriProvider {
+        /**
+         * 获取指定位置的图片uri
+         *
+         * @return null：这个位置没有图片
+         */
+        String getImageUri(int position);
+    }
+}
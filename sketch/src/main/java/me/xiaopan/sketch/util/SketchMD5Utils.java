@@ -39,6 +39,11 @@ public class SketchMD5Utils {
         }
     }, 3);
 
+    /**
+     * 缓存最近算过的字符串的MD5，列表来回滑动时同一个uri会反复检查磁盘缓存，没必要每次都重新计算
+     */
+    private static final LruCache<String, String> md5Cache = new LruCache<String, String>(128);
+
     public static String md5(File file) throws IOException {
         MessageDigest digest = digestObjectPool.get();
 
@@ -83,6 +88,18 @@ public class SketchMD5Utils {
         return result;
     }
 
+    /**
+     * 计算字符串的MD5，最近算过的直接从缓存里拿
+     */
+    public static String md5WithCache(String txt) {
+        String result = md5Cache.get(txt);
+        if (result == null) {
+            result = md5(txt);
+            md5Cache.put(txt, result);
+        }
+        return result;
+    }
+
     private static String bufferToHex(byte bytes[], int m, int n) {
         StringBuffer stringbuffer = new StringBuffer(2 * n);
         int k = m + n;
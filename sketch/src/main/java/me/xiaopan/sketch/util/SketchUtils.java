@@ -36,6 +36,8 @@ import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.LayerDrawable;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.opengl.EGL14;
 import android.opengl.GLES10;
 import android.opengl.GLES20;
@@ -328,6 +330,15 @@ public class SketchUtils {
         return context.getPackageName().equalsIgnoreCase(getProcessName(context));
     }
 
+    /**
+     * 当前是不是连着WiFi
+     */
+    public static boolean isWifiConnected(Context context) {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager != null ? connectivityManager.getActiveNetworkInfo() : null;
+        return networkInfo != null && networkInfo.isConnected() && networkInfo.getType() == ConnectivityManager.TYPE_WIFI;
+    }
+
     /**
      * 获取短的当前进程的名字，例如进程名字为com.my.app:push，那么短名字就是:push
      */
@@ -564,7 +575,8 @@ public class SketchUtils {
                     // 目录已存在的话就尝试清除旧的缓存文件
                     if (cleanOldCacheFiles) {
                         File journalFile = new File(diskCacheDir, DiskLruCache.JOURNAL_FILE);
-                        if (!journalFile.exists()) {
+                        File binaryJournalFile = new File(diskCacheDir, DiskLruCache.BINARY_JOURNAL_FILE);
+                        if (!journalFile.exists() && !binaryJournalFile.exists()) {
                             cleanDir(diskCacheDir);
                         }
                     }
@@ -1018,16 +1030,10 @@ public class SketchUtils {
      * @param options   选项
      */
     public static String makeRequestKey(String imageUri, UriScheme uriScheme, DownloadOptions options) {
-        StringBuilder builder = new StringBuilder();
-        if (uriScheme == UriScheme.BASE64) {
-            builder.append(SketchMD5Utils.md5(imageUri));
-        } else {
-            builder.append(imageUri);
-        }
-        if (options != null) {
-            options.makeKey(builder);
-        }
-        return builder.toString();
+        String uriKey = uriScheme == UriScheme.BASE64 ? SketchMD5Utils.md5(imageUri) : imageUri;
+        // 选项KEY是缓存过的，这里只需要拼接一次
+        String optionsKey = options != null ? options.makeKey() : null;
+        return optionsKey != null && optionsKey.length() > 0 ? uriKey.concat(optionsKey) : uriKey;
     }
 
     /**
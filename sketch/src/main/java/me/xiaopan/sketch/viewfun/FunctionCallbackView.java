@@ -23,14 +23,17 @@ import android.net.Uri;
 import android.support.annotation.Nullable;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
+import android.view.View;
 import android.widget.ImageView;
 
 import me.xiaopan.sketch.SketchView;
+import me.xiaopan.sketch.drawable.SketchGifDrawable;
 import me.xiaopan.sketch.request.DisplayCache;
 import me.xiaopan.sketch.request.DisplayListener;
 import me.xiaopan.sketch.request.DisplayOptions;
 import me.xiaopan.sketch.request.DownloadProgressListener;
 import me.xiaopan.sketch.request.UriScheme;
+import me.xiaopan.sketch.util.SketchUtils;
 
 /**
  * 这个类负责给function回调各种状态
@@ -48,6 +51,8 @@ public abstract class FunctionCallbackView extends ImageView implements SketchVi
     private DisplayListenerProxy displayListenerProxy;
     private OnClickListenerProxy clickListenerProxy;
 
+    private SketchGifDrawable pausedGifDrawable;
+
     public FunctionCallbackView(Context context) {
         super(context);
         init();
@@ -117,11 +122,49 @@ public abstract class FunctionCallbackView extends ImageView implements SketchVi
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
+        pausedGifDrawable = null;
         if (getFunctions().onDetachedFromWindow()) {
             super.setImageDrawable(null);
         }
     }
 
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        followVisibility();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        followVisibility();
+    }
+
+    /**
+     * 自己、父View或者Window不可见时暂停正在播放的GIF，省得在看不见的时候还一直占着渲染线程，再次可见时恢复播放。
+     * <br>只恢复被这里暂停的GIF，点击播放等功能停止的GIF不受影响
+     */
+    private void followVisibility() {
+        Drawable drawable = SketchUtils.getLastDrawable(getDrawable());
+        if (!(drawable instanceof SketchGifDrawable)) {
+            pausedGifDrawable = null;
+            return;
+        }
+
+        SketchGifDrawable gifDrawable = (SketchGifDrawable) drawable;
+        if (!isShown() || getWindowVisibility() != VISIBLE) {
+            if (gifDrawable.isRunning()) {
+                gifDrawable.stop();
+                pausedGifDrawable = gifDrawable;
+            }
+        } else if (pausedGifDrawable == gifDrawable) {
+            pausedGifDrawable = null;
+            if (!gifDrawable.isRecycled()) {
+                gifDrawable.start();
+            }
+        }
+    }
+
     @Override
     public void setScaleType(ScaleType scaleType) {
         if (getFunctions().zoomFunction != null && scaleType != ScaleType.MATRIX) {
@@ -18,6 +18,7 @@ package me.xiaopan.sketch.viewfun.large;
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapRegionDecoder;
@@ -27,8 +28,11 @@ import android.os.Build;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.LinkedList;
 
 import me.xiaopan.sketch.Configuration;
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
 import me.xiaopan.sketch.Sketch;
 import me.xiaopan.sketch.decode.DataSource;
 import me.xiaopan.sketch.decode.DataSourceFactory;
@@ -42,33 +46,58 @@ import me.xiaopan.sketch.util.SketchUtils;
 
 /**
  * 图片碎片解码器，支持纠正图片方向
+ * <br>BitmapRegionDecoder内部是串行的，同一个实例同时只能解码一个碎片，因此这里维护了一组同一图片的BitmapRegionDecoder，
+ * 需要的时候才创建，数量不超过{@link #getMaxDecoderCount()}，多个解码线程可以同时解码不同的碎片
  */
 public class ImageRegionDecoder {
+    private static final String NAME = "ImageRegionDecoder";
+    private static final int MAX_DECODER_COUNT = 4;
+    private static final long MEMORY_PER_DECODER = 64 * 1024 * 1024;
 
     private final int exifOrientation;
     private Point imageSize;
     private String imageUri;
     private ImageType imageType;
-    private BitmapRegionDecoder regionDecoder;
+    private DataSource dataSource;
+    private AssetFileDescriptor fileDescriptor;
 
-    ImageRegionDecoder(String imageUri, Point imageSize, ImageType imageType,
-                       int exifOrientation, BitmapRegionDecoder regionDecoder) {
+    private final Object decoderLock = new Object();
+    private LinkedList<BitmapRegionDecoder> idleDecoders = new LinkedList<BitmapRegionDecoder>();
+    private int decoderCount;
+    private int maxDecoderCount;
+    private boolean recycled;
+
+    ImageRegionDecoder(String imageUri, Point imageSize, ImageType imageType, int exifOrientation,
+                       BitmapRegionDecoder regionDecoder, DataSource dataSource, AssetFileDescriptor fileDescriptor) {
         this.imageUri = imageUri;
         this.imageSize = imageSize;
         this.imageType = imageType;
         this.exifOrientation = exifOrientation;
-        this.regionDecoder = regionDecoder;
+        this.dataSource = dataSource;
+        this.fileDescriptor = fileDescriptor;
+        this.maxDecoderCount = getMaxDecoderCount();
+
+        this.idleDecoders.add(regionDecoder);
+        this.decoderCount = 1;
+    }
+
+    /**
+     * 获取同一张图片最多可以同时存在几个BitmapRegionDecoder，也就是最多能同时解码几个碎片。
+     * 不超过CPU核数，每个BitmapRegionDecoder都要占用一些内存，因此可用内存少的时候也要少一些
+     */
+    public static int getMaxDecoderCount() {
+        int memoryLimit = (int) (Runtime.getRuntime().maxMemory() / MEMORY_PER_DECODER);
+        int count = Math.min(Runtime.getRuntime().availableProcessors(), Math.min(MAX_DECODER_COUNT, memoryLimit));
+        return Math.max(1, count);
     }
 
     public static ImageRegionDecoder build(Context context, final String imageUri,
                                            final boolean correctImageOrientationDisabled) throws DecodeException, IOException {
-        UriInfo uriInfo = UriInfo.make(imageUri);
-        if (uriInfo == null || uriInfo.getScheme() == null) {
-            throw new IllegalArgumentException("Unknown scheme uri: " + imageUri);
-        }
-
-        DataSource dataSource = DataSourceFactory.makeDataSource(context, uriInfo, null);
+        return build(context, imageUri, makeDataSource(context, imageUri), correctImageOrientationDisabled);
+    }
 
+    static ImageRegionDecoder build(Context context, String imageUri, DataSource dataSource,
+                                    boolean correctImageOrientationDisabled) throws IOException {
         // 读取图片尺寸和类型
         BitmapFactory.Options boundOptions = new BitmapFactory.Options();
         boundOptions.inJustDecodeBounds = true;
@@ -84,18 +113,53 @@ public class ImageRegionDecoder {
         }
         orientationCorrector.rotateSize(imageSize, exifOrientation);
 
-        InputStream inputStream = null;
+        ImageType imageType = ImageType.valueOfMimeType(boundOptions.outMimeType);
+
+        return build(imageUri, dataSource, imageSize, imageType, exifOrientation);
+    }
+
+    /**
+     * 使用已知的图片尺寸、类型和方向创建，省去读取图片头信息的过程
+     *
+     * @param imageSize 已经按照图片方向转换过的尺寸
+     */
+    public static ImageRegionDecoder build(String imageUri, DataSource dataSource, Point imageSize,
+                                           ImageType imageType, int exifOrientation) throws IOException {
+        // 能拿到文件描述符的话直接从文件描述符创建，部分系统版本不会复制文件描述符，所以要一直开着直到recycle
         BitmapRegionDecoder regionDecoder;
+        AssetFileDescriptor fileDescriptor = ImageDecodeUtils.openDecodableFileDescriptor(dataSource);
         try {
-            inputStream = dataSource.getInputStream();
-            regionDecoder = BitmapRegionDecoder.newInstance(inputStream, false);
-        } finally {
-            SketchUtils.close(inputStream);
+            regionDecoder = newRegionDecoder(dataSource, fileDescriptor);
+        } catch (IOException e) {
+            SketchUtils.close(fileDescriptor);
+            throw e;
         }
 
-        ImageType imageType = ImageType.valueOfMimeType(boundOptions.outMimeType);
+        return new ImageRegionDecoder(imageUri, new Point(imageSize), imageType, exifOrientation,
+                regionDecoder, dataSource, fileDescriptor);
+    }
 
-        return new ImageRegionDecoder(imageUri, imageSize, imageType, exifOrientation, regionDecoder);
+    static DataSource makeDataSource(Context context, String imageUri) throws DecodeException {
+        UriInfo uriInfo = UriInfo.make(imageUri);
+        if (uriInfo == null || uriInfo.getScheme() == null) {
+            throw new IllegalArgumentException("Unknown scheme uri: " + imageUri);
+        }
+
+        return DataSourceFactory.makeDataSource(context, uriInfo, null);
+    }
+
+    private static BitmapRegionDecoder newRegionDecoder(DataSource dataSource, AssetFileDescriptor fileDescriptor) throws IOException {
+        if (fileDescriptor != null) {
+            return BitmapRegionDecoder.newInstance(fileDescriptor.getFileDescriptor(), false);
+        } else {
+            InputStream inputStream = null;
+            try {
+                inputStream = dataSource.getInputStream();
+                return BitmapRegionDecoder.newInstance(inputStream, false);
+            } finally {
+                SketchUtils.close(inputStream);
+            }
+        }
     }
 
     @SuppressWarnings("unused")
@@ -116,25 +180,122 @@ public class ImageRegionDecoder {
         return exifOrientation;
     }
 
-    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
     public boolean isReady() {
-        return regionDecoder != null && !regionDecoder.isRecycled();
+        synchronized (decoderLock) {
+            return !recycled && decoderCount > 0;
+        }
     }
 
+    /**
+     * 回收，正在解码的BitmapRegionDecoder会在解码结束后回收
+     */
     @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
     public void recycle() {
-        if (isReady()) {
-            regionDecoder.recycle();
-            regionDecoder = null;
+        synchronized (decoderLock) {
+            if (recycled) {
+                return;
+            }
+            recycled = true;
+
+            for (BitmapRegionDecoder regionDecoder : idleDecoders) {
+                regionDecoder.recycle();
+            }
+            decoderCount -= idleDecoders.size();
+            idleDecoders.clear();
+            closeFileDescriptorIfUnused();
+
+            decoderLock.notifyAll();
         }
     }
 
     @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
     public Bitmap decodeRegion(Rect srcRect, BitmapFactory.Options options) {
-        if (isReady()) {
-            return regionDecoder.decodeRegion(srcRect, options);
-        } else {
+        BitmapRegionDecoder regionDecoder = obtainDecoder();
+        if (regionDecoder == null) {
             return null;
         }
+
+        try {
+            return regionDecoder.decodeRegion(srcRect, options);
+        } finally {
+            releaseDecoder(regionDecoder);
+        }
+    }
+
+    /**
+     * 获取一个空闲的BitmapRegionDecoder，没有空闲的并且数量还没到上限就新建一个，否则等待其它线程解码结束
+     *
+     * @return null：已回收
+     */
+    private BitmapRegionDecoder obtainDecoder() {
+        synchronized (decoderLock) {
+            while (true) {
+                if (recycled) {
+                    return null;
+                }
+                if (!idleDecoders.isEmpty()) {
+                    return idleDecoders.poll();
+                }
+                if (decoderCount < maxDecoderCount) {
+                    decoderCount++;
+                    break;
+                }
+                try {
+                    decoderLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+
+        // 创建比较耗时，放在锁外面
+        BitmapRegionDecoder regionDecoder = null;
+        try {
+            regionDecoder = newRegionDecoder(dataSource, fileDescriptor);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+        }
+
+        synchronized (decoderLock) {
+            if (regionDecoder == null) {
+                // 创建失败了以后就不再多创建了，其它线程等着用现有的
+                decoderCount--;
+                maxDecoderCount = Math.max(1, decoderCount);
+                closeFileDescriptorIfUnused();
+                SLog.fw(SLogType.LARGE, NAME, "create region decoder failed. maxDecoderCount=%d. %s", maxDecoderCount, imageUri);
+                decoderLock.notifyAll();
+            } else if (SLogType.LARGE.isEnabled()) {
+                SLog.fd(SLogType.LARGE, NAME, "create region decoder. decoderCount=%d. %s", decoderCount, imageUri);
+            }
+        }
+
+        return regionDecoder != null ? regionDecoder : obtainDecoder();
+    }
+
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    private void releaseDecoder(BitmapRegionDecoder regionDecoder) {
+        synchronized (decoderLock) {
+            if (recycled) {
+                regionDecoder.recycle();
+                decoderCount--;
+                closeFileDescriptorIfUnused();
+            } else {
+                idleDecoders.add(regionDecoder);
+            }
+            decoderLock.notify();
+        }
+    }
+
+    /**
+     * 所有BitmapRegionDecoder都回收了才能关闭文件描述符
+     */
+    private void closeFileDescriptorIfUnused() {
+        if (recycled && decoderCount == 0 && fileDescriptor != null) {
+            SketchUtils.close(fileDescriptor);
+            fileDescriptor = null;
+        }
     }
 }
@@ -68,7 +68,7 @@ public class LargeImageViewer {
 
         this.tileExecutor = new TileExecutor(new ExecutorCallback());
         this.tileManager = new TileManager(context, this);
-        this.tileDecoder = new TileDecoder(this);
+        this.tileDecoder = new TileDecoder(context, this);
 
         this.matrix = new Matrix();
         this.drawTilePaint = new Paint();
@@ -109,6 +109,7 @@ public class LargeImageViewer {
      */
     public void setImage(String imageUri, boolean correctImageOrientationDisabled) {
         clean("setImage");
+        tileManager.cleanCache("setImage");
 
         this.imageUri = imageUri;
         this.running = !TextUtils.isEmpty(imageUri);
@@ -374,6 +375,30 @@ public class LargeImageViewer {
         return bytes;
     }
 
+    /**
+     * 获取缓存中的碎片占用的内存，单位字节，这些碎片已经滑出解码区域了，滑回来或缩放回来的时候可以直接用
+     */
+    @SuppressWarnings("unused")
+    public long getTileCacheAllocationByteCount() {
+        return tileManager.getCacheAllocationByteCount();
+    }
+
+    /**
+     * 获取当前图片已经解码完成的碎片数量
+     */
+    @SuppressWarnings("unused")
+    public int getTileDecodeCount() {
+        return tileManager.getDecodeCount();
+    }
+
+    /**
+     * 获取当前图片平均每个碎片的解码耗时，单位毫秒，多个碎片是同时解码的，所以这是单个碎片的延迟而不是总耗时
+     */
+    @SuppressWarnings("unused")
+    public int getAverageTileDecodeUseTime() {
+        return tileManager.getAverageDecodeUseTime();
+    }
+
     public interface Callback {
         void invalidate();
 
@@ -395,6 +420,7 @@ public class LargeImageViewer {
         public void onInitCompleted(String imageUri, ImageRegionDecoder decoder) {
             if (!running) {
                 SLog.fw(SLogType.LARGE, NAME, "stop running. initCompleted. %s", imageUri);
+                Sketch.with(context).getConfiguration().getRegionDecoderCache().release(decoder);
                 return;
             }
 
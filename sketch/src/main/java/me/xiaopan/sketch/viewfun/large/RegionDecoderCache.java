@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.viewfun.large;
+
+import android.content.Context;
+import android.graphics.Point;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import me.xiaopan.sketch.Identifier;
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.decode.ByteArrayDataSource;
+import me.xiaopan.sketch.decode.CacheFileDataSource;
+import me.xiaopan.sketch.decode.DataSource;
+import me.xiaopan.sketch.decode.DecodeException;
+import me.xiaopan.sketch.decode.FileDataSource;
+import me.xiaopan.sketch.decode.ImageType;
+import me.xiaopan.sketch.util.LruCache;
+
+/**
+ * 碎片解码器缓存，缓存已经初始化好的{@link ImageRegionDecoder}以及图片的尺寸、类型和方向。
+ * <br>创建ImageRegionDecoder需要读取图片头信息、EXIF并创建BitmapRegionDecoder，比较耗时，
+ * 在ViewPager中来回滑动查看大图或者同一张图片解码多个缩略图时就可以直接用缓存里的。
+ * <br>用{@link #obtain}获取的解码器用完后一定要通过{@link #release(ImageRegionDecoder)}归还，不能直接recycle，
+ * 没人用的解码器最多保留{@link #IDLE_TIMEOUT}毫秒，并且最多只保留{@link #MAX_IDLE_COUNT}个，
+ * 图片信息也一样，没有解码器在用之后超过{@link #IDLE_TIMEOUT}毫秒就过期，因为图片文件可能已经被替换了。
+ * <br>解码器用的数据源都是缓存自己创建的，文件的话还会记下长度和修改时间，对不上就重新创建
+ */
+public class RegionDecoderCache implements Identifier {
+    private static final String LOG_NAME = "RegionDecoderCache";
+
+    public static final long IDLE_TIMEOUT = 30 * 1000;
+    public static final int MAX_IDLE_COUNT = 3;
+    private static final int MAX_IMAGE_INFO_COUNT = 20;
+
+    private final Map<String, Entry> entryMap = new LinkedHashMap<String, Entry>();
+    private final LruCache<String, ImageInfo> imageInfoCache = new LruCache<String, ImageInfo>(MAX_IMAGE_INFO_COUNT);
+
+    private static String makeKey(String imageUri, boolean correctImageOrientationDisabled) {
+        return correctImageOrientationDisabled ? imageUri + "_correctImageOrientationDisabled" : imageUri;
+    }
+
+    /**
+     * 获取指定图片的解码器，缓存中没有就创建一个，缓存中只有图片信息的话就省去读取图片头信息的过程
+     */
+    public ImageRegionDecoder obtain(Context context, String imageUri, boolean correctImageOrientationDisabled)
+            throws DecodeException, IOException {
+        String key = makeKey(imageUri, correctImageOrientationDisabled);
+        DataSource dataSource = ImageRegionDecoder.makeDataSource(context, imageUri);
+        String stamp = makeStamp(dataSource);
+        ImageRegionDecoder decoder = acquire(key, stamp);
+        if (decoder != null) {
+            return decoder;
+        }
+
+        ImageInfo imageInfo = imageInfoCache.get(key);
+        if (imageInfo != null && imageInfo.stamp.equals(stamp)) {
+            decoder = ImageRegionDecoder.build(imageUri, dataSource, imageInfo.imageSize, imageInfo.imageType, imageInfo.exifOrientation);
+        } else {
+            decoder = ImageRegionDecoder.build(context, imageUri, dataSource, correctImageOrientationDisabled);
+        }
+        return put(key, stamp, dataSource, decoder);
+    }
+
+    /**
+     * 获取指定图片的解码器，缓存中没有就用已知的图片信息创建一个。
+     * 数据源由缓存自己创建，请求的数据源用完就关了，不能给缓存里的解码器用
+     *
+     * @param imageSize 已经按照图片方向转换过的尺寸
+     */
+    public ImageRegionDecoder obtain(Context context, String imageUri, boolean correctImageOrientationDisabled,
+                                     Point imageSize, ImageType imageType, int exifOrientation) throws DecodeException, IOException {
+        String key = makeKey(imageUri, correctImageOrientationDisabled);
+        DataSource dataSource = ImageRegionDecoder.makeDataSource(context, imageUri);
+        String stamp = makeStamp(dataSource);
+        ImageRegionDecoder decoder = acquire(key, stamp);
+        if (decoder != null) {
+            return decoder;
+        }
+
+        return put(key, stamp, dataSource, ImageRegionDecoder.build(imageUri, dataSource, imageSize, imageType, exifOrientation));
+    }
+
+    /**
+     * 文件的长度和修改时间，文件被替换了（例如磁盘缓存重新下载了）就跟缓存的对不上了，不是文件的返回空字符串
+     */
+    private static String makeStamp(DataSource dataSource) {
+        File file = null;
+        if (dataSource instanceof CacheFileDataSource) {
+            file = ((CacheFileDataSource) dataSource).getDiskCacheEntry().getFile();
+        } else if (dataSource instanceof FileDataSource) {
+            file = ((FileDataSource) dataSource).getFile(null, null);
+        }
+        return file != null ? file.length() + "_" + file.lastModified() : "";
+    }
+
+    private synchronized ImageRegionDecoder acquire(String key, String stamp) {
+        trimIdle(SystemClock.uptimeMillis());
+
+        Entry entry = entryMap.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.decoder.isReady() || !entry.stamp.equals(stamp)) {
+            // 正在用的等归还的时候发现不在缓存中了再回收
+            entryMap.remove(key);
+            if (entry.refCount == 0) {
+                entry.decoder.recycle();
+            }
+            return null;
+        }
+
+        entry.refCount++;
+        if (SLogType.LARGE.isEnabled()) {
+            SLog.fd(SLogType.LARGE, LOG_NAME, "hit. refCount=%d. %s", entry.refCount, key);
+        }
+        return entry.decoder;
+    }
+
+    private ImageRegionDecoder put(String key, String stamp, DataSource dataSource, ImageRegionDecoder decoder) {
+        // 数据在内存里的不缓存，否则整张图片的数据要一直留在内存里，用完归还的时候就直接回收了
+        if (dataSource instanceof ByteArrayDataSource) {
+            return decoder;
+        }
+
+        ImageRegionDecoder redundantDecoder = null;
+        synchronized (this) {
+            imageInfoCache.put(key, new ImageInfo(decoder.getImageSize(), decoder.getImageType(),
+                    decoder.getExifOrientation(), stamp, SystemClock.uptimeMillis()));
+
+            // 两个线程同时创建了同一个图片的解码器，用先放进去的那个
+            Entry entry = entryMap.get(key);
+            if (entry != null && entry.decoder.isReady() && entry.stamp.equals(stamp)) {
+                entry.refCount++;
+                redundantDecoder = decoder;
+                decoder = entry.decoder;
+            } else {
+                if (entry != null && entry.refCount == 0) {
+                    entry.decoder.recycle();
+                }
+                entry = new Entry(decoder, stamp);
+                entry.refCount = 1;
+                entryMap.put(key, entry);
+            }
+        }
+
+        if (redundantDecoder != null) {
+            redundantDecoder.recycle();
+        }
+        return decoder;
+    }
+
+    /**
+     * 归还解码器，没人用了以后会在缓存中保留一段时间
+     */
+    public void release(ImageRegionDecoder decoder) {
+        if (decoder == null) {
+            return;
+        }
+
+        boolean cached = false;
+        synchronized (this) {
+            long now = SystemClock.uptimeMillis();
+            for (Map.Entry<String, Entry> mapEntry : entryMap.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                if (entry.decoder == decoder) {
+                    if (entry.refCount > 0 && --entry.refCount == 0) {
+                        entry.idleTime = now;
+
+                        // 图片信息从没人用的时候开始计算过期时间
+                        ImageInfo imageInfo = imageInfoCache.get(mapEntry.getKey());
+                        if (imageInfo != null) {
+                            imageInfo.time = now;
+                        }
+                    }
+                    cached = true;
+                    break;
+                }
+            }
+            trimIdle(now);
+        }
+
+        // 不在缓存中的（例如已经被清理掉了）直接回收
+        if (!cached) {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * 回收过期的以及超出数量的空闲解码器，删除过期的图片信息，一定要在同步块中调用
+     */
+    private void trimIdle(long now) {
+        int idleCount = 0;
+        for (Entry entry : entryMap.values()) {
+            if (entry.refCount == 0) {
+                idleCount++;
+            }
+        }
+
+        // LinkedHashMap按放入的顺序排列，所以先遍历到的是最老的
+        Iterator<Map.Entry<String, Entry>> iterator = entryMap.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> mapEntry = iterator.next();
+            Entry entry = mapEntry.getValue();
+            if (entry.refCount == 0 && (idleCount > MAX_IDLE_COUNT || now - entry.idleTime >= IDLE_TIMEOUT)) {
+                iterator.remove();
+                idleCount--;
+                entry.decoder.recycle();
+                if (SLogType.LARGE.isEnabled()) {
+                    SLog.fd(SLogType.LARGE, LOG_NAME, "recycle idle decoder. %s", mapEntry.getKey());
+                }
+            }
+        }
+
+        // 还有解码器的图片信息不会过期
+        for (Map.Entry<String, ImageInfo> mapEntry : imageInfoCache.snapshot().entrySet()) {
+            if (now - mapEntry.getValue().time >= IDLE_TIMEOUT && !entryMap.containsKey(mapEntry.getKey())) {
+                imageInfoCache.remove(mapEntry.getKey());
+            }
+        }
+    }
+
+    /**
+     * 回收所有空闲的解码器，正在使用的不受影响，图片信息也会保留
+     */
+    public synchronized void clear() {
+        Iterator<Entry> iterator = entryMap.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.refCount == 0) {
+                iterator.remove();
+                entry.decoder.recycle();
+            }
+        }
+    }
+
+    @Override
+    public String getKey() {
+        return String.format("%s(maxIdleCount=%d,idleTimeout=%d)", LOG_NAME, MAX_IDLE_COUNT, IDLE_TIMEOUT);
+    }
+
+    private static class Entry {
+        private ImageRegionDecoder decoder;
+        private String stamp;
+        private int refCount;
+        private long idleTime;
+
+        Entry(ImageRegionDecoder decoder, String stamp) {
+            this.decoder = decoder;
+            this.stamp = stamp;
+        }
+    }
+
+    private static class ImageInfo {
+        private Point imageSize;
+        private ImageType imageType;
+        private int exifOrientation;
+        private String stamp;
+        private long time;
+
+        ImageInfo(Point imageSize, ImageType imageType, int exifOrientation, String stamp, long time) {
+            this.imageSize = new Point(imageSize);
+            this.imageType = imageType;
+            this.exifOrientation = exifOrientation;
+            this.stamp = stamp;
+            this.time = time;
+        }
+    }
+}
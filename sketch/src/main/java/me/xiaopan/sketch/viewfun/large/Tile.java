@@ -30,6 +30,8 @@ public class Tile {
     public Rect drawRect = new Rect();
     public Rect srcRect = new Rect();
     public int inSampleSize;
+    public int row;     // 在碎片金字塔中所在的行和列，inSampleSize就是所在的层
+    public int col;
     public float scale = -1;
 
     public ImageRegionDecoder decoder;
@@ -69,6 +71,8 @@ public class Tile {
         drawRect.setEmpty();
 
         inSampleSize = 0;
+        row = 0;
+        col = 0;
         scale = -1;
         decoder = null;
     }
@@ -91,6 +95,10 @@ public class Tile {
         builder.append(",");
         builder.append("inSampleSize:").append(inSampleSize);
         builder.append(",");
+        builder.append("row:").append(row);
+        builder.append(",");
+        builder.append("col:").append(col);
+        builder.append(",");
         builder.append("scale:").append(scale);
         builder.append(",");
         builder.append("key:").append(keyCounter.getKey());
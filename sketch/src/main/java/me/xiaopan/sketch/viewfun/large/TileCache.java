@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2017 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.viewfun.large;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.text.format.Formatter;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.xiaopan.sketch.Configuration;
+import me.xiaopan.sketch.Identifier;
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.cache.MemoryBudgetController;
+import me.xiaopan.sketch.cache.MemorySizeCalculator;
+import me.xiaopan.sketch.util.LruCache;
+import me.xiaopan.sketch.util.SketchUtils;
+
+/**
+ * 碎片缓存，所有大图共用一个，按Bitmap占用的字节数限制大小，容量由{@link MemorySizeCalculator}计算，
+ * 内存紧张时{@link MemoryBudgetController}会把它跟内存缓存、BitmapPool一起按比例缩小。
+ * <br>离开解码区域的碎片放在这里，滑回来或缩放回来的时候直接拿出来用，不用再解码。
+ * 每个{@link TileManager}用自己的ownerId区分，被挤出去的碎片的Bitmap会还给BitmapPool
+ */
+public class TileCache implements Identifier {
+    private static final String LOG_NAME = "TileCache";
+    private static final AtomicInteger OWNER_ID = new AtomicInteger();
+
+    private Context context;
+    private Configuration configuration;
+    private final int initialMaxSize;
+    private final TileLruCache cache;
+
+    public TileCache(Context context, Configuration configuration, int maxSize) {
+        this.context = context.getApplicationContext();
+        this.configuration = configuration;
+        this.initialMaxSize = Math.max(maxSize, 1);
+        this.cache = new TileLruCache(initialMaxSize);
+    }
+
+    /**
+     * 生成一个新的ownerId，每个TileManager一个
+     */
+    static int newOwnerId() {
+        return OWNER_ID.incrementAndGet();
+    }
+
+    void put(int ownerId, long tileKey, Tile tile) {
+        cache.put(new Key(ownerId, tileKey), tile);
+    }
+
+    /**
+     * 取出碎片，取出的碎片不再归缓存管理
+     */
+    Tile remove(int ownerId, long tileKey) {
+        return cache.remove(new Key(ownerId, tileKey));
+    }
+
+    /**
+     * 删除指定owner的所有碎片，换图片或者回收的时候一定要删除
+     */
+    void removeAll(int ownerId) {
+        for (Key key : cache.snapshot().keySet()) {
+            if (key.ownerId == ownerId) {
+                Tile tile = cache.remove(key);
+                if (tile != null) {
+                    tile.clean(configuration.getBitmapPool());
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取指定owner的碎片占用的内存，单位字节
+     */
+    long getSize(int ownerId) {
+        long size = 0;
+        for (Map.Entry<Key, Tile> entry : cache.snapshot().entrySet()) {
+            if (entry.getKey().ownerId == ownerId) {
+                size += SketchUtils.getByteCount(entry.getValue().bitmap);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 获取已用容量
+     */
+    public long getSize() {
+        return cache.size();
+    }
+
+    /**
+     * 获取最大容量
+     */
+    public long getMaxSize() {
+        return cache.maxSize();
+    }
+
+    /**
+     * 按初始最大容量的倍数调整最大容量，超出新容量的部分会立即被释放
+     *
+     * @param sizeMultiplier 相对于初始最大容量的倍数
+     */
+    public void setSizeMultiplier(float sizeMultiplier) {
+        cache.resize(Math.max(Math.round(initialMaxSize * sizeMultiplier), 1));
+    }
+
+    /**
+     * 根据level修剪内存
+     *
+     * @param level 修剪级别，对应APP的不同状态
+     * @see android.content.ComponentCallbacks2
+     */
+    public void trimMemory(int level) {
+        long oldSize = getSize();
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+
+        long releasedSize = oldSize - getSize();
+        SLog.fw(SLogType.CACHE, LOG_NAME, "trimMemory. level=%s, released: %s",
+                SketchUtils.getTrimLevelName(level), Formatter.formatFileSize(context, releasedSize));
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        SLog.fw(SLogType.CACHE, LOG_NAME, "clear. before size: %s", Formatter.formatFileSize(context, getSize()));
+        cache.evictAll();
+    }
+
+    @Override
+    public String getKey() {
+        return String.format("%s(maxSize=%s)", LOG_NAME, Formatter.formatFileSize(context, getMaxSize()));
+    }
+
+    private static class Key {
+        private final int ownerId;
+        private final long tileKey;
+
+        Key(int ownerId, long tileKey) {
+            this.ownerId = ownerId;
+            this.tileKey = tileKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return ownerId == other.ownerId && tileKey == other.tileKey;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * ownerId + (int) (tileKey ^ (tileKey >>> 32));
+        }
+    }
+
+    private class TileLruCache extends LruCache<Key, Tile> {
+
+        TileLruCache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        public int sizeOf(Key key, Tile tile) {
+            return SketchUtils.getByteCount(tile.bitmap);
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, Key key, Tile oldValue, Tile newValue) {
+            // remove()是拿出去继续用的，不能回收。碎片对象不还给TileManager的对象池，TileManager可能已经不在了
+            if (evicted || (newValue != null && newValue != oldValue)) {
+                oldValue.clean(configuration.getBitmapPool());
+            }
+        }
+    }
+}
@@ -43,12 +43,14 @@ class TileDecodeCallbackHandler extends Handler {
     private static final int WHAT_DECODE_FAILED = 2005;
 
     private BitmapPool bitmapPool;
+    private RegionDecoderCache regionDecoderCache;
     private WeakReference<TileExecutor> executorReference;
 
     public TileDecodeCallbackHandler(Looper looper, TileExecutor executor) {
         super(looper);
         executorReference = new WeakReference<>(executor);
         bitmapPool = Sketch.with(executor.callback.getContext()).getConfiguration().getBitmapPool();
+        regionDecoderCache = Sketch.with(executor.callback.getContext()).getConfiguration().getRegionDecoderCache();
     }
 
     @Override
@@ -137,7 +139,7 @@ class TileDecodeCallbackHandler extends Handler {
             if (SLogType.LARGE.isEnabled()) {
                 SLog.fw(SLogType.LARGE, NAME, "weak reference break. initCompleted. key: %d, imageUri: %s", key, decoder.getImageUri());
             }
-            decoder.recycle();
+            regionDecoderCache.release(decoder);
             return;
         }
 
@@ -146,7 +148,7 @@ class TileDecodeCallbackHandler extends Handler {
             if (SLogType.LARGE.isEnabled()) {
                 SLog.fw(SLogType.LARGE, NAME, "init key expired. initCompleted. key: %d. newKey: %d, imageUri: %s", key, newKey, decoder.getImageUri());
             }
-            decoder.recycle();
+            regionDecoderCache.release(decoder);
             return;
         }
 
@@ -20,9 +20,6 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Point;
 import android.graphics.Rect;
-import android.os.Handler;
-import android.os.Looper;
-import android.os.Message;
 
 import java.lang.ref.WeakReference;
 
@@ -38,21 +35,19 @@ import me.xiaopan.sketch.decode.ImageOrientationCorrector;
 import me.xiaopan.sketch.decode.ImageType;
 
 /**
- * 解码处理器，运行在解码线程中，负责解码
+ * 解码处理器，运行在解码线程池中，负责解码，多个线程会同时调用{@link #decode(int, Tile)}
  */
-class TileDecodeHandler extends Handler {
+class TileDecodeHandler {
     private static final String NAME = "DecodeHandler";
-    private static final int WHAT_DECODE = 1001;
 
-    private boolean disableInBitmap;
+    private volatile boolean disableInBitmap;
 
     private WeakReference<TileExecutor> reference;
     private BitmapPool bitmapPool;
     private ErrorTracker errorTracker;
     private ImageOrientationCorrector orientationCorrector;
 
-    public TileDecodeHandler(Looper looper, TileExecutor executor) {
-        super(looper);
+    public TileDecodeHandler(TileExecutor executor) {
         this.reference = new WeakReference<>(executor);
 
         Configuration configuration = Sketch.with(executor.callback.getContext()).getConfiguration();
@@ -61,29 +56,8 @@ class TileDecodeHandler extends Handler {
         this.orientationCorrector = configuration.getImageOrientationCorrector();
     }
 
-    @Override
-    public void handleMessage(Message msg) {
-        TileExecutor decodeExecutor = reference.get();
-        if (decodeExecutor != null) {
-            decodeExecutor.tileDecodeCallbackHandler.cancelDelayDestroyThread();
-        }
-
-        switch (msg.what) {
-            case WHAT_DECODE:
-                decode(decodeExecutor, msg.arg1, (Tile) msg.obj);
-                break;
-        }
-
-        if (decodeExecutor != null) {
-            decodeExecutor.tileDecodeCallbackHandler.postDelayRecycleDecodeThread();
-        }
-    }
-
-    public void postDecode(int key, Tile tile) {
-        Message message = obtainMessage(TileDecodeHandler.WHAT_DECODE);
-        message.arg1 = key;
-        message.obj = tile;
-        message.sendToTarget();
+    public void decode(int key, Tile tile) {
+        decode(reference.get(), key, tile);
     }
 
     private void decode(TileExecutor executor, int key, Tile tile) {
@@ -185,14 +159,6 @@ class TileDecodeHandler extends Handler {
         executor.tileDecodeCallbackHandler.postDecodeCompleted(key, tile, bitmap, useTime);
     }
 
-    public void clean(String why) {
-        if (SLogType.LARGE.isEnabled()) {
-            SLog.w(SLogType.LARGE, NAME, "clean. %s" + why);
-        }
-
-        removeMessages(WHAT_DECODE);
-    }
-
     public static class DecodeErrorException extends Exception {
         public static final int CAUSE_BITMAP_RECYCLED = 1100;
         public static final int CAUSE_BITMAP_NULL = 1101;
@@ -16,10 +16,12 @@
 
 package me.xiaopan.sketch.viewfun.large;
 
+import android.content.Context;
 import android.text.TextUtils;
 
 import me.xiaopan.sketch.SLog;
 import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.Sketch;
 import me.xiaopan.sketch.util.KeyCounter;
 
 /**
@@ -32,11 +34,13 @@ class TileDecoder {
     private KeyCounter initKeyCounter;
     private ImageRegionDecoder decoder;
     private LargeImageViewer largeImageViewer;
+    private RegionDecoderCache regionDecoderCache;
     private boolean running;
     private boolean initializing;
 
-    public TileDecoder(LargeImageViewer largeImageViewer) {
+    public TileDecoder(Context context, LargeImageViewer largeImageViewer) {
         this.largeImageViewer = largeImageViewer;
+        this.regionDecoderCache = Sketch.with(context).getConfiguration().getRegionDecoderCache();
         this.initKeyCounter = new KeyCounter();
     }
 
@@ -47,7 +51,7 @@ class TileDecoder {
         clean("setImage");
 
         if (decoder != null) {
-            decoder.recycle();
+            regionDecoderCache.release(decoder);
             decoder = null;
         }
 
@@ -61,8 +65,10 @@ class TileDecoder {
 
     /**
      * 解码
+     *
+     * @param priority 优先级，越小越先解码
      */
-    void decodeTile(Tile tile) {
+    void decodeTile(Tile tile, int priority) {
         if (!isReady()) {
             if (SLogType.LARGE.isEnabled()) {
                 SLog.fw(SLogType.LARGE, NAME, "not ready. decodeTile. %s", tile.getInfo());
@@ -71,7 +77,7 @@ class TileDecoder {
         }
 
         tile.decoder = decoder;
-        largeImageViewer.getTileExecutor().submitDecodeTile(tile.getKey(), tile);
+        largeImageViewer.getTileExecutor().submitDecodeTile(tile.getKey(), tile, priority);
     }
 
     void clean(String why) {
@@ -88,7 +94,8 @@ class TileDecoder {
         }
 
         if (decoder != null) {
-            decoder.recycle();
+            regionDecoderCache.release(decoder);
+            decoder = null;
         }
     }
 
@@ -24,6 +24,7 @@ import java.lang.ref.WeakReference;
 
 import me.xiaopan.sketch.SLog;
 import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.Sketch;
 import me.xiaopan.sketch.util.KeyCounter;
 
 /**
@@ -34,10 +35,12 @@ class TileDecoderInitHandler extends Handler {
     private static final int WHAT_INIT = 1002;
 
     private WeakReference<TileExecutor> reference;
+    private RegionDecoderCache regionDecoderCache;
 
     public TileDecoderInitHandler(Looper looper, TileExecutor decodeExecutor) {
         super(looper);
         reference = new WeakReference<>(decodeExecutor);
+        regionDecoderCache = Sketch.with(decodeExecutor.callback.getContext()).getConfiguration().getRegionDecoderCache();
     }
 
     @Override
@@ -86,7 +89,7 @@ class TileDecoderInitHandler extends Handler {
 
         ImageRegionDecoder decoder;
         try {
-            decoder = ImageRegionDecoder.build(decodeExecutor.callback.getContext(), imageUri, correctImageOrientationDisabled);
+            decoder = regionDecoderCache.obtain(decodeExecutor.callback.getContext(), imageUri, correctImageOrientationDisabled);
         } catch (final Exception e) {
             e.printStackTrace();
             decodeExecutor.tileDecodeCallbackHandler.postInitError(e, imageUri, key, keyCounter);
@@ -94,6 +97,7 @@ class TileDecoderInitHandler extends Handler {
         }
 
         if (decoder == null || !decoder.isReady()) {
+            regionDecoderCache.release(decoder);
             decodeExecutor.tileDecodeCallbackHandler.postInitError(new Exception("decoder is null or not ready"), imageUri, key, keyCounter);
             return;
         }
@@ -103,7 +107,7 @@ class TileDecoderInitHandler extends Handler {
             if (SLogType.LARGE.isEnabled()) {
                 SLog.fw(SLogType.LARGE, NAME, "init key expired. after init. key: %d, newKey: %d, imageUri: %s", key, newKey, imageUri);
             }
-            decoder.recycle();
+            regionDecoderCache.release(decoder);
             return;
         }
 
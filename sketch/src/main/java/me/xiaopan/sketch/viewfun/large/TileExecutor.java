@@ -22,7 +22,12 @@ import android.os.Build;
 import android.os.HandlerThread;
 import android.os.Looper;
 
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import me.xiaopan.sketch.SLog;
 import me.xiaopan.sketch.SLogType;
@@ -30,16 +35,22 @@ import me.xiaopan.sketch.util.KeyCounter;
 
 /**
  * 碎片解码执行器，负责初始化解码器以及管理解码线程
+ * <br>初始化在一个HandlerThread中执行，解码在一个线程池中执行，线程数跟{@link ImageRegionDecoder#getMaxDecoderCount()}一样，
+ * 每个线程用一个BitmapRegionDecoder，按离可见区域中心的距离排序，越近的越先解码
  */
 class TileExecutor {
     private static final String NAME = "TileExecutor";
     private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+    private static final AtomicInteger DECODE_THREAD_NUMBER = new AtomicInteger();
 
     private final Object handlerThreadLock = new Object();
+    private final Object decodeExecutorLock = new Object();
+    private final AtomicLong decodeSequence = new AtomicLong();
 
     Callback callback;
 
     private HandlerThread handlerThread;
+    private ThreadPoolExecutor decodeExecutor;
 
     private TileDecoderInitHandler tileDecoderInitHandler;
     TileDecodeCallbackHandler tileDecodeCallbackHandler;
@@ -48,6 +59,7 @@ class TileExecutor {
     public TileExecutor(Callback callback) {
         this.callback = callback;
         this.tileDecodeCallbackHandler = new TileDecodeCallbackHandler(Looper.getMainLooper(), this);
+        this.tileDecodeHandler = new TileDecodeHandler(this);
     }
 
     /**
@@ -65,7 +77,6 @@ class TileExecutor {
 
                     SLog.fi(SLogType.LARGE, NAME, "image region decode thread %s started", handlerThread.getName());
 
-                    tileDecodeHandler = new TileDecodeHandler(handlerThread.getLooper(), this);
                     tileDecoderInitHandler = new TileDecoderInitHandler(handlerThread.getLooper(), this);
 
                     tileDecodeCallbackHandler.postDelayRecycleDecodeThread();
@@ -74,6 +85,23 @@ class TileExecutor {
         }
     }
 
+    /**
+     * 安装解码线程池，线程空闲一段时间后会自动停止
+     */
+    private ThreadPoolExecutor installDecodeExecutor() {
+        synchronized (decodeExecutorLock) {
+            if (decodeExecutor == null) {
+                int poolSize = ImageRegionDecoder.getMaxDecoderCount();
+                decodeExecutor = new ThreadPoolExecutor(poolSize, poolSize, 30, TimeUnit.SECONDS,
+                        new PriorityBlockingQueue<Runnable>(), new DecodeThreadFactory());
+                decodeExecutor.allowCoreThreadTimeOut(true);
+
+                SLog.fi(SLogType.LARGE, NAME, "image region decode executor started. poolSize=%d", poolSize);
+            }
+            return decodeExecutor;
+        }
+    }
+
     /**
      * 初始化解码器，初始化结果会通过Callback的onInitCompleted()或onInitError(Exception)方法回调
      */
@@ -84,18 +112,24 @@ class TileExecutor {
 
     /**
      * 提交一个解码请求
+     *
+     * @param priority 优先级，越小越先解码，一般是碎片中心到可见区域中心的距离
      */
-    public void submitDecodeTile(int key, Tile tile) {
-        installHandlerThread();
-        tileDecodeHandler.postDecode(key, tile);
+    public void submitDecodeTile(int key, Tile tile, int priority) {
+        installDecodeExecutor().execute(new DecodeTask(tileDecodeHandler, key, tile, priority, decodeSequence.getAndIncrement()));
     }
 
     /**
-     * 取消所有的解码任务
+     * 取消所有还没开始的解码任务
      */
     public void cleanDecode(String why) {
-        if (tileDecodeHandler != null) {
-            tileDecodeHandler.clean(why);
+        synchronized (decodeExecutorLock) {
+            if (decodeExecutor != null) {
+                if (SLogType.LARGE.isEnabled()) {
+                    SLog.fw(SLogType.LARGE, NAME, "clean decode. %s. tasks=%d", why, decodeExecutor.getQueue().size());
+                }
+                decodeExecutor.getQueue().clear();
+            }
         }
     }
 
@@ -107,8 +141,11 @@ class TileExecutor {
             tileDecoderInitHandler.clean(why);
         }
 
-        if (tileDecodeHandler != null) {
-            tileDecodeHandler.clean(why);
+        synchronized (decodeExecutorLock) {
+            if (decodeExecutor != null) {
+                decodeExecutor.shutdownNow();
+                decodeExecutor = null;
+            }
         }
 
         recycleDecodeThread();
@@ -119,10 +156,6 @@ class TileExecutor {
             tileDecoderInitHandler.clean("recycleDecodeThread");
         }
 
-        if (tileDecodeHandler != null) {
-            tileDecodeHandler.clean("recycleDecodeThread");
-        }
-
         synchronized (handlerThreadLock) {
             if (handlerThread != null) {
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
@@ -138,6 +171,48 @@ class TileExecutor {
         }
     }
 
+    /**
+     * 解码任务，按优先级排序，优先级一样的先提交的先执行
+     */
+    private static class DecodeTask implements Runnable, Comparable<DecodeTask> {
+        private TileDecodeHandler decodeHandler;
+        private int key;
+        private Tile tile;
+        private int priority;
+        private long sequence;
+
+        DecodeTask(TileDecodeHandler decodeHandler, int key, Tile tile, int priority, long sequence) {
+            this.decodeHandler = decodeHandler;
+            this.key = key;
+            this.tile = tile;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            decodeHandler.decode(key, tile);
+        }
+
+        @Override
+        public int compareTo(DecodeTask another) {
+            if (priority != another.priority) {
+                return priority < another.priority ? -1 : 1;
+            }
+            return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+        }
+    }
+
+    private static class DecodeThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "TileDecodeThread" + DECODE_THREAD_NUMBER.incrementAndGet());
+            // 解码线程比UI线程低一些，避免抢占绘制
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+
     public interface Callback {
         Context getContext();
 
@@ -21,32 +21,31 @@ import android.graphics.Bitmap;
 import android.graphics.Point;
 import android.graphics.Rect;
 
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
-import me.xiaopan.sketch.Configuration;
-import me.xiaopan.sketch.ErrorTracker;
 import me.xiaopan.sketch.SLog;
 import me.xiaopan.sketch.SLogType;
 import me.xiaopan.sketch.Sketch;
 import me.xiaopan.sketch.cache.BitmapPool;
 import me.xiaopan.sketch.decode.ImageSizeCalculator;
 import me.xiaopan.sketch.util.ObjectPool;
-import me.xiaopan.sketch.util.SketchUtils;
 
 /**
  * 碎片管理器
+ * <br>碎片是按原图坐标固定划分的金字塔，每个inSampleSize是一层，每层按固定的碎片尺寸（解码后的像素）划分成行和列，
+ * 因此同一个位置不管怎么滑动、缩放，算出来的碎片都是一样的，可以用(层, 行, 列)作为KEY。
+ * 离开解码区域的碎片不会立即回收，而是放进所有大图共用的{@link TileCache}中，滑回来或缩放回来的时候直接拿出来用，不用再解码
  */
-// TODO: 2016/12/17 优化碎片计算规则，尽量保证每块碎片的尺寸都是一样的，这样就能充分利用inBitmap功能减少内存分配提高流畅度
 class TileManager {
     private static final String NAME = "TileManager";
     int tiles = 3;  // 碎片基数，例如碎片基数是3时，就将绘制区域分割成一个(3+1)x(3+1)=16个方块
     Rect visibleRect = new Rect();  // 可见区域，当前用户真正能看见的区域
     Rect drawRect = new Rect(); // 绘制区域，可见区域加大一圈就是绘制区域，为的是提前将四周加载出来，用户缓慢滑动时可直接看到
-    Rect decodeRect = new Rect();   // 解码区域，真正需要解码的区域，是以绘制区域为基础，滑动时哪边不够了就在扩展哪边，解码区域一定比绘制区域大
+    Rect decodeRect = new Rect();   // 解码区域，绘制区域覆盖到的所有碎片拼起来的区域，一定比绘制区域大
     Rect drawSrcRect = new Rect();
     Rect decodeSrcRect = new Rect();
     List<Tile> tileList = new LinkedList<Tile>();
@@ -54,6 +53,13 @@ class TileManager {
     private Context context;
     private BitmapPool bitmapPool;
     private LargeImageViewer largeImageViewer;
+    private int tileSize;   // 碎片解码后的边长，所有层都一样，这样碎片的尺寸基本一致，能充分利用inBitmap功能
+    private int decodeInSampleSize;
+    private Map<Long, Tile> tileMap = new HashMap<Long, Tile>();    // 当前解码区域中的碎片，按(层, 行, 列)索引
+    private TileCache tileCache;
+    private int tileCacheOwnerId = TileCache.newOwnerId();
+    private int decodeCount;
+    private long decodeUseTime;
     private ObjectPool<Tile> tilePool = new ObjectPool<Tile>(new ObjectPool.ObjectFactory<Tile>() {
         @Override
         public Tile newObject() {
@@ -72,6 +78,14 @@ class TileManager {
         this.context = context;
         this.bitmapPool = Sketch.with(context).getConfiguration().getBitmapPool();
         this.largeImageViewer = largeImageViewer;
+        this.tileCache = Sketch.with(context).getConfiguration().getTileCache();
+    }
+
+    /**
+     * 生成碎片的KEY，层就是inSampleSize的指数
+     */
+    private static long makeTileKey(int inSampleSize, int row, int col) {
+        return ((long) Integer.numberOfTrailingZeros(inSampleSize) << 48) | ((long) row << 24) | col;
     }
 
     void update(Rect newVisibleRect, Point previewDrawableSize, Point imageViewSize, Point imageSize, boolean zooming) {
@@ -114,70 +128,70 @@ class TileManager {
 
         if (newDrawRect.isEmpty()) {
             SLog.fe(SLogType.LARGE, NAME, "newDrawRect is empty. %s", newDrawRect.toShortString());
+            newDrawRect.setEmpty();
+            rectPool.put(newDrawRect);
             return;
         }
 
-        // 计算碎片的尺寸
-        final int finalTiles = tiles + 1;
-        final int tileWidth = newDrawRect.width() / finalTiles;
-        final int tileHeight = newDrawRect.height() / finalTiles;
-
-        if (tileWidth <= 0 || tileHeight <= 0) {
-            SLog.fe(SLogType.LARGE, NAME, "tileWidth or tileHeight exception. %dx%d", tileWidth, tileHeight);
+        // 碎片尺寸跟着View的尺寸走，View尺寸变了之前缓存的碎片就对不上了
+        int newTileSize = Math.max(viewWidth, viewHeight) / (tiles + 1);
+        if (newTileSize <= 0) {
+            SLog.fe(SLogType.LARGE, NAME, "tileSize exception. %d", newTileSize);
+            newDrawRect.setEmpty();
+            rectPool.put(newDrawRect);
             return;
         }
-
-        // 根据碎片尺寸修剪drawRect，使其正好能整除碎片
-        if (newDrawRect.right < previewImageWidth) {
-            newDrawRect.right = newDrawRect.left + (finalTiles * tileWidth);
-        } else if (newDrawRect.left > 0) {
-            newDrawRect.left = newDrawRect.right - (finalTiles * tileWidth);
-        }
-        if (newDrawRect.bottom < previewImageHeight) {
-            newDrawRect.bottom = newDrawRect.top + (finalTiles * tileHeight);
-        } else if (newDrawRect.top > 0) {
-            newDrawRect.top = newDrawRect.bottom - (finalTiles * tileHeight);
+        if (newTileSize != tileSize) {
+            if (tileSize != 0) {
+                SLog.fw(SLogType.LARGE, NAME, "tile size changed. %d -> %d", tileSize, newTileSize);
+            }
+            tileSize = newTileSize;
+            releaseTiles();
+            tileCache.removeAll(tileCacheOwnerId);
+            decodeSrcRect.setEmpty();
         }
 
         Rect newDrawSrcRect = rectPool.get();
         calculateSrcRect(newDrawSrcRect, newDrawRect, imageWidth, imageHeight, originWidthScale, originHeightScale);
         int inSampleSize = calculateInSampleSize(newDrawSrcRect.width(), newDrawSrcRect.height(), viewWidth, viewHeight);
 
+        // 算出绘制区域覆盖了当前层的哪些行和列
+        final int tileSrcSize = tileSize * inSampleSize;
+        final int startCol = newDrawSrcRect.left / tileSrcSize;
+        final int startRow = newDrawSrcRect.top / tileSrcSize;
+        final int endCol = (Math.max(newDrawSrcRect.right, newDrawSrcRect.left + 1) - 1) / tileSrcSize;
+        final int endRow = (Math.max(newDrawSrcRect.bottom, newDrawSrcRect.top + 1) - 1) / tileSrcSize;
+
+        Rect newDecodeSrcRect = rectPool.get();
+        newDecodeSrcRect.set(startCol * tileSrcSize, startRow * tileSrcSize,
+                Math.min(imageWidth, (endCol + 1) * tileSrcSize), Math.min(imageHeight, (endRow + 1) * tileSrcSize));
+
+        Rect newDecodeRect = rectPool.get();
+        calculateDrawRect(newDecodeRect, newDecodeSrcRect, previewImageWidth, previewImageHeight, originWidthScale, originHeightScale);
+
         SLog.fi(SLogType.LARGE, NAME, "update start. newVisibleRect=%s, newDrawRect=%s, oldDecodeRect=%s, inSampleSize=%d, scale=%s, lastScale=%s, tiles=%d",
                 newVisibleRect.toShortString(), newDrawRect.toShortString(), decodeRect.toShortString(),
                 inSampleSize, largeImageViewer.getZoomScale(), largeImageViewer.getLastZoomScale(), tileList.size());
 
-        // 根据上一次绘制区域的和新绘制区域的差异计算出最终的绘制区域
-        Rect newDecodeRect = rectPool.get();
-        calculateTilesDecodeRect(newDecodeRect, newDrawRect, drawWidthAdd, drawHeightAdd,
-                tileWidth, tileHeight, previewImageWidth, previewImageHeight);
+        if (!newDecodeSrcRect.isEmpty()) {
+            // 如果层和解码区域跟上一次都一样就不继续了
+            if (inSampleSize != decodeInSampleSize || !newDecodeSrcRect.equals(decodeSrcRect)) {
 
-        Rect newDecodeSrcRect = rectPool.get();
-        calculateSrcRect(newDecodeSrcRect, newDecodeRect, imageWidth, imageHeight,
-                originWidthScale, originHeightScale);
-
-        if (!newDecodeRect.isEmpty()) {
-            // 如果最终绘制区域跟上一次没有变化就不继续了
-            if (!newDecodeRect.equals(decodeRect)) {
-
-                // 回收那些已经超出绘制区域的碎片
-                recycleTiles(tileList, newDecodeRect);
-
-                // 找出所有的空白区域，然后一个一个加载
-                List<Rect> emptyRectList = findEmptyRect(newDecodeRect, tileList);
-                if (emptyRectList != null && emptyRectList.size() > 0) {
-                    loadTiles(emptyRectList, tileWidth, tileHeight, imageWidth, imageHeight,
-                            originWidthScale, originHeightScale, inSampleSize, newDecodeRect);
-                } else {
-                    SLog.d(SLogType.LARGE, NAME, "not found empty rect");
-                }
+                // 不在新解码区域中的碎片放进缓存
+                releaseTiles(inSampleSize, startRow, startCol, endRow, endCol);
+
+                // 补齐新解码区域中缺失的碎片，优先从缓存中取
+                loadTiles(inSampleSize, startRow, startCol, endRow, endCol, tileSrcSize, imageWidth, imageHeight,
+                        previewImageWidth, previewImageHeight, originWidthScale, originHeightScale);
+
+                decodeInSampleSize = inSampleSize;
 
                 if (onTileChangedListener != null) {
                     onTileChangedListener.onTileChanged(largeImageViewer);
                 }
 
-                SLog.fe(SLogType.LARGE, NAME, "update finished, newDecodeRect=%s, tiles=%d",
-                        newDecodeRect.toShortString(), tileList.size());
+                SLog.fe(SLogType.LARGE, NAME, "update finished, newDecodeRect=%s, tiles=%d, cacheBytes=%d",
+                        newDecodeRect.toShortString(), tileList.size(), tileCache.getSize());
             } else {
                 SLog.e(SLogType.LARGE, NAME, "update finished draw rect no change");
             }
@@ -213,6 +227,17 @@ class TileManager {
         srcRect.bottom = Math.min(imageHeight, Math.round(drawRect.bottom * originHeightScale));
     }
 
+    /**
+     * 计算完整图片中的区域在预览图中对应的绘制区域，是calculateSrcRect()的反向计算
+     */
+    private void calculateDrawRect(Rect drawRect, Rect srcRect, int previewImageWidth, int previewImageHeight,
+                                   float originWidthScale, float originHeightScale) {
+        drawRect.left = Math.max(0, Math.round(srcRect.left / originWidthScale));
+        drawRect.top = Math.max(0, Math.round(srcRect.top / originHeightScale));
+        drawRect.right = Math.min(previewImageWidth, Math.round(srcRect.right / originWidthScale));
+        drawRect.bottom = Math.min(previewImageHeight, Math.round(srcRect.bottom / originHeightScale));
+    }
+
     /**
      * 计算解码时的缩放比例
      */
@@ -228,402 +253,108 @@ class TileManager {
     }
 
     /**
-     * 在上一个绘制区域的基础上计算出根据新的绘制区域，计算出最终的绘制区域
+     * 把不在指定层或指定行列范围内的碎片移出解码区域，已经解码好的放进缓存，还在解码的直接取消
      */
-    private void calculateTilesDecodeRect(Rect newDecodeRect, Rect newDrawRect,
-                                          int drawWidthAdd, int drawHeightAdd,
-                                          int drawTileWidth, int drawTileHeight,
-                                          int maxDrawWidth, int maxDrawHeight) {
-        // 缩放比例已改变或者这是第一次就直接用新的绘制区域
-        if (largeImageViewer.getZoomScale() != largeImageViewer.getLastZoomScale() || decodeRect.isEmpty()) {
-            newDecodeRect.set(newDrawRect);
-            return;
-        }
-
-        // 以上一次的绘制区域为基础
-        newDecodeRect.set(decodeRect);
-
-        int leftAndRightEdge = Math.round(drawWidthAdd * 0.8f);
-        int topAndBottomEdge = Math.round(drawHeightAdd * 0.8f);
-        int leftSpace = Math.abs(newDrawRect.left - newDecodeRect.left);
-        int topSpace = Math.abs(newDrawRect.top - newDecodeRect.top);
-        int rightSpace = Math.abs(newDrawRect.right - newDecodeRect.right);
-        int bottomSpace = Math.abs(newDrawRect.bottom - newDecodeRect.bottom);
-
-        // 左边需要加一列
-        if (newDrawRect.left < newDecodeRect.left) {
-            if (newDrawRect.left == 0) {
-                // 如果已经到边了，管它还差多少，直接顶到边
-                newDecodeRect.left = 0;
-                if (SLogType.LARGE.isEnabled()) {
-                    SLog.fd(SLogType.LARGE, NAME, "decode rect left to 0, newDecodeRect=%s", newDecodeRect.toShortString());
-                }
-            } else if (leftSpace > leftAndRightEdge || newDecodeRect.left - drawTileWidth <= 0) {
-                // 如果间距比较大或者再加一个碎片的宽度就到边了就扩展
-                // 由于间距可能会大于一个碎片的宽度，因此要循环不停的加
-                while (newDecodeRect.left > newDrawRect.left) {
-                    newDecodeRect.left = Math.max(0, newDecodeRect.left - drawTileWidth);
-                    if (SLogType.LARGE.isEnabled()) {
-                        SLog.fd(SLogType.LARGE, NAME, "decode rect left expand %d, newDecodeRect=%s",
-                                drawTileWidth, newDecodeRect.toShortString());
-                    }
-                }
-            }
-        }
-
-        // 顶部需要加一行
-        if (newDrawRect.top < newDecodeRect.top) {
-            if (newDrawRect.top == 0) {
-                // 如果已经到边了，管它还差多少，直接顶到边
-                newDecodeRect.top = 0;
-                if (SLogType.LARGE.isEnabled()) {
-                    SLog.fd(SLogType.LARGE, NAME, "decode rect top to 0, newDecodeRect=%s", newDecodeRect.toShortString());
-                }
-            } else if (topSpace > topAndBottomEdge || newDecodeRect.top - drawTileHeight <= 0) {
-                // 如果间距比较大或者再加一个碎片的高度就到边了就扩展
-                // 由于间距可能会大于一个碎片的高度，因此要循环不停的加
-                while (newDecodeRect.top > newDrawRect.top) {
-                    newDecodeRect.top = Math.max(0, newDecodeRect.top - drawTileHeight);
-                    if (SLogType.LARGE.isEnabled()) {
-                        SLog.fd(SLogType.LARGE, NAME, "decode rect top expand %d, newDecodeRect=%s",
-                                drawTileHeight, newDecodeRect.toShortString());
-                    }
-                }
-            }
-        }
-
-
-        // 右边需要加一列
-        if (newDrawRect.right > newDecodeRect.right) {
-            if (newDrawRect.right == maxDrawWidth) {
-                // 如果已经到边了，管它还差多少，直接顶到边
-                newDecodeRect.right = maxDrawWidth;
-                if (SLogType.LARGE.isEnabled()) {
-                    SLog.fd(SLogType.LARGE, NAME, "decode rect right to %d, newDecodeRect=%s",
-                            maxDrawWidth, newDecodeRect.toShortString());
-                }
-            } else if (rightSpace > leftAndRightEdge || newDecodeRect.right + drawTileWidth >= maxDrawWidth) {
-                // 如果间距比较大或者再加一个碎片的宽度就到边了就扩展
-                // 由于间距可能会大于一个碎片的宽度，因此要循环不停的加
-                while (newDecodeRect.right < newDrawRect.right) {
-                    newDecodeRect.right = Math.min(maxDrawWidth, newDecodeRect.right + drawTileWidth);
-                    if (SLogType.LARGE.isEnabled()) {
-                        SLog.fd(SLogType.LARGE, NAME, "decode rect right expand %d, newDecodeRect=%s",
-                                drawTileWidth, newDecodeRect.toShortString());
-                    }
-                }
-            }
-        }
-
-        // 底部需要加一行
-        if (newDrawRect.bottom > newDecodeRect.bottom) {
-            if (newDrawRect.bottom > maxDrawHeight) {
-                // 如果已经到边了，管它还差多少，直接顶到边
-                newDecodeRect.bottom = maxDrawHeight;
-                if (SLogType.LARGE.isEnabled()) {
-                    SLog.fd(SLogType.LARGE, NAME, "decode rect bottom to %d, newDecodeRect=%s",
-                            maxDrawHeight, newDecodeRect.toShortString());
-                }
-            } else if (bottomSpace > topAndBottomEdge || newDecodeRect.bottom + drawTileHeight >= maxDrawHeight) {
-                // 如果间距比较大或者再加一个碎片的高度就到边了就扩展
-                // 由于间距可能会大于一个碎片的高度，因此要循环不停的加
-                while (newDecodeRect.bottom < newDrawRect.bottom) {
-                    newDecodeRect.bottom = Math.min(maxDrawHeight, newDecodeRect.bottom + drawTileHeight);
-                    if (SLogType.LARGE.isEnabled()) {
-                        SLog.fd(SLogType.LARGE, NAME, "decode rect bottom expand %d, newDecodeRect=%s",
-                                drawTileHeight, newDecodeRect.toShortString());
-                    }
-                }
-            }
-        }
+    private void releaseTiles(int inSampleSize, int startRow, int startCol, int endRow, int endCol) {
+        Tile tile;
+        Iterator<Tile> tileIterator = tileList.iterator();
+        while (tileIterator.hasNext()) {
+            tile = tileIterator.next();
 
-        // 前面把四周给加大了一圈，这里要把多余的剪掉
-        while (newDecodeRect.left + drawTileWidth < newDrawRect.left ||
-                newDecodeRect.top + drawTileHeight < newDrawRect.top ||
-                newDecodeRect.right - drawTileWidth > newDrawRect.right ||
-                newDecodeRect.bottom - drawTileHeight > newDrawRect.bottom) {
-            if (newDecodeRect.left + drawTileWidth < newDrawRect.left) {
-                newDecodeRect.left += drawTileWidth;
-                if (SLogType.LARGE.isEnabled()) {
-                    SLog.fd(SLogType.LARGE, NAME, "decode rect left reduced %d, newDecodeRect=%s",
-                            drawTileWidth, newDecodeRect.toShortString());
-                }
-            }
-            if (newDecodeRect.top + drawTileHeight < newDrawRect.top) {
-                newDecodeRect.top += drawTileHeight;
-                if (SLogType.LARGE.isEnabled()) {
-                    SLog.fd(SLogType.LARGE, NAME, "decode rect top reduced %d, newDecodeRect=%s",
-                            drawTileHeight, newDecodeRect.toShortString());
-                }
-            }
-            if (newDecodeRect.right - drawTileWidth > newDrawRect.right) {
-                newDecodeRect.right -= drawTileWidth;
-                if (SLogType.LARGE.isEnabled()) {
-                    SLog.fd(SLogType.LARGE, NAME, "decode rect right reduced %d, newDecodeRect=%s",
-                            drawTileWidth, newDecodeRect.toShortString());
-                }
-            }
-            if (newDecodeRect.bottom - drawTileHeight > newDrawRect.bottom) {
-                newDecodeRect.bottom -= drawTileHeight;
-                if (SLogType.LARGE.isEnabled()) {
-                    SLog.fd(SLogType.LARGE, NAME, "decode rect bottom reduced %d, newDecodeRect=%s",
-                            drawTileHeight, newDecodeRect.toShortString());
-                }
+            if (tile.inSampleSize != inSampleSize
+                    || tile.row < startRow || tile.row > endRow || tile.col < startCol || tile.col > endCol) {
+                tileIterator.remove();
+                tileMap.remove(makeTileKey(tile.inSampleSize, tile.row, tile.col));
+                releaseTile(tile);
             }
         }
     }
 
     /**
-     * 去重
+     * 把所有碎片都移出解码区域
      */
-    private boolean canLoad(int left, int top, int right, int bottom) {
-        for (Tile drawTile : tileList) {
-            if (drawTile.drawRect.left == left &&
-                    drawTile.drawRect.top == top &&
-                    drawTile.drawRect.right == right &&
-                    drawTile.drawRect.bottom == bottom) {
-                return false;
-            }
+    private void releaseTiles() {
+        for (Tile tile : tileList) {
+            releaseTile(tile);
         }
-
-        return true;
+        tileList.clear();
+        tileMap.clear();
     }
 
-    /**
-     * 假如有一个矩形，并且已知这个矩形中的N个碎片，那么要找出所有的空白碎片（不可用的碎片会从已知列表中删除）
-     *
-     * @param rect     那个矩形
-     * @param tileList 已知碎片
-     * @return 所有空白的碎片
-     */
-    private List<Rect> findEmptyRect(Rect rect, List<Tile> tileList) {
-        if (rect.isEmpty()) {
-            return null;
-        }
-
-        List<Rect> emptyRectList = null;
-        if (tileList == null || tileList.size() == 0) {
-            Rect fullRect = rectPool.get();
-            fullRect.set(rect);
-
-            emptyRectList = new LinkedList<Rect>();
-            emptyRectList.add(fullRect);
-            return emptyRectList;
-        }
-
-        // 按离左上角的距离排序
-        Comparator<Tile> tileComparator = new Comparator<Tile>() {
-            @Override
-            public int compare(Tile o1, Tile o2) {
-                // 同一行比较left，不同行比较top
-                if ((o1.drawRect.top <= o2.drawRect.top && o1.drawRect.bottom >= o2.drawRect.bottom)
-                        || (o1.drawRect.top >= o2.drawRect.top && o1.drawRect.bottom <= o2.drawRect.bottom)) {
-                    return o1.drawRect.left - o2.drawRect.left;
-                } else {
-                    return o1.drawRect.top - o2.drawRect.top;
-                }
+    private void releaseTile(Tile tile) {
+        if (!tile.isEmpty()) {
+            if (SLogType.LARGE.isEnabled()) {
+                SLog.fd(SLogType.LARGE, NAME, "cache tile. tile=%s", tile.getInfo());
             }
-        };
-        try {
-            Collections.sort(tileList, tileComparator);
-        } catch (IllegalArgumentException e) {
-            e.printStackTrace();
-
-            /**
-             * Java7的排序算法在检测到A>B, B>C, 但是A<=C的时候就会抛出异常，这里的处理办法是暂时改用旧版的排序算法再次排序
-             */
-
-            Configuration configuration = Sketch.with(context).getConfiguration();
-            ErrorTracker errorTracker = configuration.getErrorTracker();
-            errorTracker.onTileSortError(e, tileList, false);
-
-            System.setProperty("java.util.Arrays.useLegacyMergeSort", "true");
-            try {
-                Collections.sort(tileList, tileComparator);
-            } catch (IllegalArgumentException e2) {
-                e2.printStackTrace();
-
-                errorTracker.onTileSortError(e, tileList, true);
+            tileCache.put(tileCacheOwnerId, makeTileKey(tile.inSampleSize, tile.row, tile.col), tile);
+        } else {
+            // 解码完成或失败的时候会发现key已经失效，然后通过decodeError()回收
+            if (SLogType.LARGE.isEnabled()) {
+                SLog.fw(SLogType.LARGE, NAME, "recycle loading tile and refresh key. tile=%s", tile.getInfo());
             }
-            System.setProperty("java.util.Arrays.useLegacyMergeSort", "false");
+            tile.refreshKey();
         }
+    }
 
-        int left = rect.left, top = rect.top, right = 0, bottom = -1;
-        Tile lastRect = null;
-        Tile childRect;
-        Iterator<Tile> rectIterator = tileList.iterator();
-        while (rectIterator.hasNext()) {
-            childRect = rectIterator.next();
-
-            boolean newLine = lastRect == null || (childRect.drawRect.top >= bottom);
-            if (newLine) {
-                // 首先要处理上一行的最后一个
-                if (lastRect != null) {
-                    if (lastRect.drawRect.right < rect.right) {
-                        Rect rightEmptyRect = rectPool.get();
-                        rightEmptyRect.set(lastRect.drawRect.right, top, rect.right, bottom);
-                        if (emptyRectList == null) {
-                            emptyRectList = new LinkedList<Rect>();
-                        }
-                        emptyRectList.add(rightEmptyRect);
-                    }
+    private void loadTiles(int inSampleSize, int startRow, int startCol, int endRow, int endCol, int tileSrcSize,
+                           int imageWidth, int imageHeight, int previewImageWidth, int previewImageHeight,
+                           float originWidthScale, float originHeightScale) {
+        for (int row = startRow; row <= endRow; row++) {
+            for (int col = startCol; col <= endCol; col++) {
+                long tileKey = makeTileKey(inSampleSize, row, col);
+                if (tileMap.containsKey(tileKey)) {
+                    continue;
                 }
 
-                // 然后要更新top和bottom
-                top = bottom != -1 ? bottom : top;
-                bottom = childRect.drawRect.bottom;
+                Tile tile = tileCache.remove(tileCacheOwnerId, tileKey);
+                if (tile != null) {
+                    // 预览图可能变了，所以绘制区域要重新算
+                    calculateDrawRect(tile.drawRect, tile.srcRect, previewImageWidth, previewImageHeight, originWidthScale, originHeightScale);
+                    tile.scale = largeImageViewer.getZoomScale();
 
-                // 左边有空隙
-                if (childRect.drawRect.left > left) {
-                    Rect leftEmptyRect = rectPool.get();
-                    leftEmptyRect.set(left, childRect.drawRect.top, childRect.drawRect.left, childRect.drawRect.bottom);
-                    if (emptyRectList == null) {
-                        emptyRectList = new LinkedList<Rect>();
+                    tileList.add(tile);
+                    tileMap.put(tileKey, tile);
+                    if (SLogType.LARGE.isEnabled()) {
+                        SLog.fd(SLogType.LARGE, NAME, "hit tile cache. tile=%s", tile.getInfo());
                     }
-                    emptyRectList.add(leftEmptyRect);
+                    continue;
                 }
 
-                // 顶部有空隙
-                if (childRect.drawRect.top > top) {
-                    Rect topEmptyRect = rectPool.get();
-                    topEmptyRect.set(left, top, childRect.drawRect.right, childRect.drawRect.top);
-                    if (emptyRectList == null) {
-                        emptyRectList = new LinkedList<Rect>();
-                    }
-                    emptyRectList.add(topEmptyRect);
+                tile = tilePool.get();
+                tile.row = row;
+                tile.col = col;
+                tile.inSampleSize = inSampleSize;
+                tile.scale = largeImageViewer.getZoomScale();
+                tile.srcRect.set(col * tileSrcSize, row * tileSrcSize,
+                        Math.min(imageWidth, (col + 1) * tileSrcSize), Math.min(imageHeight, (row + 1) * tileSrcSize));
+                calculateDrawRect(tile.drawRect, tile.srcRect, previewImageWidth, previewImageHeight, originWidthScale, originHeightScale);
+
+                if (tile.isDecodeParamEmpty()) {
+                    // 预览图太小的时候碎片可能会被算成空的，这种碎片没法绘制也就不用解码了
+                    tile.clean(bitmapPool);
+                    tilePool.put(tile);
+                    continue;
                 }
 
-                right = childRect.drawRect.right;
-                lastRect = childRect;
-            } else {
-                boolean available = childRect.drawRect.bottom == lastRect.drawRect.bottom;
-                if (available) {
-                    // 左边有空隙
-                    if (childRect.drawRect.left > right) {
-                        Rect leftEmptyRect = rectPool.get();
-                        leftEmptyRect.set(right, top, childRect.drawRect.left, bottom);
-                        if (emptyRectList == null) {
-                            emptyRectList = new LinkedList<Rect>();
-                        }
-                        emptyRectList.add(leftEmptyRect);
-                    }
-
-                    // 顶部有空隙
-                    if (childRect.drawRect.top > top) {
-                        Rect topEmptyRect = rectPool.get();
-                        topEmptyRect.set(childRect.drawRect.left, top, childRect.drawRect.right, childRect.drawRect.top);
-                        if (emptyRectList == null) {
-                            emptyRectList = new LinkedList<Rect>();
-                        }
-                        emptyRectList.add(topEmptyRect);
-                    }
-
-                    right = childRect.drawRect.right;
-                    lastRect = childRect;
-                } else {
-                    rectIterator.remove();
+                tileList.add(tile);
+                tileMap.put(tileKey, tile);
+                if (SLogType.LARGE.isEnabled()) {
+                    SLog.fd(SLogType.LARGE, NAME, "submit and refresh key. tile=%s", tile.getInfo());
                 }
-            }
-        }
-
-        // 最后的结尾处理
-        if (right < rect.right) {
-            Rect rightEmptyRect = rectPool.get();
-            rightEmptyRect.set(right, top, rect.right, bottom);
-            if (emptyRectList == null) {
-                emptyRectList = new LinkedList<Rect>();
-            }
-            emptyRectList.add(rightEmptyRect);
-        }
 
-        if (bottom < rect.bottom) {
-            Rect bottomEmptyRect = rectPool.get();
-            bottomEmptyRect.set(rect.left, bottom, rect.right, rect.bottom);
-            if (emptyRectList == null) {
-                emptyRectList = new LinkedList<Rect>();
+                tile.refreshKey();
+                largeImageViewer.getTileDecoder().decodeTile(tile, calculateDecodePriority(tile.drawRect));
             }
-            emptyRectList.add(bottomEmptyRect);
         }
-
-        return emptyRectList;
     }
 
     /**
-     * 回收哪些已经超出绘制区域的碎片
+     * 碎片中心到可见区域中心的距离就是解码的优先级，越近越先解码
      */
-    private void recycleTiles(List<Tile> tileList, Rect drawRect) {
-        Tile tile;
-        Iterator<Tile> tileIterator = tileList.iterator();
-        while (tileIterator.hasNext()) {
-            tile = tileIterator.next();
-
-            // 缩放比例已经变了或者这个碎片已经跟当前显示区域毫无交集，那么就可以回收这个碎片了
-            if (largeImageViewer.getZoomScale() != tile.scale || !SketchUtils.isCross(tile.drawRect, drawRect)) {
-                if (!tile.isEmpty()) {
-                    if (SLogType.LARGE.isEnabled()) {
-                        SLog.fd(SLogType.LARGE, NAME, "recycle tile. tile=%s", tile.getInfo());
-                    }
-                    tileIterator.remove();
-                    tile.clean(bitmapPool);
-                    tilePool.put(tile);
-                } else {
-                    if (SLogType.LARGE.isEnabled()) {
-                        SLog.fw(SLogType.LARGE, NAME, "recycle loading tile and refresh key. tile=%s", tile.getInfo());
-                    }
-                    tile.refreshKey();
-                    tileIterator.remove();
-                }
-            }
-        }
-    }
-
-    private void loadTiles(List<Rect> emptyRectList, int tileWidth, int tileHeight,
-                           int imageWidth, int imageHeight, float originWidthScale, float originHeightScale,
-                           int inSampleSize, Rect newDecodeRect) {
-        for (Rect emptyRect : emptyRectList) {
-            if (SLogType.LARGE.isEnabled()) {
-                SLog.fd(SLogType.LARGE, NAME, "load emptyRect=%s", emptyRect.toShortString());
-            }
-
-            int tileLeft = emptyRect.left, tileTop = emptyRect.top, tileRight = 0, tileBottom = 0;
-            while (Math.round(tileRight) < emptyRect.right || Math.round(tileBottom) < emptyRect.bottom) {
-                tileRight = Math.min(tileLeft + tileWidth, emptyRect.right);
-                tileBottom = Math.min(tileTop + tileHeight, emptyRect.bottom);
-
-                if (canLoad(tileLeft, tileTop, tileRight, tileBottom)) {
-                    Tile loadTile = tilePool.get();
-
-                    loadTile.drawRect.set(tileLeft, tileTop, tileRight, tileBottom);
-                    loadTile.inSampleSize = inSampleSize;
-                    loadTile.scale = largeImageViewer.getZoomScale();
-                    calculateSrcRect(loadTile.srcRect, loadTile.drawRect, imageWidth, imageHeight, originWidthScale, originHeightScale);
-
-                    tileList.add(loadTile);
-                    if (SLogType.LARGE.isEnabled()) {
-                        SLog.fd(SLogType.LARGE, NAME, "submit and refresh key. newDecodeRect=%s, tile=%s",
-                                newDecodeRect.toShortString(), loadTile.getInfo());
-                    }
-
-                    loadTile.refreshKey();
-                    largeImageViewer.getTileDecoder().decodeTile(loadTile);
-                } else {
-                    if (SLogType.LARGE.isEnabled()) {
-                        SLog.fw(SLogType.LARGE, NAME, "repeated tile. tileDrawRect=%d, %d, %d, %d",
-                                Math.round(tileLeft), Math.round(tileTop), Math.round(tileRight), Math.round(tileBottom));
-                    }
-                }
-
-                if (Math.round(tileRight) >= emptyRect.right) {
-                    tileLeft = emptyRect.left;
-                    tileTop = tileBottom;
-                } else {
-                    tileLeft = tileRight;
-                }
-            }
-
-            emptyRect.setEmpty();
-            rectPool.put(emptyRect);
-        }
+    private int calculateDecodePriority(Rect tileDrawRect) {
+        long dx = tileDrawRect.centerX() - visibleRect.centerX();
+        long dy = tileDrawRect.centerY() - visibleRect.centerY();
+        return (int) Math.min(Integer.MAX_VALUE, dx * dx + dy * dy);
     }
 
     void decodeCompleted(Tile tile, Bitmap bitmap, int useTime) {
@@ -633,6 +364,9 @@ class TileManager {
                     useTime, tile.getInfo(), bitmap.getWidth(), bitmap.getHeight(), bitmapConfig, tileList.size());
         }
 
+        decodeCount++;
+        decodeUseTime += useTime;
+
         tile.bitmap = bitmap;
         tile.bitmapDrawSrcRect.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
         tile.decoder = null;
@@ -650,32 +384,71 @@ class TileManager {
                     exception.getCauseMessage(), tile.getInfo(), tileList.size());
         }
 
+        // 取消的碎片早就不在解码区域中了，同一个位置可能已经有新的碎片了，不能误删
+        long tileKey = makeTileKey(tile.inSampleSize, tile.row, tile.col);
+        if (tileMap.get(tileKey) == tile) {
+            tileMap.remove(tileKey);
+        }
         tileList.remove(tile);
 
         tile.clean(bitmapPool);
         tilePool.put(tile);
     }
 
+    /**
+     * 清空解码区域，已经解码好的碎片会留在缓存中，例如缩小到完整显示预览图后再放大还可以接着用
+     */
     void clean(String why) {
-        for (Tile tile : tileList) {
-            tile.refreshKey();
-            tile.clean(bitmapPool);
-            tilePool.put(tile);
-            if (SLogType.LARGE.isEnabled()) {
-                SLog.fw(SLogType.LARGE, NAME, "clean tile and refresh key. %s. tile=%s", why, tile.getInfo());
-            }
+        if (SLogType.LARGE.isEnabled()) {
+            SLog.fw(SLogType.LARGE, NAME, "clean. %s. tiles=%d", why, tileList.size());
         }
-        tileList.clear();
+        releaseTiles();
         visibleRect.setEmpty();
         drawRect.setEmpty();
         drawSrcRect.setEmpty();
         decodeRect.setEmpty();
         decodeSrcRect.setEmpty();
+        decodeInSampleSize = 0;
+    }
+
+    /**
+     * 清空自己放在碎片缓存中的碎片，换图片的时候一定要清空
+     */
+    void cleanCache(String why) {
+        if (SLogType.LARGE.isEnabled()) {
+            SLog.fw(SLogType.LARGE, NAME, "clean cache. %s", why);
+        }
+        tileCache.removeAll(tileCacheOwnerId);
+        tileSize = 0;
+        decodeCount = 0;
+        decodeUseTime = 0;
+    }
+
+    /**
+     * 获取缓存中的碎片占用的内存，单位字节
+     */
+    long getCacheAllocationByteCount() {
+        return tileCache.getSize(tileCacheOwnerId);
+    }
+
+    /**
+     * 获取已经解码完成的碎片数量
+     */
+    int getDecodeCount() {
+        return decodeCount;
+    }
+
+    /**
+     * 获取平均每个碎片的解码耗时，单位毫秒
+     */
+    int getAverageDecodeUseTime() {
+        return decodeCount > 0 ? (int) (decodeUseTime / decodeCount) : 0;
     }
 
-    void recycle(@SuppressWarnings("UnusedParameters") String why) {
+    void recycle(String why) {
         clean(why);
+        cleanCache(why);
         tilePool.clear();
         rectPool.clear();
     }
-}
\ No newline at end of file
+}